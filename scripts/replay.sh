@@ -0,0 +1,6 @@
+#!/bin/sh
+# Replays a range of grid history without a display and writes usage statistics, e.g. from cron:
+#   replay.sh -from "2013-05-07" -to "2013-05-08" -out /var/reports/2013-05-07
+SCRIPT=$(readlink -f $0)
+SCRIPTPATH=$(dirname $SCRIPT)
+java -da -Xms512M -Xmx4096M -Djava.awt.headless=true -DAPP_CONFIG=$SCRIPTPATH/app.properties -DGRID_CONFIG=$SCRIPTPATH/grid_config.xml -DAPP_PACKAGE=$SCRIPTPATH -cp $SCRIPTPATH/derecho.jar replay.BatchReplay "$@"
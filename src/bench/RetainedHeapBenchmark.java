@@ -0,0 +1,140 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import snapshot.CompactSnapshot;
+import snapshot.Snapshot;
+import snapshot.SnapshotJob;
+import snapshot.SnapshotNode;
+import snapshot.StringDictionary;
+import timeline.Timeline;
+import util.BufferAllocator;
+import util.BufferAllocator.Storage;
+
+/**
+ * Measures the heap retained by a window of snapshots, kept either whole or in compact form on or off the heap, and
+ * how long a full garbage collection takes with each. Synthetic snapshots share their strings and dates from one
+ * snapshot to the next, so they are copied first to look like freshly parsed ones.
+ *
+ * Usage: RetainedHeapBenchmark [numJobs] [numSnapshots]
+ *
+ * Needs the grid configuration, e.g. -DGRID_CONFIG=conf/grid_config.xml -DAPP_CONFIG=src/derecho.properties
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class RetainedHeapBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(RetainedHeapBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+
+        int numJobs = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int numSnapshots = args.length > 1 ? Integer.parseInt(args[1]) : Timeline.MAX_NUM_SNAPSHOTS;
+
+        long baseline = usedMemory();
+        List<Snapshot> full = new ArrayList<Snapshot>();
+        SyntheticGrid grid = new SyntheticGrid(numJobs, numJobs);
+        for (int i = 0; i < numSnapshots; i++) {
+            full.add(nextSnapshot(grid, i, numJobs));
+        }
+        long fullBytes = usedMemory() - baseline;
+        long fullGcMs = timeFullGc();
+
+        int totalJobs = 0;
+        for (Snapshot snapshot : full) {
+            totalJobs += snapshot.getQueuedJobs().size();
+            for (SnapshotNode node : snapshot.getNodes()) {
+                totalJobs += node.getJobs().size();
+            }
+        }
+        full = null;
+
+        log.info("{} snapshots with {} jobs in total", numSnapshots, totalJobs);
+        log.info("Full snapshots: {} MB on heap ({} bytes/job), full GC {} ms", new Object[] {
+                fullBytes / (1024 * 1024), fullBytes / totalJobs, fullGcMs });
+
+        for (Storage storage : new Storage[] { Storage.HEAP, Storage.DIRECT }) {
+            BufferAllocator allocator = new BufferAllocator(storage, null);
+            StringDictionary dictionary = new StringDictionary();
+            baseline = usedMemory();
+            List<CompactSnapshot> compact = new ArrayList<CompactSnapshot>();
+            long bufferBytes = 0;
+            grid = new SyntheticGrid(numJobs, numJobs);
+            for (int i = 0; i < numSnapshots; i++) {
+                CompactSnapshot snapshot = CompactSnapshot.of(nextSnapshot(grid, i, numJobs), dictionary, allocator);
+                bufferBytes += snapshot.getSize();
+                compact.add(snapshot);
+            }
+            long heapBytes = usedMemory() - baseline;
+            long gcMs = timeFullGc();
+            log.info("{} compact snapshots ({}): {} MB on heap ({} bytes/job), {} MB of buffers, full GC {} ms",
+                    new Object[] { compact.size(), storage, heapBytes / (1024 * 1024), heapBytes / totalJobs,
+                            bufferBytes / (1024 * 1024), gcMs });
+        }
+    }
+
+    private static Snapshot nextSnapshot(SyntheticGrid grid, int i, int numJobs) {
+        long time = 1000000000000L + i * Timeline.SNAPSHOT_DELTA_MS;
+        return asParsed(grid.nextSnapshot(time, i == 0 ? 0 : numJobs / 20));
+    }
+
+    /**
+     * Returns a copy of the snapshot which shares no strings or dates with any other snapshot.
+     */
+    private static Snapshot asParsed(Snapshot snapshot) {
+        Snapshot copy = new Snapshot(new Date(snapshot.getSamplingTime().getTime()));
+        for (SnapshotNode node : snapshot.getNodes()) {
+            SnapshotNode nodeCopy = new SnapshotNode();
+            nodeCopy.setName(copyOf(node.getName()));
+            nodeCopy.setQtype(copyOf(node.getQtype()));
+            copy.addNode(nodeCopy);
+            for (SnapshotJob job : node.getJobs()) {
+                SnapshotJob jobCopy = copyOf(job);
+                jobCopy.setNode(nodeCopy);
+                nodeCopy.addJob(jobCopy);
+            }
+        }
+        for (SnapshotJob job : snapshot.getQueuedJobs()) {
+            copy.addQueuedJob(copyOf(job));
+        }
+        return copy;
+    }
+
+    private static SnapshotJob copyOf(SnapshotJob job) {
+        SnapshotJob copy = new SnapshotJob();
+        copy.setJobId(job.getJobId());
+        copy.setName(copyOf(job.getName()));
+        copy.setState(copyOf(job.getState()));
+        copy.setOwner(copyOf(job.getOwner()));
+        copy.setExclusive(job.isExclusive());
+        copy.setSlots(job.getSlots());
+        copy.setTasks(copyOf(job.getTasks()));
+        copy.setSubTime(job.getSubTime() == null ? null : new Date(job.getSubTime().getTime()));
+        copy.setStartTime(job.getStartTime() == null ? null : new Date(job.getStartTime().getTime()));
+        return copy;
+    }
+
+    private static String copyOf(String s) {
+        return s == null ? null : new String(s);
+    }
+
+    private static long timeFullGc() {
+        long start = System.nanoTime();
+        System.gc();
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
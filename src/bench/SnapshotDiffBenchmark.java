@@ -0,0 +1,50 @@
+package bench;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import snapshot.Snapshot;
+import timeline.SnapshotDiff;
+import timeline.SnapshotDiff.Result;
+import timeline.SnapshotDiff.SortedJobs;
+
+/**
+ * Measures the snapshot diff on synthetic snapshots of increasing size.
+ *
+ * Usage: SnapshotDiffBenchmark [size...]
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class SnapshotDiffBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotDiffBenchmark.class);
+
+    public static void main(String[] args) {
+
+        int[] sizes = { 10000, 100000, 1000000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int size : sizes) {
+            SyntheticGrid grid = new SyntheticGrid(size, size);
+            long baseline = 1000000000000L;
+            Snapshot prev = grid.nextSnapshot(baseline, 0);
+            Snapshot next = grid.nextSnapshot(baseline + 60000, size / 20);
+
+            SortedJobs prevJobs = SnapshotDiff.sort(prev);
+            SnapshotDiff diff = new SnapshotDiff(baseline, 0, 60000, next.getParallelJobStarts());
+
+            for (int run = 0; run < 5; run++) {
+                long start = System.nanoTime();
+                Result result = diff.diff(prevJobs, next);
+                long elapsed = System.nanoTime() - start;
+                log.info("{} jobs: {} changes in {} ms",
+                        new Object[] { size, result.getChanges().size(), elapsed / 1000000 });
+            }
+        }
+    }
+}
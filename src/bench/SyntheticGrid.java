@@ -0,0 +1,145 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import snapshot.Snapshot;
+import snapshot.SnapshotJob;
+import snapshot.SnapshotNode;
+
+/**
+ * Generates a sequence of plausible snapshots of a busy grid, for benchmarking. About 80% of the jobs are running,
+ * on 16 slot nodes named like the ones in the default grid configuration, and the rest are queued. Each new
+ * snapshot carries over the jobs of the previous one, except for a given amount of churn: that many running jobs
+ * end, that many queued jobs start, and that many new jobs are submitted.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class SyntheticGrid {
+
+    private static final int SLOTS_PER_NODE = 16;
+
+    private final Random random;
+    private final int numJobs;
+    private final int numNodes;
+    private int nextJobId = 100000;
+    private Snapshot prev;
+
+    public SyntheticGrid(long seed, int numJobs) {
+        this.random = new Random(seed);
+        this.numJobs = numJobs;
+        // Leave some free slots so that queued jobs have somewhere to start
+        this.numNodes = (numJobs * 4 / 5) / (SLOTS_PER_NODE * 3 / 4) + 1;
+    }
+
+    public Snapshot nextSnapshot(long time, int churn) {
+
+        Snapshot snapshot = new Snapshot(new Date(time));
+        SnapshotNode[] nodes = new SnapshotNode[numNodes];
+        for (int n = 0; n < numNodes; n++) {
+            nodes[n] = new SnapshotNode();
+            nodes[n].setName("h" + (n / 32) + "u" + (n % 32) + ".int.example.org");
+            nodes[n].setQtype("BIP");
+            snapshot.addNode(nodes[n]);
+        }
+
+        if (prev == null) {
+            int numRunning = numJobs * 4 / 5;
+            for (int i = 0; i < numJobs; i++) {
+                SnapshotJob job = createJob(time - 1000);
+                if (i < numRunning) {
+                    start(job, time - 500, nodes);
+                }
+                else {
+                    snapshot.addQueuedJob(job);
+                }
+            }
+        }
+        else {
+            List<SnapshotJob> running = new ArrayList<SnapshotJob>();
+            for (SnapshotNode prevNode : prev.getNodes()) {
+                running.addAll(prevNode.getJobs());
+            }
+            int ended = 0;
+            for (SnapshotJob prevJob : running) {
+                if (ended < churn && random.nextInt(Math.max(1, running.size() / churn / 2)) == 0) {
+                    ended++;
+                    continue;
+                }
+                SnapshotJob job = copy(prevJob);
+                SnapshotNode node = nodes[indexOf(prevJob.getNode())];
+                job.setNode(node);
+                node.addJob(job);
+            }
+
+            int started = 0;
+            for (SnapshotJob prevJob : prev.getQueuedJobs()) {
+                SnapshotJob job = copy(prevJob);
+                if (started < churn && start(job, time - 100, nodes)) {
+                    started++;
+                }
+                else {
+                    snapshot.addQueuedJob(job);
+                }
+            }
+
+            for (int i = 0; i < churn; i++) {
+                snapshot.addQueuedJob(createJob(time - 200));
+            }
+        }
+
+        snapshot.init();
+        this.prev = snapshot;
+        return snapshot;
+    }
+
+    private SnapshotJob createJob(long subTime) {
+        SnapshotJob job = new SnapshotJob();
+        job.setJobId(nextJobId++);
+        job.setName("job" + job.getJobId());
+        job.setState("qw");
+        job.setOwner("user" + random.nextInt(50));
+        job.setSlots(1);
+        job.setSubTime(new Date(subTime));
+        return job;
+    }
+
+    /**
+     * Start a job on a random node with a free slot. Returns false if no free slot was found.
+     */
+    private boolean start(SnapshotJob job, long startTime, SnapshotNode[] nodes) {
+        for (int attempt = 0; attempt < 10; attempt++) {
+            SnapshotNode node = nodes[random.nextInt(nodes.length)];
+            if (node.getJobs().size() < SLOTS_PER_NODE) {
+                job.setState("r");
+                job.setStartTime(new Date(startTime));
+                job.setNode(node);
+                node.addJob(job);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int indexOf(SnapshotNode node) {
+        String name = node.getShortName();
+        int u = name.indexOf('u');
+        return Integer.parseInt(name.substring(1, u)) * 32 + Integer.parseInt(name.substring(u + 1));
+    }
+
+    private static SnapshotJob copy(SnapshotJob prevJob) {
+        SnapshotJob job = new SnapshotJob();
+        job.setJobId(prevJob.getJobId());
+        job.setName(prevJob.getName());
+        job.setState(prevJob.getState());
+        job.setOwner(prevJob.getOwner());
+        job.setExclusive(prevJob.isExclusive());
+        job.setSlots(prevJob.getSlots());
+        job.setTasks(prevJob.getTasks());
+        job.setSubTime(prevJob.getSubTime());
+        job.setStartTime(prevJob.getStartTime());
+        return job;
+    }
+}
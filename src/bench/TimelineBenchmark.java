@@ -0,0 +1,106 @@
+package bench;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import snapshot.Snapshot;
+import timeline.Timeline;
+
+/**
+ * Measures how long readers of the Timeline wait while snapshots are being added. One thread loads synthetic
+ * snapshots while other threads query the timeline the way the sketches do on every frame.
+ *
+ * Usage: TimelineBenchmark [numJobs] [numSnapshots] [numReaders]
+ *
+ * Needs the grid configuration, e.g. -DGRID_CONFIG=conf/grid_config.xml -DAPP_CONFIG=src/derecho.properties
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class TimelineBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(TimelineBenchmark.class);
+
+    private static volatile boolean done = false;
+
+    public static void main(String[] args) throws Exception {
+
+        int numJobs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int numSnapshots = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int numReaders = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        final Timeline timeline = new Timeline();
+        SyntheticGrid grid = new SyntheticGrid(numJobs, numJobs);
+        long time = 1000000000000L;
+
+        // Pre-generate the snapshots so that only the timeline is measured
+        Snapshot[] snapshots = new Snapshot[numSnapshots];
+        for (int i = 0; i < numSnapshots; i++) {
+            snapshots[i] = grid.nextSnapshot(time + i * Timeline.SNAPSHOT_DELTA_MS, i == 0 ? 0 : numJobs / 20);
+        }
+        timeline.addSnapshot(snapshots[0]);
+
+        final long[][] latencies = new long[numReaders][];
+        Thread[] readers = new Thread[numReaders];
+        for (int r = 0; r < numReaders; r++) {
+            final int reader = r;
+            readers[r] = new Thread("reader-" + r) {
+                @Override
+                public void run() {
+                    long[] samples = new long[1 << 20];
+                    int n = 0;
+                    long position = 0;
+                    while (!done && n < samples.length) {
+                        long start = System.nanoTime();
+                        long first = timeline.getFirstOffset();
+                        long last = timeline.getLastOffset();
+                        timeline.getLength();
+                        timeline.getLiveOffset();
+                        timeline.getSnapshots();
+                        timeline.getEvents(position, position + 1000);
+                        samples[n++] = System.nanoTime() - start;
+                        position = (position + 1000 > last) ? first : position + 1000;
+                        Thread.yield();
+                    }
+                    latencies[reader] = Arrays.copyOf(samples, n);
+                }
+            };
+            readers[r].start();
+        }
+
+        long ingestStart = System.nanoTime();
+        for (int i = 1; i < numSnapshots; i++) {
+            timeline.addSnapshot(snapshots[i]);
+        }
+        long ingestElapsed = System.nanoTime() - ingestStart;
+
+        done = true;
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        int total = 0;
+        for (long[] l : latencies) {
+            total += l.length;
+        }
+        long[] all = new long[total];
+        int i = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, all, i, l.length);
+            i += l.length;
+        }
+        Arrays.sort(all);
+
+        log.info("Ingested {} snapshots of {} jobs in {} ms", new Object[] { numSnapshots - 1, numJobs,
+                ingestElapsed / 1000000 });
+        log.info("Reader queries: {}, median {} us, p99 {} us, p99.9 {} us, max {} ms", new Object[] { total,
+                percentile(all, 0.5) / 1000, percentile(all, 0.99) / 1000, percentile(all, 0.999) / 1000,
+                all.length == 0 ? 0 : all[all.length - 1] / 1000000 });
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+    }
+}
@@ -0,0 +1,300 @@
+package gui;
+
+import processing.core.PVector;
+
+/**
+ * Moves and fades sprites over time. Every running animation is a row in a set of parallel primitive arrays (what is
+ * animated, where it starts and ends, when it started, how long it takes and how it's eased), and update() advances
+ * all of them in a single pass, so animating thousands of jobs at once allocates nothing per frame or per animation.
+ * The arrays only grow when more animations are running than ever before.
+ *
+ * Animations are driven by the clock rather than by the frame count, so a dropped frame doesn't slow them down.
+ *
+ * An animation only writes what it changes: one without an end position leaves the position alone, and one with KEEP
+ * as its end opacity leaves the opacity alone. An animation which changes the position or the opacity of an object
+ * takes it over from any earlier animations of the same object, which carry on only for whatever else they change and
+ * finish at their usual time. Each object holds on to which of its animations currently move and fade it, so that
+ * taking it over doesn't search the running animations. An object should therefore only be animated by one animator.
+ *
+ * Animations may be added from one thread while they are updated from another. The callbacks of finished animations
+ * are called by the updating thread, outside of the animator's lock.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class Animator {
+
+    public static final int LINEAR = 0;
+    public static final int SINE_IN = 1;
+    public static final int SINE_OUT = 2;
+    public static final int SINE_BOTH = 3;
+
+    /** Pass as the end opacity, or as the end coordinates, to leave the opacity or the position alone */
+    public static final float KEEP = Float.NaN;
+
+    /**
+     * Something which can be animated.
+     */
+    public interface Animatable {
+
+        /**
+         * Returns the position, which is updated in place.
+         */
+        PVector getPos();
+
+        float getOpacity();
+
+        void setOpacity(float opacity);
+
+        /**
+         * An animation of this object was added.
+         */
+        void animationStarted();
+
+        /**
+         * An animation of this object finished, with the tag it was added with.
+         */
+        void animationFinished(int tag);
+
+        /**
+         * Returns where this object's animations are in the animator. Implementations create one and keep returning
+         * it; only the animator reads or changes it.
+         */
+        Rows getAnimatorRows();
+    }
+
+    /**
+     * The rows of the animations which currently move and fade an object, or -1 if it isn't moving or fading.
+     */
+    public static final class Rows {
+        private int moving = -1;
+        private int fading = -1;
+    }
+
+    private Animatable[] targets;
+    private float[] startX, startY, startZ;
+    private float[] endX, endY, endZ;
+    private float[] startOpacity, endOpacity;
+    private long[] startTime;
+    private int[] duration;
+    private int[] easing;
+    private int[] tag;
+    private int size = 0;
+
+    // When the animations were last updated, so that they can be held still
+    private long lastUpdate = 0;
+
+    // Finished animations, whose callbacks are called after the lock is released
+    private Animatable[] finished;
+    private int[] finishedTag;
+
+    public Animator() {
+        this(256);
+    }
+
+    public Animator(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    private void allocate(int capacity) {
+        this.targets = copy(targets, new Animatable[capacity]);
+        this.startX = copy(startX, new float[capacity]);
+        this.startY = copy(startY, new float[capacity]);
+        this.startZ = copy(startZ, new float[capacity]);
+        this.endX = copy(endX, new float[capacity]);
+        this.endY = copy(endY, new float[capacity]);
+        this.endZ = copy(endZ, new float[capacity]);
+        this.startOpacity = copy(startOpacity, new float[capacity]);
+        this.endOpacity = copy(endOpacity, new float[capacity]);
+        this.startTime = copy(startTime, new long[capacity]);
+        this.duration = copy(duration, new int[capacity]);
+        this.easing = copy(easing, new int[capacity]);
+        this.tag = copy(tag, new int[capacity]);
+        this.finished = new Animatable[capacity];
+        this.finishedTag = new int[capacity];
+    }
+
+    private <T> T copy(T src, T dest) {
+        if (src != null) System.arraycopy(src, 0, dest, 0, size);
+        return dest;
+    }
+
+    /**
+     * Move the given object from where it is now to the given position, and fade it to the given opacity, starting
+     * now.
+     *
+     * @param target the object to animate
+     * @param endPos where the object ends up, or null to leave it where it is
+     * @param endOpacity the opacity the object ends up with, or KEEP to leave it as it is
+     * @param durationMs how long the animation takes
+     * @param easing one of LINEAR, SINE_IN, SINE_OUT or SINE_BOTH
+     * @param tag passed to the object's animationFinished() when the animation is done
+     */
+    public void add(Animatable target, PVector endPos, float endOpacity, int durationMs, int easing, int tag) {
+        if (endPos == null) {
+            add(target, KEEP, KEEP, KEEP, endOpacity, durationMs, easing, tag);
+        }
+        else {
+            add(target, endPos.x, endPos.y, endPos.z, endOpacity, durationMs, easing, tag);
+        }
+    }
+
+    /**
+     * Move the given object from where it is now to the given coordinates, and fade it to the given opacity, starting
+     * now. Pass KEEP as the end coordinates to leave the position alone.
+     *
+     * @see #add(Animatable, PVector, float, int, int, int)
+     */
+    public void add(Animatable target, float x, float y, float z, float endOpacity, int durationMs, int easing,
+            int tag) {
+        PVector pos = target.getPos();
+        target.animationStarted();
+        synchronized (this) {
+            if (size == targets.length) {
+                allocate(size * 2);
+            }
+            int i = size++;
+            Rows rows = target.getAnimatorRows();
+            if (x == x) {
+                if (rows.moving >= 0) endX[rows.moving] = KEEP;
+                rows.moving = i;
+            }
+            if (endOpacity == endOpacity) {
+                if (rows.fading >= 0) this.endOpacity[rows.fading] = KEEP;
+                rows.fading = i;
+            }
+            this.targets[i] = target;
+            this.startX[i] = pos == null ? 0 : pos.x;
+            this.startY[i] = pos == null ? 0 : pos.y;
+            this.startZ[i] = pos == null ? 0 : pos.z;
+            this.endX[i] = x;
+            this.endY[i] = y;
+            this.endZ[i] = z;
+            this.startOpacity[i] = target.getOpacity();
+            this.endOpacity[i] = endOpacity;
+            this.startTime[i] = System.currentTimeMillis();
+            this.duration[i] = Math.max(1, durationMs);
+            this.easing[i] = easing;
+            this.tag[i] = tag;
+        }
+    }
+
+    /**
+     * Advance every animation to the given time, and call back the objects whose animations finished.
+     */
+    public void update(long now) {
+
+        int numFinished = 0;
+        Animatable[] finished;
+        int[] finishedTag;
+
+        synchronized (this) {
+            finished = this.finished;
+            finishedTag = this.finishedTag;
+            this.lastUpdate = now;
+            // Running animations are moved down over the finished ones
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                Animatable target = targets[i];
+                float t = (float) (now - startTime[i]) / duration[i];
+                boolean done = t >= 1;
+                float e = done ? 1 : ease(easing[i], Math.max(0, t));
+
+                PVector pos = target.getPos();
+                if (pos != null && endX[i] == endX[i]) {
+                    pos.x = startX[i] + (endX[i] - startX[i]) * e;
+                    pos.y = startY[i] + (endY[i] - startY[i]) * e;
+                    pos.z = startZ[i] + (endZ[i] - startZ[i]) * e;
+                }
+                if (endOpacity[i] == endOpacity[i]) {
+                    target.setOpacity(startOpacity[i] + (endOpacity[i] - startOpacity[i]) * e);
+                }
+
+                if (done) {
+                    Rows rows = target.getAnimatorRows();
+                    if (rows.moving == i) rows.moving = -1;
+                    if (rows.fading == i) rows.fading = -1;
+                    finished[numFinished] = target;
+                    finishedTag[numFinished] = tag[i];
+                    numFinished++;
+                }
+                else {
+                    if (kept != i) move(i, kept);
+                    kept++;
+                }
+            }
+            for (int i = kept; i < size; i++) {
+                targets[i] = null;
+            }
+            this.size = kept;
+        }
+
+        for (int i = 0; i < numFinished; i++) {
+            Animatable target = finished[i];
+            finished[i] = null;
+            target.animationFinished(finishedTag[i]);
+        }
+    }
+
+    /**
+     * Keep every animation where it is, e.g. while the playback is being moved. Call this instead of update() for as
+     * long as the animations should stand still, and they carry on from where they were when update() is called again.
+     */
+    public synchronized void hold(long now) {
+        if (lastUpdate > 0 && now > lastUpdate) {
+            long held = now - lastUpdate;
+            for (int i = 0; i < size; i++) {
+                startTime[i] += held;
+            }
+        }
+        this.lastUpdate = now;
+    }
+
+    /**
+     * Returns the number of running animations.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Copy the animation in one row into another, and let its object know where it went.
+     */
+    private void move(int from, int to) {
+        Rows rows = targets[from].getAnimatorRows();
+        if (rows.moving == from) rows.moving = to;
+        if (rows.fading == from) rows.fading = to;
+        targets[to] = targets[from];
+        startX[to] = startX[from];
+        startY[to] = startY[from];
+        startZ[to] = startZ[from];
+        endX[to] = endX[from];
+        endY[to] = endY[from];
+        endZ[to] = endZ[from];
+        startOpacity[to] = startOpacity[from];
+        endOpacity[to] = endOpacity[from];
+        startTime[to] = startTime[from];
+        duration[to] = duration[from];
+        easing[to] = easing[from];
+        tag[to] = tag[from];
+    }
+
+    private static float ease(int easing, float t) {
+        switch (easing) {
+        case SINE_IN:
+            return 1 - (float) Math.cos(t * Math.PI / 2);
+        case SINE_OUT:
+            return (float) Math.sin(t * Math.PI / 2);
+        case SINE_BOTH:
+            return (1 - (float) Math.cos(t * Math.PI)) / 2;
+        default:
+            return t;
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds in the given number of frames at 60 frames per second.
+     */
+    public static int framesToMs(float frames) {
+        return Math.round(frames * 1000 / 60);
+    }
+}
@@ -0,0 +1,289 @@
+package gui;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import snapshot.MySQLBasedStateLoader;
+import snapshot.StateLoader;
+import timeline.JobIndex;
+import timeline.JobInterval;
+import timeline.Timeline;
+import util.ConfigProperties;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * The data side of the visualization, which is shared by all the viewports in the process. It owns the timeline and
+ * its playback, does the initial load from the database and polls for new snapshots while live, so that opening more
+ * viewports does not add any database load, another copy of the timeline, or another replay of it.
+ *
+ * Viewports register themselves with the engine, and are told when a new timeline is created and when it's loaded.
+ * Playback commands (pausing, moving the position, changing the speed) go to the one playback, so every viewport
+ * shows the same moment. Each viewport listens to the playback to keep its sprites in line with the state, and draws
+ * them on its own thread.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class Engine {
+
+    private static final Logger log = LoggerFactory.getLogger(Engine.class);
+
+    private static final long LIVE_POLL_INTERVAL_SECONDS = ConfigProperties.getInteger("derecho.data.poll.secs", 5);
+
+    private static Engine instance;
+
+    private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(10));
+    private final List<Viewport> viewports = new CopyOnWriteArrayList<Viewport>();
+
+    private Timeline timeline;
+    private Playback playback;
+    private boolean isLive = false;
+    private boolean isLoaded = false;
+
+    /**
+     * A window which shows the shared timeline. The callbacks may be called from any thread, so anything they do to
+     * the window has to be passed on to its own thread.
+     */
+    public interface Viewport {
+
+        /**
+         * A new timeline was created along with its playback, and is about to be loaded.
+         */
+        void timelineCreated(Timeline timeline, Playback playback);
+
+        /**
+         * The initial load of the timeline completed, so playback can start.
+         */
+        void timelineLoaded(Timeline timeline);
+
+        /**
+         * The engine stopped polling for new snapshots.
+         */
+        void wentDead();
+
+        /**
+         * The speed of the playback changed.
+         */
+        void playSpeedChanged(float playSpeed);
+    }
+
+    public static synchronized Engine getInstance() {
+        if (instance == null) {
+            instance = new Engine();
+        }
+        return instance;
+    }
+
+    /**
+     * Add a viewport. If there is already a timeline, the viewport is told about it right away.
+     */
+    public synchronized void register(Viewport viewport) {
+        viewports.add(viewport);
+        if (timeline != null) {
+            viewport.timelineCreated(timeline, playback);
+            if (isLoaded) viewport.timelineLoaded(timeline);
+        }
+    }
+
+    public void unregister(Viewport viewport) {
+        viewports.remove(viewport);
+    }
+
+    public synchronized Timeline getTimeline() {
+        return timeline;
+    }
+
+    public synchronized Playback getPlayback() {
+        return playback;
+    }
+
+    public synchronized boolean isLive() {
+        return isLive;
+    }
+
+    /**
+     * Returns the interval of the given job at the given offset, or null if the job was not queued or running then,
+     * or jobs are not indexed.
+     */
+    public JobInterval getJob(String fullJobId, long offset) {
+        JobIndex jobIndex = getJobIndex();
+        return jobIndex == null ? null : jobIndex.getJob(fullJobId, offset);
+    }
+
+    /**
+     * Returns the jobs which were running on the given node at the given offset, or null if jobs are not indexed.
+     */
+    public List<JobInterval> getRunningJobs(String nodeName, long offset) {
+        JobIndex jobIndex = getJobIndex();
+        return jobIndex == null ? null : jobIndex.getRunningJobs(nodeName, offset);
+    }
+
+    private synchronized JobIndex getJobIndex() {
+        return timeline == null ? null : timeline.getJobIndex();
+    }
+
+    /**
+     * Load a new timeline up to the present, and keep polling for new snapshots. Does nothing if the engine is
+     * already live, e.g. because another viewport asked first.
+     */
+    public synchronized void goLive() {
+
+        if (isLive && timeline != null) return;
+
+        log.info("Going live...");
+        this.isLive = true;
+        this.isLoaded = false;
+        final Timeline timeline = new Timeline();
+        this.timeline = timeline;
+
+        if (playback != null) {
+            log.info("Ending previous playback");
+            playback.end();
+        }
+        final Playback playback = new Playback(timeline);
+        this.playback = playback;
+        new Thread(playback, "playback").start();
+
+        for (Viewport viewport : viewports) {
+            viewport.timelineCreated(timeline, playback);
+        }
+
+        ListenableFuture<Timeline> futureTimeline = executor.submit(new Callable<Timeline>() {
+            public Timeline call() throws Exception {
+                log.debug("beginning initial load");
+                StateLoader stateLoader = new MySQLBasedStateLoader(timeline);
+                stateLoader.loadInitial();
+                log.debug("initial load completed");
+                return stateLoader.getTimeline();
+            }
+        });
+
+        Futures.addCallback(futureTimeline, new FutureCallback<Timeline>() {
+            public void onSuccess(Timeline loaded) {
+                synchronized (Engine.this) {
+                    if (Engine.this.timeline != timeline) return;
+                    isLoaded = true;
+                    for (Viewport viewport : viewports) {
+                        viewport.timelineLoaded(timeline);
+                    }
+                }
+                startPlayback(timeline, playback);
+                checkForNewSnapshots(timeline);
+            }
+
+            public void onFailure(Throwable thrown) {
+                log.error("Error loading initial timeline", thrown);
+                thrown.printStackTrace();
+                System.err.println("Error connecting to database. Make sure that your database properties are " +
+                        "correctly configured and specified with -DAPP_CONFIG=your.properties, and your grid " +
+                        "configuration specified with -DGRID_CONFIG=your_config.xml");
+                System.exit(1);
+            }
+        });
+    }
+
+    /**
+     * Stop polling for new snapshots.
+     */
+    public void goDead() {
+        synchronized (this) {
+            if (!isLive) return;
+            log.debug("Going dead...");
+            this.isLive = false;
+        }
+        for (Viewport viewport : viewports) {
+            viewport.wentDead();
+        }
+    }
+
+    private void checkForNewSnapshots(final Timeline timeline) {
+
+        synchronized (this) {
+            if (!isLive || this.timeline != timeline) {
+                log.info("Not live, will not check for new snapshots.");
+                return;
+            }
+        }
+
+        ListenableFuture<Timeline> futureTimeline = executor.submit(new Callable<Timeline>() {
+            public Timeline call() throws Exception {
+                StateLoader stateLoader = new MySQLBasedStateLoader(timeline);
+                if (stateLoader.loadNextSnapshot()) {
+                    log.debug("next snapshot loaded");
+                }
+                // Give the sketches time to read the new data, and turn off their awaiting data flags
+                Thread.sleep(LIVE_POLL_INTERVAL_SECONDS * 1000);
+                return stateLoader.getTimeline();
+            }
+        });
+        Futures.addCallback(futureTimeline, new FutureCallback<Timeline>() {
+            public void onSuccess(Timeline loaded) {
+                checkForNewSnapshots(timeline);
+            }
+
+            public void onFailure(Throwable thrown) {
+                log.error("Error loading next snapshot", thrown);
+                checkForNewSnapshots(timeline);
+            }
+        });
+    }
+
+    /**
+     * Move the new playback to the live position once the timeline can be played. The viewports start it playing when
+     * it's ready, so that it doesn't start before they can show it.
+     */
+    private void startPlayback(final Timeline timeline, final Playback playback) {
+        executor.submit(new Runnable() {
+            public void run() {
+                while (!timeline.isReady()) {
+                    if (playback.isEnded()) return;
+                    try {
+                        Thread.sleep(100);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                log.info("Buffering to LIVE starting position");
+                playback.bufferAtPosition(timeline.getLiveOffset());
+            }
+        });
+    }
+
+    /**
+     * Pause the playback.
+     */
+    public void pause() {
+        Playback playback = getPlayback();
+        if (playback != null) playback.pause();
+    }
+
+    /**
+     * Move the playback to the given position.
+     */
+    public void bufferAtPosition(long position) {
+        Playback playback = getPlayback();
+        if (playback != null) playback.bufferAtPosition(position);
+    }
+
+    /**
+     * Change the speed of the playback, and tell every viewport so that they can show it.
+     */
+    public void setPlaySpeed(float playSpeed) {
+        Playback playback = getPlayback();
+        if (playback == null || playback.getPlaySpeed() == playSpeed) return;
+        playback.setPlaySpeed(playSpeed);
+        for (Viewport viewport : viewports) {
+            viewport.playSpeedChanged(playSpeed);
+        }
+    }
+}
@@ -28,7 +28,7 @@ public class GridConfig {
 
     private Map<String, NodeSubSet> subsets = new LinkedHashMap<String, NodeSubSet>();
 
-    public static GridConfig getInstance() {
+    public static synchronized GridConfig getInstance() {
         if (singleton == null) {
             String configFileName = System.getProperty("GRID_CONFIG");
             if (configFileName == null) configFileName = DEFAULT_CONFIG_FILENAME;
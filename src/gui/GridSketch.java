@@ -3,16 +3,21 @@ package gui;
 import gui.SketchState.ColorScheme;
 import gui.SketchState.GridNodeArray;
 import gui.SketchState.JobSprite;
-import ijeoma.motion.Motion;
+import gui.SketchState.NodeSprite;
+import gui.SketchState.SlotSprite;
+import gui.cubic.CubicSketch;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.JOptionPane;
 
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 import org.perf4j.LoggingStopWatch;
 import org.perf4j.StopWatch;
 import org.slf4j.Logger;
@@ -20,21 +25,16 @@ import org.slf4j.LoggerFactory;
 
 import processing.core.PApplet;
 import processing.core.PImage;
-import snapshot.MySQLBasedStateLoader;
-import snapshot.StateLoader;
+import timeline.JobInterval;
 import timeline.Timeline;
 import util.ConfigProperties;
-
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
+import util.MemoryMonitor;
 
 import controlP5.Button;
 import controlP5.CColor;
 import controlP5.ControlP5;
 import controlP5.Group;
+import controlP5.RadioButton;
 import controlP5.Slider;
 
 /**
@@ -44,7 +44,7 @@ import controlP5.Slider;
  * 
  * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
  */
-public class GridSketch extends PApplet {
+public class GridSketch extends PApplet implements Engine.Viewport {
 
     static {
         // This is a hack to give Oracle's App Bundler the ability to use APP_PACKAGE
@@ -64,15 +64,12 @@ public class GridSketch extends PApplet {
     private static final Logger log = LoggerFactory.getLogger(GridSketch.class);
 
     private static final String MAIN_CLASS = GridSketch.class.getName();
-    private static final long LIVE_POLL_INTERVAL_SECONDS = ConfigProperties.getInteger("derecho.data.poll.secs", 5);
     private static final int MAX_DRAWING_ERRORS = 5;
 
     // Draw the graph by default?
     private boolean isDrawGraphDefault = ConfigProperties.getBoolean("derecho.viz.draw.graph", true);
 
     private final boolean TIMER = false;
-    private final boolean bufferAllBeforePlaying = true;
-    private final boolean startAtLivePosition = true;
 
     private int sliderColor = color("232847");
     private int sliderBarColor = color("323966");
@@ -90,14 +87,19 @@ public class GridSketch extends PApplet {
     private long currTime = 0;
     private Rectangle sliderRect;
 
-    private ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(10));
-    private ListenableFuture<Timeline> futureTimeline;
+    // The shared timeline and playback, and what this viewport shows of them
+    private final Engine engine = Engine.getInstance();
+    private final String viewMode;
+    private final String viewSubset;
+    private boolean viewApplied = false;
+
+    // Changes from the engine, which are made on the draw thread so that the controls are only touched from there
+    private final Queue<Runnable> pendingActions = new ConcurrentLinkedQueue<Runnable>();
 
     // Play state
     private boolean isLive = true;
     private boolean isSummary = true;
     private boolean isShowGraph = isDrawGraphDefault;
-    private boolean initialLoadComplete = false;
     private boolean initialStartComplete = false; // has the animation ever been started?
     private float playSpeed = 1.0f;
     private long lastPosition = 0;
@@ -117,18 +119,33 @@ public class GridSketch extends PApplet {
     private boolean drawAnimations = ConfigProperties.getBoolean("derecho.viz.draw.animations", false);
     private boolean drawFps = ConfigProperties.getBoolean("derecho.viz.draw.fps", true);
     private boolean drawControls = ConfigProperties.getBoolean("derecho.viz.draw.controls", true);
+    private boolean drawMemory = ConfigProperties.getBoolean("derecho.viz.draw.memory", false);
+    private boolean drawRepaint = ConfigProperties.getBoolean("derecho.viz.draw.repaint", false);
+    private boolean drawTooltips = ConfigProperties.getBoolean("derecho.viz.draw.tooltips", true);
+    private MemoryMonitor memoryMonitor;
 
     private List<String> subsets;
     private int currSubsetIndex = 0;
 
+    // Details of the sprite which was last clicked on, if any
+    private final DateTimeFormatter dfDetails = DateTimeFormat.forPattern("MM/dd/yyyy hh:mm:ssaaa");
+    private List<String> details;
+    private float detailsX;
+    private float detailsY;
+
     // Data model
     private Timeline timeline;
+    private Playback playback;
     private SketchState sketchState;
 
     public static void main(String args[]) {
         boolean fullscreen = ConfigProperties.getBoolean("derecho.viz.fullscreen", true);
 
-        if (fullscreen) {
+        String viewports = ConfigProperties.getString("derecho.viz.viewports", "");
+        if (viewports != null && !viewports.trim().isEmpty()) {
+            openViewports(viewports, fullscreen);
+        }
+        else if (fullscreen) {
             PApplet.main(new String[] { "--full-screen", MAIN_CLASS });
         }
         else {
@@ -136,6 +153,49 @@ public class GridSketch extends PApplet {
         }
     }
 
+    /**
+     * Open a window for each of the given viewports, which all share one engine. Each viewport is given as a mode
+     * (normal, summary, heatmap or cubic), optionally followed by a colon and the name of a subset, and the viewports
+     * are separated by commas. The windows are opened on consecutive displays, as far as there are displays.
+     */
+    private static void openViewports(String viewports, boolean fullscreen) {
+        int display = 0;
+        for (String spec : viewports.split(",")) {
+            spec = spec.trim();
+            if (spec.isEmpty()) continue;
+
+            String mode = spec;
+            String subset = null;
+            int colon = spec.indexOf(':');
+            if (colon >= 0) {
+                mode = spec.substring(0, colon).trim();
+                subset = spec.substring(colon + 1).trim();
+            }
+
+            PApplet sketch = "cubic".equalsIgnoreCase(mode) ? new CubicSketch() : new GridSketch(mode, subset);
+            log.info("Opening {} viewport on display {}", spec, display);
+
+            List<String> sketchArgs = new ArrayList<String>();
+            sketchArgs.add(ARGS_DISPLAY + "=" + display++);
+            if (fullscreen) sketchArgs.add("--full-screen");
+            sketchArgs.add(sketch.getClass().getName());
+            PApplet.runSketch(sketchArgs.toArray(new String[sketchArgs.size()]), sketch);
+        }
+    }
+
+    public GridSketch() {
+        this(null, null);
+    }
+
+    /**
+     * @param viewMode normal, summary or heatmap, or null for the defaults
+     * @param viewSubset name of the subset to show, or null for the first one
+     */
+    public GridSketch(String viewMode, String viewSubset) {
+        this.viewMode = viewMode;
+        this.viewSubset = viewSubset;
+    }
+
     public void setup() {
 
         // Attempt to fix the Linux fullscreen bug where the display starts in the middle of the screen
@@ -158,8 +218,7 @@ public class GridSketch extends PApplet {
             // Ensure we can load configurations
             GridConfig.getInstance();
             ConfigProperties.getInstance();
-
-            Motion.setup(this);
+            this.memoryMonitor = MemoryMonitor.start();
 
             cp5 = new ControlP5(this);
             unregisterMethod("keyEvent", cp5);
@@ -287,6 +346,7 @@ public class GridSketch extends PApplet {
                         .setGroup(optionsGroup);
             }
 
+            engine.register(this);
             if (isLive) goLive();
 
             log.info("setup() complete");
@@ -312,11 +372,18 @@ public class GridSketch extends PApplet {
             StopWatch stopWatch = null;
             if (TIMER) stopWatch = new LoggingStopWatch("draw");
 
-            // Any time the state is ready, just start playback
-            if (sketchState != null && sketchState.isReady()) {
+            runPendingActions();
+
+            // Any time the playback is ready, just start it
+            if (playback != null && playback.isReady()) {
                 log.info("Beginning playback");
-                sketchState.play();
+                playback.play();
+            }
+
+            // Start showing it once the sketch state has caught up
+            if (!initialStartComplete && sketchState != null && sketchState.isReady() && playback.isPlaying()) {
                 this.initialStartComplete = true;
+                if (!viewApplied) applyView();
             }
 
             Slider progressBar = (Slider) cp5.getController("progress");
@@ -332,14 +399,6 @@ public class GridSketch extends PApplet {
 
                 // Draw the progress indicator
                 cp5.draw();
-
-                // Ready to start yet?
-                if (sketchState != null) {
-                    if ((initialLoadComplete || !bufferAllBeforePlaying) && timeline.isReady() && sketchState.isPaused()) {
-                        log.info(startAtLivePosition ? "Buffering to LIVE starting position" : "Buffering to starting position");
-                        sketchState.bufferAtPosition(startAtLivePosition ? timeline.getLiveOffset() : timeline.getFirstOffset());
-                    }
-                }
             }
             else {
 
@@ -364,7 +423,7 @@ public class GridSketch extends PApplet {
                     if (mousePressed) {
                         if (sliderPressed) {
                             sliderWasPressedLastFrame = true;
-                            sketchState.pause();
+                            engine.pause();
                         }
                     }
                     else {
@@ -372,14 +431,14 @@ public class GridSketch extends PApplet {
                             sliderWasPressedLastFrame = false;
                             int value = Math.round(slider.getValue());
                             goDead();
-                            sketchState.bufferAtPosition(value);
+                            engine.bufferAtPosition(value);
                         }
                     }
                 }
 
                 // Interpolate slider between updates from the SketchState
-                if (sketchState.isPlaying()) {
-                    long newPosition = sketchState.getPosition();
+                if (playback.isPlaying()) {
+                    long newPosition = playback.getPosition();
                     if (newPosition != lastPosition) {
                         lastPosition = currTime = newPosition;
                         lastPositionTime = System.currentTimeMillis();
@@ -403,6 +462,19 @@ public class GridSketch extends PApplet {
                 // Draw the UI
                 cp5.draw();
 
+                if (drawMemory && memoryMonitor != null) {
+                    fill(255);
+                    textAlign(LEFT, TOP);
+                    text(memoryMonitor.getSummary(), 1, 20);
+                }
+
+                if (drawRepaint) {
+                    long area = sketchState.getRepaintedArea();
+                    fill(255);
+                    textAlign(LEFT, TOP);
+                    text("repainted " + area + " px (" + (100 * area / Math.max(1, width * height)) + "%)", 1, 35);
+                }
+
                 if (TIMER) stopWatch.lap("drawUI");
 
                 // Draw the graph buffer
@@ -413,6 +485,9 @@ public class GridSketch extends PApplet {
 
                 if (TIMER) stopWatch.lap("drawGraphs");
 
+                // Do not animate anything while the slider is pressed
+                sketchState.updateAnimations(sliderPressed);
+
                 // Draw moving sprites
                 GridNodeArray currSubset = sketchState.getCurrentSubset();
                 if (!sketchState.isHeatmap()) {
@@ -427,16 +502,28 @@ public class GridSketch extends PApplet {
                                     }
                                 }
                             }
-                            // Do not animate anything while the slider is pressed
-                            if (!sliderPressed) {
-                                sprite.update();
-                            }
                         }
                     }
                 }
 
                 if (TIMER) stopWatch.lap("drawAndUpdateSprites");
 
+                // Draw the tooltip of whatever is under the mouse, unless the details of something are shown
+                List<String> info = details;
+                if (info != null) {
+                    drawInfoBox(info, detailsX, detailsY);
+                }
+                else if (drawTooltips && !sliderPressed && !cp5.isMouseOver()) {
+                    Sprite sprite = sketchState.getSpriteAt(mouseX, mouseY);
+                    if (sprite != null && sprite.getTooltip() != null) {
+                        List<String> tooltip = new ArrayList<String>();
+                        tooltip.add(sprite.getTooltip());
+                        drawInfoBox(tooltip, mouseX + 12, mouseY + 12);
+                    }
+                }
+
+                if (TIMER) stopWatch.lap("drawTooltips");
+
                 // Update slideshow state, if any
                 if (users != null) {
                     if (lastUserChange != null && System.currentTimeMillis() - lastUserChange > 2000) {
@@ -470,6 +557,104 @@ public class GridSketch extends PApplet {
         }
     }
 
+    /**
+     * Draw the given lines in a box with its upper left corner at the given point, or as close to it as the screen
+     * allows.
+     */
+    private void drawInfoBox(List<String> lines, float x, float y) {
+        if (lines.isEmpty()) return;
+        textSize(12);
+        float lineHeight = textAscent() + textDescent() + 2;
+        float boxWidth = 0;
+        for (String line : lines) {
+            boxWidth = Math.max(boxWidth, textWidth(line));
+        }
+        boxWidth += 12;
+        float boxHeight = lineHeight * lines.size() + 8;
+        x = Math.max(0, Math.min(x, width - boxWidth));
+        y = Math.max(0, Math.min(y, height - boxHeight));
+
+        noStroke();
+        fill(0, 200);
+        rect(x, y, boxWidth, boxHeight);
+        fill(255);
+        textAlign(LEFT, TOP);
+        float lineY = y + 4;
+        for (String line : lines) {
+            text(line, x + 6, lineY);
+            lineY += lineHeight;
+        }
+    }
+
+    /**
+     * Show the details of the node, slot or job which was clicked on, or hide them if there's nothing there.
+     */
+    public void mouseClicked() {
+        if (!initialStartComplete || sketchState == null) return;
+        if (sliderRect != null && sliderRect.getBounds().contains(mouseX, mouseY)) return;
+        if (cp5 != null && cp5.isMouseOver()) return;
+
+        Sprite sprite = sketchState.getSpriteAt(mouseX, mouseY);
+        if (sprite == null) {
+            this.details = null;
+            return;
+        }
+        this.detailsX = mouseX + 12;
+        this.detailsY = mouseY + 12;
+        this.details = getDetails(sprite);
+    }
+
+    private List<String> getDetails(Sprite sprite) {
+
+        List<String> lines = new ArrayList<String>();
+
+        if (sprite instanceof JobSprite) {
+            JobSprite jobSprite = (JobSprite) sprite;
+            JobInterval job = engine.getJob(jobSprite.getFullJobId(), playback.getPosition());
+            if (job == null) {
+                lines.add(sprite.getTooltip());
+                return lines;
+            }
+            lines.add("Job #" + job.getFullJobId());
+            if (job.getName() != null) lines.add("Name: " + job.getName());
+            lines.add("Owner: " + job.getOwner());
+            lines.add("Slots: " + job.getSlots());
+            if (job.getNodeName() != null) lines.add("Node: " + job.getNodeName());
+            lines.add("Submitted: " + formatOffset(job.getSubOffset()));
+            if (job.getStartOffset() != JobInterval.OPEN) lines.add("Started: " + formatOffset(job.getStartOffset()));
+            if (job.getEndOffset() != JobInterval.OPEN) lines.add("Ended: " + formatOffset(job.getEndOffset()));
+            return lines;
+        }
+
+        NodeSprite nodeSprite = null;
+        if (sprite instanceof NodeSprite) {
+            nodeSprite = (NodeSprite) sprite;
+        }
+        else if (sprite instanceof SlotSprite) {
+            nodeSprite = ((SlotSprite) sprite).getNodeSprite();
+        }
+        if (nodeSprite == null) {
+            lines.add(sprite.getTooltip());
+            return lines;
+        }
+
+        lines.add("Node " + nodeSprite.getName());
+        List<JobInterval> jobs = engine.getRunningJobs(nodeSprite.getName(), playback.getPosition());
+        if (jobs == null) return lines;
+        if (jobs.isEmpty()) {
+            lines.add("No running jobs");
+        }
+        for (JobInterval job : jobs) {
+            lines.add("Job #" + job.getFullJobId() + " for " + job.getOwner() + " (" + job.getSlots() + " slots)");
+        }
+        return lines;
+    }
+
+    private String formatOffset(long offset) {
+        if (timeline == null || timeline.getBaselineDate() == null) return "" + offset;
+        return dfDetails.print(new DateTime(timeline.getBaselineDate().getTime() + offset));
+    }
+
     public void keyReleased() {
         if (keyCode == RIGHT) {
             if (users != null) {
@@ -607,8 +792,7 @@ public class GridSketch extends PApplet {
     public void setPlaySpeed(float playSpeed) {
         if (sketchState != null) {
             log.trace("setPlaySpeed(" + playSpeed + ")");
-            this.playSpeed = playSpeed;
-            sketchState.setPlaySpeed(playSpeed);
+            engine.setPlaySpeed(playSpeed);
             goDead();
         }
     }
@@ -650,22 +834,75 @@ public class GridSketch extends PApplet {
         System.exit(0);
     }
 
-    private void goLive() {
+    public void timelineCreated(final Timeline timeline, final Playback playback) {
+        runOnDrawThread(new Runnable() {
+            public void run() {
+                showTimeline(timeline, playback);
+            }
+        });
+    }
+
+    public void timelineLoaded(Timeline timeline) {
+        // The engine starts the playback, and it's shown once it's playing
+    }
+
+    public void wentDead() {
+        runOnDrawThread(new Runnable() {
+            public void run() {
+                isLive = false;
+                Button button = (Button) cp5.getController("setIsLive");
+                if (button != null && button.isOn()) {
+                    button.setOff();
+                }
+            }
+        });
+    }
+
+    public void playSpeedChanged(final float playSpeed) {
+        runOnDrawThread(new Runnable() {
+            public void run() {
+                GridSketch.this.playSpeed = playSpeed;
+                Slider slider = (Slider) cp5.getController("setPlaySpeed");
+                if (slider != null && slider.getValue() != playSpeed) slider.changeValue(playSpeed);
+            }
+        });
+    }
+
+    /**
+     * Run the given action on the draw thread, before the next frame is drawn.
+     */
+    private void runOnDrawThread(Runnable action) {
+        pendingActions.add(action);
+    }
+
+    private void runPendingActions() {
+        Runnable action;
+        while ((action = pendingActions.poll()) != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * Start showing a new timeline, through a new sketch state which listens to its playback.
+     */
+    private void showTimeline(Timeline timeline, Playback playback) {
+
+        this.isLive = true;
 
         if (sketchState != null) {
             log.info("Ending previous sketch state");
-            sketchState.end();
+            this.playback.removeListener(sketchState);
         }
 
-        this.timeline = new Timeline();
-        this.sketchState = new SketchState(this, timeline, appWidth, appHeight);
+        this.timeline = timeline;
+        this.playback = playback;
+        this.sketchState = new SketchState(this, playback, appWidth, appHeight);
         sketchState.setShowGraph(isDrawGraphDefault);
 
-        // Reset the play speed
-        this.playSpeed = 1.0f;
-        sketchState.setPlaySpeed(playSpeed);
+        // Show the play speed of the new playback
+        this.playSpeed = (float) playback.getPlaySpeed();
         Slider slider = (Slider) cp5.getController("setPlaySpeed");
-        if (slider != null) slider.changeValue(1.0f);
+        if (slider != null) slider.changeValue(playSpeed);
 
         Button summaryButton = (Button) cp5.getController("setSummary");
         if (summaryButton != null) {
@@ -700,86 +937,64 @@ public class GridSketch extends PApplet {
             }
         }
 
-        log.info("Going live...");
-
-        this.initialLoadComplete = false;
         this.initialStartComplete = false;
+        this.viewApplied = false;
 
-        this.futureTimeline = executor.submit(new Callable<Timeline>() {
-            public Timeline call() throws Exception {
-                log.debug("beginning initial load");
-                StateLoader stateLoader = new MySQLBasedStateLoader(timeline);
-                stateLoader.loadInitial();
-                log.debug("initial load completed");
-                return stateLoader.getTimeline();
-            }
-        });
-
-        Futures.addCallback(futureTimeline, new FutureCallback<Timeline>() {
-            public void onSuccess(final Timeline timeline) {
-                initialLoadComplete = true;
-
-                // Start the playback
-                log.info("starting sketch thread...");
-                Thread sketchThread = new Thread(sketchState);
-                sketchThread.start();
-
-                checkForNewSnapshots();
-            }
+        playback.addListener(sketchState);
+    }
 
-            public void onFailure(Throwable thrown) {
-                futureTimeline = null;
-                log.error("Error loading initial timeline", thrown);
-                thrown.printStackTrace();
-                System.err.println("Error connecting to database. Make sure that your database properties are " +
-                        "correctly configured and specified with -DAPP_CONFIG=your.properties, and your grid " +
-                        "configuration specified with -DGRID_CONFIG=your_config.xml");
-                System.exit(1);
-            }
-        });
+    private void goLive() {
+        engine.goLive();
     }
 
     private void goDead() {
-
-        this.isLive = false;
-        log.debug("Going dead...");
-        Button button = (Button) cp5.getController("setIsLive");
-        if (button != null && button.isOn()) {
-            button.setOff();
-            return;
-        }
+        engine.goDead();
     }
 
-    private void checkForNewSnapshots() {
+    /**
+     * Switch to the subset and mode this viewport was opened with. This is done once the sketch state is ready,
+     * since it is initialized with the defaults.
+     */
+    private void applyView() {
 
-        if (!isLive) {
-            log.info("Not live, will not check for new snapshots.");
-            return;
-        }
+        this.viewApplied = true;
 
-        futureTimeline = executor.submit(new Callable<Timeline>() {
-            public Timeline call() throws Exception {
-                StateLoader stateLoader = new MySQLBasedStateLoader(timeline);
-                if (stateLoader.loadNextSnapshot()) {
-                    log.debug("next snapshot loaded");
-                }
-                // Give the sketch time to read the new data, and turn off its awaiting data flag
-                Thread.sleep(LIVE_POLL_INTERVAL_SECONDS * 1000);
-                return stateLoader.getTimeline();
+        if (viewSubset != null) {
+            List<String> names = new ArrayList<String>(sketchState.getSubsetNames());
+            int index = names.indexOf(viewSubset);
+            if (index < 0) {
+                log.warn("Unknown subset for viewport: {}", viewSubset);
             }
-        });
-        Futures.addCallback(futureTimeline, new FutureCallback<Timeline>() {
-            public void onSuccess(Timeline timeline) {
-                futureTimeline = null;
-                checkForNewSnapshots();
+            else {
+                this.subsets = names;
+                this.currSubsetIndex = index;
+                sketchState.setCurrentSubsetName(viewSubset);
             }
+        }
+
+        if (viewMode == null) return;
 
-            public void onFailure(Throwable thrown) {
-                futureTimeline = null;
-                log.error("Error loading next snapshot", thrown);
-                checkForNewSnapshots();
+        if ("heatmap".equalsIgnoreCase(viewMode)) {
+            RadioButton modes = (RadioButton) cp5.getGroup("setModes");
+            if (modes != null) modes.activate(2);
+            setModes(2);
+        }
+        else if ("summary".equalsIgnoreCase(viewMode) || "normal".equalsIgnoreCase(viewMode)) {
+            this.isSummary = "summary".equalsIgnoreCase(viewMode);
+            sketchState.setSummaryMode(isSummary);
+            Button summaryButton = (Button) cp5.getController("setSummary");
+            if (summaryButton != null && summaryButton.isOn() != isSummary) {
+                if (isSummary) {
+                    summaryButton.setOn();
+                }
+                else {
+                    summaryButton.setOff();
+                }
             }
-        });
+        }
+        else {
+            log.warn("Unknown viewport mode: {}", viewMode);
+        }
     }
 
     private int color(String hex) {
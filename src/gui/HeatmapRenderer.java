@@ -0,0 +1,80 @@
+package gui;
+
+import java.awt.Color;
+
+import processing.core.PApplet;
+import processing.core.PImage;
+
+/**
+ * Colors for the utilization heatmap. The hues from no use to full use are precomputed into a lookup table of packed
+ * RGB colors, so that coloring the slots is a table lookup per slot, without any conversion from HSB.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class HeatmapRenderer {
+
+    public static final int LEVELS = 256;
+
+    private final int[] colors = new int[LEVELS];
+    private PImage legendBar;
+
+    /**
+     * @param minHue hue of full use, in degrees
+     * @param maxHue hue of no use, in degrees
+     * @param saturation saturation of every color, in percent
+     * @param brightness brightness of every color, in percent
+     */
+    public HeatmapRenderer(float minHue, float maxHue, float saturation, float brightness) {
+        for (int level = 0; level < LEVELS; level++) {
+            float hue = PApplet.map(level, 0, LEVELS - 1, maxHue, minHue);
+            colors[level] = 0xff000000 | Color.HSBtoRGB(hue / 360, saturation / 100, brightness / 100);
+        }
+    }
+
+    /**
+     * Returns the color for the given fraction of time in use.
+     */
+    public int getColor(float fraction) {
+        return colors[getLevel(fraction)];
+    }
+
+    private int getLevel(float fraction) {
+        if (!(fraction > 0)) return 0;
+        if (fraction >= 1) return LEVELS - 1;
+        return (int) (fraction * (LEVELS - 1) + 0.5f);
+    }
+
+    /**
+     * Fill the given array (or a new one, if it's null or too small) with the colors for the given fractions of time
+     * in use, index for index.
+     */
+    public int[] getColors(float[] fractions, int[] result) {
+        if (result == null || result.length < fractions.length) result = new int[fractions.length];
+        for (int i = 0; i < fractions.length; i++) {
+            result[i] = colors[getLevel(fractions[i])];
+        }
+        return result;
+    }
+
+    /**
+     * Returns an image of the colors from no use on the left to full use on the right, with the given size. The image
+     * is kept until a different size is asked for.
+     */
+    public PImage getLegendBar(int width, int height) {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        if (legendBar == null || legendBar.width != width || legendBar.height != height) {
+            PImage bar = new PImage(width, height, PApplet.RGB);
+            bar.loadPixels();
+            for (int x = 0; x < width; x++) {
+                int color = colors[width == 1 ? 0 : x * (LEVELS - 1) / (width - 1)];
+                for (int y = 0; y < height; y++) {
+                    bar.pixels[y * width + x] = color;
+                }
+            }
+            bar.updatePixels();
+            this.legendBar = bar;
+        }
+        return legendBar;
+    }
+}
@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 import processing.core.PApplet;
 import processing.core.PFont;
 import processing.core.PGraphics;
+import timeline.Usage;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -96,11 +97,13 @@ public class Legend implements Drawable {
         return ImmutableMap.copyOf(colorAssignment);
     }
 
-    public void retain(Map<String, Integer> userSlotMap) {
+    /**
+     * Reclaim the colors of users who no longer have any running or queued jobs.
+     */
+    public void retain(Usage usage) {
         Set<String> users = ImmutableSet.copyOf(getColorAssignments().keySet());
         for (String username : users) {
-            Integer slots = userSlotMap.get(username);
-            if (slots == null) {
+            if (!usage.hasUser(username)) {
                 // Reclaim color, and put it at the front of the queue
                 Integer color = colorAssignment.remove(username);
                 colorQueue.remove(color);
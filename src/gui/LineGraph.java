@@ -2,22 +2,19 @@ package gui;
 
 import gui.Rectangle.Bounds;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import processing.core.PApplet;
 import processing.core.PGraphics;
 import processing.core.PVector;
+import timeline.SeriesPyramid.Resample;
+import timeline.TimeSeries;
 import timeline.Timeline;
 
 /**
- * A simple line graph for showing a sampled value over time. 
+ * A simple line graph for showing a sampled value over time. The series is resampled to one column per pixel, and 
+ * drawn as a step line through the average value of each column, with a fainter envelope showing the min and max. 
  * 
  * TODO: This is currently too tightly coupled to the Timeline.
  * 
@@ -27,16 +24,19 @@ public class LineGraph implements Drawable {
 
     private static final Logger log = LoggerFactory.getLogger(SketchState.class);
 
+    private static final float ENVELOPE_OPACITY = 100;
+
     private final Timeline timeline;
-    private final Map<Long, Integer> graphMap;
+    private final TimeSeries series;
     private Rectangle rect;
     private int maxValue;
     private int color = Utils.color("FF0000");
+    private final Resample resample = new Resample();
 
-    public LineGraph(Rectangle rect, Timeline timeline, Map<Long, Integer> graphMap) {
+    public LineGraph(Rectangle rect, Timeline timeline, TimeSeries series) {
         this.rect = rect;
         this.timeline = timeline;
-        this.graphMap = graphMap;
+        this.series = series;
     }
 
     public void draw(PGraphics buf) {
@@ -44,10 +44,9 @@ public class LineGraph implements Drawable {
         PVector pos = rect.getPos();
         Bounds b = rect.getBounds();
 
-        Map<Long, Integer> map = new ConcurrentSkipListMap<Long, Integer>(graphMap);
         long firstOffset = timeline.getFirstOffset();
         long length = timeline.getLength();
-        long realLength = map.isEmpty() ? 0 : (Collections.max(map.keySet()) - firstOffset);
+        long realLength = series.isEmpty() ? 0 : (series.getLastOffset() - firstOffset);
 
         int minValue = 0;
 
@@ -56,55 +55,50 @@ public class LineGraph implements Drawable {
             length = realLength;
         }
 
-        buf.strokeWeight(2);
+        int columns = (int) (b.maxX - 1 - pos.x);
+        if (columns <= 0 || length <= 0) return;
 
-        Utils.stroke(buf, color);
-        Utils.fill(buf, color);
+        // Read one precomputed bucket summary per pixel column
+        series.resample(firstOffset, firstOffset + length, columns, resample);
 
         buf.strokeCap(PApplet.SQUARE);
 
-        Float prevX = null;
-        Float prevY = null;
-        Float firstX = null;
-        Float firstY = null;
+        // Envelope of the extreme values within each column
+        buf.strokeWeight(1);
+        Utils.stroke(buf, color, ENVELOPE_OPACITY);
+        for (int c = 0; c < columns; c++) {
+            if (!resample.defined[c] || resample.min[c] == resample.max[c]) continue;
+            float x = pos.x + c;
+            float minY = PApplet.map(resample.min[c], minValue, maxValue, b.maxY, pos.y);
+            float maxY = PApplet.map(resample.max[c], minValue, maxValue, b.maxY, pos.y);
+            buf.line(x, minY, x, maxY);
+        }
 
-        Integer currx = null;
-        Collection<Float> values = new HashSet<Float>();
+        // Step line through the time-weighted averages
+        buf.strokeWeight(2);
+        Utils.stroke(buf, color);
+        Utils.fill(buf, color);
 
-        for (Long offset : map.keySet()) {
-            Integer value = map.get(offset);
+        Float prevX = null;
+        Float prevY = null;
 
-            if (offset > firstOffset + length) {
-                log.warn("offset>end : {}>{}", offset, firstOffset + length);
+        for (int c = 0; c < columns; c++) {
+            if (!resample.defined[c]) continue;
+            float x = pos.x + c;
+            float avgy = PApplet.map(resample.avg[c], minValue, maxValue, b.maxY, pos.y);
+            if (prevX == null) {
+                prevX = x;
+                prevY = avgy;
+                continue;
             }
-
-            float x = PApplet.map(offset, firstOffset, firstOffset + length, pos.x, b.maxX - 1);
-            float y = PApplet.map(value, minValue, maxValue, b.maxY, pos.y);
-            if (firstX == null) firstX = x;
-            if (firstY == null) firstY = y;
-
-            int intx = Math.round(x);
-
-            if (currx != null && currx != intx && !values.isEmpty()) {
-
-                // Get the average of the values we've seen for this time point
-                float avgy = Utils.calculateAverage(values);
-
-                values.clear();
-
-                if (prevX == null) prevX = pos.x;
-                if (prevY == null) prevY = y;
-
+            if (avgy != prevY) {
                 buf.line(prevX, prevY, x, prevY);
                 buf.strokeCap(PApplet.ROUND);
                 buf.line(x, prevY, x, avgy);
-
+                buf.strokeCap(PApplet.SQUARE);
                 prevX = x;
                 prevY = avgy;
             }
-
-            currx = intx;
-            values.add(y);
         }
 
         if (prevX != null && prevY != null) {
@@ -125,8 +119,8 @@ public class LineGraph implements Drawable {
         this.maxValue = maxValue;
     }
 
-    public Map<Long, Integer> getGraphMap() {
-        return graphMap;
+    public TimeSeries getSeries() {
+        return series;
     }
 
     public void setRect(Rectangle rect) {
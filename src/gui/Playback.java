@@ -0,0 +1,455 @@
+package gui;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import snapshot.CompactSnapshot;
+import timeline.BurstEvent;
+import timeline.Event;
+import timeline.GridEvent;
+import timeline.GridJob;
+import timeline.GridState;
+import timeline.PlaybackFeed;
+import timeline.SnapshotEvent;
+import timeline.Timeline;
+import util.ConfigProperties;
+
+/**
+ * The playback of a timeline, which is shared by all the viewports in the process. It has a single clock, and replays
+ * the events of the timeline into a single grid state, so that every viewport shows the same moment and the replay is
+ * only done once.
+ *
+ * The playback runs on its own thread. Viewports listen to it, and are called on that thread as each event is played,
+ * so they always see the state as it was when the event happened, and never while it's being changed. Everything else
+ * may be called from any thread.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class Playback implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(Playback.class);
+
+    /**
+     * Something which shows the playback. Every method is called on the playback thread.
+     */
+    public interface Listener {
+
+        /**
+         * The playback was moved, and the state was rebuilt at the new position. Everything shown should be rebuilt
+         * from the state, without animation. This is also called when the listener is added to a playback which
+         * already has a state.
+         */
+        void playbackMoved(GridState state);
+
+        /**
+         * The playback is about to play the events up to its next position.
+         */
+        void frameStarted();
+
+        /**
+         * An event was played. For a grid event, the job is the one in the state which the event is about, after the
+         * event was applied to it. It is null for bursts, and for jobs which the state doesn't know.
+         */
+        void eventPlayed(Event event, GridJob job);
+
+        /**
+         * The events up to the given position were played.
+         */
+        void frameFinished(long position);
+
+        /**
+         * Returns true while something is animating, so that the playback comes back every frame.
+         */
+        boolean isAnimating();
+    }
+
+    private final Timeline timeline;
+    private final PlaybackFeed feed;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final Queue<Listener> addedListeners = new ConcurrentLinkedQueue<Listener>();
+
+    private volatile PlayState playState = PlayState.PAUSED;
+    private volatile double playSpeed = 1.0f;
+    private volatile long totalElapsed = 0;
+    private GridState state;
+    private long prevElapsed;
+    private Date lastSliceRequestDate;
+    private long nextStartingPosition = 0;
+
+    // The playback parks until the next event is due, but comes back every frame while anything is animating
+    private long frameMs = ConfigProperties.getInteger("derecho.viz.playback.frame.ms", 50);
+    private long idleMs = ConfigProperties.getInteger("derecho.viz.playback.idle.ms", 1000);
+
+    public Playback(Timeline timeline) {
+        this.timeline = timeline;
+        this.feed = new PlaybackFeed(timeline);
+    }
+
+    /**
+     * Add a listener. It starts getting called on the playback thread the next time the playback wakes up.
+     */
+    public void addListener(Listener listener) {
+        addedListeners.add(listener);
+        feed.wakeup();
+    }
+
+    public void removeListener(Listener listener) {
+        addedListeners.remove(listener);
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void run() {
+
+        while (true) {
+
+            Listener added;
+            while ((added = addedListeners.poll()) != null) {
+                if (state != null && playState != PlayState.BUFFERING) {
+                    added.playbackMoved(state);
+                }
+                listeners.add(added);
+            }
+
+            switch (playState) {
+
+            case BUFFERING:
+                bufferToNextPosition();
+                break;
+
+            case PLAYING:
+                Date currDate = new Date();
+                long elapsed = (int) ((currDate.getTime() - lastSliceRequestDate.getTime()) * playSpeed);
+                this.lastSliceRequestDate = currDate;
+
+                // Check if we've been truncated, and move forward if necessary
+                if (totalElapsed < timeline.getFirstOffset()) {
+                    log.info("Elapsed time ({}) occurs before the current timeline ({})", totalElapsed, timeline.getFirstOffset());
+
+                    long position = elapsed;
+                    boolean noMatch = true;
+                    while (noMatch) {
+                        if (position != timeline.getFirstOffset()) {
+                            position = timeline.getFirstOffset();
+                            try {
+                                Thread.sleep(500);
+                            }
+                            catch (InterruptedException e) {
+                                // Ignore
+                            }
+                        }
+                        else {
+                            noMatch = false;
+                        }
+                    }
+                    log.info("Will buffer to new position: {}", position);
+                    this.playState = PlayState.PAUSED;
+                    bufferAtPosition(position);
+                    break;
+                }
+
+                for (Listener listener : listeners) {
+                    listener.frameStarted();
+                }
+                playNextSlice(elapsed);
+                for (Listener listener : listeners) {
+                    listener.frameFinished(totalElapsed);
+                }
+                break;
+
+            case READY:
+                break;
+
+            case PAUSED:
+                break;
+
+            case END:
+                feed.close();
+                return;
+
+            default:
+                log.error("Invalid play state: " + playState);
+                break;
+
+            }
+
+            feed.await(getParkTime());
+        }
+    }
+
+    /**
+     * Returns how long the playback can park before it has something to play, or 0 if it has nothing to do until it
+     * is woken. While playing, it comes back every frame only while something is animating. Otherwise, it wakes when
+     * the next event is due, when new events are published, or when the idle time is up.
+     */
+    private long getParkTime() {
+        if (playState != PlayState.PLAYING) return 0;
+        for (Listener listener : listeners) {
+            if (listener.isAnimating()) return frameMs;
+        }
+        long parkMs = idleMs;
+        long nextOffset = feed.getNextOffset(totalElapsed);
+        if (nextOffset >= 0 && playSpeed > 0) {
+            parkMs = Math.min(parkMs, (long) ((nextOffset - totalElapsed) / playSpeed));
+        }
+        return Math.max(frameMs, parkMs);
+    }
+
+    private void bufferToNextPosition() {
+
+        log.info("Buffering to next position: {}", nextStartingPosition);
+        feed.reset();
+
+        int i = 0;
+        CompactSnapshot reqSnapshot = null;
+        CompactSnapshot prevSnapshot = null;
+        for (CompactSnapshot snapshot : timeline.getSnapshots()) {
+            long offset = timeline.getOffset(snapshot.getSamplingTime());
+
+            log.debug("Snapshot {} has offset {}", i, offset);
+
+            if (offset >= nextStartingPosition) {
+                if (prevSnapshot == null) {
+                    reqSnapshot = snapshot;
+                }
+                else {
+                    reqSnapshot = prevSnapshot;
+                }
+                break;
+            }
+            prevSnapshot = snapshot;
+            i++;
+        }
+
+        if (reqSnapshot == null) {
+            reqSnapshot = prevSnapshot;
+            if (reqSnapshot == null) {
+                log.error("Could not find snapshot for offset {}", nextStartingPosition);
+                setPlayState(PlayState.PAUSED);
+                return;
+            }
+        }
+
+        // Initialize the state at the closest possible snapshot
+        log.info("Init with snapshot with offset {}", timeline.getOffset(reqSnapshot.getSamplingTime()));
+
+        this.state = new GridState(reqSnapshot, "runState");
+
+        // Apply all events between the closet snapshot and the desired starting position
+        this.totalElapsed = timeline.getOffset((reqSnapshot.getSamplingTime())) + 1;
+        // This must be set before calling playNextSlice for the first time after changing the position
+        this.prevElapsed = totalElapsed;
+        long elapsed = nextStartingPosition - totalElapsed;
+        if (elapsed < 0) {
+            log.warn("Negative time elapsed. Normalizing to nextStartingPosition={}", nextStartingPosition);
+            totalElapsed = nextStartingPosition;
+            elapsed = nextStartingPosition;
+        }
+
+        log.info("Buffering elapsed: {}", elapsed);
+
+        // Replay the events which happened between the snapshot position and the desired starting position. Only the
+        // state needs them, since the listeners rebuild everything from it afterwards.
+        for (Event event : getNextSlice(elapsed)) {
+            if (event instanceof GridEvent) {
+                state.applyEvent((GridEvent) event);
+            }
+        }
+
+        // Get ready to start playing
+        this.lastSliceRequestDate = new Date();
+        if (totalElapsed != nextStartingPosition) {
+            totalElapsed = nextStartingPosition;
+        }
+
+        for (Listener listener : listeners) {
+            listener.playbackMoved(state);
+        }
+
+        setPlayState(PlayState.READY);
+        log.info("Buffered at totalElapsed={}", totalElapsed);
+    }
+
+    /**
+     * Play the events in the next slice of the given length: apply each one to the state, and then pass it on to the
+     * listeners.
+     */
+    private void playNextSlice(long elapsed) {
+        List<Event> events = getNextSlice(elapsed);
+        if (events.isEmpty()) return;
+        log.debug("Playing {} events", events.size());
+        for (Event event : events) {
+            GridJob job = null;
+            if (event instanceof GridEvent) {
+                GridEvent gridEvent = (GridEvent) event;
+                job = state.getJobByFullId(gridEvent.getJobId());
+                state.applyEvent(gridEvent);
+                if (job == null) {
+                    // Submitted jobs are only in the state afterwards
+                    job = state.getJobByFullId(gridEvent.getJobId());
+                }
+            }
+            for (Listener listener : listeners) {
+                listener.eventPlayed(event, job);
+            }
+        }
+    }
+
+    private List<Event> getNextSlice(long elapsed) {
+
+        List<Event> slice = new ArrayList<Event>();
+        if (elapsed <= 0) return slice;
+
+        this.totalElapsed += elapsed;
+
+        if (prevElapsed >= totalElapsed) {
+            log.warn("No slice possible with (prevElapsed={}, totalElapsed={})", prevElapsed, totalElapsed);
+            return slice;
+        }
+
+        long start = prevElapsed;
+        long end = totalElapsed;
+        Long lastPlayedPosition = null;
+
+        SortedMap<Long, List<Event>> eventSlice = feed.getEvents(start, end);
+
+        if (!eventSlice.isEmpty()) {
+
+            for (Long offset : eventSlice.keySet()) {
+                log.trace("Got offset bucket {}", offset);
+                if (offset >= totalElapsed) {
+                    log.warn("Timeline returned grid events outside the requested frame: {}>{}", offset, totalElapsed);
+                    break;
+                }
+                List<Event> events = eventSlice.get(offset);
+                synchronized (events) {
+                    if (events.isEmpty()) {
+                        log.trace("Got empty offset bucket for offset {}", offset);
+                    }
+                    for (Event event : events) {
+                        if (event instanceof GridEvent || event instanceof BurstEvent) {
+                            log.trace("Got event {}", event);
+                            if (lastPlayedPosition == null || offset > lastPlayedPosition) {
+                                lastPlayedPosition = offset;
+                            }
+                            slice.add(event);
+                        }
+                        else if (event instanceof SnapshotEvent) {
+                            log.trace("Got snapshot event {}", event);
+                        }
+                        else {
+                            log.trace("Got unrecognized event {}", event);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Move up the window just past the last position that is being played right now.
+        // This avoids moving the window up when there might still be events that are added into it.
+        if (lastPlayedPosition != null) {
+            this.prevElapsed = lastPlayedPosition + 1;
+        }
+
+        if (!slice.isEmpty()) {
+            log.debug("Requested slice where {}<=t<{} and got " + eventSlice.size() + " buckets with " + slice.size() + " events", start, end);
+        }
+        else if (!eventSlice.isEmpty()) {
+            log.debug("Requested slice where {}<=t<{} and got " + eventSlice.size() + " buckets", start, end);
+        }
+
+        return slice;
+    }
+
+    public synchronized void bufferAtPosition(long position) {
+        if (playState == PlayState.PAUSED) {
+            this.nextStartingPosition = position;
+            setPlayState(PlayState.BUFFERING);
+        }
+        else {
+            log.error("Cannot transition from " + playState + " to BUFFERING");
+        }
+    }
+
+    public synchronized void play() {
+        if (playState == PlayState.PAUSED || playState == PlayState.READY) {
+            log.info("Beginning playback at totalElapsed={}", totalElapsed);
+            this.lastSliceRequestDate = new Date();
+            setPlayState(PlayState.PLAYING);
+        }
+        else {
+            log.error("Cannot transition from " + playState + " to PLAYING");
+        }
+    }
+
+    public synchronized void pause() {
+        if (playState == PlayState.PLAYING || playState == PlayState.PAUSED) {
+            setPlayState(PlayState.PAUSED);
+        }
+        else {
+            log.error("Cannot transition from " + playState + " to PAUSED");
+        }
+    }
+
+    public synchronized void end() {
+        setPlayState(PlayState.END);
+    }
+
+    private void setPlayState(PlayState playState) {
+        log.info("Entering state: {}", playState);
+        this.playState = playState;
+        feed.wakeup();
+    }
+
+    /**
+     * Wake the playback if it's parked, e.g. because something started animating.
+     */
+    public void wakeup() {
+        feed.wakeup();
+    }
+
+    public Timeline getTimeline() {
+        return timeline;
+    }
+
+    public boolean isPaused() {
+        return playState == PlayState.PAUSED;
+    }
+
+    public boolean isReady() {
+        return playState == PlayState.READY;
+    }
+
+    public boolean isPlaying() {
+        return playState == PlayState.PLAYING;
+    }
+
+    public boolean isBuffering() {
+        return playState == PlayState.BUFFERING;
+    }
+
+    public boolean isEnded() {
+        return playState == PlayState.END;
+    }
+
+    public double getPlaySpeed() {
+        return playSpeed;
+    }
+
+    public void setPlaySpeed(double playSpeed) {
+        this.playSpeed = playSpeed;
+        feed.wakeup();
+    }
+
+    public long getPosition() {
+        return totalElapsed;
+    }
+}
@@ -0,0 +1,198 @@
+package gui;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import processing.core.PGraphics;
+import processing.core.PGraphicsJava2D;
+
+/**
+ * A Java 2D buffer which keeps its contents from frame to frame, and is repainted one region at a time. Each region
+ * (a node, a panel, etc) is identified by a key, and its contents are summarized by a signature. A region only needs
+ * to be repainted if its signature changed since it was last drawn into this buffer, so with several buffers in
+ * rotation, each one catches up with the changes it missed on its own.
+ *
+ * When drawing is done, only the repainted regions are copied to the pixels, and only their bounds are marked as
+ * modified, so that the renderer has less to upload. The whole buffer is repainted when the layout version changes.
+ *
+ * Create it with PApplet.createGraphics(w, h, RegionGraphics.class.getName()).
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class RegionGraphics extends PGraphicsJava2D {
+
+    private final Map<Object, Integer> signatures = new HashMap<Object, Integer>();
+    private final List<int[]> dirtyRegions = new ArrayList<int[]>();
+    private int layoutVersion = -1;
+    private boolean allDirty = true;
+    private long repaintedArea = 0;
+    private int[] rowBuffer = new int[0];
+    private int depth = 0;
+
+    /**
+     * Returns true if the whole buffer must be repainted, because it was last painted for a different layout.
+     */
+    public boolean isStale(int layoutVersion) {
+        return this.layoutVersion != layoutVersion;
+    }
+
+    /**
+     * Forget everything that was drawn, so that the whole buffer is repainted on the next frame.
+     */
+    public void invalidate() {
+        this.layoutVersion = -1;
+    }
+
+    /**
+     * Clear the whole buffer to the given color, and forget all the regions, in preparation for repainting
+     * everything for the given layout version.
+     */
+    public void repaintAll(int layoutVersion, int background) {
+        this.layoutVersion = layoutVersion;
+        signatures.clear();
+        dirtyRegions.clear();
+        this.allDirty = true;
+        noClip();
+        background(background);
+    }
+
+    /**
+     * Returns true if the region with the given key must be repainted, because its signature is not the one it was
+     * last painted with. The new signature is remembered.
+     */
+    public boolean needsRepaint(Object key, int signature) {
+        Integer prev = signatures.put(key, signature);
+        return allDirty || prev == null || prev != signature;
+    }
+
+    /**
+     * Clip drawing to the given region and clear it to the given color, in preparation for repainting it.
+     */
+    public void beginRegion(float x, float y, float w, float h, int background) {
+        int[] r = clipRegion(x, y, w, h);
+        if (r == null) return;
+        noStroke();
+        fill(background);
+        rect(r[0], r[1], r[2] - r[0], r[3] - r[1]);
+    }
+
+    /**
+     * Clip drawing to the given region and restore it from a layer which holds the parts of the buffer that rarely
+     * change, in preparation for drawing the rest over it. The layer is placed at (layerX, layerY) in this buffer, and
+     * anything it doesn't cover is cleared to the given color.
+     */
+    public void beginRegion(float x, float y, float w, float h, PGraphics layer, int layerX, int layerY,
+            int background) {
+        int[] r = clipRegion(x, y, w, h);
+        if (r == null) return;
+        if (r[0] < layerX || r[1] < layerY || r[2] > layerX + layer.width || r[3] > layerY + layer.height) {
+            noStroke();
+            fill(background);
+            rect(r[0], r[1], r[2] - r[0], r[3] - r[1]);
+        }
+        g2.drawImage(layer.image, r[0], r[1], r[2], r[3], r[0] - layerX, r[1] - layerY, r[2] - layerX, r[3]
+                - layerY, null);
+    }
+
+    /**
+     * Mark the given region as repainted without clipping to it, e.g. before writing into it directly.
+     *
+     * @return the region within the buffer as {x1, y1, x2, y2}, or null if it's empty
+     */
+    public int[] markRegion(float x, float y, float w, float h) {
+        return addRegion(Math.round(x), Math.round(y), Math.round(x + w), Math.round(y + h));
+    }
+
+    private int[] clipRegion(float x, float y, float w, float h) {
+        int[] region = addRegion((int) Math.floor(x), (int) Math.floor(y), (int) Math.ceil(x + w),
+                (int) Math.ceil(y + h));
+        if (region != null) {
+            clip(region[0], region[1], region[2] - region[0], region[3] - region[1]);
+        }
+        return region;
+    }
+
+    private int[] addRegion(int x1, int y1, int x2, int y2) {
+        x1 = Math.max(0, x1);
+        y1 = Math.max(0, y1);
+        x2 = Math.min(width, x2);
+        y2 = Math.min(height, y2);
+        if (x2 <= x1 || y2 <= y1) return null;
+        int[] region = new int[] { x1, y1, x2, y2 };
+        if (!allDirty) {
+            dirtyRegions.add(region);
+        }
+        return region;
+    }
+
+    /**
+     * Returns the ARGB pixels of the Java 2D image behind this buffer, which may be written into directly while
+     * drawing, or null if the image is not backed by an int array. Anything written must be inside a region marked
+     * with markRegion(), or it won't be copied to the pixels of the buffer.
+     */
+    public int[] getRasterPixels() {
+        if (!(image instanceof BufferedImage)) return null;
+        DataBuffer data = ((BufferedImage) image).getRaster().getDataBuffer();
+        if (!(data instanceof DataBufferInt) || data.getSize() != width * height) return null;
+        return ((DataBufferInt) data).getData();
+    }
+
+    public void endRegion() {
+        noClip();
+    }
+
+    /**
+     * Returns the number of pixels which were repainted in the last frame.
+     */
+    public long getRepaintedArea() {
+        return repaintedArea;
+    }
+
+    @Override
+    public void beginDraw() {
+        depth++;
+        super.beginDraw();
+    }
+
+    /**
+     * Drawables may begin and end drawing on their own, so only the outermost call finishes the frame.
+     */
+    @Override
+    public void endDraw() {
+
+        if (depth > 0 && --depth > 0) return;
+
+        if (allDirty || pixels == null || pixels.length != width * height) {
+            this.repaintedArea = (long) width * height;
+            super.endDraw();
+        }
+        else if (!dirtyRegions.isEmpty()) {
+            // Copy only the repainted regions to the pixels
+            WritableRaster raster = ((BufferedImage) image).getRaster();
+            long area = 0;
+            for (int[] r : dirtyRegions) {
+                int w = r[2] - r[0];
+                if (rowBuffer.length < w) rowBuffer = new int[w];
+                for (int y = r[1]; y < r[3]; y++) {
+                    raster.getDataElements(r[0], y, w, 1, rowBuffer);
+                    System.arraycopy(rowBuffer, 0, pixels, y * width + r[0], w);
+                }
+                updatePixelsImpl(r[0], r[1], w, r[3] - r[1]);
+                area += (long) w * (r[3] - r[1]);
+            }
+            this.repaintedArea = area;
+        }
+        else {
+            this.repaintedArea = 0;
+        }
+
+        dirtyRegions.clear();
+        this.allDirty = false;
+    }
+}
@@ -2,20 +2,15 @@ package gui;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -25,39 +20,38 @@ import org.joda.time.format.DateTimeFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
-import com.google.common.collect.Ordering;
 
 import gui.GridConfig.NodeConfiguration;
 import gui.GridConfig.NodeSubSet;
 import gui.Rectangle.Bounds;
-import ijeoma.motion.tween.NumberProperty;
-import ijeoma.motion.tween.Tween;
 import processing.core.PApplet;
 import processing.core.PFont;
 import processing.core.PGraphics;
 import processing.core.PImage;
 import processing.core.PVector;
-import snapshot.Snapshot;
+import snapshot.CompactSnapshot;
+import timeline.BurstEvent;
 import timeline.Event;
 import timeline.GridEvent;
 import timeline.GridJob;
 import timeline.GridNode;
 import timeline.GridState;
-import timeline.SnapshotEvent;
+import timeline.SlotUtilization;
 import timeline.Timeline;
+import timeline.TimelineEpoch;
+import timeline.Usage;
 import util.ArrayUtils;
 import util.ConfigProperties;
 
 /**
- * The SketchState is a background thread responsible for drawing things which are relatively static to a buffer. 
- * It has its own animation loop which tracks the timeline of the visualization at whatever rate the user selects. 
+ * The SketchState is responsible for drawing things which are relatively static to a buffer. It listens to the 
+ * shared playback, and is called on the playback thread as the events are played, at whatever rate the user selects. 
  * Because it is decoupled from the main animation loop, it has no specific timing it has to meet, so it can be 
  * relatively slow and precise. All of its drawing is done with pixel precision, using Java 2D instead of OpenGL. 
  * 
@@ -66,7 +60,7 @@ import util.ConfigProperties;
  * 
  * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
  */
-public class SketchState implements Runnable {
+public class SketchState implements Playback.Listener {
 
     private static final Logger log = LoggerFactory.getLogger(SketchState.class);
 
@@ -78,12 +72,28 @@ public class SketchState implements Runnable {
     private static final float DURATION_JOB_END = 70.0f;
     private static final float DISTANCE_JOB_START = 50.0f;
 
+    // Tags of job animations, which say what to do when they finish
+    private static final int ANIMATION_QUEUE = 1;
+    private static final int ANIMATION_START = 2;
+    private static final int ANIMATION_END = 3;
+
     // Heatmap Constants
     private static final int HEATMAP_BRIGHTNESS = 90;
     private static final int HEATMAP_SATURATION = 90;
     private static final int HEATMAP_MIN_HUE = 0;
     private static final int HEATMAP_MAX_HUE = 250;
 
+    // Regions of the main buffer which are repainted on their own, besides the nodes
+    private static final String REGION_PANEL = "panel";
+    private static final String REGION_GRAPH = "graph";
+    private static final float NODE_MARGIN = 2;
+    private static final float NODE_LABEL_HEIGHT = 15;
+    private static final float SLOT_SPACING = 3;
+    private static final float LOD_NODE_SPACING = 1;
+    private static final int LAYER_NODE = 0;
+    private static final int LAYER_SLOT = 1;
+    private static final int LAYER_JOB = 2;
+
     public class ColorScheme {
         public int gridBackgroundColor;
         public int gridBaseColor;
@@ -180,10 +190,10 @@ public class SketchState implements Runnable {
     private float topPadding = 40;
     private float padding = 20;
     private float rectSpacing = 10;
-    private float nodeLabelHeight = 15;
+    private float nodeLabelHeight = NODE_LABEL_HEIGHT;
     private float slotWidth;
     private float slotHeight;
-    private float slotSpacing = 3;
+    private float slotSpacing = SLOT_SPACING;
     private float nodeSpacing = 7;
     private float timeLabelOffset = 4;
     private float summaryQueuedJobWidth = 10;
@@ -203,25 +213,37 @@ public class SketchState implements Runnable {
 
     // Buffers
     private PApplet p = null;
-    private PGraphics offscreenBuffer = null;
-    private PGraphics onscreenBuffer = null;
+    private RegionGraphics offscreenBuffer = null;
+    private RegionGraphics onscreenBuffer = null;
     private PGraphics offscreenGraphBuffer = null;
     private PGraphics onscreenGraphBuffer = null;
 
+    // Node frames, labels and empty slots of the current subset, which are drawn again only when the static version
+    // changes, i.e. on a resize, a subset switch or a new color scheme
+    private PGraphics staticLayer = null;
+    private int staticLayerX;
+    private int staticLayerY;
+    private int staticLayerVersion = -1;
+    private boolean staticLayerHeatmap;
+    private volatile int staticVersion = 0;
+
     // Sprites
     private Legend legend;
     private SummaryView summaryView;
     private Map<String, GridNodeArray> gridSubsets = new LinkedHashMap<String, GridNodeArray>();
     private Map<String, NodeSprite> nodeSprites = new HashMap<String, NodeSprite>();
     private Map<String, SlotSprite> slotSprites = new HashMap<String, SlotSprite>();
-    private LinkedList<String> queuedJobs = new LinkedList<String>();
+    private volatile SpatialIndex<Sprite> hitIndex;
     private Multimap<String, JobSprite> jobSpriteMap = Multimaps.synchronizedMultimap(HashMultimap.<String, JobSprite> create());
     private LineGraph runningJobsGraph;
     private LineGraph queuedJobsGraph;
 
-    // Heatmap tracking
-    private Map<String, Long> slotUsage = new HashMap<String, Long>();
-    private Map<String, Long> slotStartOffsets = new HashMap<String, Long>();
+    // Heatmap of slot utilization over the window before the current position, and its colors, indexed by slot id
+    private final HeatmapRenderer heatmap = new HeatmapRenderer(HEATMAP_MIN_HUE, HEATMAP_MAX_HUE, HEATMAP_SATURATION,
+            HEATMAP_BRIGHTNESS);
+    private float[] slotUtilization;
+    private int[] slotHeatmapColors;
+    private long heatmapWindowMs = ConfigProperties.getInteger("derecho.viz.heatmap.window.mins", 0) * 60000L;
 
     // Overall state
     private Timeline timeline;
@@ -229,18 +251,31 @@ public class SketchState implements Runnable {
     private boolean showGraph = true;
     private boolean bwMode = false;
 
-    // State for playing
-    private PlayState playState = PlayState.PAUSED;
-    private GridState state;
+    // State for playing, which is the state of the shared playback
+    private volatile GridState state;
+    private Usage retainedUsage;
+    private final Queue<JobSprite> defunctSprites = new ConcurrentLinkedQueue<JobSprite>();
     private String currSubsetName;
-
-    private double playSpeed = 1.0f;
-    private long prevElapsed;
-    private long totalElapsed = 0;
-    private Date lastSliceRequestDate;
-    private long nextStartingPosition = 0;
     private int maxGraphValue;
 
+    // The shared playback, which parks whenever there is nothing to draw
+    private final Playback playback;
+    private long animatingUntil = 0;
+
+    // Moves and fades the job sprites
+    private final Animator animator = new Animator(1024);
+
+    // Incremental rendering, where everything is repainted only when the layout version changes
+    private volatile int layoutVersion = 0;
+    private int usageVersion = 0;
+    private volatile long repaintedArea = 0;
+
+    // Level of detail: when slots would be narrower than this, the nodes are packed without labels or spacing, and
+    // written straight into the pixels of the buffer, mixing the colors of the slots under each pixel
+    private float lodSlotWidth = ConfigProperties.getFloat("derecho.viz.lod.slot.width", 2.0f);
+    private volatile boolean lod = false;
+    private int[] lodColors = new int[0];
+
     // Aspect ratio for slots
     private float slotAspectRatio = ConfigProperties.getFloat("derecho.viz.draw.slot.aspectratio", 1.0f);
     
@@ -250,6 +285,9 @@ public class SketchState implements Runnable {
     // Draw animations?
     private boolean isDrawAnimations = ConfigProperties.getBoolean("derecho.viz.draw.animations", true);
 
+    // How long a node flashes to show a burst of short-lived jobs
+    private long burstDurationMs = ConfigProperties.getInteger("derecho.viz.draw.burst.ms", 1500);
+
     // Should changes to sprites be tweened? This is usually disabled during buffering, for example.
     private boolean tweenChanges = isDrawAnimations;
 
@@ -262,11 +300,12 @@ public class SketchState implements Runnable {
     // Draw snapshot lines on the graphs?
     private boolean isDrawSnapshotLines = false;
 
-    public SketchState(PApplet p, Timeline timeline, float width, float height) {
+    public SketchState(PApplet p, Playback playback, float width, float height) {
         this.p = p;
         this.width = width;
         this.height = height;
-        this.timeline = timeline;
+        this.timeline = playback.getTimeline();
+        this.playback = playback;
 
         int nodeFontHeight;
         int legendFontHeight;
@@ -318,319 +357,67 @@ public class SketchState implements Runnable {
         this.titleFont = p.loadFont("LucidaConsole-" + this.titleFontHeight + ".vlw");
     }
 
-    //
-    // --totalElapsed-
-    // ----elapsed----
-    // |---------------|--------------------------------------------------------
-    // lastSliceDate currDate
-    //
-    // --------totalElapsed------------
-    // ----elapsed----
-    // |---------------|---------------|----------------------------------------
-    // lastSliceDate currDate
-    //
-    //
-    // --------------totalElapsed----------------------
-    // ----elapsed----
-    // |-------------------------------|---------------|------------------------
-    // lastSliceDate currDate
-    //
-
-    @Override
-    public void run() {
-
-        while (true) {
-
-            switch (playState) {
-
-            case BUFFERING:
-                bufferToNextPosition();
-                break;
-
-            case PLAYING:
-                Date currDate = new Date();
-                long elapsed = (int) ((currDate.getTime() - lastSliceRequestDate.getTime()) * playSpeed);
-                this.lastSliceRequestDate = currDate;
-                this.maxGraphValue = (runningJobsGraph.getGraphMap().isEmpty() || queuedJobsGraph.getGraphMap().isEmpty()) ? 0
-                        : (Math.max(Collections.max(runningJobsGraph.getGraphMap().values()),
-                                Collections.max(queuedJobsGraph.getGraphMap().values())));
-                while (maxGraphValue % 10 > 0 && maxGraphValue % 5 > 0) {
-                    maxGraphValue++;
-                }
-
-                runningJobsGraph.setMaxValue(maxGraphValue);
-                queuedJobsGraph.setMaxValue(maxGraphValue);
-
-                // Check if we've been truncated, and move forward if necessary
-                if (totalElapsed < timeline.getFirstOffset()) {
-                    log.info("Elapsed time ({}) occurs before the current timeline ({})", totalElapsed, timeline.getFirstOffset());
-
-                    long position = elapsed;
-                    boolean noMatch = true;
-                    while (noMatch) {
-                        if (position != timeline.getFirstOffset()) {
-                            position = timeline.getFirstOffset();
-                            try {
-                                Thread.sleep(500);
-                            }
-                            catch (InterruptedException e) {
-                                // Ignore
-                            }
-                        }
-                        else {
-                            noMatch = false;
-                        }
-                    }
-                    log.info("Will buffer to new position: {}", position);
-                    bufferAtPosition(position);
-                    break;
-                }
-
-                // Update sprites and build a usage map
-                Map<String, Integer> slotsUsedByUser = new HashMap<String, Integer>();
-                Map<String, Integer> slotsQueuedByUser = new HashMap<String, Integer>();
-                Iterator<? extends Sprite> i = getJobSprites().values().iterator();
-                while (i.hasNext()) {
-                    Sprite sprite = i.next();
-                    if (sprite instanceof JobSprite) {
-                        JobSprite jobSprite = (JobSprite) sprite;
-                        if (jobSprite.defunct) {
-                            removeJobSprite(jobSprite);
-                        }
-                        else {
-                            int slots = 1;
-                            if (jobSprite.queued) {
-                                // If a job is queued then it is represented by a single sprite, so we need the
-                                // actual number of slots
-                                GridJob job = state.getJobByFullId(jobSprite.name);
-                                if (job != null) {
-                                    slots = job.getSlots();
-                                }
-                            }
-
-                            if (jobSprite.getName().contains(":")) {
-                                // Parse a jobId like this: 1275988.2828-4000:1
-                                try {
-                                    Pattern p = Pattern.compile("(\\d+)\\.(\\d+)-(\\d+):(\\d+)");
-                                    Matcher m = p.matcher(jobSprite.getName());
-                                    if (m.matches()) {
-                                        int start = Integer.parseInt(m.group(2));
-                                        int end = Integer.parseInt(m.group(3));
-                                        int interval = Integer.parseInt(m.group(4));
-                                        slots = (end - start) / interval;
-                                    }
-                                }
-                                catch (Exception e) {
-                                    log.error("Error parsing jobId: " + jobSprite.getName(), e);
-                                }
-                            }
-                            else if (jobSprite.getName().contains(",")) {
-                                // Parse a jobId like this: 2968157.205,211
-                                try {
-                                    Pattern p = Pattern.compile("(\\d+)\\.(\\d+),(\\d+)");
-                                    Matcher m = p.matcher(jobSprite.getName());
-                                    if (m.matches()) {
-                                        int first = Integer.parseInt(m.group(2));
-                                        int second = Integer.parseInt(m.group(3));
-                                        // There are two jobs listed here, so we require twice the number of slots
-                                        slots *= 2;
-                                    }
-                                }
-                                catch (Exception e) {
-                                    log.error("Error parsing jobId: " + jobSprite.getName(), e);
-                                }
-                            }
-
-                            String user = jobSprite.getUsername();
-                            if (!slotsUsedByUser.containsKey(user)) {
-                                slotsUsedByUser.put(user, 0);
-                            }
-                            if (!slotsQueuedByUser.containsKey(user)) {
-                                slotsQueuedByUser.put(user, 0);
-                            }
-                            if (jobSprite.queued) {
-                                slotsQueuedByUser.put(user, slotsQueuedByUser.get(user) + slots);
-                            }
-                            else {
-                                slotsUsedByUser.put(user, slotsUsedByUser.get(user) + slots);
-                            }
-                        }
-                    }
-                }
-
-                legend.retain(slotsUsedByUser);
-                summaryView.retain(slotsUsedByUser, slotsQueuedByUser);
-
-                updateWindowSizes();
-                recalculateQueuePacking();
-                updateState(elapsed);
-                updateOffscreenBuffer();
-                updateOffscreenGraphBuffer();
-                flipBuffers();
-
-                break;
-
-            case READY:
-                break;
-
-            case PAUSED:
-                break;
-
-            case END:
-                return;
-
-            default:
-                log.error("Invalid play state: " + playState);
-                break;
-
-            }
-
-            try {
-                Thread.sleep(50);
-            }
-            catch (InterruptedException e) {
-                // Ignore
-            }
-        }
+    public void playbackMoved(GridState state) {
+        this.state = state;
+        initState();
+        this.retainedUsage = null;
     }
 
-    private void bufferToNextPosition() {
-
-        log.info("Buffering to next position: {}", nextStartingPosition);
-
-        int i = 0;
-        Snapshot reqSnapshot = null;
-        Snapshot prevSnapshot = null;
-        for (Snapshot snapshot : timeline.getSnapshots()) {
-            long offset = timeline.getOffset(snapshot.getSamplingTime());
-
-            log.debug("Snapshot {} has offset {}", i, offset);
-
-            if (offset >= nextStartingPosition) {
-                if (prevSnapshot == null) {
-                    reqSnapshot = snapshot;
-                }
-                else {
-                    reqSnapshot = prevSnapshot;
-                }
-                break;
-            }
-            prevSnapshot = snapshot;
-            i++;
-        }
-
-        if (reqSnapshot == null) {
-            reqSnapshot = prevSnapshot;
-            if (reqSnapshot == null) {
-                log.error("Could not find snapshot for offset {}", nextStartingPosition);
-                setPlayState(PlayState.PAUSED);
-                return;
-            }
-        }
+    public void frameStarted() {
 
-        // Initialize the state at the closest possible snapshot
-        log.info("Init with snapshot with offset {}", timeline.getOffset(reqSnapshot.getSamplingTime()));
-
-        this.state = new GridState(reqSnapshot, "runState");
-        initState();
-
-        // Apply all events between the closet snapshot and the desired starting position
-        this.totalElapsed = timeline.getOffset((reqSnapshot.getSamplingTime())) + 1;
-        // This must be set before calling updateState for the first time after changing the position (i.e. totalElapsed)
-        this.prevElapsed = totalElapsed;
-        long elapsed = nextStartingPosition - totalElapsed;
-        if (elapsed < 0) {
-            log.warn("Negative time elapsed. Normalizing to nextStartingPosition={}", nextStartingPosition);
-            totalElapsed = nextStartingPosition;
-            elapsed = nextStartingPosition;
+        this.maxGraphValue = (runningJobsGraph.getSeries().isEmpty() || queuedJobsGraph.getSeries().isEmpty()) ? 0
+                : Math.max(runningJobsGraph.getSeries().getMax(), queuedJobsGraph.getSeries().getMax());
+        while (maxGraphValue % 10 > 0 && maxGraphValue % 5 > 0) {
+            maxGraphValue++;
         }
 
-        log.info("Buffering elapsed: {}", elapsed);
-
-        // Replay the events which happened between the snapshot position and the desired starting position
-        if (isDrawAnimations) this.tweenChanges = false;
-        updateState(elapsed);
-        if (isDrawAnimations) this.tweenChanges = true;
+        runningJobsGraph.setMaxValue(maxGraphValue);
+        queuedJobsGraph.setMaxValue(maxGraphValue);
 
-        // Get ready to start playing
-        this.lastSliceRequestDate = new Date();
-        if (totalElapsed != nextStartingPosition) {
-            totalElapsed = nextStartingPosition;
+        // Drop the sprites of jobs which have finished ending
+        JobSprite defunctSprite;
+        while ((defunctSprite = defunctSprites.poll()) != null) {
+            removeJobSprite(defunctSprite);
         }
 
-        setPlayState(PlayState.READY);
-        log.info("Buffered at totalElapsed={}", totalElapsed);
-    }
-
-    public synchronized void bufferAtPosition(long position) {
-        if (playState == PlayState.PAUSED) {
-            setPlayState(PlayState.BUFFERING);
-            this.nextStartingPosition = position;
-        }
-        else {
-            log.error("Cannot transition from " + playState + " to BUFFERING");
+        // The usage is maintained by the state as events are applied, so this is only a version check
+        Usage usage = state.getUsage();
+        if (usage != retainedUsage) {
+            legend.retain(usage);
+            summaryView.retain(usage);
+            this.retainedUsage = usage;
+            usageVersion++;
         }
-    }
 
-    public synchronized void play() {
-        if (playState == PlayState.PAUSED || playState == PlayState.READY) {
-            log.info("Beginning playback at totalElapsed={}", totalElapsed);
-            this.lastSliceRequestDate = new Date();
-            setPlayState(PlayState.PLAYING);
-        }
-        else {
-            log.error("Cannot transition from " + playState + " to PLAYING");
-        }
+        updateWindowSizes();
+        recalculateQueuePacking();
     }
 
-    public synchronized void pause() {
-        if (playState == PlayState.PLAYING || playState == PlayState.PAUSED) {
-            setPlayState(PlayState.PAUSED);
+    public void eventPlayed(Event event, GridJob job) {
+        if (event instanceof GridEvent) {
+            applyEvent((GridEvent) event, job);
         }
-        else {
-            log.error("Cannot transition from " + playState + " to PAUSED");
+        else if (event instanceof BurstEvent) {
+            applyBurst((BurstEvent) event);
         }
     }
 
-    public synchronized void end() {
-        setPlayState(PlayState.END);
+    public void frameFinished(long position) {
+        relocateQueuedSprites();
+        updateOffscreenBuffer();
+        updateOffscreenGraphBuffer();
+        flipBuffers();
     }
 
-    private void setPlayState(PlayState playState) {
-        log.info("Entering state: {}", playState);
-        this.playState = playState;
-    }
-
-    public boolean isPaused() {
-        return playState == PlayState.PAUSED;
+    public boolean isAnimating() {
+        return System.currentTimeMillis() < animatingUntil;
     }
 
+    /**
+     * Returns true once the sprites have been built from the state of the playback.
+     */
     public boolean isReady() {
-        return playState == PlayState.READY;
-    }
-
-    public boolean isPlaying() {
-        return playState == PlayState.PLAYING;
-    }
-
-    public boolean isBuffering() {
-        return playState == PlayState.BUFFERING;
-    }
-
-    public boolean isEnded() {
-        return playState == PlayState.END;
-    }
-
-    public double getPlaySpeed() {
-        return playSpeed;
-    }
-
-    public void setPlaySpeed(double playSpeed) {
-        this.playSpeed = playSpeed;
-    }
-
-    public long getPosition() {
-        return totalElapsed;
+        return state != null;
     }
 
     private void updateWindowSizes() {
@@ -655,8 +442,8 @@ public class SketchState implements Runnable {
     private void recalculateQueuePacking() {
 
         int total = 0;
-        for (String fullJobId : queuedJobs) {
-            total += jobSpriteMap.get(fullJobId).size();
+        for (GridJob job : state.getQueuedJobs()) {
+            total += jobSpriteMap.get(job.getFullJobId()).size();
         }
 
         float defaultSquare = slotWidth;
@@ -706,14 +493,15 @@ public class SketchState implements Runnable {
 
     private void initState() {
 
+        // Keep showing the same subset, if it's still there
+        String prevSubsetName = currSubsetName;
         this.gridSubsets.clear();
         this.currSubsetName = null;
         this.nodeSprites.clear();
         this.slotSprites.clear();
-        this.queuedJobs.clear();
         this.jobSpriteMap.clear();
-        this.slotUsage.clear();
-        this.slotStartOffsets.clear();
+        // The index is rebuilt when the new sprites are laid out
+        this.hitIndex = null;
 
         this.nodeSpacing = (float) width / (float) 400;
 
@@ -722,11 +510,9 @@ public class SketchState implements Runnable {
         this.summaryView = new SummaryView(null, legendFont, legendFontHeight, legend);
 
         // Initialize Graphs
-        Map<Long, Integer> runningJobsMap = timeline.getNumRunningJobsMap();
-        Map<Long, Integer> queuedJobsMap = timeline.getNumQueuedJobsMap();
-        this.runningJobsGraph = new LineGraph(null, timeline, runningJobsMap);
+        this.runningJobsGraph = new LineGraph(null, timeline, timeline.getNumRunningJobsSeries());
         this.runningJobsGraph.setColor(colorScheme.graphLineColorRunningJobs);
-        this.queuedJobsGraph = new LineGraph(null, timeline, queuedJobsMap);
+        this.queuedJobsGraph = new LineGraph(null, timeline, timeline.getNumQueuedJobsSeries());
         this.queuedJobsGraph.setColor(colorScheme.graphLineColorQueuedJobs);
 
         // Initialize the grid configuration
@@ -738,6 +524,9 @@ public class SketchState implements Runnable {
                 this.currSubsetName = nodeSubSet.getName();
             }
         }
+        if (prevSubsetName != null && gridSubsets.containsKey(prevSubsetName)) {
+            this.currSubsetName = prevSubsetName;
+        }
 
         // Initialize sprites from the grid state
         for (GridNode node : state.getNodeMap().values()) {
@@ -768,7 +557,6 @@ public class SketchState implements Runnable {
                     addJobSprite(jobSprite);
 
                     log.debug("Init - Starting job {} on slot: {}", job.getFullJobId(), slotSprite.name);
-                    slotStartOffsets.put(slotSprite.name, nextStartingPosition);
                 }
                 s++;
             }
@@ -779,7 +567,6 @@ public class SketchState implements Runnable {
             JobSprite jobSprite = createJobSprite(job, null);
             jobSprite.queued = true;
             addJobSprite(jobSprite);
-            queuedJobs.add(job.getFullJobId());
         }
 
         resizeForSubset();
@@ -788,14 +575,16 @@ public class SketchState implements Runnable {
         // The way this is done is very deliberate. The buffer needs to be fully initialized before being available
         // to the sketch. If begin/end draw is not called before the field is set, then we get null pointers from AWT.
 
-        PGraphics onscreenBuffer = p.createGraphics((int) width, (int) height, PGraphics.JAVA2D);
+        RegionGraphics onscreenBuffer = (RegionGraphics) p.createGraphics((int) width, (int) height,
+                RegionGraphics.class.getName());
         onscreenBuffer.smooth();
         onscreenBuffer.hint(PGraphics.ENABLE_NATIVE_FONTS);
         onscreenBuffer.beginDraw();
         onscreenBuffer.endDraw();
         this.onscreenBuffer = onscreenBuffer;
 
-        PGraphics offscreenBuffer = p.createGraphics((int) width, (int) height, PGraphics.JAVA2D);
+        RegionGraphics offscreenBuffer = (RegionGraphics) p.createGraphics((int) width, (int) height,
+                RegionGraphics.class.getName());
         offscreenBuffer.smooth();
         offscreenBuffer.hint(PGraphics.ENABLE_NATIVE_FONTS);
         offscreenBuffer.beginDraw();
@@ -819,6 +608,9 @@ public class SketchState implements Runnable {
 
     private void resizeForSubset() {
 
+        layoutVersion++;
+        staticVersion++;
+
         // All sizes are defined in a specific order!
         GridNodeArray subset = gridSubsets.get(currSubsetName);
         int numRows = subset.getNumRows();
@@ -829,11 +621,24 @@ public class SketchState implements Runnable {
 
         // Position grid nodes for the current subset
         float gridWidth = width - 2 * padding;
-        float nodeWidth = ((gridWidth + nodeSpacing) / (numCols - emptyCols)) - nodeSpacing;
+        float spacing = nodeSpacing;
+        float nodeWidth = ((gridWidth + spacing) / (numCols - emptyCols)) - spacing;
+        this.lod = (nodeWidth - SLOT_SPACING * 5) / 4 < lodSlotWidth;
+        if (lod) {
+            // Too small for slots to be drawn one by one, so pack the nodes as tightly as possible
+            spacing = LOD_NODE_SPACING;
+            nodeWidth = ((gridWidth + spacing) / (numCols - emptyCols)) - spacing;
+            this.slotSpacing = 0;
+            this.nodeLabelHeight = 0;
+        }
+        else {
+            this.slotSpacing = SLOT_SPACING;
+            this.nodeLabelHeight = NODE_LABEL_HEIGHT;
+        }
         this.slotWidth = (nodeWidth - slotSpacing * 5) / 4;
         if (slotWidth>20) slotWidth = 20;
         slotHeight = slotWidth * slotAspectRatio;
-        log.trace("slotSize: {} x {}", slotWidth, slotHeight);
+        log.trace("slotSize: {} x {} (lod={})", new Object[] { slotWidth, slotHeight, lod });
         float gridHeight = 0;
 
         for (int j = emptyRows; j < numRows; j++) {
@@ -854,16 +659,16 @@ public class SketchState implements Runnable {
                 rowMaxHeight = Math.max(rowMaxHeight, nodeHeight);
 
                 // Position each node
-                PVector pos = new PVector((nodeWidth + nodeSpacing) * colNum, gridHeight);
+                PVector pos = new PVector((nodeWidth + spacing) * colNum, gridHeight);
                 pos.add(gridPos);
                 nodeSprite.setRect(new Rectangle(pos.x, pos.y, nodeWidth, nodeHeight));
             }
 
-            gridHeight += rowMaxHeight + nodeSpacing;
+            gridHeight += rowMaxHeight + spacing;
         }
 
         // Subtract the last padding
-        gridHeight -= nodeSpacing;
+        gridHeight -= spacing;
 
         // Grid Window
         this.gridRect = new Rectangle(gridPos.x, gridPos.y, gridWidth, gridHeight);
@@ -872,11 +677,35 @@ public class SketchState implements Runnable {
 
         // Recalculate the sizes of dynamic windows
         updateWindowSizes();
+
+        // Index the nodes and slots for hit testing. Job sprites are indexed when they come to rest.
+        SpatialIndex<Sprite> index = new SpatialIndex<Sprite>(width, height, Math.max(4, slotWidth + slotSpacing));
+        for (NodeSprite nodeSprite : subset.sprites) {
+            if (nodeSprite.rect == null) continue;
+            index.put(nodeSprite, LAYER_NODE, nodeSprite.pos.x, nodeSprite.pos.y, nodeSprite.rect.getWidth(),
+                    nodeSprite.rect.getHeight());
+            for (SlotSprite slotSprite : nodeSprite.slots) {
+                index.put(slotSprite, LAYER_SLOT, slotSprite.pos.x, slotSprite.pos.y, slotWidth, slotHeight);
+            }
+        }
+        this.hitIndex = index;
+    }
+
+    /**
+     * Returns the node, slot or static job sprite under the given point of the main buffer, or null if there is
+     * nothing there.
+     */
+    public Sprite getSpriteAt(float x, float y) {
+        SpatialIndex<Sprite> index = hitIndex;
+        if (index == null) return null;
+        // Jobs are not shown on the heatmap
+        return index.get(x, y, isHeatmap ? LAYER_SLOT : LAYER_JOB);
     }
 
     private void resizeGraphWindow() {
 
         if (gridRect == null) return;
+        layoutVersion++;
 
         // Graph Window
         float graphWindowWidth = gridRect.getWidth();
@@ -900,50 +729,15 @@ public class SketchState implements Runnable {
         queuedJobsGraph.setRect(graphPaddedRect);
     }
 
-    private void updateState(long elapsed) {
-
-        // TODO: update the NodeSprites, if any changed (went down or came up)
-
-        // Update the job sprites
-        List<GridEvent> events = getNextSlice(elapsed);
-        if (!events.isEmpty()) {
-            log.debug("Applying {} events", events.size());
-            for (GridEvent event : events) {
-                applyEvent(event);
-            }
-        }
-
-        // Clean up queue
-        List<String> toRemove = new ArrayList<String>();
-        for (String jobIdString : queuedJobs) {
-            GridJob job = state.getJobByFullId(jobIdString);
-            if (job == null) {
-                toRemove.add(jobIdString);
-            }
-        }
-        for (String jobIdString : toRemove) {
-            queuedJobs.remove(jobIdString);
-        }
-
-        Collections.sort(queuedJobs, new Comparator<String>() {
-            @Override
-            public int compare(String jid1, String jid2) {
-                GridJob j1 = state.getJobByFullId(jid1);
-                GridJob j2 = state.getJobByFullId(jid2);
-                ComparisonChain chain = ComparisonChain.start()
-                        .compareFalseFirst(j1 == null, j2 == null)
-                        .compare(j1.getSubTime(), j2.getSubTime(), Ordering.natural().nullsLast());
-                return chain.result();
-            }
-        });
-
-        // Relocate the remaining queued job sprites
+    /**
+     * Relocate the queued job sprites, in queue order.
+     */
+    private void relocateQueuedSprites() {
         int i = 0;
         log.trace("---------------------------------");
-        for (String fullJobId : queuedJobs) {
-
-            GridJob job = state.getJobByFullId(fullJobId);
+        for (GridJob job : state.getQueuedJobs()) {
 
+            String fullJobId = job.getFullJobId();
             Collection<JobSprite> sprites = jobSpriteMap.get(fullJobId);
             if (sprites == null) {
                 log.warn("No such queued job: {}", fullJobId);
@@ -962,93 +756,18 @@ public class SketchState implements Runnable {
                 }
             }
         }
-
-        if (queuedJobs.size() != state.getQueuedJobs().size()) {
-            log.warn("Queue size (" + queuedJobs.size() + ") does not match state (" + state.getQueuedJobs().size() + ")");
-        }
-    }
-
-    private List<GridEvent> getNextSlice(long elapsed) {
-
-        List<GridEvent> slice = new ArrayList<GridEvent>();
-        if (elapsed <= 0) return slice;
-
-        this.totalElapsed += elapsed;
-
-        if (prevElapsed >= totalElapsed) {
-            log.warn("No slice possible with (prevElapsed={}, totalElapsed={})", prevElapsed, totalElapsed);
-            return slice;
-        }
-
-        long start = prevElapsed;
-        long end = totalElapsed;
-        Long lastPlayedPosition = null;
-
-        SortedMap<Long, List<Event>> eventSlice = timeline.getEvents(start, end);
-
-        if (!eventSlice.isEmpty()) {
-
-            for (Long offset : eventSlice.keySet()) {
-                log.trace("Got offset bucket {}", offset);
-                if (offset >= totalElapsed) {
-                    log.warn("Timeline returned grid events outside the requested frame: {}>{}", offset, totalElapsed);
-                    break;
-                }
-                List<Event> events = eventSlice.get(offset);
-                synchronized (events) {
-                    if (events.isEmpty()) {
-                        log.trace("Got empty offset bucket for offset {}", offset);
-                    }
-                    for (Event event : events) {
-                        if (event instanceof GridEvent) {
-                            GridEvent gridEvent = (GridEvent) event;
-                            log.trace("Got grid event {}", gridEvent);
-                            if (lastPlayedPosition == null || offset > lastPlayedPosition) {
-                                lastPlayedPosition = offset;
-                            }
-                            slice.add(gridEvent);
-                        }
-                        else if (event instanceof SnapshotEvent) {
-                            SnapshotEvent gridEvent = (SnapshotEvent) event;
-                            log.trace("Got snapshot event {}", gridEvent);
-                        }
-                        else {
-                            log.trace("Got unrecognized event {}", event);
-                        }
-                    }
-                }
-            }
-        }
-
-        // Move up the window just past the last position that is being played right now.
-        // This avoids moving the window up when there might still be events that are added into it.
-        if (lastPlayedPosition != null) {
-            this.prevElapsed = lastPlayedPosition + 1;
-        }
-
-        if (!slice.isEmpty()) {
-            log.debug("Requested slice where {}<=t<{} and got " + eventSlice.size() + " buckets with " + slice.size() + " grid events", start, end);
-        }
-        else if (!eventSlice.isEmpty()) {
-            log.debug("Requested slice where {}<=t<{} and got " + eventSlice.size() + " buckets", start, end);
-        }
-
-        return slice;
     }
 
-    private void applyEvent(GridEvent event) {
-
-        String fullJobId = event.getJobId();
-        GridJob job = state.getJobByFullId(fullJobId);
-
-        // Update the run state
-        state.applyEvent(event);
+    /**
+     * Bring the sprites in line with an event, which the playback already applied to the run state.
+     */
+    private void applyEvent(GridEvent event, GridJob job) {
 
         // Update the sprite state
         switch (event.getType()) {
         case SUB:
             if (job == null) {
-                job = new GridJob(event.getSnapshotJob());
+                job = new GridJob(event.getJob());
             }
             applySub(job);
             break;
@@ -1068,12 +787,31 @@ public class SketchState implements Runnable {
                 applyEnd(job, event.getOffset());
             }
             break;
+        case UPDATE:
+            if (job == null) {
+                log.error("Cannot update null job");
+            }
+            else {
+                applyUpdate(job);
+            }
+            break;
         default:
             log.warn("Unrecognized event type: {}", event.getType());
             break;
         }
     }
 
+    private void applyBurst(BurstEvent event) {
+        if (!tweenChanges) return;
+        NodeSprite nodeSprite = nodeSprites.get(event.getNodeName());
+        if (nodeSprite == null) {
+            log.trace("Ignoring burst on unknown node {}", event.getNodeName());
+            return;
+        }
+        nodeSprite.flash(legend.getItemColor(event.getMainOwner()), event.getNumJobs());
+        this.animatingUntil = Math.max(animatingUntil, System.currentTimeMillis() + burstDurationMs);
+    }
+
     private void applySub(GridJob job) {
 
         String fullJobId = job.getFullJobId();
@@ -1085,19 +823,16 @@ public class SketchState implements Runnable {
 
         log.debug("Adding queued job {} for {}", job.getFullJobId(), job.getOwner());
 
-        PVector pos = getQueuedPosition(fullJobId, queuedJobs.size());
+        // The run state already has the job in its queue, so it goes straight to its place in line
+        int rank = state.getQueuedJobs().rank(fullJobId);
+        PVector pos = getQueuedPosition(fullJobId, rank < 0 ? state.getQueuedJobs().size() : rank);
         JobSprite jobSprite = createJobSprite(job, pos);
         jobSprite.opacity = 0;
         jobSprite.queued = true;
         addJobSprite(jobSprite);
-        queuedJobs.add(fullJobId);
 
         if (tweenChanges) {
-            Tween tween = new Tween("queue_job_" + fullJobId, getTweenDuration(DURATION_JOB_SUB))
-                    .addProperty(new NumberProperty(jobSprite, "opacity", 255))
-                    .call(jobSprite, "jobQueued")
-                    .noAutoUpdate();
-            jobSprite.addTween(tween);
+            animator.add(jobSprite, null, 255, getTweenDuration(DURATION_JOB_SUB), Animator.LINEAR, ANIMATION_QUEUE);
         }
         else {
             jobSprite.opacity = 255;
@@ -1121,14 +856,18 @@ public class SketchState implements Runnable {
             return;
         }
 
-        if (!queuedJobs.remove(job.getFullJobId())) {
+        boolean wasQueued = false;
+        for (JobSprite sprite : sprites) {
+            if (sprite.queued) wasQueued = true;
+        }
+        if (!wasQueued) {
             log.warn("Starting job that was never queued: {}", fullJobId);
         }
         else {
             log.debug("Starting queued job {} on {}", fullJobId, job.getNode().getShortName());
         }
 
-        log.trace("# of sprites = {}, # queued jobs = {}", jobSpriteMap.size(), queuedJobs.size());
+        log.trace("# of sprites = {}, # queued jobs = {}", jobSpriteMap.size(), state.getQueuedJobs().size());
 
         String nodeName = job.getNode().getShortName();
         NodeSprite nodeSprite = nodeSprites.get(nodeName);
@@ -1148,22 +887,12 @@ public class SketchState implements Runnable {
         boolean found = false;
 
         int i = 0;
-        GridJob[] nodeJobs = job.getNode().getSlots();
-        for (int s = 0; s < nodeJobs.length; s++) {
-            GridJob nodeJob = nodeJobs[s];
-            if (nodeJob == null) continue;
-            if (!nodeJob.getFullJobId().equals(fullJobId)) continue;
+        for (int s : job.getNode().getSlotIndexes(fullJobId)) {
             found = true;
 
             SlotSprite slotSprite = nodeSprite.slots[s];
 
-            if (slotStartOffsets.get(slotSprite.name) != null) {
-                log.error("Error tracking slot start for jobId={}. Something on this slot was already started: {}", nodeJob.getFullJobId(),
-                        slotSprite.name);
-            }
-
             log.debug("Starting job {} on slot: {}", job.getFullJobId(), slotSprite.name);
-            slotStartOffsets.put(slotSprite.name, timeline.getOffset(nodeJob.getStartTime()));
 
             if (i > 0) {
                 jobSprite = cloneJobSprite(fullJobId);
@@ -1176,16 +905,12 @@ public class SketchState implements Runnable {
                 float distance = jobSprite.pos.dist(slotSprite.pos);
                 float duration = (DURATION_JOB_START * distance / DISTANCE_JOB_START) * 0.6f;
 
-                Tween tween = new Tween("start_job_" + fullJobId + "#" + i, getTweenDuration(duration))
-                        .addPVector(jobSprite.pos, slotSprite.pos.get())
-                        .call(jobSprite, "jobStarted")
-                        .setEasing(Tween.SINE_BOTH)
-                        .noAutoUpdate();
-
                 if (isDrawLaserTracking) {
                     jobSprite.endPos = slotSprite.pos.get();
                 }
-                jobSprite.addTween(tween);
+                animator.add(jobSprite, slotSprite.pos, Animator.KEEP, getTweenDuration(duration), Animator.SINE_BOTH,
+                        ANIMATION_START);
+                unindex(jobSprite);
             }
             else {
                 jobSprite.setPos(slotSprite.pos);
@@ -1196,7 +921,9 @@ public class SketchState implements Runnable {
 
         if (!found) {
             log.warn("Could not find assigned slot for job {}, deleting it.", fullJobId);
-            jobSpriteMap.removeAll(fullJobId);
+            for (JobSprite removed : jobSpriteMap.removeAll(fullJobId)) {
+                unindex(removed);
+            }
         }
     }
 
@@ -1216,49 +943,47 @@ public class SketchState implements Runnable {
             log.debug("Finishing job {} on node {}", fullJobId, job.getNode().getShortName());
         }
 
-        int i = 0;
         for (JobSprite jobSprite : sprites) {
 
             if (jobSprite.slotSprite != null) {
-                String slotName = jobSprite.slotSprite.name;
-                Long startOffset = slotStartOffsets.get(slotName);
-                if (startOffset == null) {
-                    log.error("Error tracking slot end for jobId: {}. No start offset for slot: {}", fullJobId, slotName);
-                }
-                else {
-                    long timeInUse = endOffset - startOffset;
-                    Long currUse = slotUsage.get(slotName);
-                    if (currUse == null) currUse = 0L;
-                    if (timeInUse > 0) {
-                        slotUsage.put(slotName, currUse + timeInUse);
-                    }
-                    slotStartOffsets.remove(slotName);
-                    log.debug("Removing job from slot: {}", slotName);
-                }
-            }
-
-            PVector endPos = new PVector(0, 0);
-            if (jobSprite.pos != null) {
-                endPos = new PVector(jobSprite.pos.x, jobSprite.pos.y - 20);
+                log.debug("Removing job from slot: {}", jobSprite.slotSprite.name);
             }
 
             if (tweenChanges) {
-                Tween tween = new Tween("end_job_" + fullJobId + "#" + i, getTweenDuration(DURATION_JOB_END))
-                        .addPVector(jobSprite.pos, endPos)
-                        .addProperty(new NumberProperty(jobSprite, "opacity", 0))
-                        .call(jobSprite, "jobEnded")
-                        .noAutoUpdate();
-
-                jobSprite.addTween(tween);
+                animator.add(jobSprite, jobSprite.pos.x, jobSprite.pos.y - 20, 0, 0, getTweenDuration(DURATION_JOB_END),
+                        Animator.LINEAR, ANIMATION_END);
+                unindex(jobSprite);
             }
             else {
                 jobSprite.jobEnded();
             }
+        }
+    }
 
-            i++;
+    /**
+     * Bring the sprites of a job in line with the job after it was updated, e.g. when some tasks of a queued array
+     * job started and fewer remain in the queue.
+     */
+    private void applyUpdate(GridJob job) {
+        Collection<JobSprite> sprites = jobSpriteMap.get(job.getFullJobId());
+        if (sprites == null) return;
+        synchronized (jobSpriteMap) {
+            for (JobSprite jobSprite : sprites) {
+                if (job.getOwner() != null && !job.getOwner().equals(jobSprite.username)) {
+                    jobSprite.username = job.getOwner();
+                    jobSprite.color = legend.getItemColor(job.getOwner());
+                }
+                jobSprite.tooltip = getTooltip(job);
+            }
         }
     }
 
+    private String getTooltip(GridJob job) {
+        String demand = job.getTaskCount() > 1 ? job.getTaskCount() + " tasks, " + job.getSlotDemand() + " slots"
+                : job.getSlotDemand() + " slots";
+        return "Job #" + job.getFullJobId() + " for " + job.getOwner() + " (" + demand + ")";
+    }
+
     private NodeSprite createNodeSprite(PVector pos, GridNode node, int numSlots) {
         NodeSprite nodeSprite = new NodeSprite(pos, node, numSlots);
         return nodeSprite;
@@ -1269,7 +994,7 @@ public class SketchState implements Runnable {
         jobSprite.color = jobSprite.borderColor = legend.getItemColor(job.getOwner());
         jobSprite.borderColor = Utils.color("FFFFFF");
         jobSprite.name = job.getFullJobId();
-        jobSprite.tooltip = "Job #" + job.getFullJobId() + " for " + job.getOwner() + " (" + job.getSlots() + " slots)";
+        jobSprite.tooltip = getTooltip(job);
         return jobSprite;
     }
 
@@ -1281,6 +1006,7 @@ public class SketchState implements Runnable {
     private void removeJobSprite(JobSprite jobSprite) {
         log.trace("jobSpriteMap.remove({}, {})", jobSprite.fullJobId, jobSprite.name);
         jobSpriteMap.remove(jobSprite.fullJobId, jobSprite);
+        unindex(jobSprite);
     }
 
     private JobSprite cloneJobSprite(String fullJobId) {
@@ -1316,123 +1042,224 @@ public class SketchState implements Runnable {
         return copy;
     }
 
-    private float getTweenDuration(float durationJobSub) {
-        if (playSpeed <= 1) return durationJobSub;
-        return durationJobSub / (float) Math.log(playSpeed);
+    /**
+     * Returns the duration in milliseconds of an animation which takes the given number of frames at normal speed.
+     */
+    private int getTweenDuration(float durationJobSub) {
+        double playSpeed = playback.getPlaySpeed();
+        if (playSpeed <= 1) return Animator.framesToMs(durationJobSub);
+        return Animator.framesToMs(durationJobSub / (float) Math.log(playSpeed));
+    }
+
+    /**
+     * Advance the animations of the job sprites to the current time, or hold them where they are.
+     */
+    public void updateAnimations(boolean hold) {
+        if (hold) {
+            animator.hold(System.currentTimeMillis());
+        }
+        else {
+            animator.update(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Look up the utilization of every slot over the heatmap window ending at the current position. 
+     */
+    private void updateSlotUtilization() {
+        SlotUtilization utilization = timeline.getSlotUtilization();
+        if (utilization == null) return;
+        long endOffset = playback.getPosition();
+        long startOffset = timeline.getFirstOffset();
+        if (heatmapWindowMs > 0) {
+            startOffset = Math.max(startOffset, endOffset - heatmapWindowMs);
+        }
+        this.slotUtilization = utilization.getSlotUtilization(startOffset, endOffset, slotUtilization);
+        this.slotHeatmapColors = heatmap.getColors(slotUtilization, slotHeatmapColors);
     }
 
+    /**
+     * Bring the offscreen buffer up to date. Only the nodes and panels whose contents changed since they were last 
+     * drawn into this buffer are repainted. Everything is repainted after a change of layout or colors. 
+     */
     private void updateOffscreenBuffer() {
 
-        offscreenBuffer.beginDraw();
-        offscreenBuffer.background(colorScheme.gridBackgroundColor);
+        updateStaticLayer();
+
+        RegionGraphics buf = offscreenBuffer;
+        buf.beginDraw();
+
+        // These overlays cross the regions, so they can't be repainted piecemeal
+        if (isDrawOutlines || isDrawLaserTracking) {
+            buf.invalidate();
+        }
+
+        boolean full = buf.isStale(layoutVersion);
+        if (full) {
+            buf.repaintAll(layoutVersion, colorScheme.gridBackgroundColor);
+        }
+
+        if (isHeatmap) {
+            updateSlotUtilization();
+        }
 
         GridNodeArray subset = gridSubsets.get(currSubsetName);
-        subset.draw(offscreenBuffer);
+        List<JobSprite> queuedSprites = new ArrayList<JobSprite>();
+        subset.draw(buf, queuedSprites);
+
+        // The panel between the horizontal rules holds the queue and the legend, or the summary view
+        float gridRuleY = gridRect.getBounds().maxY + rectSpacing / 2;
+        float graphRuleY = graphRect.getBounds().minY - rectSpacing / 2;
+        float panelY = gridRuleY + ruleWeight / 2 + 1;
+        float panelHeight = graphRuleY - ruleWeight / 2 - 1 - panelY;
 
         if (isHeatmap) {
 
-            // Draw heatmap color legend in the middle spot
-            float barWidth = width * .5f;
-            float barHeight = height * .02f;
-            float barX = (width - barWidth) / 2;
-            float barY = queueRect.getBounds().minY + (queueRect.getHeight() - barHeight) / 2;
-
-            Rectangle barRect = new Rectangle(barX, barY, barWidth, barHeight);
-            Bounds b = barRect.getBounds();
-            for (float x = b.minX; x <= b.maxX; x++) {
-                offscreenBuffer.colorMode(PApplet.HSB, 360, 100, 100);
-                float hue = PApplet.map(x, b.minX, b.maxX, HEATMAP_MAX_HUE, HEATMAP_MIN_HUE);
-                int color = offscreenBuffer.color(hue, HEATMAP_BRIGHTNESS, HEATMAP_SATURATION);
-                Utils.stroke(offscreenBuffer, color, 255);
-                Utils.fill(offscreenBuffer, color, 255);
-                offscreenBuffer.colorMode(PApplet.RGB);
-                offscreenBuffer.line(x, b.minY, x, b.maxY);
-            }
-
-            offscreenBuffer.textFont(legendFont);
-            Utils.stroke(offscreenBuffer, colorScheme.titleFontColor);
-            Utils.fill(offscreenBuffer, colorScheme.titleFontColor);
-            offscreenBuffer.textAlign(PApplet.LEFT, PApplet.TOP);
-            offscreenBuffer.text("0%", b.minX, b.maxY + 5);
-            offscreenBuffer.textAlign(PApplet.RIGHT, PApplet.TOP);
-            offscreenBuffer.text("100%", b.maxX, b.maxY + 5);
-            offscreenBuffer.textAlign(PApplet.CENTER, PApplet.TOP);
-            offscreenBuffer.text("Percent Of Time In Use", width / 2, b.maxY + 5);
+            if (buf.needsRepaint(REGION_PANEL, 0)) {
+                buf.beginRegion(0, panelY, width, panelHeight, colorScheme.gridBackgroundColor);
+
+                // Draw heatmap color legend in the middle spot
+                float barWidth = width * .5f;
+                float barHeight = height * .02f;
+                float barX = (width - barWidth) / 2;
+                float barY = queueRect.getBounds().minY + (queueRect.getHeight() - barHeight) / 2;
+
+                Rectangle barRect = new Rectangle(barX, barY, barWidth, barHeight);
+                Bounds b = barRect.getBounds();
+                buf.image(heatmap.getLegendBar(Math.round(barWidth), Math.round(barHeight)), b.minX, b.minY);
+
+                buf.textFont(legendFont);
+                Utils.stroke(buf, colorScheme.titleFontColor);
+                Utils.fill(buf, colorScheme.titleFontColor);
+                buf.textAlign(PApplet.LEFT, PApplet.TOP);
+                buf.text("0%", b.minX, b.maxY + 5);
+                buf.textAlign(PApplet.RIGHT, PApplet.TOP);
+                buf.text("100%", b.maxX, b.maxY + 5);
+                buf.textAlign(PApplet.CENTER, PApplet.TOP);
+                buf.text("Percent Of Time In Use", width / 2, b.maxY + 5);
+
+                buf.endRegion();
+            }
         }
         else {
-            if (summaryMode) {
-                // Draw summary view
-                summaryView.draw(offscreenBuffer);
-
-                // Draw queued jobs (one for each user)
-                Set<String> drawnUsers = new HashSet<String>();
-                Iterator<JobSprite> i = getJobSprites().values().iterator();
-                while (i.hasNext()) {
-                    JobSprite sprite = i.next();
-                    if (sprite.isStatic()) {
-                        if (sprite.queued && !drawnUsers.contains(sprite.username)) {
-                            drawnUsers.add(sprite.username);
-                            sprite.draw(offscreenBuffer);
-                        }
-                    }
+            // Queued jobs are drawn one for each user in summary mode, and all of them otherwise
+            List<JobSprite> drawnSprites = new ArrayList<JobSprite>();
+            Set<String> drawnUsers = new HashSet<String>();
+            int signature = usageVersion;
+            signature = 31 * signature + Float.floatToIntBits(legendRect.getHeight());
+            for (JobSprite sprite : queuedSprites) {
+                if (summaryMode) {
+                    if (drawnUsers.contains(sprite.username)) continue;
+                    drawnUsers.add(sprite.username);
                 }
+                drawnSprites.add(sprite);
+                signature = 31 * signature + sprite.getSignature();
             }
-            else {
-                // Draw legend
-                legend.draw(offscreenBuffer);
 
-                // Draw queued jobs
-                Iterator<JobSprite> i = getJobSprites().values().iterator();
-                while (i.hasNext()) {
-                    JobSprite sprite = i.next();
-                    if (sprite.isStatic()) {
-                        if (sprite.queued) {
-                            sprite.draw(offscreenBuffer);
-                        }
-                    }
+            if (buf.needsRepaint(REGION_PANEL, signature)) {
+                buf.beginRegion(0, panelY, width, panelHeight, colorScheme.gridBackgroundColor);
+                if (summaryMode) {
+                    summaryView.draw(buf);
+                }
+                else {
+                    legend.draw(buf);
                 }
+                for (JobSprite sprite : drawnSprites) {
+                    sprite.draw(buf);
+                }
+                buf.endRegion();
             }
         }
 
-        // Draw subset name as title
-        offscreenBuffer.textAlign(PApplet.CENTER, PApplet.TOP);
-        offscreenBuffer.textFont(titleFont);
-        Utils.fill(offscreenBuffer, colorScheme.titleFontColor);
-        offscreenBuffer.text(currSubsetName, width / 2, 10);
+        if (full) {
+            // Draw subset name as title
+            buf.textAlign(PApplet.CENTER, PApplet.TOP);
+            buf.textFont(titleFont);
+            Utils.fill(buf, colorScheme.titleFontColor);
+            buf.text(currSubsetName, width / 2, 10);
 
-        // Draw horizontal rules
-        Utils.stroke(offscreenBuffer, colorScheme.panelBorderColor);
-        float gridRuleY = gridRect.getBounds().maxY + rectSpacing / 2;
-        float graphRuleY = graphRect.getBounds().minY - rectSpacing / 2;
-        offscreenBuffer.strokeWeight(ruleWeight);
-        offscreenBuffer.line(0, gridRuleY, width, gridRuleY);
+            // Draw horizontal rules
+            Utils.stroke(buf, colorScheme.panelBorderColor);
+            buf.strokeWeight(ruleWeight);
+            buf.line(0, gridRuleY, width, gridRuleY);
+            if (showGraph) {
+                buf.line(0, graphRuleY, width, graphRuleY);
+            }
+        }
 
-        // Draw graph window
+        // Draw graph window, which only changes with the bounds of the timeline
         if (showGraph) {
-            offscreenBuffer.line(0, graphRuleY, width, graphRuleY);
-            drawGraphWindow(offscreenBuffer);
+            TimelineEpoch epoch = timeline.getEpoch();
+            int signature = (int) (epoch.getSequence() ^ (epoch.getSequence() >>> 32));
+            if (buf.needsRepaint(REGION_GRAPH, signature)) {
+                float graphY = graphRuleY + ruleWeight / 2 + 1;
+                buf.beginRegion(0, graphY, width, height - graphY, colorScheme.gridBackgroundColor);
+                buf.strokeWeight(ruleWeight);
+                drawGraphWindow(buf);
+                buf.endRegion();
+            }
         }
 
         // Draw outlines
         if (isDrawOutlines) {
-            offscreenBuffer.noFill();
-            offscreenBuffer.strokeWeight(1);
-            Utils.stroke(offscreenBuffer, outlineColor);
-            gridRect.draw(offscreenBuffer);
+            buf.noFill();
+            buf.strokeWeight(1);
+            Utils.stroke(buf, outlineColor);
+            gridRect.draw(buf);
             if (summaryMode) {
-                summaryViewRect.draw(offscreenBuffer);
+                summaryViewRect.draw(buf);
             }
             else {
-                queueRect.draw(offscreenBuffer);
-                legendRect.draw(offscreenBuffer);
+                queueRect.draw(buf);
+                legendRect.draw(buf);
             }
             if (showGraph) {
-                graphRect.draw(offscreenBuffer);
-                graphBodyRect.draw(offscreenBuffer);
+                graphRect.draw(buf);
+                graphBodyRect.draw(buf);
             }
         }
 
-        offscreenBuffer.endDraw();
+        buf.endDraw();
+        this.repaintedArea = buf.getRepaintedArea();
+    }
+
+    /**
+     * Draw the static layer again, if the layout or the colors changed since it was last drawn. Everything is
+     * repainted over the new layer.
+     */
+    private void updateStaticLayer() {
+
+        if (staticLayer != null && staticLayerVersion == staticVersion && staticLayerHeatmap == isHeatmap) return;
+        int version = staticVersion;
+        boolean heatmap = isHeatmap;
+
+        Bounds b = gridRect.getBounds();
+        int x = (int) Math.floor(b.minX - NODE_MARGIN);
+        int y = (int) Math.floor(b.minY - NODE_MARGIN);
+        int w = Math.max(1, (int) Math.ceil(b.maxX + NODE_MARGIN) - x);
+        int h = Math.max(1, (int) Math.ceil(b.maxY + NODE_MARGIN) - y);
+
+        if (staticLayer == null || staticLayer.width != w || staticLayer.height != h) {
+            PGraphics layer = p.createGraphics(w, h, PGraphics.JAVA2D);
+            layer.smooth();
+            layer.hint(PGraphics.ENABLE_NATIVE_FONTS);
+            this.staticLayer = layer;
+        }
+
+        staticLayer.beginDraw();
+        staticLayer.background(colorScheme.gridBackgroundColor);
+        staticLayer.translate(-x, -y);
+        if (!lod || offscreenBuffer.getRasterPixels() == null) {
+            // At the lowest level of detail, the nodes are written into the buffer in one go instead
+            gridSubsets.get(currSubsetName).drawStatic(staticLayer);
+        }
+        staticLayer.endDraw();
+
+        this.staticLayerX = x;
+        this.staticLayerY = y;
+        this.staticLayerVersion = version;
+        this.staticLayerHeatmap = heatmap;
+        layoutVersion++;
     }
 
     private void updateOffscreenGraphBuffer() {
@@ -1446,7 +1273,7 @@ public class SketchState implements Runnable {
             if (isDrawSnapshotLines) {
                 offscreenGraphBuffer.strokeWeight(1);
                 Utils.stroke(offscreenGraphBuffer, colorScheme.gridBaseColor);
-                for (Snapshot snapshot : timeline.getSnapshots()) {
+                for (CompactSnapshot snapshot : timeline.getSnapshots()) {
                     long offset = timeline.getOffset(snapshot.getSamplingTime());
                     float lineX = PApplet.map(offset, timeline.getFirstOffset(), timeline.getLastOffset(), 0, graphBodyRect.getWidth() - 1);
                     offscreenGraphBuffer.line(lineX, 0, lineX, graphBodyRect.getHeight());
@@ -1462,20 +1289,18 @@ public class SketchState implements Runnable {
     }
 
     private void flipBuffers() {
-        PGraphics temp = onscreenBuffer;
+        RegionGraphics temp = onscreenBuffer;
         onscreenBuffer = offscreenBuffer;
         offscreenBuffer = temp;
-        temp = onscreenGraphBuffer;
+        PGraphics tempGraph = onscreenGraphBuffer;
         onscreenGraphBuffer = offscreenGraphBuffer;
-        offscreenGraphBuffer = temp;
+        offscreenGraphBuffer = tempGraph;
     }
 
     public void drawGraphWindow(PGraphics buf) {
 
         if (queuedJobsGraph == null && runningJobsGraph == null) return;
 
-        buf.beginDraw();
-
         // Graph
 
         float x = graphBodyRect.getPos().x + 1;
@@ -1508,7 +1333,7 @@ public class SketchState implements Runnable {
 
         Bounds b = graphBodyRect.getBounds();
 
-        List<Snapshot> snapshots = timeline.getSnapshots();
+        List<CompactSnapshot> snapshots = timeline.getSnapshots();
 
         float minDistance = graphBodyRect.getWidth() * 0.05f;
         float lastX = Float.MIN_VALUE;
@@ -1556,12 +1381,10 @@ public class SketchState implements Runnable {
             i++;
         }
 
-        Snapshot lastSnapshot = snapshots.get(snapshots.size() - 1);
+        CompactSnapshot lastSnapshot = snapshots.get(snapshots.size() - 1);
         String dateStr = dfDate.print(new DateTime(lastSnapshot.getSamplingTime()));
         buf.textAlign(PApplet.RIGHT, PApplet.TOP);
         buf.text(dateStr, b.maxX, graphRect.getPos().y + 1);
-
-        buf.endDraw();
     }
 
     public class NodeSprite extends Sprite {
@@ -1570,6 +1393,9 @@ public class SketchState implements Runnable {
         protected SlotSprite[] slots;
         protected JobSprite[] jobs;
         protected Rectangle rect;
+        protected int flashColor;
+        protected float flashIntensity;
+        protected long flashStart;
 
         NodeSprite(PVector pos, GridNode node, int numSlots) {
             super(pos);
@@ -1578,8 +1404,10 @@ public class SketchState implements Runnable {
             this.tooltip = "Node " + name;
             this.slots = new SlotSprite[numSlots];
             this.jobs = new JobSprite[numSlots];
+            SlotUtilization utilization = timeline.getSlotUtilization();
             for (int s = 0; s < numSlots; s++) {
                 slots[s] = new SlotSprite(null, this);
+                slots[s].slotId = utilization == null ? -1 : utilization.getSlotId(name, s);
                 slots[s].name = name + "/" + s;
                 slots[s].tooltip = tooltip + ", Slot #" + s;
             }
@@ -1589,6 +1417,15 @@ public class SketchState implements Runnable {
             return node;
         }
 
+        /**
+         * Flash the node to show that a number of short-lived jobs ran on it. The more jobs, the brighter the flash.
+         */
+        public void flash(int color, int numJobs) {
+            this.flashColor = color;
+            this.flashIntensity = Math.min(1.0f, 0.3f + (float) numJobs / Math.max(1, slots.length));
+            this.flashStart = System.currentTimeMillis();
+        }
+
         public void setPos(PVector pos) {
             super.setPos(pos);
             if (slots == null) return;
@@ -1605,6 +1442,15 @@ public class SketchState implements Runnable {
         }
 
         public void draw(PGraphics buf) {
+            drawStatic(buf);
+            drawDynamic(buf);
+        }
+
+        /**
+         * Draw the parts of the node which only change with the layout and the colors: the frame, the label, and
+         * the empty slots, unless the slots are colored by the heatmap.
+         */
+        void drawStatic(PGraphics buf) {
             if (rect == null) return;
 
             buf.strokeWeight(1);
@@ -1621,10 +1467,15 @@ public class SketchState implements Runnable {
             
             buf.rect(pos.x, pos.y, rect.getWidth(), rect.getHeight());
 
-            for (int s = 0; s < slots.length; s++) {
-                slots[s].draw(buf);
+            if (!isHeatmap) {
+                for (int s = 0; s < slots.length; s++) {
+                    slots[s].draw(buf);
+                }
             }
 
+            // There is no room for labels at the lowest level of detail
+            if (lod) return;
+
             if ("sge".equalsIgnoreCase(node.getQtype())) {
                 // Special case for LSF changeover
                 Utils.fill(buf, colorScheme.highlightNodeFontColor, opacity);
@@ -1640,9 +1491,133 @@ public class SketchState implements Runnable {
             buf.text(name, (int) x, (int) y);
         }
 
+        /**
+         * Draw the parts of the node which change as jobs come and go: the heatmap colors of the slots, and the
+         * flash. The job sprites on the node are drawn separately.
+         */
+        void drawDynamic(PGraphics buf) {
+            if (rect == null) return;
+
+            if (isHeatmap) {
+                for (int s = 0; s < slots.length; s++) {
+                    slots[s].draw(buf);
+                }
+            }
+
+            int flashAlpha = getFlashAlpha();
+            if (flashAlpha > 0) {
+                buf.noFill();
+                buf.strokeWeight(2);
+                Utils.stroke(buf, flashColor, flashAlpha);
+                buf.rect(pos.x, pos.y, rect.getWidth(), rect.getHeight());
+                buf.strokeWeight(1);
+            }
+        }
+
         public void draw() {
         }
 
+        /**
+         * Write the node straight into the given pixels of the buffer, for the lowest level of detail, where slots are
+         * too small to draw one by one. Each pixel gets the average color of the slots under it, with the given
+         * static job sprites on them.
+         */
+        void drawPixels(RegionGraphics buf, int[] pixels, List<JobSprite> jobs) {
+
+            int[] r = buf.markRegion(pos.x, pos.y, rect.getWidth(), rect.getHeight());
+            if (r == null) return;
+
+            // Color of each slot, plus the unused cells in the last row
+            int numRows = (slots.length + SLOTS_PER_ROW - 1) / SLOTS_PER_ROW;
+            int numCells = Math.max(1, numRows * SLOTS_PER_ROW);
+            if (lodColors.length < numCells) lodColors = new int[numCells];
+            int[] colors = lodColors;
+            int emptyColor = "sge".equalsIgnoreCase(node.getQtype()) ? colorScheme.highlightEmptySlotColor
+                    : colorScheme.emptySlotColor;
+            for (int s = 0; s < numCells; s++) {
+                if (s >= slots.length) {
+                    colors[s] = colorScheme.nodeBackgroundColor;
+                }
+                else if (isHeatmap) {
+                    colors[s] = slots[s].getHeatmapColor();
+                }
+                else {
+                    colors[s] = emptyColor;
+                }
+            }
+            if (jobs != null) {
+                for (JobSprite sprite : jobs) {
+                    int s = ArrayUtils.indexOf(slots, sprite.slotSprite);
+                    if (s >= 0) colors[s] = Utils.blend(colors[s], sprite.getFillColor(buf), sprite.opacity);
+                }
+            }
+
+            int flashAlpha = getFlashAlpha();
+            int cols = numRows == 0 ? 1 : SLOTS_PER_ROW;
+            int rows = Math.max(1, numRows);
+            int w = r[2] - r[0];
+            int h = r[3] - r[1];
+            for (int y = 0; y < h; y++) {
+                int row0 = y * rows / h;
+                int row1 = Math.max(row0 + 1, ((y + 1) * rows + h - 1) / h);
+                int offset = (r[1] + y) * buf.width + r[0];
+                for (int x = 0; x < w; x++) {
+                    int col0 = x * cols / w;
+                    int col1 = Math.max(col0 + 1, ((x + 1) * cols + w - 1) / w);
+                    int red = 0, green = 0, blue = 0, n = 0;
+                    for (int row = row0; row < row1; row++) {
+                        for (int col = col0; col < col1; col++) {
+                            int color = colors[row * cols + col];
+                            red += (color >> 16) & 0xff;
+                            green += (color >> 8) & 0xff;
+                            blue += color & 0xff;
+                            n++;
+                        }
+                    }
+                    int color = 0xff000000 | ((red / n) << 16) | ((green / n) << 8) | (blue / n);
+                    if (flashAlpha > 0) {
+                        color = Utils.blend(color, flashColor, flashAlpha);
+                    }
+                    pixels[offset + x] = color;
+                }
+            }
+        }
+
+        /**
+         * Returns the current opacity of the flash, or 0 if the node is not flashing.
+         */
+        private int getFlashAlpha() {
+            if (flashStart <= 0) return 0;
+            float fade = 1 - (float) (System.currentTimeMillis() - flashStart) / burstDurationMs;
+            if (fade <= 0) {
+                this.flashStart = 0;
+                return 0;
+            }
+            return (int) (opacity * fade * flashIntensity);
+        }
+
+        /**
+         * Returns a summary of everything that is drawn for this node, given the static job sprites on it, which 
+         * changes whenever the node would be drawn differently. 
+         */
+        int getSignature(List<JobSprite> jobs) {
+            int signature = Float.floatToIntBits(opacity);
+            int flashAlpha = getFlashAlpha();
+            signature = 31 * signature + flashAlpha;
+            if (flashAlpha > 0) signature = 31 * signature + flashColor;
+            if (isHeatmap) {
+                for (SlotSprite slot : slots) {
+                    signature = 31 * signature + slot.getHeatmapColor();
+                }
+            }
+            else if (jobs != null) {
+                for (JobSprite jobSprite : jobs) {
+                    signature = 31 * signature + jobSprite.getSignature();
+                }
+            }
+            return signature;
+        }
+
         public Rectangle getRect() {
             return rect;
         }
@@ -1656,36 +1631,27 @@ public class SketchState implements Runnable {
     public class SlotSprite extends Sprite {
 
         protected NodeSprite nodeSprite;
+        protected int slotId = -1;
 
         SlotSprite(PVector pos, NodeSprite nodeSprite) {
             super(pos);
             this.nodeSprite = nodeSprite;
         }
 
+        /**
+         * Returns the heatmap color of the slot.
+         */
+        int getHeatmapColor() {
+            int[] colors = slotHeatmapColors;
+            if (colors == null || slotId < 0 || slotId >= colors.length) return heatmap.getColor(0);
+            return colors[slotId];
+        }
+
         public void draw(PGraphics buf) {
             if (isHeatmap) {
-                Long usage = slotUsage.get(name);
-                int slotColor = buf.color(0, 100, 100);
-                if (usage == null) usage = 0L;
-
-                Long startOffset = slotStartOffsets.get(name);
-                if (startOffset != null) {
-                    usage += totalElapsed - startOffset;
-                }
-
-                long total = totalElapsed - nextStartingPosition;
-                float percentInUse = (float) usage / (float) total;
-                if (percentInUse < 0 || percentInUse > 1) {
-                    log.warn("Usage percent for slot {} is out of bounds: {}", name, percentInUse);
-                    percentInUse = PApplet.constrain(percentInUse, 0, 1);
-                }
-
-                buf.colorMode(PApplet.HSB, 360, 100, 100);
-                float hue = PApplet.map(percentInUse, 0, 1, HEATMAP_MAX_HUE, HEATMAP_MIN_HUE);
-                slotColor = buf.color(hue, HEATMAP_BRIGHTNESS, HEATMAP_SATURATION);
+                int slotColor = getHeatmapColor();
                 Utils.stroke(buf, slotColor, opacity);
                 Utils.fill(buf, slotColor, opacity);
-                buf.colorMode(PApplet.RGB);
             }
             else {
              
@@ -1727,13 +1693,32 @@ public class SketchState implements Runnable {
             this.username = username;
         }
 
-        public void draw(PGraphics buf) {
-
-            if (getTweens().isEmpty() && slotSprite != null && slotSprite.getPos().x > 0 && slotSprite.getPos().y > 0) {
-                // Update the job's position to the slotSprite it is supposed to sit on. This is necessary when
-                // job sprites are created before the slot sprites, and thus have no location initially.
+        /**
+         * Update the job's position to the slotSprite it is supposed to sit on. This is necessary when job sprites 
+         * are created before the slot sprites, and thus have no location initially.
+         */
+        void settle() {
+            if (!isAnimating() && slotSprite != null && slotSprite.getPos().x > 0 && slotSprite.getPos().y > 0) {
                 setPos(slotSprite.getPos());
             }
+        }
+
+        /**
+         * Returns a summary of how the sprite is drawn when it's static. 
+         */
+        int getSignature() {
+            int signature = Float.floatToIntBits(pos.x);
+            signature = 31 * signature + Float.floatToIntBits(pos.y);
+            signature = 31 * signature + color;
+            signature = 31 * signature + borderColor;
+            signature = 31 * signature + (int) opacity;
+            signature = 31 * signature + (queued ? 1 : 0);
+            return signature;
+        }
+
+        public void draw(PGraphics buf) {
+
+            settle();
 
             buf.strokeWeight(1);
 
@@ -1745,11 +1730,9 @@ public class SketchState implements Runnable {
             }
 
             if (bwMode && !username.equals(legend.getHighlightUsername())) {
-                buf.colorMode(PApplet.HSB, 360, 100, 100);
-                int bwColor = buf.color(buf.hue(color), 0, 50);
+                int bwColor = getFillColor(buf);
                 buf.stroke(bwColor, opacity);
                 buf.fill(bwColor, opacity);
-                buf.colorMode(PApplet.RGB);
             }
             else {
                 buf.stroke(borderColor, opacity);
@@ -1769,6 +1752,20 @@ public class SketchState implements Runnable {
             }
         }
 
+        /**
+         * Returns the color the sprite is filled with, which is gray in black and white mode, unless its user is
+         * highlighted.
+         */
+        int getFillColor(PGraphics buf) {
+            if (bwMode && !username.equals(legend.getHighlightUsername())) {
+                buf.colorMode(PApplet.HSB, 360, 100, 100);
+                int bwColor = buf.color(buf.hue(color), 0, 50);
+                buf.colorMode(PApplet.RGB);
+                return bwColor;
+            }
+            return color;
+        }
+
         public JobSprite copy() {
             JobSprite copy = new JobSprite(pos, fullJobId, username);
             copy.name = name;
@@ -1778,17 +1775,43 @@ public class SketchState implements Runnable {
             return copy;
         }
 
+        @Override
+        public void animationFinished(int tag) {
+            super.animationFinished(tag);
+            switch (tag) {
+            case ANIMATION_QUEUE:
+                jobQueued();
+                break;
+            case ANIMATION_START:
+                jobStarted();
+                break;
+            case ANIMATION_END:
+                jobEnded();
+                break;
+            }
+        }
+
         public void jobQueued() {
+            // The sprite has landed, so it needs to be drawn into the buffer
+            playback.wakeup();
         }
 
         public void jobStarted() {
             this.endPos = null;
+            playback.wakeup();
         }
 
         public void jobEnded() {
+            unindex(this);
             slotSprite = null;
             defunct = true;
             opacity = 0; // just in case
+            defunctSprites.add(this);
+            playback.wakeup();
+        }
+
+        public String getFullJobId() {
+            return fullJobId;
         }
 
         public String getUsername() {
@@ -1870,38 +1893,117 @@ public class SketchState implements Runnable {
         }
 
         public void draw(PGraphics buf) {
+            draw(buf, null);
+        }
 
-            for (List<NodeSprite> row : grid) {
-                if (row == null) continue;
-                for (NodeSprite nodeSprite : row) {
-                    if (nodeSprite != null) nodeSprite.draw(buf);
-                }
-            }
+        /**
+         * Draw the nodes and the static job sprites on them. When drawing into a RegionGraphics, only the nodes whose
+         * contents changed since they were last drawn into it are repainted. The static queued job sprites are added
+         * to the given list, if any, in drawing order.
+         */
+        public void draw(PGraphics buf, List<JobSprite> queuedSprites) {
+
+            RegionGraphics regions = buf instanceof RegionGraphics ? (RegionGraphics) buf : null;
+            int[] pixels = lod && regions != null ? regions.getRasterPixels() : null;
 
+            // Find the static job sprites on each node
+            Map<NodeSprite, List<JobSprite>> nodeJobs = new HashMap<NodeSprite, List<JobSprite>>();
             if (!isHeatmap) {
-                // Draw jobs
                 Iterator<JobSprite> i = getJobSprites().values().iterator();
                 while (i.hasNext()) {
                     JobSprite sprite = i.next();
                     if (sprite.isStatic()) {
+                        sprite.settle();
                         if (sprite.slotSprite != null) {
-                            if (sprite.slotSprite.nodeSprite != null) {
-                                if (nodeSpriteInSubset(sprite.slotSprite.nodeSprite)) {
-                                    sprite.draw(buf);
+                            NodeSprite nodeSprite = sprite.slotSprite.nodeSprite;
+                            if (nodeSprite != null && nodeSpriteInSubset(nodeSprite)) {
+                                List<JobSprite> jobs = nodeJobs.get(nodeSprite);
+                                if (jobs == null) {
+                                    jobs = new ArrayList<JobSprite>();
+                                    nodeJobs.put(nodeSprite, jobs);
                                 }
+                                jobs.add(sprite);
+                                index(sprite, slotWidth, slotHeight);
                             }
                         }
-                        sprite.update();
+                        else if (sprite.queued && queuedSprites != null) {
+                            queuedSprites.add(sprite);
+                            float size = summaryMode ? summaryQueuedJobWidth : queuedJobWidth;
+                            index(sprite, size, size);
+                        }
+                    }
+                }
+            }
+
+            for (List<NodeSprite> row : grid) {
+                if (row == null) continue;
+                for (NodeSprite nodeSprite : row) {
+                    if (nodeSprite == null || nodeSprite.rect == null) continue;
+                    List<JobSprite> jobs = nodeJobs.get(nodeSprite);
+                    if (regions != null) {
+                        if (!regions.needsRepaint(nodeSprite, nodeSprite.getSignature(jobs))) continue;
+                        if (pixels != null) {
+                            nodeSprite.drawPixels(regions, pixels, jobs);
+                            continue;
+                        }
+                        float x = nodeSprite.pos.x - NODE_MARGIN;
+                        float y = nodeSprite.pos.y - NODE_MARGIN;
+                        float w = nodeSprite.rect.getWidth() + 2 * NODE_MARGIN;
+                        float h = nodeSprite.rect.getHeight() + 2 * NODE_MARGIN;
+                        if (staticLayer != null) {
+                            // Restore the frame, label and empty slots, and draw only what's on top of them
+                            regions.beginRegion(x, y, w, h, staticLayer, staticLayerX, staticLayerY,
+                                    colorScheme.gridBackgroundColor);
+                            nodeSprite.drawDynamic(buf);
+                        }
+                        else {
+                            regions.beginRegion(x, y, w, h, colorScheme.gridBackgroundColor);
+                            nodeSprite.draw(buf);
+                        }
+                    }
+                    else {
+                        nodeSprite.draw(buf);
+                    }
+                    if (jobs != null) {
+                        for (JobSprite sprite : jobs) {
+                            sprite.draw(buf);
+                        }
+                    }
+                    if (regions != null) {
+                        regions.endRegion();
                     }
                 }
             }
         }
 
+        /**
+         * Draw the parts of the nodes which only change with the layout and the colors.
+         */
+        public void drawStatic(PGraphics buf) {
+            for (List<NodeSprite> row : grid) {
+                if (row == null) continue;
+                for (NodeSprite nodeSprite : row) {
+                    if (nodeSprite == null) continue;
+                    nodeSprite.drawStatic(buf);
+                }
+            }
+        }
+
         public boolean nodeSpriteInSubset(NodeSprite nodeSprite) {
             return sprites.contains(nodeSprite);
         }
     }
 
+    private void index(JobSprite sprite, float w, float h) {
+        SpatialIndex<Sprite> index = hitIndex;
+        if (index != null) index.put(sprite, LAYER_JOB, sprite.pos.x, sprite.pos.y, w, h);
+    }
+
+    private void unindex(JobSprite sprite) {
+        SpatialIndex<Sprite> index = hitIndex;
+        if (index != null) index.remove(sprite);
+    }
+
     public PImage getMainBuffer() {
         return onscreenBuffer;
     }
@@ -1930,12 +2032,29 @@ public class SketchState implements Runnable {
         this.colorScheme = colorScheme;
         this.runningJobsGraph.setColor(colorScheme.graphLineColorRunningJobs);
         this.queuedJobsGraph.setColor(colorScheme.graphLineColorQueuedJobs);
+        staticVersion++;
+        repaintAll();
     }
 
     public ColorScheme getColorScheme() {
         return colorScheme;
     }
 
+    /**
+     * Repaint the whole view on the next frame, after a change of layout or colors.
+     */
+    private void repaintAll() {
+        layoutVersion++;
+        playback.wakeup();
+    }
+
+    /**
+     * Returns the number of pixels of the main buffer which were repainted in the last frame.
+     */
+    public long getRepaintedArea() {
+        return repaintedArea;
+    }
+
     public void setBwMode(boolean bwMode, String username) {
         if (bwMode != this.bwMode || (bwMode && !legend.getHighlightUsername().equals(username))) {
             setColorScheme(bwMode ? new GrayColorScheme() : new DefaultColorScheme());
@@ -1946,11 +2065,13 @@ public class SketchState implements Runnable {
 
     public void setSummaryMode(boolean summaryMode) {
         this.summaryMode = summaryMode;
+        repaintAll();
     }
 
     public void setShowGraph(boolean showGraph) {
         this.showGraph = showGraph;
         resizeGraphWindow();
+        playback.wakeup();
     }
 
     public Multimap<String, JobSprite> getJobSprites() {
@@ -1961,35 +2082,44 @@ public class SketchState implements Runnable {
 
     public void setDrawLaserTracking(boolean isDrawLaserTracking) {
         this.isDrawLaserTracking = isDrawLaserTracking;
+        repaintAll();
     }
 
     public void setDrawOutlines(boolean isDrawOutlines) {
         this.isDrawOutlines = isDrawOutlines;
+        repaintAll();
     }
 
     public void setDrawSnapshotLines(boolean isDrawSnapshotLines) {
         this.isDrawSnapshotLines = isDrawSnapshotLines;
+        playback.wakeup();
     }
 
     public void setAnonUsernames(boolean isAnonUsernames) {
         legend.setAnonUsernames(isAnonUsernames);
+        repaintAll();
     }
 
     public boolean isHeatmap() {
         return isHeatmap;
     }
 
+    /**
+     * Set the window before the current position over which the heatmap shows utilization. Zero means the whole 
+     * loaded range. 
+     */
+    public void setHeatmapWindow(long windowMs) {
+        this.heatmapWindowMs = windowMs;
+        playback.wakeup();
+    }
+
     public void setHeatmap(boolean isHeatmap) {
         if (isHeatmap != this.isHeatmap) {
-            setColorScheme(isHeatmap ? new HeatmapColorScheme() : new DefaultColorScheme());
             this.isHeatmap = isHeatmap;
+            setColorScheme(isHeatmap ? new HeatmapColorScheme() : new DefaultColorScheme());
         }
     }
 
-    public void setTimeline(Timeline timeline) {
-        this.timeline = timeline;
-    }
-
     public Collection<String> getSubsetNames() {
         return gridSubsets.keySet();
     }
@@ -1998,7 +2128,10 @@ public class SketchState implements Runnable {
         if (currSubsetName != null && currSubsetName.equals(subsetName)) return;
         log.info("Changing current subset to {}", subsetName);
         this.currSubsetName = subsetName;
+        // Before the state is initialized, the subset is only remembered
+        if (!gridSubsets.containsKey(subsetName)) return;
         resizeForSubset();
+        playback.wakeup();
     }
 
     public GridNodeArray getCurrentSubset() {
@@ -0,0 +1,135 @@
+package gui;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A uniform grid over the screen for finding the item under a point, e.g. the sprite under the mouse, without scanning
+ * every item. Each item is a rectangle on a layer, and is listed in every cell its rectangle touches. A lookup only
+ * scans the cell under the point, and returns the item on the highest layer whose rectangle contains the point.
+ *
+ * With cells about the size of the smallest items, every cell holds a handful of items, so lookups take constant
+ * time however many items there are. Moving an item to where it already is costs one map lookup.
+ *
+ * Items may be added, moved and removed from one thread while they are looked up from another.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class SpatialIndex<T> {
+
+    private final float cellSize;
+    private final int cols;
+    private final int rows;
+    private final List<List<Entry<T>>> cells;
+    private final Map<T, Entry<T>> entries = new IdentityHashMap<T, Entry<T>>();
+
+    private static class Entry<T> {
+        final T item;
+        final int layer;
+        final float x1, y1, x2, y2;
+
+        Entry(T item, int layer, float x1, float y1, float x2, float y2) {
+            this.item = item;
+            this.layer = layer;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+        }
+
+        boolean contains(float x, float y) {
+            return x >= x1 && x < x2 && y >= y1 && y < y2;
+        }
+    }
+
+    /**
+     * @param width width of the indexed area
+     * @param height height of the indexed area
+     * @param cellSize width and height of each cell, which should be about the size of the smallest items
+     */
+    public SpatialIndex(float width, float height, float cellSize) {
+        this.cellSize = Math.max(1, cellSize);
+        this.cols = Math.max(1, (int) Math.ceil(width / this.cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / this.cellSize));
+        this.cells = new ArrayList<List<Entry<T>>>(cols * rows);
+        for (int i = 0; i < cols * rows; i++) {
+            cells.add(null);
+        }
+    }
+
+    /**
+     * Add the given item with the given rectangle, or move it there if it's already in the index.
+     */
+    public synchronized void put(T item, int layer, float x, float y, float w, float h) {
+        Entry<T> entry = entries.get(item);
+        if (entry != null) {
+            if (entry.layer == layer && entry.x1 == x && entry.y1 == y && entry.x2 == x + w && entry.y2 == y + h) {
+                return;
+            }
+            unlink(entry);
+        }
+        entry = new Entry<T>(item, layer, x, y, x + w, y + h);
+        entries.put(item, entry);
+        for (int row = row(entry.y1); row <= row(entry.y2); row++) {
+            for (int col = col(entry.x1); col <= col(entry.x2); col++) {
+                int i = row * cols + col;
+                List<Entry<T>> cell = cells.get(i);
+                if (cell == null) {
+                    cell = new ArrayList<Entry<T>>(4);
+                    cells.set(i, cell);
+                }
+                cell.add(entry);
+            }
+        }
+    }
+
+    public synchronized void remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    private void unlink(Entry<T> entry) {
+        for (int row = row(entry.y1); row <= row(entry.y2); row++) {
+            for (int col = col(entry.x1); col <= col(entry.x2); col++) {
+                List<Entry<T>> cell = cells.get(row * cols + col);
+                if (cell != null) cell.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the item under the given point, or null if there is none. If several items contain the point, the one on
+     * the highest layer up to maxLayer wins, and among those, the one added last.
+     */
+    public synchronized T get(float x, float y, int maxLayer) {
+        if (x < 0 || y < 0) return null;
+        int col = (int) (x / cellSize);
+        int row = (int) (y / cellSize);
+        if (col >= cols || row >= rows) return null;
+        List<Entry<T>> cell = cells.get(row * cols + col);
+        if (cell == null) return null;
+        Entry<T> hit = null;
+        for (Entry<T> entry : cell) {
+            if (entry.layer <= maxLayer && (hit == null || entry.layer >= hit.layer) && entry.contains(x, y)) {
+                hit = entry;
+            }
+        }
+        return hit == null ? null : hit.item;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private int col(float x) {
+        return Math.max(0, Math.min(cols - 1, (int) (x / cellSize)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) (y / cellSize)));
+    }
+}
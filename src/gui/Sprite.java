@@ -1,78 +1,64 @@
 package gui;
 
-import ijeoma.motion.Motion;
-
-import java.util.HashSet;
-import java.util.Set;
-
 import processing.core.PVector;
 
-import com.google.common.collect.ImmutableSet;
-
 /**
- * A named Drawable object with position and opacity. May have associated tweens for changing state over time. 
+ * A named Drawable object with position and opacity, which may be moved and faded by an Animator.
  * 
  * This class also handles the transition between motion (Open GL) and static (Java 2D) rendering, with some overlap
  * to prevent flickering.
  * 
  * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
  */
-public abstract class Sprite implements Drawable {
+public abstract class Sprite implements Drawable, Animator.Animatable {
+
+    // How long a sprite which just stopped is drawn both as static and in motion, about 30 frames
+    private static final long OVERLAP_MS = Animator.framesToMs(30);
 
-    protected int countdown = 0;
     protected String name;
     protected String tooltip;
     protected PVector pos = new PVector(0, 0);
     protected float opacity = 255;
-    private Set<Motion> tweens = new HashSet<Motion>();
+    private volatile int animations = 0;
+    private volatile long overlapUntil = 0;
+    private final Animator.Rows animatorRows = new Animator.Rows();
 
     public Sprite(PVector pos) {
         setPos(pos);
     }
 
-    public void update() {
-        if (countdown > 0) countdown--;
-        if (isInMotion()) {
-            Set<Motion> toRemove = new HashSet<Motion>();
-            synchronized (tweens) {
-                for (Motion m : tweens) {
-                    if (!m.isPlaying()) {
-                        if (m.getPosition() == 0) {
-                            m.play();
-                        }
-                        else {
-                            toRemove.add(m);
-                        }
-                    }
-                    else {
-                        m.update();
-                    }
-                }
-                for (Motion m : toRemove) {
-                    tweens.remove(m);
-                    if (!isInMotion()) {
-                        // This sprite just stopped, start the Schrodinger countdown during which it appears both static and in motion
-                        countdown = 30;
-                    }
-                }
-            }
+    public synchronized void animationStarted() {
+        animations++;
+    }
+
+    public synchronized void animationFinished(int tag) {
+        if (animations > 0 && --animations == 0) {
+            // This sprite just stopped, start the Schrodinger overlap during which it appears both static and in motion
+            this.overlapUntil = System.currentTimeMillis() + OVERLAP_MS;
         }
     }
 
-    public boolean isStatic() {
-        return countdown > 0 || tweens.isEmpty();
+    public Animator.Rows getAnimatorRows() {
+        return animatorRows;
     }
 
-    public boolean isInMotion() {
-        return countdown > 0 || !tweens.isEmpty();
+    /**
+     * Returns true if the sprite has running animations.
+     */
+    public boolean isAnimating() {
+        return animations > 0;
+    }
+
+    private boolean isOverlapping() {
+        return overlapUntil != 0 && System.currentTimeMillis() < overlapUntil;
     }
 
-    public int getCountdown() {
-        return countdown;
+    public boolean isStatic() {
+        return animations == 0 || isOverlapping();
     }
 
-    public void setCountdown(int countdown) {
-        this.countdown = countdown;
+    public boolean isInMotion() {
+        return animations > 0 || isOverlapping();
     }
 
     public String getName() {
@@ -108,16 +94,4 @@ public abstract class Sprite implements Drawable {
     public void setOpacity(float opacity) {
         this.opacity = opacity;
     }
-
-    public Set<Motion> getTweens() {
-        synchronized (tweens) {
-            return ImmutableSet.copyOf(tweens);
-        }
-    }
-
-    public void addTween(Motion tween) {
-        synchronized (tweens) {
-            tweens.add(tween);
-        }
-    }
 }
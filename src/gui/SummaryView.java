@@ -8,6 +8,7 @@ import processing.core.PApplet;
 import processing.core.PFont;
 import processing.core.PGraphics;
 import processing.core.PVector;
+import timeline.Usage;
 
 import com.google.common.collect.ImmutableSet;
 
@@ -19,8 +20,7 @@ import com.google.common.collect.ImmutableSet;
 public class SummaryView implements Drawable {
 
     private Legend legend;
-    private Map<String, Integer> slotsUsedByUser;
-    private Map<String, Integer> slotsQueuedByUser;
+    private Usage usage;
     private Map<String, UserSummaryView> summaryViewMap = new LinkedHashMap<String, UserSummaryView>();
 
     private Rectangle rect;
@@ -45,14 +45,12 @@ public class SummaryView implements Drawable {
     public void draw(PGraphics buf) {
 
         if (rect == null) return;
-        if (slotsUsedByUser == null || slotsQueuedByUser == null) return;
+        if (usage == null) return;
 
         for (String username : legend.getColorAssignments().keySet()) {
 
-            Integer running = slotsUsedByUser.get(username);
-            Integer queued = slotsQueuedByUser.get(username);
-            if (running == null) running = 0;
-            if (queued == null) queued = 0;
+            int running = usage.getRunningSlots(username);
+            int queued = usage.getQueuedSlots(username);
             UserSummaryView userSummaryView = new UserSummaryView(username, running, queued);
             summaryViewMap.put(username, userSummaryView);
         }
@@ -64,13 +62,11 @@ public class SummaryView implements Drawable {
         buf.endDraw();
     }
 
-    public void retain(Map<String, Integer> slotsUsedByUser, Map<String, Integer> slotsQueuedByUser) {
-        this.slotsUsedByUser = slotsUsedByUser;
-        this.slotsQueuedByUser = slotsQueuedByUser;
+    public void retain(Usage usage) {
+        this.usage = usage;
         Set<String> users = ImmutableSet.copyOf(summaryViewMap.keySet());
         for (String username : users) {
-            Integer slots = slotsUsedByUser.get(username);
-            if (slots == null) {
+            if (!usage.hasUser(username)) {
                 summaryViewMap.remove(username);
             }
         }
@@ -34,6 +34,17 @@ public class Utils {
         buf.fill(color, opacity);
     }
 
+    /**
+     * Returns the opaque color which results from drawing one color over another with the given opacity (0-255).
+     */
+    public static int blend(int color, int over, float opacity) {
+        int a = PApplet.constrain((int) opacity, 0, 255);
+        int r = (((color >> 16) & 0xff) * (255 - a) + ((over >> 16) & 0xff) * a) / 255;
+        int g = (((color >> 8) & 0xff) * (255 - a) + ((over >> 8) & 0xff) * a) / 255;
+        int b = ((color & 0xff) * (255 - a) + (over & 0xff) * a) / 255;
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
     public static float calculateAverage(Collection<Float> values) {
         if (values.isEmpty()) return 0f;
         float sum = 0;
@@ -1,14 +1,15 @@
 package gui.cubic;
 
+import gui.Engine;
 import gui.GridConfig;
 import gui.GridSketch;
+import gui.Playback;
 import gui.Rectangle;
 import gui.cubic.CubicSketchState.JobActor;
-import ijeoma.motion.Motion;
 
+import java.util.Queue;
 import java.util.Random;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.JOptionPane;
 
@@ -20,13 +21,9 @@ import org.slf4j.LoggerFactory;
 import peasy.PeasyCam;
 import processing.core.PApplet;
 import processing.core.PVector;
-import snapshot.MySQLBasedStateLoader;
-import snapshot.StateLoader;
 import timeline.Timeline;
 import util.ConfigProperties;
 
-import com.google.common.util.concurrent.*;
-
 import controlP5.*;
 
 /**
@@ -34,17 +31,14 @@ import controlP5.*;
  * 
  * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
  */
-public class CubicSketch extends PApplet {
+public class CubicSketch extends PApplet implements Engine.Viewport {
 
     private static final Logger log = LoggerFactory.getLogger(GridSketch.class);
 
     private static final String MAIN_CLASS = CubicSketch.class.getName();
-    private static final long LIVE_POLL_INTERVAL_SECONDS = ConfigProperties.getInteger("derecho.data.poll.secs", 5);
     private static final int MAX_DRAWING_ERRORS = 5;
 
     private final boolean TIMER = false;
-    private final boolean bufferAllBeforePlaying = true;
-    private final boolean startAtLivePosition = false;
 
     private int sliderColor = color("232847");
     private int sliderBarColor = color("323966");
@@ -59,13 +53,15 @@ public class CubicSketch extends PApplet {
     private long currTime = 0;
     private Rectangle sliderRect;
 
-    private ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(10));
-    private ListenableFuture<Timeline> futureTimeline;
+    // The shared timeline and playback
+    private final Engine engine = Engine.getInstance();
+
+    // Changes from the engine, which are made on the draw thread so that the controls are only touched from there
+    private final Queue<Runnable> pendingActions = new ConcurrentLinkedQueue<Runnable>();
 
     // Play state
     private boolean isLive = true;
     private boolean isSummary = true;
-    private boolean initialLoadComplete = false;
     private boolean initialStartComplete = false; // has the animation ever been started?
     private float playSpeed = 1.0f;
     private long lastPosition = 0;
@@ -88,6 +84,7 @@ public class CubicSketch extends PApplet {
 
     // Data model
     private Timeline timeline;
+    private Playback playback;
     private CubicSketchState sketchState;
 
     private PeasyCam cam;
@@ -130,8 +127,6 @@ public class CubicSketch extends PApplet {
             GridConfig.getInstance();
             ConfigProperties.getInstance();
 
-            Motion.setup(this);
-
             cp5 = new ControlP5(this);
             unregisterMethod("keyEvent", cp5);
             unregisterMethod("keyEvent", cp5.getWindow());
@@ -247,6 +242,7 @@ public class CubicSketch extends PApplet {
                     .setColorActive(controllerActiveColor)
                     .setGroup(optionsGroup);
 
+            engine.register(this);
             if (isLive) goLive();
 
             log.info("setup() complete");
@@ -264,10 +260,16 @@ public class CubicSketch extends PApplet {
             StopWatch stopWatch = null;
             if (TIMER) stopWatch = new LoggingStopWatch("draw");
 
-            // Any time the state is ready, just start playback
-            if (sketchState != null && sketchState.isReady()) {
+            runPendingActions();
+
+            // Any time the playback is ready, just start it
+            if (playback != null && playback.isReady()) {
                 log.info("Beginning playback");
-                sketchState.play();
+                playback.play();
+            }
+
+            // Start showing it once the sketch state has caught up
+            if (!initialStartComplete && sketchState != null && sketchState.isReady() && playback.isPlaying()) {
                 this.initialStartComplete = true;
             }
 
@@ -286,14 +288,6 @@ public class CubicSketch extends PApplet {
                 cam.beginHUD();
                 cp5.draw();
                 cam.endHUD();
-
-                // Ready to start yet?
-                if (sketchState != null) {
-                    if ((initialLoadComplete || !bufferAllBeforePlaying) && timeline.isReady() && sketchState.isPaused()) {
-                        log.info(startAtLivePosition ? "Buffering to LIVE starting position" : "Buffering to starting position");
-                        sketchState.bufferAtPosition(startAtLivePosition ? timeline.getLiveOffset() : timeline.getFirstOffset());
-                    }
-                }
             }
             else {
 
@@ -333,7 +327,7 @@ public class CubicSketch extends PApplet {
                     if (mousePressed) {
                         if (sliderPressed) {
                             sliderWasPressedLastFrame = true;
-                            sketchState.pause();
+                            engine.pause();
                         }
                     }
                     else {
@@ -341,14 +335,14 @@ public class CubicSketch extends PApplet {
                             sliderWasPressedLastFrame = false;
                             int value = Math.round(slider.getValue());
                             goDead();
-                            sketchState.bufferAtPosition(value);
+                            engine.bufferAtPosition(value);
                         }
                     }
                 }
 
                 // Interpolate slider between updates from the SketchState
-                if (sketchState.isPlaying()) {
-                    long newPosition = sketchState.getPosition();
+                if (playback.isPlaying()) {
+                    long newPosition = playback.getPosition();
                     if (newPosition != lastPosition) {
                         lastPosition = currTime = newPosition;
                         lastPositionTime = System.currentTimeMillis();
@@ -363,8 +357,8 @@ public class CubicSketch extends PApplet {
 
                 // Draw Job Lattice
 
+                sketchState.updateAnimations();
                 for (JobActor jobActor : sketchState.getJobActors().values()) {
-                    jobActor.update();
                     jobActor.draw(g);
                 }
 
@@ -405,8 +399,7 @@ public class CubicSketch extends PApplet {
     public void setPlaySpeed(float playSpeed) {
         if (sketchState != null) {
             log.trace("setPlaySpeed(" + playSpeed + ")");
-            this.playSpeed = playSpeed;
-            sketchState.setPlaySpeed(playSpeed);
+            engine.setPlaySpeed(playSpeed);
             goDead();
         }
     }
@@ -431,103 +424,90 @@ public class CubicSketch extends PApplet {
         System.exit(0);
     }
 
-    private void goLive() {
-
-        if (sketchState != null) {
-            log.info("Ending previous sketch state");
-            sketchState.end();
-        }
-
-        this.timeline = new Timeline();
-        this.sketchState = new CubicSketchState(this, timeline, appWidth, appHeight);
-
-        // Reset the play speed
-        // this.playSpeed = 1.0f;
-        // sketchState.setPlaySpeed(playSpeed);
-        // Slider slider = (Slider)cp5.getController("setPlaySpeed");
-        // slider.changeValue(1.0f);
-        //
-        // Button isLiveButton = (Button)cp5.getController("setIsLive");
-        // if (!isLiveButton.isOn()) {
-        // isLiveButton.setOn();
-        // }
-
-        log.info("Going live...");
-
-        this.initialLoadComplete = false;
-        this.initialStartComplete = false;
-
-        this.futureTimeline = executor.submit(new Callable<Timeline>() {
-            public Timeline call() throws Exception {
-                log.debug("beginning initial load");
-                StateLoader stateLoader = new MySQLBasedStateLoader(timeline);
-                stateLoader.loadInitial();
-                log.debug("initial load completed");
-                return stateLoader.getTimeline();
+    public void timelineCreated(final Timeline timeline, final Playback playback) {
+        runOnDrawThread(new Runnable() {
+            public void run() {
+                showTimeline(timeline, playback);
             }
         });
+    }
 
-        Futures.addCallback(futureTimeline, new FutureCallback<Timeline>() {
-            public void onSuccess(final Timeline timeline) {
-                initialLoadComplete = true;
-
-                // Start the playback
-                log.info("starting sketch thread...");
-                Thread sketchThread = new Thread(sketchState);
-                sketchThread.start();
+    public void timelineLoaded(Timeline timeline) {
+        // The engine starts the playback, and it's shown once it's playing
+    }
 
-                checkForNewSnapshots();
+    public void wentDead() {
+        runOnDrawThread(new Runnable() {
+            public void run() {
+                isLive = false;
+                Button button = (Button) cp5.getController("setIsLive");
+                if (button != null && button.isOn()) {
+                    button.setOff();
+                }
             }
+        });
+    }
 
-            public void onFailure(Throwable thrown) {
-                futureTimeline = null;
-                log.error("Error loading initial timeline", thrown);
-                System.exit(1);
+    public void playSpeedChanged(final float playSpeed) {
+        runOnDrawThread(new Runnable() {
+            public void run() {
+                CubicSketch.this.playSpeed = playSpeed;
+                Slider slider = (Slider) cp5.getController("setPlaySpeed");
+                if (slider != null && slider.getValue() != playSpeed) slider.changeValue(playSpeed);
             }
         });
     }
 
-    private void goDead() {
+    /**
+     * Run the given action on the draw thread, before the next frame is drawn.
+     */
+    private void runOnDrawThread(Runnable action) {
+        pendingActions.add(action);
+    }
 
-        this.isLive = false;
-        log.info("Going dead...");
-        // Button button = (Button)cp5.getController("setIsLive");
-        // if (button!=null && button.isOn()) {
-        // button.setOff();
-        // return;
-        // }
+    private void runPendingActions() {
+        Runnable action;
+        while ((action = pendingActions.poll()) != null) {
+            action.run();
+        }
     }
 
-    private void checkForNewSnapshots() {
+    /**
+     * Start showing a new timeline, through a new sketch state which listens to its playback.
+     */
+    private void showTimeline(Timeline timeline, Playback playback) {
+
+        this.isLive = true;
 
-        if (!isLive) {
-            log.info("Not live, will not check for new snapshots.");
-            return;
+        if (sketchState != null) {
+            log.info("Ending previous sketch state");
+            this.playback.removeListener(sketchState);
         }
 
-        futureTimeline = executor.submit(new Callable<Timeline>() {
-            public Timeline call() throws Exception {
-                StateLoader stateLoader = new MySQLBasedStateLoader(timeline);
-                if (stateLoader.loadNextSnapshot()) {
-                    log.debug("next snapshot loaded");
-                }
-                // Give the sketch time to read the new data, and turn off its awaiting data flag
-                Thread.sleep(LIVE_POLL_INTERVAL_SECONDS * 1000);
-                return stateLoader.getTimeline();
-            }
-        });
-        Futures.addCallback(futureTimeline, new FutureCallback<Timeline>() {
-            public void onSuccess(Timeline timeline) {
-                futureTimeline = null;
-                checkForNewSnapshots();
-            }
+        this.timeline = timeline;
+        this.playback = playback;
+        this.sketchState = new CubicSketchState(this, playback, appWidth, appHeight);
 
-            public void onFailure(Throwable thrown) {
-                futureTimeline = null;
-                log.error("Error loading next snapshot", thrown);
-                checkForNewSnapshots();
-            }
-        });
+        this.playSpeed = (float) playback.getPlaySpeed();
+        Slider slider = (Slider) cp5.getController("setPlaySpeed");
+        if (slider != null) slider.changeValue(playSpeed);
+
+        Button isLiveButton = (Button) cp5.getController("setIsLive");
+        if (isLiveButton != null && !isLiveButton.isOn()) {
+            isLiveButton.setOn();
+        }
+
+        this.initialStartComplete = false;
+
+        playback.addListener(sketchState);
+    }
+
+    private void goLive() {
+        engine.goLive();
+    }
+
+    private void goDead() {
+        engine.goDead();
     }
 
     private int color(String hex) {
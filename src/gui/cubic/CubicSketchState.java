@@ -1,14 +1,12 @@
 package gui.cubic;
 
+import gui.Animator;
 import gui.Legend;
-import gui.PlayState;
+import gui.Playback;
 import gui.Utils;
-import ijeoma.motion.Motion;
-import ijeoma.motion.tween.Tween;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,8 +14,8 @@ import org.slf4j.LoggerFactory;
 import processing.core.PApplet;
 import processing.core.PGraphics;
 import processing.core.PVector;
-import snapshot.Snapshot;
 import timeline.*;
+import util.ConfigProperties;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableMultimap;
@@ -25,17 +23,15 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 
 /**
- * The SketchState is a background thread responsible for drawing things which are relatively static to a buffer. 
- * It has its own animation loop which tracks the timeline of the visualization at whatever rate the user selects. 
- * Because it is decoupled from the main animation loop, it has no specific timing it has to meet, so it can be 
- * relatively slow and precise. All of its drawing is done with pixel precision, using Java 2D instead of OpenGL. 
+ * The SketchState keeps the actors of the cubic view in line with the grid state. It listens to the shared playback, 
+ * and is called on the playback thread as the events are played, at whatever rate the user selects. 
  * 
  * Anything which needs to be animated smoothly (e.g. job tweening) is left up to the enclosing sketch, and its 
  * main animation loop. 
  * 
  * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
  */
-public class CubicSketchState implements Runnable {
+public class CubicSketchState implements Playback.Listener {
 
     private static final Logger log = LoggerFactory.getLogger(CubicSketchState.class);
 
@@ -45,6 +41,11 @@ public class CubicSketchState implements Runnable {
     private static final float DURATION_JOB_END = 70.0f;
     private static final float DISTANCE_JOB_START = 50.0f;
 
+    // Tags of job animations, which say what to do when they finish
+    private static final int ANIMATION_START = 1;
+    private static final int ANIMATION_END = 2;
+    private static final int ANIMATION_BURST = 3;
+
     // Invariants
     private final float width;
     private final float height;
@@ -66,297 +67,76 @@ public class CubicSketchState implements Runnable {
     private Legend legend;
     private Timeline timeline;
 
-    // State for playing
-    private PlayState playState = PlayState.PAUSED;
-    private GridState state;
+    // State for playing, which is the state of the shared playback
+    private volatile GridState state;
+    private Usage retainedUsage;
+    private final Queue<JobActor> defunctActors = new ConcurrentLinkedQueue<JobActor>();
+
+    // The shared playback, which parks until the next event is due
+    private final Playback playback;
 
-    private double playSpeed = 10.0f;
-    private long prevElapsed;
-    private long totalElapsed = 0;
-    private Date lastSliceRequestDate;
-    private long nextStartingPosition = 0;
+    // How long a node glows to show a burst of short-lived jobs
+    private int burstDurationMs = ConfigProperties.getInteger("derecho.viz.draw.burst.ms", 1500);
 
-    // Should changes to actors be tweened? This is usually disabled during buffering, for example.
+    // Should changes to actors be tweened?
     private boolean tweenChanges = true;
 
-    public CubicSketchState(PApplet p, Timeline timeline, float width, float height) {
+    // Moves the job actors
+    private final Animator animator = new Animator(1024);
+
+    public CubicSketchState(PApplet p, Playback playback, float width, float height) {
         this.p = p;
         this.width = width;
         this.height = height;
-        this.timeline = timeline;
-    }
-
-    @Override
-    public void run() {
-
-        while (true) {
-
-            switch (playState) {
-
-            case BUFFERING:
-                bufferToNextPosition();
-                break;
-
-            case PLAYING:
-                Date currDate = new Date();
-                long elapsed = (int) ((currDate.getTime() - lastSliceRequestDate.getTime()) * playSpeed);
-                this.lastSliceRequestDate = currDate;
-
-                // Check if we've been truncated, and move forward if necessary
-                if (totalElapsed < timeline.getFirstOffset()) {
-                    log.info("Elapsed time ({}) occurs before the current timeline ({})", totalElapsed, timeline.getFirstOffset());
-
-                    long position = elapsed;
-                    boolean noMatch = true;
-                    while (noMatch) {
-                        if (position != timeline.getFirstOffset()) {
-                            position = timeline.getFirstOffset();
-                            try {
-                                Thread.sleep(500);
-                            }
-                            catch (InterruptedException e) {
-                                // Ignore
-                            }
-                        }
-                        else {
-                            noMatch = false;
-                        }
-                    }
-                    log.info("Will buffer to new position: {}", position);
-                    bufferAtPosition(position);
-                    break;
-                }
-
-                // Update actors and build a usage map
-                Map<String, Integer> slotsUsedByUser = new HashMap<String, Integer>();
-                Iterator<? extends Actor> i = getJobActors().values().iterator();
-                while (i.hasNext()) {
-                    Actor actor = i.next();
-                    if (actor instanceof JobActor) {
-                        JobActor jobActor = (JobActor) actor;
-                        if (jobActor.defunct) {
-                            removeJobActor(jobActor.name, jobActor);
-                        }
-                        else {
-                            int slots = 1;
-                            if (jobActor.queued) {
-                                // If a job is queued then it is represented by a single sprite, so we need the
-                                // actual number of slots
-                                GridJob job = state.getJobByFullId(jobActor.name);
-                                if (job != null) {
-                                    slots = job.getSlots();
-                                }
-                            }
-
-                            if (jobActor.getName().contains(":")) {
-                                // Parse a jobId like this: 1275988.2828-4000:1
-                                try {
-                                    Pattern p = Pattern.compile("(\\d+)\\.(\\d+)-(\\d+):(\\d+)");
-                                    Matcher m = p.matcher(jobActor.getName());
-                                    if (m.matches()) {
-                                        int start = Integer.parseInt(m.group(2));
-                                        int end = Integer.parseInt(m.group(3));
-                                        int interval = Integer.parseInt(m.group(4));
-                                        slots = (end - start) / interval;
-                                    }
-                                }
-                                catch (Exception e) {
-                                    log.error("Error parsing jobId: " + jobActor.getName(), e);
-                                }
-                            }
-                            else if (jobActor.getName().contains(",")) {
-                                // Parse a jobId like this: 2968157.205,211
-                                try {
-                                    Pattern p = Pattern.compile("(\\d+)\\.(\\d+),(\\d+)");
-                                    Matcher m = p.matcher(jobActor.getName());
-                                    if (m.matches()) {
-                                        int first = Integer.parseInt(m.group(2));
-                                        int second = Integer.parseInt(m.group(3));
-                                        // There are two jobs listed here, so we require twice the number of slots
-                                        slots *= 2;
-                                    }
-                                }
-                                catch (Exception e) {
-                                    log.error("Error parsing jobId: " + jobActor.getName(), e);
-                                }
-                            }
-
-                            String user = jobActor.getUsername();
-                            if (!slotsUsedByUser.containsKey(user)) {
-                                slotsUsedByUser.put(user, 0);
-                            }
-                            if (!jobActor.queued) {
-                                slotsUsedByUser.put(user, slotsUsedByUser.get(user) + slots);
-                            }
-                        }
-                    }
-                }
-
-                legend.retain(slotsUsedByUser);
-
-                updateState(elapsed);
-
-                break;
-
-            case READY:
-                break;
-
-            case PAUSED:
-                break;
-
-            case END:
-                return;
-
-            default:
-                log.error("Invalid play state: " + playState);
-                break;
-
-            }
-
-            try {
-                Thread.sleep(50);
-            }
-            catch (InterruptedException e) {
-                // Ignore
-            }
-        }
+        this.timeline = playback.getTimeline();
+        this.playback = playback;
     }
 
-    private void bufferToNextPosition() {
-
-        log.info("Buffering to next position: {}", nextStartingPosition);
-
-        int i = 0;
-        Snapshot reqSnapshot = null;
-        Snapshot prevSnapshot = null;
-        for (Snapshot snapshot : timeline.getSnapshots()) {
-            long offset = timeline.getOffset(snapshot.getSamplingTime());
-
-            log.debug("Snapshot {} has offset {}", i, offset);
-
-            if (offset >= nextStartingPosition) {
-                if (prevSnapshot == null) {
-                    reqSnapshot = snapshot;
-                }
-                else {
-                    reqSnapshot = prevSnapshot;
-                }
-                break;
-            }
-            prevSnapshot = snapshot;
-            i++;
-        }
-
-        if (reqSnapshot == null) {
-            reqSnapshot = prevSnapshot;
-            if (reqSnapshot == null) {
-                log.error("Could not find snapshot for offset {}", nextStartingPosition);
-                setPlayState(PlayState.PAUSED);
-                return;
-            }
-        }
-
-        // Initialize the state at the closest possible snapshot
-        log.info("Init with snapshot with offset {}", timeline.getOffset(reqSnapshot.getSamplingTime()));
-
-        this.state = new GridState(reqSnapshot, "runState");
+    public void playbackMoved(GridState state) {
+        this.state = state;
+        jobActorMap.clear();
+        defunctActors.clear();
         initState();
-
-        // Apply all events between the closet snapshot and the desired starting position
-        this.totalElapsed = timeline.getOffset((reqSnapshot.getSamplingTime())) + 1;
-        // This must be set before calling updateState for the first time after changing the position (i.e. totalElapsed)
-        this.prevElapsed = totalElapsed;
-        long elapsed = nextStartingPosition - totalElapsed;
-        if (elapsed < 0) {
-            log.warn("Negative time elapsed. Normalizing to nextStartingPosition={}", nextStartingPosition);
-            totalElapsed = nextStartingPosition;
-            elapsed = nextStartingPosition;
-        }
-
-        log.info("Buffering elapsed: {}", elapsed);
-        this.tweenChanges = false;
-        updateState(elapsed);
-        this.tweenChanges = true;
-
-        // Get ready to start playing
-        this.lastSliceRequestDate = new Date();
-        if (totalElapsed != nextStartingPosition) {
-            totalElapsed = nextStartingPosition;
-        }
-
-        setPlayState(PlayState.READY);
-        log.info("Buffered at totalElapsed={}", totalElapsed);
+        this.retainedUsage = null;
     }
 
-    public synchronized void bufferAtPosition(long position) {
-        if (playState == PlayState.PAUSED) {
-            setPlayState(PlayState.BUFFERING);
-            this.nextStartingPosition = position;
-        }
-        else {
-            log.error("Cannot transition from " + playState + " to BUFFERING");
-        }
-    }
+    public void frameStarted() {
 
-    public synchronized void play() {
-        if (playState == PlayState.PAUSED || playState == PlayState.READY) {
-            log.info("Beginning playback at totalElapsed={}", totalElapsed);
-            this.lastSliceRequestDate = new Date();
-            setPlayState(PlayState.PLAYING);
+        // Drop the actors of jobs which have finished ending
+        JobActor defunctActor;
+        while ((defunctActor = defunctActors.poll()) != null) {
+            removeJobActor(defunctActor.name, defunctActor);
         }
-        else {
-            log.error("Cannot transition from " + playState + " to PLAYING");
+
+        // The usage is maintained by the state as events are applied, so this is only a version check
+        Usage usage = state.getUsage();
+        if (usage != retainedUsage) {
+            legend.retain(usage);
+            this.retainedUsage = usage;
         }
     }
 
-    public synchronized void pause() {
-        if (playState == PlayState.PLAYING || playState == PlayState.PAUSED) {
-            setPlayState(PlayState.PAUSED);
+    public void eventPlayed(Event event, GridJob job) {
+        if (event instanceof GridEvent) {
+            applyEvent((GridEvent) event, job);
         }
-        else {
-            log.error("Cannot transition from " + playState + " to PAUSED");
+        else if (event instanceof BurstEvent) {
+            applyBurst((BurstEvent) event);
         }
     }
 
-    public synchronized void end() {
-        setPlayState(PlayState.END);
-    }
-
-    private void setPlayState(PlayState playState) {
-        log.info("Entering state: {}", playState);
-        this.playState = playState;
+    public void frameFinished(long position) {
     }
 
-    public boolean isPaused() {
-        return playState == PlayState.PAUSED;
+    public boolean isAnimating() {
+        return false;
     }
 
+    /**
+     * Returns true once the actors have been built from the state of the playback.
+     */
     public boolean isReady() {
-        return playState == PlayState.READY;
-    }
-
-    public boolean isPlaying() {
-        return playState == PlayState.PLAYING;
-    }
-
-    public boolean isBuffering() {
-        return playState == PlayState.BUFFERING;
-    }
-
-    public boolean isEnded() {
-        return playState == PlayState.END;
-    }
-
-    public double getPlaySpeed() {
-        return playSpeed;
-    }
-
-    public void setPlaySpeed(double playSpeed) {
-        this.playSpeed = playSpeed;
-    }
-
-    public long getPosition() {
-        return totalElapsed;
+        return state != null;
     }
 
     /**
@@ -470,93 +250,16 @@ public class CubicSketchState implements Runnable {
         }
     }
 
-    private void updateState(long elapsed) {
-        // Update the job actors
-        List<GridEvent> events = getNextSlice(elapsed);
-        if (!events.isEmpty()) {
-            log.debug("Applying {} events", events.size());
-            for (GridEvent event : events) {
-                applyEvent(event);
-            }
-        }
-    }
-
-    private List<GridEvent> getNextSlice(long elapsed) {
-
-        List<GridEvent> slice = new ArrayList<GridEvent>();
-        if (elapsed <= 0) return slice;
-
-        this.totalElapsed += elapsed;
-
-        log.trace("getNextSlice, prevElapsed={}, totalElapsed={}", prevElapsed, totalElapsed);
-
-        if (prevElapsed >= totalElapsed) {
-            log.warn("No slice possible with (prevElapsed={}, totalElapsed={})", prevElapsed, totalElapsed);
-            return slice;
-        }
-
-        long start = prevElapsed;
-        long end = totalElapsed;
-
-        SortedMap<Long, List<Event>> eventSlice = timeline.getEvents(start, end);
-
-        if (!eventSlice.isEmpty()) {
-            // We only move the start of the window up when we find an event. This done because the database might
-            // have gaps if the incoming events cannot be processed in real-time. In that case, we don't want to
-            // miss any events if they come late.
-            this.prevElapsed = totalElapsed;
-
-            log.trace("Timeline has {} offset buckets", timeline.getNumOffsets());
-            log.info("Requested slice where {}<=t<{} and got " + eventSlice.size() + " buckets", start, end);
-        }
-
-        if (!eventSlice.isEmpty()) {
-            for (Long offset : eventSlice.keySet()) {
-                log.trace("Got offset bucket {}", offset);
-                if (offset >= totalElapsed) {
-                    log.warn("Timeline returned grid events outside the requested frame: {}>{}", offset, totalElapsed);
-                    break;
-                }
-                List<Event> events = eventSlice.get(offset);
-                synchronized (events) {
-                    if (events.isEmpty()) {
-                        log.trace("Got empty offset bucket for offset {}", offset);
-                    }
-                    for (Event event : events) {
-                        if (event instanceof GridEvent) {
-                            GridEvent gridEvent = (GridEvent) event;
-                            log.trace("Got grid event {}", gridEvent);
-                            slice.add(gridEvent);
-                        }
-                        else if (event instanceof SnapshotEvent) {
-                            SnapshotEvent gridEvent = (SnapshotEvent) event;
-                            log.trace("Got snapshot event {}", gridEvent);
-                        }
-                        else {
-                            log.trace("Got unrecognized event {}", event);
-                        }
-                    }
-                }
-            }
-
-        }
-
-        return slice;
-    }
-
-    private void applyEvent(GridEvent event) {
-
-        String fullJobId = event.getJobId();
-        GridJob job = state.getJobByFullId(fullJobId);
-
-        // Update the run state
-        state.applyEvent(event);
+    /**
+     * Bring the actors in line with an event, which the playback already applied to the run state.
+     */
+    private void applyEvent(GridEvent event, GridJob job) {
 
         // Update the actor state
         switch (event.getType()) {
         case SUB:
             if (job == null) {
-                job = new GridJob(event.getSnapshotJob());
+                job = new GridJob(event.getJob());
             }
             applySub(job);
             break;
@@ -576,6 +279,14 @@ public class CubicSketchState implements Runnable {
                 applyEnd(job, event.getOffset());
             }
             break;
+        case UPDATE:
+            if (job == null) {
+                log.error("Cannot update null job");
+            }
+            else {
+                applyUpdate(job);
+            }
+            break;
         default:
             log.warn("Unrecognized event type: {}", event.getType());
             break;
@@ -619,11 +330,7 @@ public class CubicSketchState implements Runnable {
         JobActor jobActor = actors.iterator().next();
 
         int i = 0;
-        GridJob[] nodeJobs = job.getNode().getSlots();
-        for (int s = 0; s < nodeJobs.length; s++) {
-            GridJob nodeJob = nodeJobs[s];
-            if (nodeJob == null) continue;
-            if (!nodeJob.getFullJobId().equals(fullJobId)) continue;
+        for (int s : job.getNode().getSlotIndexes(fullJobId)) {
 
             if (i > 0) {
                 jobActor = cloneJobActor(fullJobId);
@@ -639,13 +346,8 @@ public class CubicSketchState implements Runnable {
                 float distance = jobActor.pos.dist(endPos);
                 float duration = (DURATION_JOB_START * distance / DISTANCE_JOB_START) * 0.6f;
 
-                Tween tween = new Tween("start_job_" + fullJobId + "#" + i, getTweenDuration(duration))
-                        .addPVector(jobActor.pos, endPos)
-                        .call(jobActor, "jobStarted")
-                        .setEasing(Tween.SINE_OUT)
-                        .noAutoUpdate();
-
-                jobActor.tweens.add(tween);
+                animator.add(jobActor, endPos, Animator.KEEP, getTweenDuration(duration), Animator.SINE_OUT,
+                        ANIMATION_START);
             }
             else {
                 jobActor.pos.set(endPos);
@@ -666,32 +368,66 @@ public class CubicSketchState implements Runnable {
 
         log.debug("Finishing job {} on node {}", fullJobId, job.getNode().getShortName());
 
-        int i = 0;
         for (JobActor jobActor : actors) {
 
-            PVector endPos = jobActor.getPos().get();
-            endPos.mult(10.0f);
+            PVector pos = jobActor.getPos();
 
             if (tweenChanges) {
-                // scale duration to the distance that needs to be traveled
-                float distance = jobActor.pos.dist(endPos);
+                // scale duration to the distance that needs to be traveled, which is out to ten times as far
+                float distance = 9 * pos.mag();
                 float duration = (DURATION_JOB_END * distance / DURATION_JOB_END) * 0.6f;
 
-                Tween tween = new Tween("end_job_" + fullJobId + "#" + i, getTweenDuration(duration))
-                        .addPVector(jobActor.pos, endPos)
-                        .call(jobActor, "jobEnded")
-                        .setEasing(Tween.SINE_IN)
-                        .noAutoUpdate();
-                jobActor.tweens.add(tween);
+                animator.add(jobActor, pos.x * 10, pos.y * 10, pos.z * 10, Animator.KEEP, getTweenDuration(duration),
+                        Animator.SINE_IN, ANIMATION_END);
             }
             else {
                 jobActor.jobEnded();
             }
+        }
+    }
 
-            i++;
+    /**
+     * Bring the actors of a job in line with the job after it was updated.
+     */
+    private void applyUpdate(GridJob job) {
+        Collection<JobActor> actors = jobActorMap.get(job.getFullJobId());
+        if (actors == null) return;
+        synchronized (jobActorMap) {
+            for (JobActor jobActor : actors) {
+                if (job.getOwner() != null && !job.getOwner().equals(jobActor.username)) {
+                    jobActor.username = job.getOwner();
+                    jobActor.color = legend.getItemColor(job.getOwner());
+                }
+            }
         }
     }
 
+    /**
+     * Show a burst of short-lived jobs as a cube around the node, in the color of the user who ran most of them,
+     * which fades away. The more jobs, the brighter it starts.
+     */
+    private void applyBurst(BurstEvent event) {
+        if (!tweenChanges) return;
+        String nodeName = event.getNodeName();
+        if (lattice.getContents(nodeName) == null) {
+            log.trace("Ignoring burst on unknown node {}", nodeName);
+            return;
+        }
+
+        // The center of the node is halfway between its first and last slots
+        PVector pos = getLatticePos(nodeName, "0");
+        pos.add(getLatticePos(nodeName, "" + (slotsPerNode - 1)));
+        pos.div(2);
+
+        JobActor burstActor = new JobActor(pos, event.getMainOwner());
+        burstActor.name = "burst:" + nodeName;
+        burstActor.color = legend.getItemColor(event.getMainOwner());
+        burstActor.size = nodeSize;
+        burstActor.opacity = 255 * Math.min(1.0f, 0.3f + (float) event.getNumJobs() / slotsPerNode);
+        addJobActor(burstActor.name, burstActor);
+        animator.add(burstActor, null, 0, burstDurationMs, Animator.SINE_IN, ANIMATION_BURST);
+    }
+
     private JobActor createJobActor(GridJob job) {
         JobActor jobActor = new JobActor(null, job.getOwner());
         jobActor.color = legend.getItemColor(job.getOwner());
@@ -770,9 +506,20 @@ public class CubicSketchState implements Runnable {
         return pos;
     }
 
-    private float getTweenDuration(float durationJobSub) {
-        if (playSpeed <= 1) return durationJobSub;
-        return durationJobSub / (float) Math.log(playSpeed);
+    /**
+     * Returns the duration in milliseconds of an animation which takes the given number of frames at normal speed.
+     */
+    private int getTweenDuration(float durationJobSub) {
+        double playSpeed = playback.getPlaySpeed();
+        if (playSpeed <= 1) return Animator.framesToMs(durationJobSub);
+        return Animator.framesToMs(durationJobSub / (float) Math.log(playSpeed));
+    }
+
+    /**
+     * Advance the animations of the job actors to the current time.
+     */
+    public void updateAnimations() {
+        animator.update(System.currentTimeMillis());
     }
 
     public class Actor {
@@ -792,13 +539,15 @@ public class CubicSketchState implements Runnable {
         }
     }
 
-    public class JobActor extends Actor {
+    public class JobActor extends Actor implements Animator.Animatable {
 
         protected String name;
         protected String username;
         protected int color = Utils.color("ff0000");
         protected float opacity = 150;
-        protected Set<Motion> tweens = new HashSet<Motion>();
+        protected float size = jobSize;
+        private volatile int animations = 0;
+        private final Animator.Rows animatorRows = new Animator.Rows();
         protected boolean queued = false;
         protected boolean defunct = false;
 
@@ -807,30 +556,31 @@ public class CubicSketchState implements Runnable {
             this.username = username;
         }
 
-        public void update() {
-            if (isInMotion()) {
-                Set<Motion> toRemove = new HashSet<Motion>();
-                for (Motion m : tweens) {
-                    if (!m.isPlaying()) {
-                        if (m.getPosition() == 0) {
-                            m.play();
-                        }
-                        else {
-                            toRemove.add(m);
-                        }
-                    }
-                    else {
-                        m.update();
-                    }
-                }
-                for (Motion m : toRemove) {
-                    tweens.remove(m);
-                }
+        public synchronized void animationStarted() {
+            animations++;
+        }
+
+        public void animationFinished(int tag) {
+            synchronized (this) {
+                if (animations > 0) animations--;
+            }
+            switch (tag) {
+            case ANIMATION_START:
+                jobStarted();
+                break;
+            case ANIMATION_END:
+            case ANIMATION_BURST:
+                jobEnded();
+                break;
             }
         }
 
         public boolean isInMotion() {
-            return !tweens.isEmpty();
+            return animations > 0;
+        }
+
+        public Animator.Rows getAnimatorRows() {
+            return animatorRows;
         }
 
         public void draw(PGraphics buf) {
@@ -844,7 +594,7 @@ public class CubicSketchState implements Runnable {
             buf.strokeWeight(1);
             buf.fill(color, opacity);
             buf.translate(pos.x, pos.y, pos.z);
-            buf.box(jobSize);
+            buf.box(size);
             buf.popMatrix();
         }
 
@@ -875,10 +625,6 @@ public class CubicSketchState implements Runnable {
             this.opacity = opacity;
         }
 
-        public Set<Motion> getTweens() {
-            return tweens;
-        }
-
         public boolean isDefunct() {
             return defunct;
         }
@@ -888,6 +634,8 @@ public class CubicSketchState implements Runnable {
 
         public void jobEnded() {
             defunct = true;
+            defunctActors.add(this);
+            playback.wakeup();
             color = Utils.color("000000");
             // opacity = 0; // just in case
         }
@@ -898,8 +646,4 @@ public class CubicSketchState implements Runnable {
             return ImmutableMultimap.copyOf(jobActorMap);
         }
     }
-
-    public void setTimeline(Timeline timeline) {
-        this.timeline = timeline;
-    }
 }
@@ -0,0 +1,163 @@
+package replay;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import snapshot.FileBasedStateLoader;
+import snapshot.MySQLBasedStateLoader;
+import snapshot.StateLoader;
+import timeline.Timeline;
+import util.MemoryMonitor;
+
+/**
+ * Replays a range of the grid's history without any display, as fast as the snapshots can be loaded, and writes
+ * statistics about it to an output directory. Meant to be run from cron, e.g. to produce daily usage reports.
+ *
+ * Usage: BatchReplay [-loader mysql|file] [-dir qstatXmlDir] [-from date] [-to date] [-out dir] [-format csv|json|all]
+ * [-threads n]
+ *
+ * Dates are given as "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm" or "yyyy-MM-dd". The MySQL loader needs a start date,
+ * and loads up to the present by default. The file loader loads every file in its directory by default.
+ *
+ * With more than one thread, the range is split into partitions which are replayed in parallel.
+ *
+ * Writes nodes.csv, users.csv and summary.csv and/or replay.json to the output directory (the current directory by
+ * default).
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class BatchReplay {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchReplay.class);
+
+    private static final String[] DATE_FORMATS = { "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd" };
+
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    public static void main(String[] args) throws Exception {
+
+        System.setProperty("java.awt.headless", "true");
+
+        String loaderType = "mysql";
+        String dir = "test-small/";
+        Date from = null;
+        Date to = null;
+        String outDir = ".";
+        String format = "all";
+        int threads = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i == args.length - 1) usage("Missing value for " + arg);
+            String value = args[++i];
+            if ("-loader".equals(arg)) {
+                loaderType = value;
+            }
+            else if ("-dir".equals(arg)) {
+                dir = value;
+            }
+            else if ("-from".equals(arg)) {
+                from = parseDate(value);
+            }
+            else if ("-to".equals(arg)) {
+                to = parseDate(value);
+            }
+            else if ("-out".equals(arg)) {
+                outDir = value;
+            }
+            else if ("-format".equals(arg)) {
+                format = value;
+            }
+            else if ("-threads".equals(arg)) {
+                try {
+                    threads = Integer.parseInt(value);
+                }
+                catch (NumberFormatException e) {
+                    usage("Bad number of threads: " + value);
+                }
+            }
+            else {
+                usage("Unknown option: " + arg);
+            }
+        }
+
+        if (!"csv".equals(format) && !"json".equals(format) && !"all".equals(format)) {
+            usage("Unknown format: " + format);
+        }
+
+        ParallelReplay.LoaderFactory loaderFactory = null;
+        if ("mysql".equals(loaderType)) {
+            if (from == null) usage("The mysql loader needs a start date");
+            loaderFactory = new ParallelReplay.LoaderFactory() {
+                @Override
+                public StateLoader createLoader(Timeline timeline) {
+                    return new MySQLBasedStateLoader(timeline);
+                }
+            };
+        }
+        else if ("file".equals(loaderType)) {
+            if (from == null) from = new Date(0);
+            final String snapshotDir = dir;
+            loaderFactory = new ParallelReplay.LoaderFactory() {
+                @Override
+                public StateLoader createLoader(Timeline timeline) {
+                    return new FileBasedStateLoader(timeline, snapshotDir);
+                }
+            };
+        }
+        else {
+            usage("Unknown loader: " + loaderType);
+        }
+        if (to == null) to = new Date();
+
+        File out = new File(outDir);
+        if (!out.isDirectory() && !out.mkdirs()) {
+            usage("Cannot create output directory: " + out);
+        }
+
+        long start = System.currentTimeMillis();
+        ParallelReplay replay = new ParallelReplay(loaderFactory, threads, threads > 1 ? PARTITIONS_PER_THREAD : 1);
+        ReplayStats stats = replay.replay(from, to);
+        if (stats.getNumSnapshots() == 0) {
+            log.error("No snapshots found between {} and {}", from, to);
+            System.exit(2);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        stats.setWallTime(elapsed);
+
+        log.info("Replayed {} snapshots with {} events covering {} hours in {} ms", new Object[] {
+                stats.getNumSnapshots(), stats.getNumEvents(), stats.getSpan() / (60 * 60 * 1000), elapsed });
+
+        if (!"json".equals(format)) stats.writeCsv(out);
+        if (!"csv".equals(format)) stats.writeJson(out);
+        stats.logSummary();
+        log.info("Memory: {}", new MemoryMonitor(0).sample());
+    }
+
+    private static Date parseDate(String value) {
+        for (String pattern : DATE_FORMATS) {
+            try {
+                SimpleDateFormat df = new SimpleDateFormat(pattern);
+                df.setLenient(false);
+                return df.parse(value);
+            }
+            catch (ParseException e) {
+                // Try the next one
+            }
+        }
+        usage("Cannot parse date: " + value);
+        return null;
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: BatchReplay [-loader mysql|file] [-dir qstatXmlDir] [-from date] [-to date] "
+                + "[-out dir] [-format csv|json|all] [-threads n]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,133 @@
+package replay;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import snapshot.StateLoader;
+import timeline.Timeline;
+
+/**
+ * Replays a long range of history in parallel. Absorbing snapshots is inherently serial, since each one is diffed
+ * against the state left by the previous one, but any snapshot is also a complete picture of the grid from which a
+ * replay can start over. So the range is split at snapshot boundaries into partitions, each partition is loaded into
+ * a timeline of its own on a fork/join worker, starting from its boundary snapshot, and the statistics of the
+ * partitions are stitched back together in order.
+ *
+ * Adjacent partitions share their boundary snapshot. The earlier partition generates the events leading up to it, and
+ * the later one uses it as its basis, so no event is lost or counted twice. When stitching, the jobs left running by
+ * the earlier partition are reconciled against the ones the later one found in the snapshot.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class ParallelReplay {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelReplay.class);
+
+    // Partitions only consume events through a listener, so they don't need to keep a window of snapshots
+    private static final int PARTITION_WINDOW = 2;
+
+    /**
+     * Creates a loader for each partition.
+     */
+    public interface LoaderFactory {
+        public StateLoader createLoader(Timeline timeline);
+    }
+
+    private final LoaderFactory loaderFactory;
+    private final int parallelism;
+    private final int partitionsPerThread;
+
+    /**
+     * @param loaderFactory creates the loaders for the partitions
+     * @param parallelism the number of worker threads
+     * @param partitionsPerThread how many partitions to split the range into for each thread; more partitions balance
+     * the load better, but each one has to start from a full snapshot
+     */
+    public ParallelReplay(LoaderFactory loaderFactory, int parallelism, int partitionsPerThread) {
+        this.loaderFactory = loaderFactory;
+        this.parallelism = Math.max(1, parallelism);
+        this.partitionsPerThread = Math.max(1, partitionsPerThread);
+    }
+
+    /**
+     * Replay the snapshots in the given range, and return their stitched statistics.
+     */
+    public ReplayStats replay(Date start, Date end) throws Exception {
+
+        List<Date> dates = loaderFactory.createLoader(new Timeline(PARTITION_WINDOW)).getSnapshotDates(start, end);
+        if (dates.isEmpty()) {
+            return new ReplayStats();
+        }
+
+        // Each partition covers dates[bounds[i]] to dates[bounds[i+1]], inclusive
+        int numPartitions = Math.max(1, Math.min(parallelism * partitionsPerThread, dates.size() - 1));
+        Date[] bounds = new Date[numPartitions + 1];
+        for (int i = 0; i <= numPartitions; i++) {
+            bounds[i] = dates.get((int) ((long) i * (dates.size() - 1) / numPartitions));
+        }
+
+        log.info("Replaying {} snapshots in {} partitions on {} threads", new Object[] { dates.size(), numPartitions,
+                parallelism });
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new PartitionTask(bounds, 0, numPartitions));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Replay a single partition on the current thread.
+     */
+    private ReplayStats replayPartition(Date start, Date end) {
+        Timeline timeline = new Timeline(PARTITION_WINDOW);
+        ReplayStats stats = new ReplayStats();
+        timeline.addListener(stats);
+        try {
+            loaderFactory.createLoader(timeline).loadRange(start, end);
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Error loading partition from " + start + " to " + end, e);
+        }
+        stats.finish();
+        log.info("Replayed partition from {} to {}", start, end);
+        return stats;
+    }
+
+    /**
+     * Recursively fork the replay of a set of partitions, and stitch their statistics together in order.
+     */
+    private class PartitionTask extends RecursiveTask<ReplayStats> {
+
+        private final Date[] bounds;
+        private final int from;
+        private final int to;
+
+        PartitionTask(Date[] bounds, int from, int to) {
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ReplayStats compute() {
+            if (to - from == 1) {
+                return replayPartition(bounds[from], bounds[to]);
+            }
+            int mid = (from + to) >>> 1;
+            PartitionTask left = new PartitionTask(bounds, from, mid);
+            left.fork();
+            ReplayStats right = new PartitionTask(bounds, mid, to).compute();
+            ReplayStats stats = left.join();
+            stats.stitch(right);
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,647 @@
+package replay;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import snapshot.Snapshot;
+import timeline.BurstEvent;
+import timeline.Event;
+import timeline.GridEvent;
+import timeline.GridJob;
+import timeline.GridNode;
+import timeline.GridState;
+import timeline.TimelineListener;
+
+/**
+ * Replays the events of a timeline into a grid state of its own, as soon as each snapshot is absorbed, and
+ * accumulates statistics about the grid along the way:
+ * <ul>
+ * <li>slot usage over time, per node and per user</li>
+ * <li>how long jobs waited in the queue before starting</li>
+ * <li>how many events of each kind there were, and how fast they were replayed</li>
+ * </ul>
+ * Slot usage is integrated from event to event, so the work done per event is constant no matter how large the grid
+ * is.
+ *
+ * A long range can be replayed as several partitions, and their statistics stitched together in order afterwards.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class ReplayStats implements TimelineListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayStats.class);
+
+    private static final double MS_PER_HOUR = 60 * 60 * 1000;
+    private static final double[] PERCENTILES = { 50, 90, 95, 99 };
+    private static final String UNKNOWN_OWNER = "unknown";
+
+    private GridState state;
+    private Date firstDate;
+    private Date lastDate;
+    private long lastOffset;
+    private int numSnapshots;
+
+    private final Map<String, NodeStats> nodes = new TreeMap<String, NodeStats>();
+    private final Map<String, UserStats> users = new TreeMap<String, UserStats>();
+
+    // Queue waits of all started jobs, in ms
+    private long[] waits = new long[1024];
+    private int numWaits;
+
+    private long numSubs;
+    private long numStarts;
+    private long numEnds;
+    private long numUpdates;
+    private long numBursts;
+    private long numBurstJobs;
+    private long numErrors;
+    private long numCorrections;
+    private long replayNanos;
+    private long wallMillis;
+
+    // Where jobs were running at the first and last snapshots, to reconcile partitions at their boundaries
+    private Map<String, String> firstRunning;
+    private Map<String, String> lastRunning;
+    private int numPartitions = 1;
+    private long numBoundaryMismatches;
+
+    @Override
+    public void snapshotAdded(Snapshot snapshot, long offset, SortedMap<Long, List<Event>> events) {
+
+        long start = System.nanoTime();
+
+        if (state == null) {
+            this.state = new GridState(snapshot, "replayState");
+            this.firstDate = snapshot.getSamplingTime();
+            for (GridNode node : state.getNodeMap().values()) {
+                NodeStats stats = getNodeStats(node);
+                stats.usedSlots = node.getSlots().length - node.getNumFreeSlots();
+            }
+            for (GridJob job : state.getJobMap().values()) {
+                if (job.getNode() != null) {
+                    getUserStats(job.getOwner()).runningSlots += job.getSlots();
+                }
+            }
+            this.firstRunning = getRunningJobs();
+        }
+        else {
+            for (List<Event> bucket : events.values()) {
+                for (Event event : bucket) {
+                    if (event instanceof GridEvent) {
+                        replay((GridEvent) event);
+                    }
+                    else if (event instanceof BurstEvent) {
+                        replay((BurstEvent) event);
+                    }
+                }
+            }
+        }
+
+        this.lastDate = snapshot.getSamplingTime();
+        this.lastOffset = offset;
+        this.numSnapshots++;
+        this.replayNanos += System.nanoTime() - start;
+    }
+
+    private void replay(GridEvent event) {
+
+        long offset = event.getOffset();
+        GridJob before = state.getJobByFullId(event.getJobId());
+        GridNode nodeBefore = before == null ? null : before.getNode();
+
+        if (!state.applyEvent(event)) {
+            numErrors++;
+            return;
+        }
+        if (event.isCorrective()) {
+            numCorrections++;
+        }
+
+        switch (event.getType()) {
+        case SUB:
+            numSubs++;
+            GridJob queued = state.getJobByFullId(event.getJobId());
+            if (queued != null) {
+                getUserStats(queued.getOwner()).numSubmitted++;
+            }
+            break;
+        case START:
+            numStarts++;
+            GridNode node = before.getNode();
+            if (node != null) {
+                NodeStats nodeStats = getNodeStats(node);
+                nodeStats.advance(offset, node);
+                nodeStats.numStarted++;
+                UserStats user = getUserStats(before.getOwner());
+                user.advance(offset, before.getSlots());
+                user.numStarted++;
+            }
+            Date subTime = before.getSubTime();
+            Date startTime = before.getStartTime();
+            if (subTime != null && startTime != null && !startTime.before(subTime)) {
+                long wait = startTime.getTime() - subTime.getTime();
+                addWait(wait);
+                UserStats user = getUserStats(before.getOwner());
+                user.waitSum += wait;
+                user.numWaits++;
+                if (wait > user.maxWait) user.maxWait = wait;
+            }
+            break;
+        case END:
+            numEnds++;
+            UserStats user = getUserStats(before.getOwner());
+            user.numEnded++;
+            if (nodeBefore != null) {
+                getNodeStats(nodeBefore).advance(offset, nodeBefore);
+                user.advance(offset, -before.getSlots());
+            }
+            break;
+        case UPDATE:
+            numUpdates++;
+            break;
+        }
+    }
+
+    private void replay(BurstEvent burst) {
+        numBursts++;
+        numBurstJobs += burst.getNumJobs();
+        NodeStats node = nodes.get(burst.getNodeName());
+        if (node != null) {
+            node.numBurstJobs += burst.getNumJobs();
+        }
+        for (Map.Entry<String, Integer> entry : burst.getJobsByOwner().entrySet()) {
+            getUserStats(entry.getKey()).numBurstJobs += entry.getValue();
+        }
+    }
+
+    private void addWait(long wait) {
+        if (numWaits == waits.length) {
+            waits = Arrays.copyOf(waits, numWaits * 2);
+        }
+        waits[numWaits++] = wait;
+    }
+
+    private NodeStats getNodeStats(GridNode node) {
+        NodeStats stats = nodes.get(node.getShortName());
+        if (stats == null) {
+            stats = new NodeStats(node);
+            nodes.put(node.getShortName(), stats);
+        }
+        return stats;
+    }
+
+    private UserStats getUserStats(String owner) {
+        if (owner == null) owner = UNKNOWN_OWNER;
+        UserStats stats = users.get(owner);
+        if (stats == null) {
+            stats = new UserStats();
+            users.put(owner, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the node of each running job, by job id.
+     */
+    private Map<String, String> getRunningJobs() {
+        Map<String, String> running = new HashMap<String, String>();
+        for (GridJob job : state.getJobMap().values()) {
+            if (job.getNode() != null) {
+                running.put(job.getFullJobId(), job.getNode().getShortName());
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Account for slot usage up to the last snapshot, and let go of the grid state. Call once all snapshots have 
+     * been added.
+     */
+    public void finish() {
+        for (NodeStats node : nodes.values()) {
+            node.advance(lastOffset, node.usedSlots);
+        }
+        for (UserStats user : users.values()) {
+            user.advance(lastOffset, 0);
+        }
+        if (state != null) {
+            this.lastRunning = getRunningJobs();
+            this.state = null;
+        }
+    }
+
+    /**
+     * Append the statistics of the partition which follows this one. Adjacent partitions share a snapshot: this one
+     * ends with it and the next one starts from it, so the events which led up to it are only counted once. Both
+     * partitions must be finished.
+     */
+    public void stitch(ReplayStats next) {
+
+        boolean adjacent = numSnapshots > 0 && next.numSnapshots > 0;
+        if (adjacent) {
+            reconcile(next);
+        }
+        if (firstDate == null) {
+            this.firstDate = next.firstDate;
+            this.firstRunning = next.firstRunning;
+        }
+        if (next.lastDate != null) {
+            this.lastDate = next.lastDate;
+            this.lastRunning = next.lastRunning;
+        }
+
+        for (Map.Entry<String, NodeStats> entry : next.nodes.entrySet()) {
+            NodeStats node = nodes.get(entry.getKey());
+            if (node == null) {
+                nodes.put(entry.getKey(), entry.getValue());
+            }
+            else {
+                node.add(entry.getValue());
+            }
+        }
+        for (Map.Entry<String, UserStats> entry : next.users.entrySet()) {
+            UserStats user = users.get(entry.getKey());
+            if (user == null) {
+                users.put(entry.getKey(), entry.getValue());
+            }
+            else {
+                user.add(entry.getValue());
+            }
+        }
+
+        if (numWaits + next.numWaits > waits.length) {
+            waits = Arrays.copyOf(waits, numWaits + next.numWaits);
+        }
+        System.arraycopy(next.waits, 0, waits, numWaits, next.numWaits);
+        numWaits += next.numWaits;
+
+        this.lastOffset += next.lastOffset;
+        this.numSnapshots += next.numSnapshots - (adjacent ? 1 : 0);
+        this.numPartitions += next.numPartitions;
+        this.numBoundaryMismatches += next.numBoundaryMismatches;
+        this.numSubs += next.numSubs;
+        this.numStarts += next.numStarts;
+        this.numEnds += next.numEnds;
+        this.numUpdates += next.numUpdates;
+        this.numBursts += next.numBursts;
+        this.numBurstJobs += next.numBurstJobs;
+        this.numErrors += next.numErrors;
+        this.numCorrections += next.numCorrections;
+        this.replayNanos += next.replayNanos;
+    }
+
+    /**
+     * Check that the events of this partition left the jobs running where the next partition found them. Any job 
+     * which is missing from either side, or is on another node, is counted as a mismatch.
+     */
+    private void reconcile(ReplayStats next) {
+        long mismatches = 0;
+        for (Map.Entry<String, String> entry : lastRunning.entrySet()) {
+            if (!entry.getValue().equals(next.firstRunning.get(entry.getKey()))) {
+                mismatches++;
+            }
+        }
+        for (String fullJobId : next.firstRunning.keySet()) {
+            if (!lastRunning.containsKey(fullJobId)) {
+                mismatches++;
+            }
+        }
+        if (mismatches > 0) {
+            log.warn("{} running jobs differ at the partition boundary at {}", mismatches, lastDate);
+        }
+        this.numBoundaryMismatches += mismatches;
+    }
+
+    /**
+     * Set the wall clock time it took to load and replay everything, in ms.
+     */
+    public void setWallTime(long wallMillis) {
+        this.wallMillis = wallMillis;
+    }
+
+    public int getNumSnapshots() {
+        return numSnapshots;
+    }
+
+    public long getNumEvents() {
+        return numSubs + numStarts + numEnds + numUpdates + numBursts;
+    }
+
+    /**
+     * Returns the length of the replayed timeline, in ms.
+     */
+    public long getSpan() {
+        return lastOffset;
+    }
+
+    private long getCapacity() {
+        long capacity = 0;
+        for (NodeStats node : nodes.values()) {
+            capacity += node.numSlots;
+        }
+        return capacity;
+    }
+
+    private double getBusySlotMs() {
+        double busy = 0;
+        for (NodeStats node : nodes.values()) {
+            busy += node.busySlotMs;
+        }
+        return busy;
+    }
+
+    /**
+     * Returns the fraction of the given slot time (in slot-ms) over the whole span, for the given number of slots.
+     */
+    private double utilization(double slotMs, long numSlots) {
+        if (lastOffset == 0 || numSlots == 0) return 0;
+        return slotMs / ((double) lastOffset * numSlots);
+    }
+
+    /**
+     * Returns the given percentile of the queue waits, in ms, using the nearest rank.
+     */
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    public void writeCsv(File dir) throws IOException {
+
+        PrintWriter out = new PrintWriter(new FileWriter(new File(dir, "nodes.csv")));
+        try {
+            out.println("node,qtype,subset,slots,busy_slot_hours,utilization,jobs_started,burst_jobs");
+            for (Map.Entry<String, NodeStats> entry : nodes.entrySet()) {
+                NodeStats node = entry.getValue();
+                out.println(csv(entry.getKey()) + "," + csv(node.qtype) + "," + csv(node.subset) + ","
+                        + node.numSlots + "," + format(node.busySlotMs / MS_PER_HOUR) + ","
+                        + format(utilization(node.busySlotMs, node.numSlots)) + "," + node.numStarted + ","
+                        + node.numBurstJobs);
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        long capacity = getCapacity();
+        out = new PrintWriter(new FileWriter(new File(dir, "users.csv")));
+        try {
+            out.println("user,slot_hours,utilization,jobs_submitted,jobs_started,jobs_ended,burst_jobs,mean_wait_secs,max_wait_secs");
+            for (Map.Entry<String, UserStats> entry : users.entrySet()) {
+                UserStats user = entry.getValue();
+                out.println(csv(entry.getKey()) + "," + format(user.busySlotMs / MS_PER_HOUR) + ","
+                        + format(utilization(user.busySlotMs, capacity)) + "," + user.numSubmitted + ","
+                        + user.numStarted + "," + user.numEnded + "," + user.numBurstJobs + ","
+                        + format(user.getMeanWait() / 1000) + "," + format(user.maxWait / 1000.0));
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        out = new PrintWriter(new FileWriter(new File(dir, "summary.csv")));
+        try {
+            out.println("statistic,value");
+            for (Map.Entry<String, Object> entry : getSummary().entrySet()) {
+                out.println(entry.getKey() + "," + csv(String.valueOf(entry.getValue())));
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    public void writeJson(File dir) throws IOException {
+
+        long capacity = getCapacity();
+        PrintWriter out = new PrintWriter(new FileWriter(new File(dir, "replay.json")));
+        try {
+            out.println("{");
+            out.println("  \"summary\": {");
+            int i = 0;
+            Map<String, Object> summary = getSummary();
+            for (Map.Entry<String, Object> entry : summary.entrySet()) {
+                Object value = entry.getValue();
+                out.print("    " + json(entry.getKey()) + ": "
+                        + (value instanceof Number ? value.toString() : json(value.toString())));
+                out.println(++i < summary.size() ? "," : "");
+            }
+            out.println("  },");
+
+            out.println("  \"nodes\": [");
+            i = 0;
+            for (Map.Entry<String, NodeStats> entry : nodes.entrySet()) {
+                NodeStats node = entry.getValue();
+                out.print("    {\"node\": " + json(entry.getKey()) + ", \"qtype\": " + json(node.qtype)
+                        + ", \"subset\": " + json(node.subset) + ", \"slots\": " + node.numSlots
+                        + ", \"busy_slot_hours\": " + format(node.busySlotMs / MS_PER_HOUR) + ", \"utilization\": "
+                        + format(utilization(node.busySlotMs, node.numSlots)) + ", \"jobs_started\": "
+                        + node.numStarted + ", \"burst_jobs\": " + node.numBurstJobs + "}");
+                out.println(++i < nodes.size() ? "," : "");
+            }
+            out.println("  ],");
+
+            out.println("  \"users\": [");
+            i = 0;
+            for (Map.Entry<String, UserStats> entry : users.entrySet()) {
+                UserStats user = entry.getValue();
+                out.print("    {\"user\": " + json(entry.getKey()) + ", \"slot_hours\": "
+                        + format(user.busySlotMs / MS_PER_HOUR) + ", \"utilization\": "
+                        + format(utilization(user.busySlotMs, capacity)) + ", \"jobs_submitted\": "
+                        + user.numSubmitted + ", \"jobs_started\": " + user.numStarted + ", \"jobs_ended\": "
+                        + user.numEnded + ", \"burst_jobs\": " + user.numBurstJobs + ", \"mean_wait_secs\": "
+                        + format(user.getMeanWait() / 1000) + ", \"max_wait_secs\": "
+                        + format(user.maxWait / 1000.0) + "}");
+                out.println(++i < users.size() ? "," : "");
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the grid-wide statistics, in the order they should be reported.
+     */
+    private Map<String, Object> getSummary() {
+
+        DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long[] sorted = Arrays.copyOf(waits, numWaits);
+        Arrays.sort(sorted);
+        long numEvents = getNumEvents();
+        double replaySecs = replayNanos / 1e9;
+        double spanHours = lastOffset / MS_PER_HOUR;
+        long capacity = getCapacity();
+
+        Map<String, Object> summary = new LinkedHashMap<String, Object>();
+        summary.put("from", firstDate == null ? "" : df.format(firstDate));
+        summary.put("to", lastDate == null ? "" : df.format(lastDate));
+        summary.put("span_hours", format(spanHours));
+        summary.put("snapshots", numSnapshots);
+        summary.put("partitions", numPartitions);
+        summary.put("boundary_mismatches", numBoundaryMismatches);
+        summary.put("nodes", nodes.size());
+        summary.put("slots", capacity);
+        summary.put("users", users.size());
+        summary.put("busy_slot_hours", format(getBusySlotMs() / MS_PER_HOUR));
+        summary.put("utilization", format(utilization(getBusySlotMs(), capacity)));
+        summary.put("events", numEvents);
+        summary.put("sub_events", numSubs);
+        summary.put("start_events", numStarts);
+        summary.put("end_events", numEnds);
+        summary.put("update_events", numUpdates);
+        summary.put("burst_events", numBursts);
+        summary.put("burst_jobs", numBurstJobs);
+        summary.put("replay_errors", numErrors);
+        summary.put("corrective_events", numCorrections);
+        summary.put("replay_secs", format(replaySecs));
+        summary.put("events_per_sec", format(replaySecs == 0 ? 0 : numEvents / replaySecs));
+        summary.put("wall_secs", format(wallMillis / 1000.0));
+        summary.put("events_per_wall_sec", format(wallMillis == 0 ? 0 : numEvents * 1000.0 / wallMillis));
+        summary.put("jobs_ended_per_hour", format(spanHours == 0 ? 0 : (numEnds + numBurstJobs) / spanHours));
+        summary.put("queue_waits", numWaits);
+        double waitSum = 0;
+        for (long wait : sorted) {
+            waitSum += wait;
+        }
+        summary.put("queue_wait_mean_secs", format(numWaits == 0 ? 0 : waitSum / numWaits / 1000));
+        for (double p : PERCENTILES) {
+            summary.put("queue_wait_p" + (int) p + "_secs", format(percentile(sorted, p) / 1000.0));
+        }
+        summary.put("queue_wait_max_secs", format(numWaits == 0 ? 0 : sorted[numWaits - 1] / 1000.0));
+        return summary;
+    }
+
+    /**
+     * Formats a statistic to a fixed number of decimals, as a Double so that it's written as a number.
+     */
+    private static Double format(double value) {
+        return Math.round(value * 10000) / 10000.0;
+    }
+
+    private static String csv(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) return value;
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String json(String value) {
+        if (value == null) return "null";
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            }
+            else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public void logSummary() {
+        for (Map.Entry<String, Object> entry : getSummary().entrySet()) {
+            log.info("{}: {}", entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static class NodeStats {
+
+        private final String qtype;
+        private final String subset;
+        private final int numSlots;
+        private int usedSlots;
+        private long lastOffset;
+        private double busySlotMs;
+        private long numStarted;
+        private long numBurstJobs;
+
+        NodeStats(GridNode node) {
+            this.qtype = node.getQtype();
+            this.subset = node.getSubset();
+            this.numSlots = node.getSlots().length;
+        }
+
+        /**
+         * Account for the slots used since the last change, and then note the slots the node uses now.
+         */
+        void advance(long offset, GridNode node) {
+            advance(offset, node.getSlots().length - node.getNumFreeSlots());
+        }
+
+        void advance(long offset, int nowUsed) {
+            if (offset > lastOffset) {
+                busySlotMs += (double) usedSlots * (offset - lastOffset);
+                lastOffset = offset;
+            }
+            usedSlots = nowUsed;
+        }
+
+        void add(NodeStats other) {
+            busySlotMs += other.busySlotMs;
+            numStarted += other.numStarted;
+            numBurstJobs += other.numBurstJobs;
+        }
+    }
+
+    private static class UserStats {
+
+        private int runningSlots;
+        private long lastOffset;
+        private double busySlotMs;
+        private long numSubmitted;
+        private long numStarted;
+        private long numEnded;
+        private long numBurstJobs;
+        private long waitSum;
+        private long numWaits;
+        private long maxWait;
+
+        /**
+         * Account for the slots used since the last change, and then add the given change in running slots.
+         */
+        void advance(long offset, int deltaSlots) {
+            if (offset > lastOffset) {
+                busySlotMs += (double) runningSlots * (offset - lastOffset);
+                lastOffset = offset;
+            }
+            runningSlots += deltaSlots;
+        }
+
+        void add(UserStats other) {
+            busySlotMs += other.busySlotMs;
+            numSubmitted += other.numSubmitted;
+            numStarted += other.numStarted;
+            numEnded += other.numEnded;
+            numBurstJobs += other.numBurstJobs;
+            waitSum += other.waitSum;
+            numWaits += other.numWaits;
+            maxWait = Math.max(maxWait, other.maxWait);
+        }
+
+        double getMeanWait() {
+            return numWaits == 0 ? 0 : (double) waitSum / numWaits;
+        }
+    }
+}
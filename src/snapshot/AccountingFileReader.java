@@ -0,0 +1,434 @@
+package snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import util.ConfigProperties;
+import util.LongLongHashMap;
+
+/**
+ * Reads job end times from an SGE accounting file, so that job completions can be placed at the time they actually
+ * happened instead of being guessed from the snapshots.
+ *
+ * The accounting file only ever grows, so it is tailed: each update maps the bytes appended since the last one, a
+ * window at a time, and parses the complete records among them. Nothing is ever read twice. The end times are kept in
+ * a primitive hash map keyed by job number and task number, and the map is persisted along with the file position,
+ * so a restart picks up where the last run left off. Entries older than the retention period are pruned whenever the
+ * index is saved. The most recent completions are also logged with their node and owner, so that jobs which came and
+ * went between two snapshots can be shown. If the file is replaced (i.e. rotated) the reader notices and starts
+ * reading the new file from the beginning, keeping the entries it already has.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class AccountingFileReader {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountingFileReader.class);
+
+    private static final String ACCOUNTING_FILE = ConfigProperties.getString("derecho.data.accounting.file");
+    private static final String INDEX_FILE = ConfigProperties.getString("derecho.data.accounting.index.file", "accounting.idx");
+    private static final long RETENTION_MS = ConfigProperties.getInteger("derecho.data.accounting.retention.hours", 72) * 60 * 60 * 1000L;
+    private static final long BURST_RETENTION_MS = ConfigProperties.getInteger("derecho.data.accounting.burst.retention.hours", 6) * 60 * 60 * 1000L;
+    private static final long SAVE_INTERVAL_MS = ConfigProperties.getInteger("derecho.data.accounting.save.secs", 300) * 1000L;
+
+    private static final int INDEX_MAGIC = 0x44524143;
+    private static final int INDEX_VERSION = 2;
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int FINGERPRINT_SIZE = 4096;
+
+    // Fields of an accounting record, which are separated by colons
+    private static final int FIELD_HOSTNAME = 1;
+    private static final int FIELD_OWNER = 3;
+    private static final int FIELD_JOB_NUMBER = 5;
+    private static final int FIELD_START_TIME = 9;
+    private static final int FIELD_END_TIME = 10;
+    private static final int FIELD_TASK_NUMBER = 35;
+
+    // Times after this are in milliseconds (newer versions of Grid Engine) rather than seconds
+    private static final long MAX_SECONDS = 100000000000L;
+
+    private static AccountingFileReader instance;
+    private static boolean warnedUnconfigured = false;
+
+    private final File accountingFile;
+    private final File indexFile;
+    private final LongLongHashMap endTimes = new LongLongHashMap(1 << 16);
+    private final CompletionLog completions = new CompletionLog();
+    private long position = 0;
+    private long fingerprint = 0;
+    private int fingerprintLength = 0;
+    private long latestEndTime = 0;
+    private long lastSave = 0;
+    private boolean dirty = false;
+    private int lastWindowRecords;
+
+    /**
+     * Returns the reader for the configured accounting file (derecho.data.accounting.file), or null if there isn't
+     * one. The reader is shared, so that there is only one index however many timelines are created.
+     */
+    public static synchronized AccountingFileReader getInstance() {
+        if (instance == null) {
+            if (ACCOUNTING_FILE != null && !"".equals(ACCOUNTING_FILE.trim())) {
+                instance = new AccountingFileReader(new File(ACCOUNTING_FILE.trim()), new File(INDEX_FILE));
+            }
+            else if (!warnedUnconfigured) {
+                log.warn("No accounting file is configured (derecho.data.accounting.file), so job ends will be "
+                        + "guessed from the snapshots and jobs which run between snapshots will not be shown");
+                warnedUnconfigured = true;
+            }
+        }
+        return instance;
+    }
+
+    public AccountingFileReader(File accountingFile, File indexFile) {
+        this.accountingFile = accountingFile;
+        this.indexFile = indexFile;
+        loadIndex();
+    }
+
+    /**
+     * Returns the key for the given job and task in the index. Jobs which are not array jobs have task number 0.
+     */
+    private static long key(int jobNumber, int taskNumber) {
+        return ((long) jobNumber << 32) | (taskNumber & 0xffffffffL);
+    }
+
+    /**
+     * Returns the time at which the given job ended, in milliseconds since the epoch, or -1 if the job has not been
+     * accounted for. A single task is looked up as is, and anything else falls back to the job as a whole.
+     *
+     * @param jobId the job number
+     * @param tasks the tasks of the job as parsed from the snapshot, or null if it's not an array job
+     */
+    public synchronized long getEndTime(int jobId, TaskRange tasks) {
+        if (tasks != null && tasks.isSingle()) {
+            long endTime = endTimes.get(key(jobId, tasks.getFirst()), -1);
+            if (endTime >= 0) return endTime;
+        }
+        return endTimes.get(key(jobId, 0), -1);
+    }
+
+    public int size() {
+        return endTimes.size();
+    }
+
+    /**
+     * Returns the jobs which started after the first time and ended by the second (both in milliseconds since the
+     * epoch), so they were never seen running by a snapshot taken at either time. Jobs which are accounted for late
+     * may not have been read yet; use getCompletionsSince() to pick up every completion exactly once.
+     */
+    public synchronized List<JobCompletion> getCompletions(long startedAfter, long endedBy) {
+        return completions.find(startedAfter, endedBy);
+    }
+
+    /**
+     * Returns a cursor just past the completions which have been read so far.
+     */
+    public synchronized long getCompletionCursor() {
+        return completions.end();
+    }
+
+    /**
+     * Adds the completions which were read since the given cursor was returned to the given list, however late they
+     * were written to the accounting file, and returns the cursor to pass next time. Each caller keeps its own
+     * cursor.
+     */
+    public synchronized long getCompletionsSince(long cursor, List<JobCompletion> found) {
+        return completions.since(cursor, found);
+    }
+
+    /**
+     * Read any records appended to the accounting file since the last update, and save the index if it's due.
+     * Returns the number of records read.
+     */
+    public synchronized int update() {
+        if (!accountingFile.exists()) {
+            log.warn("Accounting file does not exist: {}", accountingFile);
+            return 0;
+        }
+
+        int numRecords = 0;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(accountingFile, "r");
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+
+            if (position > 0 && (length < position || length < fingerprintLength
+                    || fingerprint(channel, fingerprintLength) != fingerprint)) {
+                log.info("Accounting file {} was replaced, reading it from the start", accountingFile);
+                this.position = 0;
+            }
+            this.fingerprintLength = (int) Math.min(FINGERPRINT_SIZE, length);
+            this.fingerprint = fingerprint(channel, fingerprintLength);
+
+            long start = System.currentTimeMillis();
+            while (position < length) {
+                long windowSize = Math.min(WINDOW_SIZE, length - position);
+                MappedByteBuffer window = channel.map(MapMode.READ_ONLY, position, windowSize);
+                int consumed = parseWindow(window, (int) windowSize);
+                if (consumed == 0) {
+                    if (windowSize < WINDOW_SIZE) {
+                        // The last record is still being written
+                        break;
+                    }
+                    log.warn("Skipping a record longer than {} bytes at {}", WINDOW_SIZE, position);
+                    consumed = (int) windowSize;
+                }
+                numRecords += lastWindowRecords;
+                this.position += consumed;
+            }
+
+            if (numRecords > 0) {
+                this.dirty = true;
+                log.info("Read {} accounting records in {} ms, {} jobs are indexed", new Object[] { numRecords,
+                        System.currentTimeMillis() - start, endTimes.size() });
+            }
+        }
+        catch (IOException e) {
+            log.error("Error reading accounting file " + accountingFile, e);
+        }
+        finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                }
+                catch (IOException e) {
+                    log.error("Error closing accounting file", e);
+                }
+            }
+        }
+
+        if (dirty && System.currentTimeMillis() - lastSave > SAVE_INTERVAL_MS) {
+            saveIndex();
+        }
+
+        return numRecords;
+    }
+
+    /**
+     * Parse the complete records in the given window. Returns the number of bytes consumed, which is up to and
+     * including the last line break.
+     */
+    private int parseWindow(MappedByteBuffer window, int size) {
+        lastWindowRecords = 0;
+        int lineStart = 0;
+        int field = 0;
+        int fieldStart = 0;
+        long value = 0;
+        boolean numeric = true;
+        int hostId = -1;
+        int ownerId = -1;
+        int jobNumber = -1;
+        long startTime = -1;
+        long endTime = -1;
+        int taskNumber = 0;
+        boolean comment = false;
+
+        for (int i = 0; i < size; i++) {
+            byte b = window.get(i);
+            if (b == '\n') {
+                if (field == FIELD_TASK_NUMBER && numeric) {
+                    taskNumber = (int) value;
+                }
+                if (!comment && jobNumber > 0 && endTime > 0) {
+                    addRecord(jobNumber, taskNumber, hostId, ownerId, startTime, endTime);
+                    lastWindowRecords++;
+                }
+                lineStart = i + 1;
+                fieldStart = i + 1;
+                field = 0;
+                value = 0;
+                numeric = true;
+                hostId = -1;
+                ownerId = -1;
+                jobNumber = -1;
+                startTime = -1;
+                endTime = -1;
+                taskNumber = 0;
+                comment = false;
+            }
+            else if (comment) {
+                continue;
+            }
+            else if (b == ':') {
+                if (field == FIELD_HOSTNAME) {
+                    hostId = completions.internHost(window, fieldStart, i);
+                }
+                else if (field == FIELD_OWNER) {
+                    ownerId = completions.internOwner(window, fieldStart, i);
+                }
+                else if (numeric) {
+                    if (field == FIELD_JOB_NUMBER) {
+                        jobNumber = (int) value;
+                    }
+                    else if (field == FIELD_START_TIME) {
+                        startTime = value < MAX_SECONDS ? value * 1000 : value;
+                    }
+                    else if (field == FIELD_END_TIME) {
+                        endTime = value < MAX_SECONDS ? value * 1000 : value;
+                    }
+                    else if (field == FIELD_TASK_NUMBER) {
+                        taskNumber = (int) value;
+                    }
+                }
+                field++;
+                fieldStart = i + 1;
+                value = 0;
+                numeric = true;
+            }
+            else if (i == lineStart && b == '#') {
+                comment = true;
+            }
+            else if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+            }
+            else {
+                numeric = false;
+            }
+        }
+        return lineStart;
+    }
+
+    private void addRecord(int jobNumber, int taskNumber, int hostId, int ownerId, long startTime, long endTime) {
+        long key = key(jobNumber, taskNumber);
+        // Parallel jobs have a record for each slave task, and the job ends with the last one
+        if (endTime > endTimes.get(key, -1)) {
+            endTimes.put(key, endTime);
+        }
+        if (endTime > latestEndTime) {
+            this.latestEndTime = endTime;
+        }
+        // Jobs which never started (e.g. deleted while queued) have no start time
+        if (startTime > 0 && hostId >= 0 && ownerId >= 0) {
+            completions.add(jobNumber, taskNumber, hostId, ownerId, startTime, endTime);
+        }
+    }
+
+    /**
+     * Returns a hash of the first bytes of the file, which changes if the file is replaced.
+     */
+    private static long fingerprint(FileChannel channel, int size) throws IOException {
+        long hash = 1125899906842597L;
+        if (size == 0) return hash;
+        MappedByteBuffer head = channel.map(MapMode.READ_ONLY, 0, size);
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + head.get(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Prune old entries and write the index, along with the position reached in the accounting file.
+     */
+    public synchronized void saveIndex() {
+        if (latestEndTime > 0) {
+            int removed = endTimes.removeValuesBelow(latestEndTime - RETENTION_MS);
+            if (removed > 0) {
+                log.info("Pruned {} accounting entries older than the retention period", removed);
+            }
+            completions.prune(latestEndTime - BURST_RETENTION_MS);
+        }
+
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeUTF(accountingFile.getAbsolutePath());
+            out.writeLong(position);
+            out.writeInt(fingerprintLength);
+            out.writeLong(fingerprint);
+            out.writeLong(latestEndTime);
+            endTimes.writeTo(out);
+            completions.writeTo(out);
+            out.close();
+            out = null;
+            if (indexFile.exists() && !indexFile.delete()) {
+                log.error("Could not replace accounting index {}", indexFile);
+                return;
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                log.error("Could not rename {} to {}", tempFile, indexFile);
+                return;
+            }
+            this.lastSave = System.currentTimeMillis();
+            this.dirty = false;
+            log.debug("Saved {} accounting entries to {}", endTimes.size(), indexFile);
+        }
+        catch (IOException e) {
+            log.error("Error saving accounting index " + indexFile, e);
+        }
+        finally {
+            if (out != null) {
+                try {
+                    out.close();
+                }
+                catch (IOException e) {
+                    log.error("Error closing accounting index", e);
+                }
+            }
+        }
+    }
+
+    private void loadIndex() {
+        if (!indexFile.exists()) return;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                log.warn("Ignoring accounting index {} with unknown format", indexFile);
+                return;
+            }
+            String path = in.readUTF();
+            if (!path.equals(accountingFile.getAbsolutePath())) {
+                log.warn("Ignoring accounting index {}, which was built from {}", indexFile, path);
+                return;
+            }
+            long savedPosition = in.readLong();
+            int savedFingerprintLength = in.readInt();
+            long savedFingerprint = in.readLong();
+            long savedLatestEndTime = in.readLong();
+            endTimes.readFrom(in);
+            completions.readFrom(in);
+            this.position = savedPosition;
+            this.fingerprintLength = savedFingerprintLength;
+            this.fingerprint = savedFingerprint;
+            this.latestEndTime = savedLatestEndTime;
+            this.lastSave = System.currentTimeMillis();
+            log.info("Loaded {} accounting entries from {}, resuming at byte {}", new Object[] { endTimes.size(),
+                    indexFile, position });
+        }
+        catch (IOException e) {
+            log.error("Error loading accounting index " + indexFile + ", the accounting file will be read from the start", e);
+            endTimes.clear();
+            completions.clear();
+            this.position = 0;
+            this.fingerprintLength = 0;
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    log.error("Error closing accounting index", e);
+                }
+            }
+        }
+    }
+}
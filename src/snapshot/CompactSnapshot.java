@@ -0,0 +1,219 @@
+package snapshot;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import util.BufferAllocator;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A read-only snapshot in columnar form, for keeping many snapshots around once they have been diffed. A full
+ * Snapshot is a graph of node and job objects with dates and back references; this keeps the same information in a
+ * few primitive columns, with strings coded through a StringDictionary that is shared by all the snapshots of a
+ * timeline.
+ *
+ * Jobs are grouped by node: the jobs running on node n are at indexes [nodeJobStart[n], nodeJobStart[n+1]), and the
+ * queued jobs follow the jobs of the last node. Job records are only created on demand.
+ *
+ * All the columns are packed into a single buffer, which may live outside of the heap (see BufferAllocator). Job
+ * names are stored as UTF-8 bytes, since they have too many distinct values for the dictionary.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class CompactSnapshot {
+
+    private static final int INT = 4;
+    private static final int LONG = 8;
+
+    private final StringDictionary dictionary;
+    private final long samplingTime;
+    private final int numNodes;
+    private final int numJobs;
+    private final ByteBuffer data;
+
+    // Column positions in the buffer
+    private final int nodeNames;
+    private final int nodeQtypes;
+    private final int nodeJobStart;
+    private final int jobIds;
+    private final int slots;
+    private final int taskCounts;
+    private final int states;
+    private final int owners;
+    private final int tasks;
+    private final int nameStart;
+    private final int subTimes;
+    private final int startTimes;
+    private final int exclusive;
+    private final int nameBytes;
+
+    private CompactSnapshot(StringDictionary dictionary, long samplingTime, int numNodes, int numJobs,
+            int numNameBytes, BufferAllocator allocator) {
+        this.dictionary = dictionary;
+        this.samplingTime = samplingTime;
+        this.numNodes = numNodes;
+        this.numJobs = numJobs;
+        this.nodeNames = 0;
+        this.nodeQtypes = nodeNames + numNodes * INT;
+        this.nodeJobStart = nodeQtypes + numNodes * INT;
+        this.jobIds = nodeJobStart + (numNodes + 1) * INT;
+        this.slots = jobIds + numJobs * INT;
+        this.taskCounts = slots + numJobs * INT;
+        this.states = taskCounts + numJobs * INT;
+        this.owners = states + numJobs * INT;
+        this.tasks = owners + numJobs * INT;
+        this.nameStart = tasks + numJobs * INT;
+        this.subTimes = nameStart + (numJobs + 1) * INT;
+        this.startTimes = subTimes + numJobs * LONG;
+        this.exclusive = startTimes + numJobs * LONG;
+        this.nameBytes = exclusive + numJobs;
+        this.data = allocator.allocate(nameBytes + numNameBytes);
+    }
+
+    /**
+     * Returns the given snapshot in compact form, with its strings coded through the given dictionary.
+     */
+    public static CompactSnapshot of(Snapshot snapshot, StringDictionary dictionary) {
+        return of(snapshot, dictionary, BufferAllocator.getDefault());
+    }
+
+    /**
+     * Returns the given snapshot in compact form, with its strings coded through the given dictionary, and its
+     * columns in a buffer from the given allocator.
+     */
+    public static CompactSnapshot of(Snapshot snapshot, StringDictionary dictionary, BufferAllocator allocator) {
+
+        List<SnapshotJob> jobs = new ArrayList<SnapshotJob>();
+        for (SnapshotNode node : snapshot.getNodes()) {
+            jobs.addAll(node.getJobs());
+        }
+        jobs.addAll(snapshot.getQueuedJobs());
+
+        byte[][] names = new byte[jobs.size()][];
+        int numNameBytes = 0;
+        for (int j = 0; j < names.length; j++) {
+            String name = jobs.get(j).getName();
+            names[j] = name == null ? null : name.getBytes(Charsets.UTF_8);
+            if (names[j] != null) numNameBytes += names[j].length;
+        }
+
+        int numNodes = snapshot.getNodes().size();
+        CompactSnapshot compact = new CompactSnapshot(dictionary, snapshot.getSamplingTime().getTime(), numNodes,
+                jobs.size(), numNameBytes, allocator);
+
+        ByteBuffer data = compact.data;
+        int j = 0;
+        for (int n = 0; n < numNodes; n++) {
+            SnapshotNode node = snapshot.getNodes().get(n);
+            data.putInt(compact.nodeNames + n * INT, dictionary.encode(node.getShortName()));
+            data.putInt(compact.nodeQtypes + n * INT, dictionary.encode(node.getQtype()));
+            data.putInt(compact.nodeJobStart + n * INT, j);
+            j += node.getJobs().size();
+        }
+        data.putInt(compact.nodeJobStart + numNodes * INT, j);
+
+        int namePos = compact.nameBytes;
+        for (j = 0; j < names.length; j++) {
+            SnapshotJob job = jobs.get(j);
+            data.putInt(compact.jobIds + j * INT, job.getJobId());
+            data.putInt(compact.slots + j * INT, job.getSlots());
+            data.putInt(compact.taskCounts + j * INT, job.getTaskCount());
+            data.putInt(compact.states + j * INT, dictionary.encode(job.getState()));
+            data.putInt(compact.owners + j * INT, dictionary.encode(job.getOwner()));
+            data.putInt(compact.tasks + j * INT, dictionary.encode(job.getTasks()));
+            data.putLong(compact.subTimes + j * LONG, JobRecord.toMillis(job.getSubTime()));
+            data.putLong(compact.startTimes + j * LONG, JobRecord.toMillis(job.getStartTime()));
+            data.put(compact.exclusive + j, (byte) (job.isExclusive() ? 1 : 0));
+            // A null name is stored with a start of -1
+            data.putInt(compact.nameStart + j * INT, names[j] == null ? -1 : namePos);
+            if (names[j] != null) {
+                for (byte b : names[j]) {
+                    data.put(namePos++, b);
+                }
+            }
+        }
+        data.putInt(compact.nameStart + names.length * INT, namePos);
+
+        return compact;
+    }
+
+    public Date getSamplingTime() {
+        return new Date(samplingTime);
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    /**
+     * Returns the short name of the given node.
+     */
+    public String getNodeName(int node) {
+        return dictionary.decode(data.getInt(nodeNames + node * INT));
+    }
+
+    public String getNodeQtype(int node) {
+        return dictionary.decode(data.getInt(nodeQtypes + node * INT));
+    }
+
+    public int getNumJobs() {
+        return numJobs;
+    }
+
+    /**
+     * Returns the number of bytes used by the columns of this snapshot.
+     */
+    public int getSize() {
+        return data.capacity();
+    }
+
+    /**
+     * Returns records of the jobs running on the given node.
+     */
+    public List<JobRecord> getJobs(int node) {
+        return getRecords(data.getInt(nodeJobStart + node * INT), data.getInt(nodeJobStart + (node + 1) * INT),
+                getNodeName(node));
+    }
+
+    /**
+     * Returns records of the queued jobs.
+     */
+    public List<JobRecord> getQueuedJobs() {
+        return getRecords(data.getInt(nodeJobStart + numNodes * INT), numJobs, null);
+    }
+
+    private List<JobRecord> getRecords(int start, int end, String nodeName) {
+        List<JobRecord> records = new ArrayList<JobRecord>(end - start);
+        for (int j = start; j < end; j++) {
+            records.add(new JobRecord(data.getInt(jobIds + j * INT), getName(j),
+                    dictionary.decode(data.getInt(states + j * INT)), dictionary.decode(data.getInt(owners + j * INT)),
+                    dictionary.decode(data.getInt(tasks + j * INT)), nodeName, data.get(exclusive + j) != 0,
+                    data.getInt(slots + j * INT), data.getInt(taskCounts + j * INT),
+                    data.getLong(subTimes + j * LONG), data.getLong(startTimes + j * LONG)));
+        }
+        return records;
+    }
+
+    private String getName(int j) {
+        int start = data.getInt(nameStart + j * INT);
+        if (start < 0) return null;
+        // The end is the start of the next non-null name
+        int end = -1;
+        for (int k = j + 1; end < 0; k++) {
+            end = data.getInt(nameStart + k * INT);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(start + i);
+        }
+        return dictionary.internName(new String(bytes, Charsets.UTF_8));
+    }
+
+    @Override
+    public String toString() {
+        return "CompactSnapshot[" + getSamplingTime() + ", nodes=" + getNumNodes() + ", jobs=" + getNumJobs() + "]";
+    }
+}
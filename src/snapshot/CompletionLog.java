@@ -0,0 +1,265 @@
+package snapshot;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import util.LongLongHashMap;
+
+/**
+ * The recent job completions read from the accounting file, kept in the order they were accounted for, which is
+ * (nearly) the order in which the jobs ended. Each completion takes a few primitive array entries; host and owner
+ * names are stored once in a table and referred to by index, and are looked up straight from the bytes of the file
+ * so that reading a record creates no objects.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+class CompletionLog {
+
+    // Records are appended in the order they are written, which may be a little out of end time order
+    private static final long ORDER_SLACK_MS = 60 * 1000;
+
+    private final Names hosts = new Names();
+    private final Names owners = new Names();
+    private int[] jobIds = new int[1024];
+    private int[] taskNumbers = new int[1024];
+    private int[] hostIds = new int[1024];
+    private int[] ownerIds = new int[1024];
+    private long[] startTimes = new long[1024];
+    private long[] endTimes = new long[1024];
+    private int size = 0;
+
+    // The number of completions discarded from the front of the log, so that a cursor survives pruning
+    private long numDiscarded = 0;
+
+    /**
+     * Returns the id of the host whose name is in the given range of bytes. Only the short name (before the first
+     * dot) is kept.
+     */
+    int internHost(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == '.') {
+                to = i;
+                break;
+            }
+        }
+        return hosts.intern(buf, from, to);
+    }
+
+    int internOwner(ByteBuffer buf, int from, int to) {
+        return owners.intern(buf, from, to);
+    }
+
+    void add(int jobId, int taskNumber, int hostId, int ownerId, long startTime, long endTime) {
+        if (size == jobIds.length) {
+            grow(size * 2);
+        }
+        jobIds[size] = jobId;
+        taskNumbers[size] = taskNumber;
+        hostIds[size] = hostId;
+        ownerIds[size] = ownerId;
+        startTimes[size] = startTime;
+        endTimes[size] = endTime;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        jobIds = Arrays.copyOf(jobIds, capacity);
+        taskNumbers = Arrays.copyOf(taskNumbers, capacity);
+        hostIds = Arrays.copyOf(hostIds, capacity);
+        ownerIds = Arrays.copyOf(ownerIds, capacity);
+        startTimes = Arrays.copyOf(startTimes, capacity);
+        endTimes = Arrays.copyOf(endTimes, capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the cursor just past the last completion in the log.
+     */
+    long end() {
+        return numDiscarded + size;
+    }
+
+    /**
+     * Adds the completions logged at or after the given cursor to the given list, in the order they were logged.
+     * Completions which were pruned in the meantime are skipped. Returns the cursor to pass next time.
+     */
+    long since(long cursor, List<JobCompletion> found) {
+        int i = (int) Math.max(0, cursor - numDiscarded);
+        for (; i < size; i++) {
+            found.add(new JobCompletion(jobIds[i], taskNumbers[i], hosts.get(hostIds[i]), owners.get(ownerIds[i]),
+                    startTimes[i], endTimes[i]));
+        }
+        return end();
+    }
+
+    /**
+     * Returns the jobs which started after the first time and ended by the second, i.e. the ones which came and went
+     * entirely within the given interval.
+     */
+    List<JobCompletion> find(long startedAfter, long endedBy) {
+        List<JobCompletion> found = new ArrayList<JobCompletion>();
+        int i = lowerBound(startedAfter - ORDER_SLACK_MS);
+        for (; i < size; i++) {
+            long endTime = endTimes[i];
+            if (endTime > endedBy + ORDER_SLACK_MS) break;
+            if (endTime <= endedBy && startTimes[i] > startedAfter) {
+                found.add(new JobCompletion(jobIds[i], taskNumbers[i], hosts.get(hostIds[i]),
+                        owners.get(ownerIds[i]), startTimes[i], endTime));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the index of the first completion which ended after the given time, assuming end time order.
+     */
+    private int lowerBound(long time) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (endTimes[mid] <= time) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Discard the completions which ended before the given time. Returns the number discarded.
+     */
+    int prune(long minEndTime) {
+        int n = lowerBound(minEndTime - 1);
+        if (n == 0) return 0;
+        int remaining = size - n;
+        System.arraycopy(jobIds, n, jobIds, 0, remaining);
+        System.arraycopy(taskNumbers, n, taskNumbers, 0, remaining);
+        System.arraycopy(hostIds, n, hostIds, 0, remaining);
+        System.arraycopy(ownerIds, n, ownerIds, 0, remaining);
+        System.arraycopy(startTimes, n, startTimes, 0, remaining);
+        System.arraycopy(endTimes, n, endTimes, 0, remaining);
+        this.size = remaining;
+        this.numDiscarded += n;
+        return n;
+    }
+
+    void clear() {
+        this.numDiscarded += size;
+        this.size = 0;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        hosts.writeTo(out);
+        owners.writeTo(out);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(jobIds[i]);
+            out.writeInt(taskNumbers[i]);
+            out.writeInt(hostIds[i]);
+            out.writeInt(ownerIds[i]);
+            out.writeLong(startTimes[i]);
+            out.writeLong(endTimes[i]);
+        }
+    }
+
+    void readFrom(DataInput in) throws IOException {
+        hosts.readFrom(in);
+        owners.readFrom(in);
+        int n = in.readInt();
+        if (n > jobIds.length) {
+            grow(n);
+        }
+        for (int i = 0; i < n; i++) {
+            jobIds[i] = in.readInt();
+            taskNumbers[i] = in.readInt();
+            hostIds[i] = in.readInt();
+            ownerIds[i] = in.readInt();
+            startTimes[i] = in.readLong();
+            endTimes[i] = in.readLong();
+        }
+        this.size = n;
+    }
+
+    /**
+     * A table of names, which can be looked up by the hash of their bytes.
+     */
+    private static class Names {
+
+        private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+        private final List<String> names = new ArrayList<String>();
+        private final List<byte[]> bytes = new ArrayList<byte[]>();
+        private final LongLongHashMap ids = new LongLongHashMap();
+
+        int intern(ByteBuffer buf, int from, int to) {
+            long hash = 17;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + buf.get(i);
+            }
+            // Probe past any other names with the same hash
+            while (true) {
+                long id = ids.get(hash, -1);
+                if (id < 0) break;
+                if (matches(bytes.get((int) id), buf, from, to)) return (int) id;
+                hash++;
+            }
+            byte[] name = new byte[to - from];
+            for (int i = from; i < to; i++) {
+                name[i - from] = buf.get(i);
+            }
+            return add(hash, name);
+        }
+
+        private int add(long hash, byte[] name) {
+            int id = names.size();
+            names.add(new String(name, LATIN1));
+            bytes.add(name);
+            ids.put(hash, id);
+            return id;
+        }
+
+        private static boolean matches(byte[] name, ByteBuffer buf, int from, int to) {
+            if (name.length != to - from) return false;
+            for (int i = from; i < to; i++) {
+                if (name[i - from] != buf.get(i)) return false;
+            }
+            return true;
+        }
+
+        String get(int id) {
+            return names.get(id);
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(names.size());
+            for (byte[] name : bytes) {
+                out.writeInt(name.length);
+                out.write(name);
+            }
+        }
+
+        void readFrom(DataInput in) throws IOException {
+            names.clear();
+            bytes.clear();
+            ids.clear();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                intern(ByteBuffer.wrap(name), 0, name.length);
+            }
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package snapshot;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,14 +23,20 @@ public class FileBasedStateLoader extends StateLoader {
 
     private static final Logger log = LoggerFactory.getLogger(FileBasedStateLoader.class);
 
+    private final File dir;
+
     public FileBasedStateLoader(Timeline timeline) {
+        this(timeline, "test-small/");
+    }
+
+    public FileBasedStateLoader(Timeline timeline, String dir) {
         super(timeline);
+        this.dir = new File(dir);
     }
 
     public boolean loadInitial() throws Exception {
 
         QstatXMLParser parser = new QstatXMLParser();
-        File dir = new File("test-small/");
         for (File file : dir.listFiles()) {
             if (!file.getName().endsWith(".xml")) continue;
 
@@ -53,4 +65,56 @@ public class FileBasedStateLoader extends StateLoader {
     public boolean loadNextSnapshot() throws Exception {
         return false;
     }
+
+    public boolean loadRange(Date start, Date end) throws Exception {
+
+        QstatXMLParser parser = new QstatXMLParser();
+        int numLoaded = 0;
+        for (Map.Entry<Date, File> entry : getSnapshotFiles(parser, start, end).entrySet()) {
+            File file = entry.getValue();
+            log.debug("Loading snapshot: {}", file);
+            Snapshot snapshot = null;
+            try {
+                snapshot = parser.loadFromFile(file.getAbsolutePath());
+            }
+            catch (Exception e) {
+                log.error("Error parsing snapshot: {}", file, e);
+                continue;
+            }
+
+            try {
+                timeline.addSnapshot(snapshot);
+                numLoaded++;
+            }
+            catch (Exception e) {
+                log.error("Error adding snapshot: {}", file, e);
+            }
+        }
+
+        log.debug("Loaded {} snapshots", numLoaded);
+        return numLoaded > 0;
+    }
+
+    public List<Date> getSnapshotDates(Date start, Date end) throws Exception {
+        return new ArrayList<Date>(getSnapshotFiles(new QstatXMLParser(), start, end).keySet());
+    }
+
+    /**
+     * Returns the snapshot files in the given range, by the sampling time in their names.
+     */
+    private SortedMap<Date, File> getSnapshotFiles(QstatXMLParser parser, Date start, Date end) {
+        SortedMap<Date, File> files = new TreeMap<Date, File>();
+        File[] listing = dir.listFiles();
+        if (listing == null) {
+            log.error("Cannot list snapshot directory: {}", dir);
+            return files;
+        }
+        for (File file : listing) {
+            if (!file.getName().endsWith(".xml")) continue;
+            Date samplingTime = parser.getSamplingTime(file);
+            if (samplingTime == null || samplingTime.before(start) || samplingTime.after(end)) continue;
+            files.put(samplingTime, file);
+        }
+        return files;
+    }
 }
@@ -0,0 +1,61 @@
+package snapshot;
+
+/**
+ * A job which ran to completion, as recorded in the accounting file.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class JobCompletion {
+
+    private final int jobId;
+    private final int taskNumber;
+    private final String hostName;
+    private final String owner;
+    private final long startTime;
+    private final long endTime;
+
+    public JobCompletion(int jobId, int taskNumber, String hostName, String owner, long startTime, long endTime) {
+        this.jobId = jobId;
+        this.taskNumber = taskNumber;
+        this.hostName = hostName;
+        this.owner = owner;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    public int getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Returns the array task number, or 0 if this was not an array job.
+     */
+    public int getTaskNumber() {
+        return taskNumber;
+    }
+
+    /**
+     * Returns the short name of the node the job ran on.
+     */
+    public String getHostName() {
+        return hostName;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    @Override
+    public String toString() {
+        return "JobCompletion[" + jobId + "." + taskNumber + ", " + hostName + ", " + owner + ", start=" + startTime
+                + ", end=" + endTime + "]";
+    }
+}
@@ -0,0 +1,42 @@
+package snapshot;
+
+import java.util.Date;
+
+/**
+ * The attributes of a job as seen in a snapshot, whether it's a full SnapshotJob or a compact JobRecord. 
+ * 
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public interface JobInfo {
+
+    public int getJobId();
+
+    public String getFullJobId();
+
+    public String getName();
+
+    public String getState();
+
+    public String getOwner();
+
+    public boolean isExclusive();
+
+    public int getSlots();
+
+    public String getTasks();
+
+    /**
+     * Returns the number of tasks represented by this job. This is more than one only for queued array jobs.
+     */
+    public int getTaskCount();
+
+    public Date getSubTime();
+
+    public Date getStartTime();
+
+    /**
+     * Returns the short name of the node the job is running on, or null if it's queued.
+     */
+    public String getNodeName();
+
+}
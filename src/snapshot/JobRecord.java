@@ -0,0 +1,174 @@
+package snapshot;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import com.google.common.base.Charsets;
+
+/**
+ * An immutable, compact record of a job as it was seen in a snapshot. Unlike a SnapshotJob, a record does not refer
+ * to its node or to the rest of the snapshot, and its strings are shared through a StringDictionary, so the events 
+ * which carry records can be kept for the whole timeline without keeping the snapshots they came from.
+ * 
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class JobRecord implements JobInfo {
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private final int jobId;
+    private final String fullJobId;
+    private final String name;
+    private final String state;
+    private final String owner;
+    private final String tasks;
+    private final String nodeName;
+    private final boolean exclusive;
+    private final int slots;
+    private final int taskCount;
+    private final long subTime;
+    private final long startTime;
+
+    JobRecord(int jobId, String name, String state, String owner, String tasks, String nodeName, boolean exclusive,
+            int slots, int taskCount, long subTime, long startTime) {
+        this.jobId = jobId;
+        this.fullJobId = tasks == null ? String.valueOf(jobId) : jobId + "." + tasks;
+        this.name = name;
+        this.state = state;
+        this.owner = owner;
+        this.tasks = tasks;
+        this.nodeName = nodeName;
+        this.exclusive = exclusive;
+        this.slots = slots;
+        this.taskCount = taskCount;
+        this.subTime = subTime;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Returns a record of the given job, with its strings shared through the given dictionary.
+     */
+    public static JobRecord of(SnapshotJob job, StringDictionary dictionary) {
+        return new JobRecord(job.getJobId(), dictionary.internName(job.getName()), dictionary.intern(job.getState()),
+                dictionary.intern(job.getOwner()), dictionary.intern(job.getTasks()),
+                dictionary.intern(job.getNodeName()), job.isExclusive(), job.getSlots(), job.getTaskCount(),
+                toMillis(job.getSubTime()), toMillis(job.getStartTime()));
+    }
+
+    /**
+     * Writes this record to the given output, with its strings coded through the given dictionary. 
+     */
+    public void write(DataOutput out, StringDictionary dictionary) throws IOException {
+        out.writeInt(jobId);
+        if (name == null) {
+            out.writeInt(-1);
+        }
+        else {
+            byte[] bytes = name.getBytes(Charsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(dictionary.encode(state));
+        out.writeInt(dictionary.encode(owner));
+        out.writeInt(dictionary.encode(tasks));
+        out.writeInt(dictionary.encode(nodeName));
+        out.writeBoolean(exclusive);
+        out.writeInt(slots);
+        out.writeInt(taskCount);
+        out.writeLong(subTime);
+        out.writeLong(startTime);
+    }
+
+    /**
+     * Reads a record written by write(), from the current position of the given buffer.
+     */
+    public static JobRecord read(ByteBuffer in, StringDictionary dictionary) {
+        int jobId = in.getInt();
+        String name = null;
+        int length = in.getInt();
+        if (length >= 0) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            name = new String(bytes, Charsets.UTF_8);
+        }
+        return new JobRecord(jobId, name, dictionary.decode(in.getInt()), dictionary.decode(in.getInt()),
+                dictionary.decode(in.getInt()), dictionary.decode(in.getInt()), in.get() != 0, in.getInt(),
+                in.getInt(), in.getLong(), in.getLong());
+    }
+
+    static long toMillis(Date date) {
+        return date == null ? NO_TIME : date.getTime();
+    }
+
+    static Date toDate(long millis) {
+        return millis == NO_TIME ? null : new Date(millis);
+    }
+
+    @Override
+    public int getJobId() {
+        return jobId;
+    }
+
+    @Override
+    public String getFullJobId() {
+        return fullJobId;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getState() {
+        return state;
+    }
+
+    @Override
+    public String getOwner() {
+        return owner;
+    }
+
+    @Override
+    public boolean isExclusive() {
+        return exclusive;
+    }
+
+    @Override
+    public int getSlots() {
+        return slots;
+    }
+
+    @Override
+    public String getTasks() {
+        return tasks;
+    }
+
+    @Override
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    @Override
+    public Date getSubTime() {
+        return toDate(subTime);
+    }
+
+    @Override
+    public Date getStartTime() {
+        return toDate(startTime);
+    }
+
+    @Override
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    @Override
+    public String toString() {
+        return "JobRecord[" + fullJobId + ", " + (nodeName == null ? "" : nodeName) + ", " + owner + ", slots="
+                + slots + ", state=" + state + "]";
+    }
+}
@@ -6,6 +6,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +32,8 @@ public class MySQLBasedStateLoader extends StateLoader {
     private static final String jdbcPw = ConfigProperties.getString("derecho.db.jdbc.password");
     private static final int initialHours = ConfigProperties.getInteger("derecho.data.initial.load.hours", 6);
 
+    private static final String RANGE_SQL = "select distinct poll_date_time from webqstat_node where poll_date_time between ? and ? order by poll_date_time";
+
     private List<Timestamp> snapshotDates = new ArrayList<Timestamp>();
 
     public MySQLBasedStateLoader(Timeline timeline) {
@@ -68,8 +71,50 @@ public class MySQLBasedStateLoader extends StateLoader {
     }
 
     public boolean loadInitial(String sql) throws Exception {
-
         log.debug("Loading initial");
+        return loadSnapshots(sql);
+    }
+
+    public boolean loadRange(Date start, Date end) throws Exception {
+        log.info("Loading snapshots between {} and {}", start, end);
+        return loadSnapshots(RANGE_SQL, new Timestamp(start.getTime()), new Timestamp(end.getTime()));
+    }
+
+    public List<Date> getSnapshotDates(Date start, Date end) throws Exception {
+
+        List<Date> dates = new ArrayList<Date>();
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+
+        try {
+            conn = getJdbcConnection();
+
+            stmt = conn.prepareStatement(RANGE_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            stmt.setTimestamp(1, new Timestamp(start.getTime()));
+            stmt.setTimestamp(2, new Timestamp(end.getTime()));
+
+            rs = stmt.executeQuery();
+
+            while (rs.next()) {
+                dates.add(new Date(rs.getTimestamp(1).getTime()));
+            }
+        }
+        finally {
+            if (rs != null) rs.close();
+            if (stmt != null) stmt.close();
+            if (conn != null) conn.close();
+        }
+
+        return dates;
+    }
+
+    /**
+     * Load each snapshot whose date is returned by the given query, with the given parameters.
+     */
+    private boolean loadSnapshots(String sql, Timestamp... params) throws Exception {
 
         Connection conn = null;
         PreparedStatement stmt = null;
@@ -80,6 +125,9 @@ public class MySQLBasedStateLoader extends StateLoader {
 
             stmt = conn.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
             stmt.setFetchSize(Integer.MIN_VALUE);
+            for (int i = 0; i < params.length; i++) {
+                stmt.setTimestamp(i + 1, params[i]);
+            }
 
             rs = stmt.executeQuery();
 
@@ -95,7 +143,7 @@ public class MySQLBasedStateLoader extends StateLoader {
                 }
             }
 
-            log.info("Loaded {} initial snapshots", timeline.getSnapshots().size());
+            log.info("Loaded {} snapshots", timeline.getSnapshots().size());
         }
         finally {
             if (rs != null) rs.close();
@@ -25,19 +25,33 @@ public class QstatXMLParser {
 
     private static final Logger log = LoggerFactory.getLogger(QstatXMLParser.class);
 
-    private static final DateFormat qstatDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-    private static final DateFormat fileDateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
+    // Date formats are not thread-safe, so each parser has its own
+    private final DateFormat qstatDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    private final DateFormat fileDateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
+
+    /**
+     * Returns the sampling time encoded in the name of the given snapshot file, or null if it has none.
+     */
+    public Date getSamplingTime(File file) {
+        String name = file.getName();
+        int dot = name.indexOf('.');
+        if (dot < 0) return null;
+        // The timestamp is between the prefix (if any) and the extension, e.g. qstat-20130213101500.xml
+        int dash = name.indexOf('-');
+        String ts = dash >= 0 && dash < dot ? name.substring(dash + 1, dot) : name.substring(0, dot);
+        try {
+            return fileDateFormat.parse(ts);
+        }
+        catch (ParseException e) {
+            return null;
+        }
+    }
 
     public Snapshot loadFromFile(String filename) throws Exception {
 
-        Date samplingTime = null;
         File file = new File(filename);
-        String ts = file.getName();
-        ts = ts.substring(ts.indexOf('-') + 1, ts.indexOf('.'));
-        try {
-            samplingTime = fileDateFormat.parse(ts);
-        }
-        catch (ParseException e) {
+        Date samplingTime = getSamplingTime(file);
+        if (samplingTime == null) {
             System.out.println("Could not parse date from filename: " + file.getName());
         }
 
@@ -12,6 +12,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import util.ConfigProperties;
+
 /**
  * A snapshot of a cluster given by qstat (for SGE clusters) or a similar tool. 
  * 
@@ -21,11 +23,15 @@ public class Snapshot {
 
     private static final Logger log = LoggerFactory.getLogger(Snapshot.class);
 
+    private static final boolean COLLAPSE_QUEUED_ARRAYS = ConfigProperties.getBoolean(
+            "derecho.data.collapse.queued.arrays", true);
+
     private Date samplingTime;
     private List<SnapshotNode> nodes = new ArrayList<SnapshotNode>();
     private List<SnapshotJob> queuedJobs = new ArrayList<SnapshotJob>();
     private List<SnapshotNode> ordered;
     private Map<Integer, Date> parallelJobStarts = new HashMap<Integer, Date>();
+    private Map<Integer, SnapshotJob> queuedArrayJobs = new HashMap<Integer, SnapshotJob>();
 
     public Snapshot(Date samplingTime) {
         this.samplingTime = samplingTime;
@@ -35,7 +41,23 @@ public class Snapshot {
         nodes.add(node);
     }
 
+    /**
+     * Add a queued job. If collapsing is enabled, the pending tasks of an array job are gathered into a single entry
+     * with the task specification SnapshotJob.ALL_TASKS and a task count, no matter how many entries they are listed
+     * in.
+     */
     public void addQueuedJob(SnapshotJob job) {
+        if (COLLAPSE_QUEUED_ARRAYS && job.getTaskRange() != null) {
+            SnapshotJob arrayJob = queuedArrayJobs.get(job.getJobId());
+            if (arrayJob == null) {
+                job.collapseTasks();
+                queuedArrayJobs.put(job.getJobId(), job);
+            }
+            else {
+                arrayJob.mergeTasks(job);
+                return;
+            }
+        }
         queuedJobs.add(job);
     }
 
@@ -7,7 +7,10 @@ import java.util.Date;
  * 
  * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
  */
-public class SnapshotJob {
+public class SnapshotJob implements JobInfo {
+
+    /** Task specification of a queued array job which has been collapsed into a single entry */
+    public static final String ALL_TASKS = "*";
 
     private int jobId;
     private String name;
@@ -16,6 +19,7 @@ public class SnapshotJob {
     private boolean exclusive;
     private int slots;
     private String tasks;
+    private TaskRange taskRange;
     private Date subTime;
     private Date startTime;
     private SnapshotNode node;
@@ -82,6 +86,38 @@ public class SnapshotJob {
 
     public void setTasks(String tasks) {
         this.tasks = tasks;
+        this.taskRange = TaskRange.parse(tasks);
+    }
+
+    /**
+     * Returns the parsed task specification, or null if this is not an array job.
+     */
+    public TaskRange getTaskRange() {
+        return taskRange;
+    }
+
+    /**
+     * Returns the number of tasks represented by this job. This is more than one only for queued array jobs.
+     */
+    public int getTaskCount() {
+        return taskRange == null ? 1 : taskRange.getCount();
+    }
+
+    /**
+     * Make this queued array job stand for all of its pending tasks, under the stable task specification ALL_TASKS.
+     * The parsed task range is kept, so the task count is unchanged.
+     */
+    public void collapseTasks() {
+        this.tasks = ALL_TASKS;
+    }
+
+    /**
+     * Add the tasks of another queued entry for the same array job to this one.
+     */
+    public void mergeTasks(SnapshotJob other) {
+        if (other.jobId != jobId) throw new IllegalArgumentException("Cannot merge tasks of job " + other.jobId + " into " + jobId);
+        if (other.taskRange == null) return;
+        this.taskRange = taskRange == null ? other.taskRange : taskRange.merge(other.taskRange);
     }
 
     public Date getSubTime() {
@@ -108,6 +144,10 @@ public class SnapshotJob {
         this.node = node;
     }
 
+    public String getNodeName() {
+        return node == null ? null : node.getShortName();
+    }
+
     @Override
     public String toString() {
         String nodeName = node == null ? "" : node.getShortName();
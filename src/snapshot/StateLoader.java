@@ -1,5 +1,8 @@
 package snapshot;
 
+import java.util.Date;
+import java.util.List;
+
 import timeline.Timeline;
 
 /**
@@ -23,4 +26,14 @@ public abstract class StateLoader {
 
     public abstract boolean loadNextSnapshot() throws Exception;
 
+    /**
+     * Load every snapshot sampled in the given range (inclusive), in order of sampling time. 
+     */
+    public abstract boolean loadRange(Date start, Date end) throws Exception;
+
+    /**
+     * Returns the sampling times of the snapshots in the given range (inclusive), in order, without loading them.
+     */
+    public abstract List<Date> getSnapshotDates(Date start, Date end) throws Exception;
+
 }
@@ -0,0 +1,71 @@
+package snapshot;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * A table of strings which assigns each distinct string a small integer code. Compact snapshots store codes instead 
+ * of references, and every string decoded from the dictionary is the same instance, no matter how many snapshots 
+ * it appears in. 
+ * 
+ * Strings are encoded by the loading thread and may be decoded by any thread. Codes are never reused, so the 
+ * dictionary should only be given strings with few distinct values, like users, states and node names. Strings with 
+ * many distinct values, like job names, are only interned weakly, so they are shared but can still be collected once 
+ * nothing uses them.
+ * 
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class StringDictionary {
+
+    public static final int NULL_CODE = -1;
+
+    private final Map<String, Integer> codes = new HashMap<String, Integer>();
+    private volatile String[] strings = new String[256];
+    private int size = 0;
+    private final Interner<String> names = Interners.newWeakInterner();
+
+    /**
+     * Returns the code for the given string, adding it to the dictionary if necessary.
+     */
+    public synchronized int encode(String s) {
+        if (s == null) return NULL_CODE;
+        Integer code = codes.get(s);
+        if (code == null) {
+            if (size == strings.length) {
+                strings = Arrays.copyOf(strings, size * 2);
+            }
+            code = size;
+            strings[size++] = s;
+            codes.put(s, code);
+        }
+        return code;
+    }
+
+    public String decode(int code) {
+        if (code == NULL_CODE) return null;
+        return strings[code];
+    }
+
+    /**
+     * Returns the canonical instance of the given string.
+     */
+    public String intern(String s) {
+        return decode(encode(s));
+    }
+
+    /**
+     * Returns the canonical instance of the given string, which may have many distinct values, without coding it.
+     */
+    public String internName(String s) {
+        if (s == null) return null;
+        return names.intern(s);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
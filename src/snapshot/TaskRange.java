@@ -0,0 +1,124 @@
+package snapshot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The tasks of an array job, parsed from a specification like "7" (a single task), "2828-4000:1" (a range of tasks
+ * with a step), or "205,211" (an explicit list, whose items may themselves be ranges). Task ranges are immutable.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public final class TaskRange {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskRange.class);
+
+    private final String spec;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] steps;
+    private final int count;
+
+    private TaskRange(String spec, int[] starts, int[] ends, int[] steps) {
+        this.spec = spec;
+        this.starts = starts;
+        this.ends = ends;
+        this.steps = steps;
+        int count = 0;
+        for (int i = 0; i < starts.length; i++) {
+            if (ends[i] >= starts[i]) {
+                count += (ends[i] - starts[i]) / steps[i] + 1;
+            }
+        }
+        this.count = count;
+    }
+
+    /**
+     * Parse a task specification. Returns null if the specification is empty or cannot be parsed.
+     */
+    public static TaskRange parse(String spec) {
+        if (spec == null) return null;
+        String trimmed = spec.trim();
+        if ("".equals(trimmed)) return null;
+
+        String[] items = trimmed.split(",");
+        int[] starts = new int[items.length];
+        int[] ends = new int[items.length];
+        int[] steps = new int[items.length];
+        try {
+            for (int i = 0; i < items.length; i++) {
+                String item = items[i].trim();
+                int dash = item.indexOf('-');
+                if (dash < 0) {
+                    starts[i] = ends[i] = Integer.parseInt(item);
+                    steps[i] = 1;
+                    continue;
+                }
+                int colon = item.indexOf(':', dash);
+                starts[i] = Integer.parseInt(item.substring(0, dash));
+                ends[i] = Integer.parseInt(colon < 0 ? item.substring(dash + 1) : item.substring(dash + 1, colon));
+                steps[i] = colon < 0 ? 1 : Integer.parseInt(item.substring(colon + 1));
+                if (steps[i] <= 0) {
+                    log.warn("Invalid step in task specification: {}", spec);
+                    return null;
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            log.warn("Could not parse task specification: {}", spec);
+            return null;
+        }
+        return new TaskRange(trimmed, starts, ends, steps);
+    }
+
+    /**
+     * Returns a range containing the tasks of both ranges. The ranges are assumed to be disjoint.
+     */
+    public TaskRange merge(TaskRange other) {
+        int n = starts.length + other.starts.length;
+        int[] mergedStarts = new int[n];
+        int[] mergedEnds = new int[n];
+        int[] mergedSteps = new int[n];
+        System.arraycopy(starts, 0, mergedStarts, 0, starts.length);
+        System.arraycopy(other.starts, 0, mergedStarts, starts.length, other.starts.length);
+        System.arraycopy(ends, 0, mergedEnds, 0, ends.length);
+        System.arraycopy(other.ends, 0, mergedEnds, ends.length, other.ends.length);
+        System.arraycopy(steps, 0, mergedSteps, 0, steps.length);
+        System.arraycopy(other.steps, 0, mergedSteps, steps.length, other.steps.length);
+        return new TaskRange(spec + "," + other.spec, mergedStarts, mergedEnds, mergedSteps);
+    }
+
+    /**
+     * Returns the number of tasks in this range.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns true if this range describes a single task.
+     */
+    public boolean isSingle() {
+        return count == 1;
+    }
+
+    public int getFirst() {
+        int first = Integer.MAX_VALUE;
+        for (int start : starts) {
+            first = Math.min(first, start);
+        }
+        return first;
+    }
+
+    public boolean contains(int task) {
+        for (int i = 0; i < starts.length; i++) {
+            if (task >= starts[i] && task <= ends[i] && (task - starts[i]) % steps[i] == 0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,60 @@
+package timeline;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A burst of short-lived jobs on one node, which came and went between two snapshots. Such jobs are not tracked
+ * individually; they only show up as a single effect on the node, with the number of jobs and the users who ran them.
+ * Bursts do not change the state of the grid.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class BurstEvent extends Event {
+
+    private final String nodeName;
+    private final int numJobs;
+    private final Map<String, Integer> jobsByOwner;
+
+    public BurstEvent(Long offset, String nodeName, int numJobs, Map<String, Integer> jobsByOwner) {
+        super(offset);
+        this.nodeName = nodeName;
+        this.numJobs = numJobs;
+        this.jobsByOwner = Collections.unmodifiableMap(jobsByOwner);
+    }
+
+    /**
+     * Returns the short name of the node.
+     */
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    public int getNumJobs() {
+        return numJobs;
+    }
+
+    public Map<String, Integer> getJobsByOwner() {
+        return jobsByOwner;
+    }
+
+    /**
+     * Returns the owner of the most jobs in this burst.
+     */
+    public String getMainOwner() {
+        String mainOwner = null;
+        int max = 0;
+        for (Map.Entry<String, Integer> entry : jobsByOwner.entrySet()) {
+            if (entry.getValue() > max) {
+                max = entry.getValue();
+                mainOwner = entry.getKey();
+            }
+        }
+        return mainOwner;
+    }
+
+    @Override
+    public String toString() {
+        return "BurstEvent[" + nodeName + "@" + getOffset() + ", jobs=" + numJobs + "]";
+    }
+}
@@ -0,0 +1,80 @@
+package timeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import snapshot.JobCompletion;
+
+/**
+ * Compacts the jobs which were submitted, started and finished between two snapshots into one burst per node. High
+ * throughput workloads can run tens of thousands of such jobs in a single interval; giving each of them a lifecycle
+ * of events, sprites and animations would cost far more than it shows. Instead, the number of bursts is bounded by
+ * the number of active nodes.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class EventCompactor {
+
+    private final long baselineTime;
+    private final long penultimateOffset;
+    private final long ultimateOffset;
+
+    /**
+     * @param baselineTime time of the first snapshot, from which offsets are calculated
+     * @param penultimateOffset offset of the previous snapshot
+     * @param ultimateOffset offset of the new snapshot
+     */
+    public EventCompactor(long baselineTime, long penultimateOffset, long ultimateOffset) {
+        this.baselineTime = baselineTime;
+        this.penultimateOffset = penultimateOffset;
+        this.ultimateOffset = ultimateOffset;
+    }
+
+    /**
+     * Returns a burst for each node which ran any of the given jobs, at the average time the jobs ended. The bursts
+     * are ordered by node name.
+     */
+    public List<BurstEvent> compact(List<JobCompletion> completions) {
+
+        Map<String, Burst> bursts = new TreeMap<String, Burst>();
+        for (JobCompletion completion : completions) {
+            Burst burst = bursts.get(completion.getHostName());
+            if (burst == null) {
+                burst = new Burst();
+                bursts.put(completion.getHostName(), burst);
+            }
+            burst.add(completion);
+        }
+
+        List<BurstEvent> events = new ArrayList<BurstEvent>();
+        for (Map.Entry<String, Burst> entry : bursts.entrySet()) {
+            Burst burst = entry.getValue();
+            long offset = clamp(burst.endTimeSum / burst.numJobs - baselineTime);
+            events.add(new BurstEvent(offset, entry.getKey(), burst.numJobs, burst.jobsByOwner));
+        }
+        return events;
+    }
+
+    private long clamp(long offset) {
+        if (offset < penultimateOffset + 1) offset = penultimateOffset + 1;
+        if (offset > ultimateOffset) offset = ultimateOffset;
+        return offset;
+    }
+
+    private static class Burst {
+
+        private int numJobs;
+        private long endTimeSum;
+        private final Map<String, Integer> jobsByOwner = new HashMap<String, Integer>();
+
+        void add(JobCompletion completion) {
+            numJobs++;
+            endTimeSum += completion.getEndTime();
+            Integer count = jobsByOwner.get(completion.getOwner());
+            jobsByOwner.put(completion.getOwner(), count == null ? 1 : count + 1);
+        }
+    }
+}
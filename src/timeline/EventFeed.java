@@ -0,0 +1,209 @@
+package timeline;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A feed of the events appended to a timeline, for consumers which follow it as it grows instead of polling it.
+ *
+ * The events are published into a ring of slots which is allocated once. The loading thread is the only publisher,
+ * and it publishes all the events of a snapshot as one batch, waking any parked consumers once per batch. Each
+ * consumer reads through its own Cursor, which tracks the next sequence it will read, so consumers do not interfere
+ * with each other. Consumers park on their cursor while there is nothing to read.
+ *
+ * The publisher never waits for consumers. A consumer which falls more than a full ring behind is lapped: the events
+ * it did not read in time are skipped and counted as missed, and the consumer is expected to catch up from the
+ * timeline itself.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class EventFeed {
+
+    private final Event[] ring;
+    private final int mask;
+
+    // Highest sequence which is being written, and highest sequence which is visible to consumers
+    private volatile long claimed = -1;
+    private volatile long published = -1;
+
+    private final Object signal = new Object();
+    private int waiting = 0;
+    private final List<Cursor> cursors = new CopyOnWriteArrayList<Cursor>();
+
+    /**
+     * @param capacity the number of events kept in the ring, rounded up to a power of two
+     */
+    public EventFeed(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new Event[size];
+        this.mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * Returns the sequence of the last published event, or -1 if nothing has been published.
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * Publish the given events, in order of their offsets, as one batch. Must only be called by one thread.
+     */
+    public void publish(SortedMap<Long, List<Event>> events) {
+
+        int count = 0;
+        for (List<Event> bucket : events.values()) {
+            count += bucket.size();
+        }
+        if (count == 0) return;
+
+        long seq = published;
+        this.claimed = seq + count;
+        for (List<Event> bucket : events.values()) {
+            synchronized (bucket) {
+                for (Event event : bucket) {
+                    ring[(int) (++seq & mask)] = event;
+                }
+            }
+        }
+        this.published = seq;
+
+        synchronized (signal) {
+            if (waiting > 0) signal.notifyAll();
+        }
+    }
+
+    /**
+     * Start consuming the feed with the next event to be published.
+     */
+    public Cursor subscribe() {
+        Cursor cursor = new Cursor(published + 1);
+        cursors.add(cursor);
+        return cursor;
+    }
+
+    /**
+     * Returns the cursors of all the current consumers.
+     */
+    public List<Cursor> getCursors() {
+        return cursors;
+    }
+
+    /**
+     * The position of one consumer in the feed. A cursor should only be used by the consumer's thread, except for
+     * wakeup(), which may be called from anywhere.
+     */
+    public class Cursor {
+
+        private long next;
+        private long missed = 0;
+        private boolean woken = false;
+
+        private Cursor(long next) {
+            this.next = next;
+        }
+
+        /**
+         * Add up to max of the available events to the given batch, without waiting.
+         *
+         * @return the number of events added
+         */
+        public int poll(List<Event> batch, int max) {
+
+            long available = published;
+            if (available < next || max <= 0) return 0;
+
+            // Skip anything which has already been overwritten
+            long first = Math.max(next, available - ring.length + 1);
+            missed += first - next;
+            long last = Math.min(available, first + max - 1);
+
+            int size = batch.size();
+            for (long seq = first; seq <= last; seq++) {
+                batch.add(ring[(int) (seq & mask)]);
+            }
+
+            // The publisher may have lapped us while we were reading
+            long overwritten = claimed - ring.length;
+            if (overwritten >= first) {
+                int lost = (int) (Math.min(overwritten, last) - first + 1);
+                batch.subList(size, size + lost).clear();
+                missed += lost;
+            }
+
+            this.next = last + 1;
+            return batch.size() - size;
+        }
+
+        /**
+         * Park until there are events to read, wakeup() is called, or the timeout expires.
+         *
+         * @param timeoutMs the longest time to wait, or 0 to wait indefinitely
+         * @return true if there are events to read
+         */
+        public boolean await(long timeoutMs) {
+            synchronized (signal) {
+                long deadline = System.currentTimeMillis() + timeoutMs;
+                waiting++;
+                try {
+                    while (published < next && !woken) {
+                        long remaining = timeoutMs == 0 ? 0 : deadline - System.currentTimeMillis();
+                        if (timeoutMs != 0 && remaining <= 0) break;
+                        signal.wait(remaining);
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    waiting--;
+                    this.woken = false;
+                }
+            }
+            return published >= next;
+        }
+
+        /**
+         * Wake the consumer if it is parked, or keep it from parking the next time it tries to.
+         */
+        public void wakeup() {
+            synchronized (signal) {
+                this.woken = true;
+                signal.notifyAll();
+            }
+        }
+
+        /**
+         * Skip everything which has been published so far.
+         */
+        public void skipToEnd() {
+            this.next = published + 1;
+        }
+
+        /**
+         * Returns the number of events which are published but not yet read.
+         */
+        public long getLag() {
+            return Math.max(0, published - next + 1);
+        }
+
+        /**
+         * Returns the total number of events which were skipped because the consumer was lapped.
+         */
+        public long getMissed() {
+            return missed;
+        }
+
+        /**
+         * Stop consuming the feed.
+         */
+        public void close() {
+            cursors.remove(this);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package timeline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.SortedMap;
+
+import snapshot.JobRecord;
+import snapshot.StringDictionary;
+import timeline.GridEvent.EventType;
+import util.BufferAllocator;
+
+/**
+ * The events of a fully absorbed snapshot, serialized into a single buffer. Once a snapshot's events are published
+ * they never change, so they can be packed away, possibly outside of the heap (see BufferAllocator), instead of
+ * being kept as many long-lived objects.
+ *
+ * Each offset bucket is exposed as a read-only list which decodes its events on access. The decoded events are new
+ * objects every time, so callers should not rely on their identity.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class EventSegment {
+
+    private static final byte SNAPSHOT_EVENT = 0;
+    private static final byte GRID_EVENT = 1;
+    private static final byte BURST_EVENT = 2;
+    private static final EventType[] EVENT_TYPES = EventType.values();
+
+    private final StringDictionary dictionary;
+    private final ByteBuffer data;
+    private final Map<Long, Bucket> buckets = new HashMap<Long, Bucket>();
+
+    private EventSegment(StringDictionary dictionary, ByteBuffer data) {
+        this.dictionary = dictionary;
+        this.data = data;
+    }
+
+    /**
+     * Serialize the given buckets of events into a new segment, with the strings coded through the given dictionary.
+     */
+    public static EventSegment of(SortedMap<Long, List<Event>> events, StringDictionary dictionary,
+            BufferAllocator allocator) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<Long, int[]> positions = new HashMap<Long, int[]>();
+        try {
+            for (Long offset : events.keySet()) {
+                List<Event> bucket = events.get(offset);
+                synchronized (bucket) {
+                    int[] eventPositions = new int[bucket.size()];
+                    for (int i = 0; i < eventPositions.length; i++) {
+                        eventPositions[i] = out.size();
+                        write(bucket.get(i), out, dictionary);
+                    }
+                    positions.put(offset, eventPositions);
+                }
+            }
+            out.close();
+        }
+        catch (IOException e) {
+            // Cannot happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+
+        ByteBuffer data = allocator.allocate(bytes.size());
+        data.order(ByteOrder.BIG_ENDIAN);
+        data.put(bytes.toByteArray());
+
+        EventSegment segment = new EventSegment(dictionary, data);
+        for (Map.Entry<Long, int[]> entry : positions.entrySet()) {
+            segment.buckets.put(entry.getKey(), segment.new Bucket(entry.getKey(), entry.getValue()));
+        }
+        return segment;
+    }
+
+    private static void write(Event event, DataOutputStream out, StringDictionary dictionary) throws IOException {
+        if (event instanceof GridEvent) {
+            GridEvent gridEvent = (GridEvent) event;
+            out.writeByte(GRID_EVENT);
+            out.writeByte(gridEvent.getType().ordinal());
+            out.writeBoolean(gridEvent.isCorrective());
+            JobRecord job = gridEvent.getJob();
+            out.writeBoolean(job != null);
+            if (job != null) {
+                job.write(out, dictionary);
+            }
+            else {
+                out.writeUTF(gridEvent.getJobId());
+            }
+        }
+        else if (event instanceof BurstEvent) {
+            BurstEvent burst = (BurstEvent) event;
+            out.writeByte(BURST_EVENT);
+            out.writeInt(dictionary.encode(burst.getNodeName()));
+            out.writeInt(burst.getNumJobs());
+            out.writeInt(burst.getJobsByOwner().size());
+            for (Map.Entry<String, Integer> entry : burst.getJobsByOwner().entrySet()) {
+                out.writeInt(dictionary.encode(entry.getKey()));
+                out.writeInt(entry.getValue());
+            }
+        }
+        else if (event instanceof SnapshotEvent) {
+            out.writeByte(SNAPSHOT_EVENT);
+        }
+        else {
+            throw new IllegalArgumentException("Cannot serialize event: " + event);
+        }
+    }
+
+    private Event read(Long offset, int position) {
+        ByteBuffer in = data.duplicate();
+        in.order(ByteOrder.BIG_ENDIAN);
+        in.position(position);
+        byte kind = in.get();
+        switch (kind) {
+        case GRID_EVENT:
+            EventType type = EVENT_TYPES[in.get()];
+            boolean corrective = in.get() != 0;
+            if (in.get() != 0) {
+                return new GridEvent(type, offset, JobRecord.read(in, dictionary), corrective);
+            }
+            return new GridEvent(type, offset, readUTF(in), corrective);
+        case BURST_EVENT:
+            String nodeName = dictionary.decode(in.getInt());
+            int numJobs = in.getInt();
+            int numOwners = in.getInt();
+            Map<String, Integer> jobsByOwner = new HashMap<String, Integer>();
+            for (int i = 0; i < numOwners; i++) {
+                jobsByOwner.put(dictionary.decode(in.getInt()), in.getInt());
+            }
+            return new BurstEvent(offset, nodeName, numJobs, jobsByOwner);
+        case SNAPSHOT_EVENT:
+            return new SnapshotEvent(offset);
+        default:
+            throw new IllegalStateException("Unknown event kind " + kind + " at position " + position);
+        }
+    }
+
+    /**
+     * Reads a string written by DataOutput.writeUTF. Job ids are plain ASCII, so this does not decode the modified
+     * UTF-8 encoding of other characters.
+     */
+    private static String readUTF(ByteBuffer in) {
+        int length = in.getShort() & 0xffff;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) in.get();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the events at the given offset, or null if this segment has none.
+     */
+    public List<Event> getBucket(Long offset) {
+        return buckets.get(offset);
+    }
+
+    /**
+     * Returns the number of bytes used by this segment.
+     */
+    public int getSize() {
+        return data.capacity();
+    }
+
+    /**
+     * A read-only view of the events at one offset.
+     */
+    class Bucket extends AbstractList<Event> implements RandomAccess {
+
+        private final Long offset;
+        private final int[] positions;
+
+        Bucket(Long offset, int[] positions) {
+            this.offset = offset;
+            this.positions = positions;
+        }
+
+        @Override
+        public Event get(int index) {
+            return read(offset, positions[index]);
+        }
+
+        @Override
+        public int size() {
+            return positions.length;
+        }
+    }
+}
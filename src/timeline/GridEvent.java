@@ -1,33 +1,49 @@
 package timeline;
 
-import snapshot.SnapshotJob;
+import snapshot.JobRecord;
 
 /**
- * A job event on the grid corresponding to a job being queued, started, or ended.
+ * A job event on the grid corresponding to a job being queued, started, or ended, or a queued job changing, e.g. when
+ * some of the tasks of a queued array job start and the rest stay in the queue.
  * 
  * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
  */
 public class GridEvent extends Event {
 
     public static enum EventType {
-        SUB, START, END
+        SUB, START, END, UPDATE
     }
 
     private EventType type;
     private String fullJobId;
-    private SnapshotJob ssJob;
+    private JobRecord job;
+    private boolean corrective;
 
     public GridEvent(EventType type, Long offset, String fullJobId) {
+        this(type, offset, fullJobId, false);
+    }
+
+    public GridEvent(EventType type, Long offset, JobRecord job) {
+        this(type, offset, job, false);
+    }
+
+    /**
+     * @param corrective true if the event doesn't represent a change on the grid, but brings a state which drifted 
+     * from the grid back in line with it
+     */
+    public GridEvent(EventType type, Long offset, String fullJobId, boolean corrective) {
         super(offset);
         this.type = type;
         this.fullJobId = fullJobId;
+        this.corrective = corrective;
     }
 
-    public GridEvent(EventType type, Long offset, SnapshotJob ssJob) {
+    public GridEvent(EventType type, Long offset, JobRecord job, boolean corrective) {
         super(offset);
         this.type = type;
-        this.ssJob = ssJob;
-        this.fullJobId = ssJob.getFullJobId();
+        this.job = job;
+        this.fullJobId = job.getFullJobId();
+        this.corrective = corrective;
     }
 
     public EventType getType() {
@@ -38,8 +54,15 @@ public class GridEvent extends Event {
         return fullJobId;
     }
 
-    public SnapshotJob getSnapshotJob() {
-        return ssJob;
+    /**
+     * Returns the job as it was seen in the snapshot which generated this event. END events have no job.
+     */
+    public JobRecord getJob() {
+        return job;
+    }
+
+    public boolean isCorrective() {
+        return corrective;
     }
 
     public void print() {
@@ -63,6 +86,6 @@ public class GridEvent extends Event {
 
     @Override
     public String toString() {
-        return "GridEvent[" + getCacheKey() + "]";
+        return "GridEvent[" + getCacheKey() + (corrective ? ", corrective" : "") + "]";
     }
 }
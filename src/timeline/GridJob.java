@@ -5,7 +5,7 @@ import java.util.Date;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import snapshot.SnapshotJob;
+import snapshot.JobInfo;
 
 /**
  * The state of a grid job which may change over time as the state of the grid moved through a timeline. 
@@ -26,8 +26,11 @@ public class GridJob {
     private Date subTime;
     private Date startTime;
     private GridNode node;
+    private String fullJobId;
+    private int taskCount;
+    private int slotDemand;
 
-    public GridJob(SnapshotJob job) {
+    public GridJob(JobInfo job) {
         this.jobId = job.getJobId();
         this.name = job.getName();
         this.state = job.getState();
@@ -37,6 +40,9 @@ public class GridJob {
         this.tasks = job.getTasks();
         this.subTime = job.getSubTime();
         this.startTime = job.getStartTime();
+        this.fullJobId = createFullJobId();
+        this.taskCount = job.getTaskCount();
+        this.slotDemand = slots * taskCount;
     }
 
     public int getJobId() {
@@ -44,6 +50,10 @@ public class GridJob {
     }
 
     public String getFullJobId() {
+        return fullJobId;
+    }
+
+    private String createFullJobId() {
         StringBuilder s = new StringBuilder();
         s.append(jobId);
         if (tasks != null) {
@@ -76,6 +86,20 @@ public class GridJob {
         return tasks;
     }
 
+    /**
+     * Returns the number of tasks this job stands for. This is more than one only for queued array jobs.
+     */
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * Returns the total number of slots needed to run all the tasks this job stands for.
+     */
+    public int getSlotDemand() {
+        return slotDemand;
+    }
+
     public Date getSubTime() {
         return subTime;
     }
@@ -92,7 +116,7 @@ public class GridJob {
         this.node = node;
     }
 
-    public boolean update(SnapshotJob job) {
+    public boolean update(JobInfo job) {
 
         if (job.getJobId() != jobId) throw new IllegalStateException("Attempt to update job " + jobId + " with " + job.getJobId());
 
@@ -131,9 +155,18 @@ public class GridJob {
         if (job.getTasks() != null && !job.getTasks().equals(tasks)) {
             log.trace("Updading tasks from {} to {}", tasks, job.getTasks());
             this.tasks = job.getTasks();
+            this.fullJobId = createFullJobId();
             changed = true;
         }
 
+        if (job.getTasks() != null && taskCount != job.getTaskCount()) {
+            log.trace("Updading task count from {} to {}", taskCount, job.getTaskCount());
+            this.taskCount = job.getTaskCount();
+            changed = true;
+        }
+
+        this.slotDemand = slots * taskCount;
+
         if (job.getSubTime() != null && !job.getSubTime().equals(subTime)) {
             log.trace("Updading subTime from {} to {}", subTime, job.getSubTime());
             this.subTime = job.getSubTime();
@@ -1,15 +1,23 @@
 package timeline;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The state of a grid node which may change over time as the state of the grid moves through a timeline. 
+ * The state of a grid node which may change over time as the state of the grid moves through a timeline. Slot 
+ * occupancy is tracked with bitmaps, both for the node as a whole and for each job on it, so allocating and 
+ * releasing slots are word operations. 
+ * 
+ * The node also keeps a hash of the set of jobs running on it, which can be compared with the hash of the jobs 
+ * running on the node in a snapshot to verify that the state has not drifted. 
  * 
  * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
  */
@@ -17,14 +25,26 @@ public class GridNode {
 
     private static final Logger log = LoggerFactory.getLogger(GridNode.class);
 
+    private static final int[] NO_SLOTS = new int[0];
+
     private final String shortName;
     private final String qtype;
     private final GridJob[] slots;
+    private String subset;
+
+    // Bit s is set if slot s is occupied
+    private final long[] usedSlots;
+    // Slot bitmask of every job on this node, keyed by full job id
+    private final Map<String, long[]> jobSlots = new HashMap<String, long[]>();
+    private int numUsedSlots = 0;
+    // Sum of the hashes of the jobs in jobSlots
+    private long occupancyHash = 0;
 
     public GridNode(String shortName, String qtype, int numSlots) {
         this.shortName = shortName;
         this.qtype = qtype;
         this.slots = new GridJob[numSlots];
+        this.usedSlots = new long[(numSlots + 63) >>> 6];
     }
 
     public String getShortName() {
@@ -35,6 +55,17 @@ public class GridNode {
         return qtype;
     }
 
+    /**
+     * Returns the name of the subset of the grid configuration which this node belongs to.
+     */
+    public String getSubset() {
+        return subset;
+    }
+
+    public void setSubset(String subset) {
+        this.subset = subset;
+    }
+
     public List<Integer> assignJobToSlots(GridJob job) {
         List<Integer> indexes = new ArrayList<Integer>();
         int slotsLeft = job.getSlots();
@@ -45,49 +76,144 @@ public class GridNode {
             slotsLeft = slots.length;
         }
 
-        Set<String> running = new HashSet<String>();
-        for (int s = 0; s < slots.length && slotsLeft > 0; s++) {
-            if (slots[s] == null) {
+        String fullJobId = job.getFullJobId();
+        long[] mask = jobSlots.get(fullJobId);
+        if (mask != null) {
+            int running = countBits(mask);
+            log.warn("Node " + shortName + " is already running " + fullJobId + " on " + running + " slots");
+            slotsLeft -= running;
+            job.setNode(this);
+        }
+
+        for (int w = 0; w < usedSlots.length && slotsLeft > 0; w++) {
+            long free = ~usedSlots[w] & wordMask(w);
+            while (free != 0 && slotsLeft > 0) {
+                long bit = Long.lowestOneBit(free);
+                free &= ~bit;
+                int s = (w << 6) + Long.numberOfTrailingZeros(bit);
+                if (mask == null) {
+                    mask = new long[usedSlots.length];
+                    jobSlots.put(fullJobId, mask);
+                    occupancyHash += jobHash(fullJobId);
+                }
+                mask[w] |= bit;
+                usedSlots[w] |= bit;
+                numUsedSlots++;
                 slots[s] = job;
                 indexes.add(s);
                 slotsLeft--;
                 // If any slots were assigned, then lets consider the job on the node, and hope all slots were assigned.
                 job.setNode(this);
             }
-            else if (slots[s].getFullJobId().equals(job.getFullJobId())) {
-                log.warn("Node " + shortName + " is already running " + job.getFullJobId() + " on slot " + s);
-                slotsLeft--;
-                job.setNode(this);
-            }
-            else {
-                running.add(slots[s].getFullJobId());
-            }
         }
+
         if (slotsLeft > 0) {
             log.debug("Node state: {}", this);
-            log.error("Node " + shortName + " cannot allocate " + slotsLeft + " slots for " + job.getFullJobId() + " because other jobs are running: "
+            Set<String> running = new HashSet<String>(jobSlots.keySet());
+            running.remove(fullJobId);
+            log.error("Node " + shortName + " cannot allocate " + slotsLeft + " slots for " + fullJobId + " because other jobs are running: "
                     + running);
         }
         return indexes;
     }
 
     public void removeJob(GridJob stateJob) {
-        for (int i = 0; i < slots.length; i++) {
-            if (slots[i] != null && slots[i].getFullJobId().equals(stateJob.getFullJobId())) {
-                log.trace("erasing " + slots[i].getFullJobId() + " from node " + getShortName());
-                slots[i] = null;
+        long[] mask = jobSlots.remove(stateJob.getFullJobId());
+        if (mask == null) return;
+        occupancyHash -= jobHash(stateJob.getFullJobId());
+        for (int w = 0; w < mask.length; w++) {
+            long bits = mask[w];
+            usedSlots[w] &= ~bits;
+            numUsedSlots -= Long.bitCount(bits);
+            while (bits != 0) {
+                int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                log.trace("erasing " + stateJob.getFullJobId() + " from node " + getShortName());
+                slots[s] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the indexes of the slots occupied by the given job, in ascending order.
+     */
+    public int[] getSlotIndexes(String fullJobId) {
+        long[] mask = jobSlots.get(fullJobId);
+        if (mask == null) return NO_SLOTS;
+        int[] indexes = new int[countBits(mask)];
+        int i = 0;
+        for (int w = 0; w < mask.length; w++) {
+            long bits = mask[w];
+            while (bits != 0) {
+                indexes[i++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
             }
         }
+        return indexes;
+    }
+
+    public boolean isRunning(String fullJobId) {
+        return jobSlots.containsKey(fullJobId);
+    }
+
+    /**
+     * Returns the full ids of the jobs running on this node.
+     */
+    public Set<String> getJobIds() {
+        return Collections.unmodifiableSet(jobSlots.keySet());
+    }
+
+    /**
+     * Returns a hash of the set of jobs running on this node, which is the sum of their job hashes.
+     */
+    public long getOccupancyHash() {
+        return occupancyHash;
+    }
+
+    /**
+     * Returns a 64-bit hash of the given job id (FNV-1a, with a final mix so that sums of hashes are well spread).
+     */
+    public static long jobHash(String fullJobId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < fullJobId.length(); i++) {
+            h ^= fullJobId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
     }
 
     public GridJob[] getSlots() {
         return slots;
     }
 
+    /**
+     * Returns the number of occupied slots.
+     */
     public int getNumJobs() {
+        return numUsedSlots;
+    }
+
+    public int getNumFreeSlots() {
+        return slots.length - numUsedSlots;
+    }
+
+    /**
+     * Returns the bits of the given word which correspond to real slots.
+     */
+    private long wordMask(int w) {
+        int bitsInWord = Math.min(64, slots.length - (w << 6));
+        return bitsInWord == 64 ? -1L : (1L << bitsInWord) - 1;
+    }
+
+    private static int countBits(long[] mask) {
         int c = 0;
-        for (GridJob job : slots) {
-            if (job != null) c++;
+        for (long bits : mask) {
+            c += Long.bitCount(bits);
         }
         return c;
     }
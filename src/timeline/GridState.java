@@ -8,6 +8,9 @@ import java.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import snapshot.CompactSnapshot;
+import snapshot.JobInfo;
+import snapshot.JobRecord;
 import snapshot.Snapshot;
 import snapshot.SnapshotJob;
 import snapshot.SnapshotNode;
@@ -23,36 +26,21 @@ public class GridState {
 
     private String name;
     private List<GridNode> nodes = new ArrayList<GridNode>();
-    private List<GridJob> queuedJobs = new ArrayList<GridJob>();
+    private JobQueue queuedJobs = new JobQueue();
 
     private Map<String, GridNode> nodeMap = new HashMap<String, GridNode>();
     private Map<String, GridJob> jobMap = new HashMap<String, GridJob>();
-    private List<String> users = new ArrayList<String>();
-    private Map<String, Integer> slotsUsedByUser = new HashMap<String, Integer>();
+    private UsageAggregates usage = new UsageAggregates();
 
     public GridState(Snapshot snapshot, String name) {
 
         this.name = name;
 
-    	GridConfig config = GridConfig.getInstance();
-    	
-        for(SnapshotNode ssNode : snapshot.getNodes()) {
-        	
-    		NodeConfiguration nodeConfig = config.getConfiguration(ssNode.getShortName());
-    		if (nodeConfig==null) {
-    			log.warn("No configuration for "+ssNode.getShortName());
-    			continue;
-    		}
-    		Integer numSlots = nodeConfig.getNodeSet().getSlots();
-        	
-            GridNode node = new GridNode(ssNode.getShortName(), ssNode.getQtype(), numSlots);
-            nodes.add(node);
+        for (SnapshotNode ssNode : snapshot.getNodes()) {
+            GridNode node = createNode(ssNode.getShortName(), ssNode.getQtype());
+            if (node == null) continue;
             for (SnapshotJob ssJob : ssNode.getJobs()) {
-                GridJob job = new GridJob(ssJob);
-                log.trace(name + " init - Adding running job {} to node {}", job, node.getShortName());
-                jobMap.put(job.getFullJobId(), job);
-                List<Integer> slots = node.assignJobToSlots(job);
-                log.debug(name + " init - Assigned job {} to slots {}", job, slots);
+                addRunningJob(node, ssJob);
             }
         }
 
@@ -65,6 +53,54 @@ public class GridState {
         init();
     }
 
+    public GridState(CompactSnapshot snapshot, String name) {
+
+        this.name = name;
+
+        for (int n = 0; n < snapshot.getNumNodes(); n++) {
+            GridNode node = createNode(snapshot.getNodeName(n), snapshot.getNodeQtype(n));
+            if (node == null) continue;
+            for (JobRecord record : snapshot.getJobs(n)) {
+                addRunningJob(node, record);
+            }
+        }
+
+        for (JobRecord record : snapshot.getQueuedJobs()) {
+            GridJob job = new GridJob(record);
+            log.trace(name + " init - Adding queued job {}", job);
+            addQueuedJob(job);
+        }
+
+        init();
+    }
+
+    /**
+     * Create and add the given node, as long as it's configured.
+     */
+    private GridNode createNode(String shortName, String qtype) {
+
+        NodeConfiguration nodeConfig = GridConfig.getInstance().getConfiguration(shortName);
+        if (nodeConfig == null) {
+            log.warn("No configuration for " + shortName);
+            return null;
+        }
+        Integer numSlots = nodeConfig.getNodeSet().getSlots();
+
+        GridNode node = new GridNode(shortName, qtype, numSlots);
+        node.setSubset(nodeConfig.getNodeSet().getSubset().getName());
+        nodes.add(node);
+        return node;
+    }
+
+    private void addRunningJob(GridNode node, JobInfo info) {
+        GridJob job = new GridJob(info);
+        log.trace(name + " init - Adding running job {} to node {}", job, node.getShortName());
+        jobMap.put(job.getFullJobId(), job);
+        List<Integer> slots = node.assignJobToSlots(job);
+        usage.count(job, 1);
+        log.debug(name + " init - Assigned job {} to slots {}", job, slots);
+    }
+
     public int getNumRunningJobs() {
         return jobMap.size() - getNumQueuedJobs();
     }
@@ -74,23 +110,43 @@ public class GridState {
     }
 
     public void removeJob(GridJob job) {
+        if (jobMap.remove(job.getFullJobId()) != null) {
+            usage.count(job, -1);
+        }
         if (job.getNode() != null) {
             job.getNode().removeJob(job);
         }
-        jobMap.remove(job.getFullJobId());
         queuedJobs.remove(job);
     }
 
     public void addQueuedJob(GridJob job) {
+        GridJob prev = jobMap.put(job.getFullJobId(), job);
+        if (prev != null) {
+            usage.count(prev, -1);
+        }
         queuedJobs.add(job);
-        jobMap.put(job.getFullJobId(), job);
+        usage.count(job, 1);
     }
 
     public void removeQueuedJob(GridJob job) {
         queuedJobs.remove(job);
     }
 
-    public List<GridJob> getQueuedJobs() {
+    /**
+     * Update a job with new information from a snapshot, keeping the queue in order if it's a queued job.
+     */
+    public boolean updateJob(GridJob job, JobInfo ssJob) {
+        boolean counted = jobMap.get(job.getFullJobId()) == job;
+        if (counted) usage.count(job, -1);
+        boolean changed = job.update(ssJob);
+        if (counted) usage.count(job, 1);
+        if (changed) {
+            queuedJobs.reorder(job);
+        }
+        return changed;
+    }
+
+    public JobQueue getQueuedJobs() {
         return queuedJobs;
     }
 
@@ -110,45 +166,27 @@ public class GridState {
         return jobMap;
     }
 
+    /**
+     * Returns the users with running or queued jobs, those using the most slots first.
+     */
     public List<String> getUsers() {
-        return users;
+        return usage.getUsage().getUsers();
     }
 
     public Map<String, Integer> getSlotsUsedByUser() {
-        return slotsUsedByUser;
+        return usage.getUsage().getRunningSlotsByUser();
     }
 
-    public void init() {
+    /**
+     * Returns the slot usage as of the last applied event.
+     */
+    public Usage getUsage() {
+        return usage.getUsage();
+    }
 
+    public void init() {
         for (GridNode node : nodes) {
             nodeMap.put(node.getShortName(), node);
-            for (GridJob job : node.getSlots()) {
-                if (job == null) continue;
-                String user = job.getOwner();
-                incrementSlots(user, job.getSlots());
-            }
-        }
-
-        Collections.sort(users, new Comparator<String>() {
-            @Override
-            public int compare(String user1, String user2) {
-                Integer slots1 = slotsUsedByUser.get(user1);
-                Integer slots2 = slotsUsedByUser.get(user2);
-                if (slots1 == null && slots2 == null) return 0;
-                if (slots1 == null) return -1;
-                if (slots2 == null) return 1;
-                return slots2.compareTo(slots1);
-            }
-        });
-    }
-
-    private void incrementSlots(String user, int slots) {
-        if (!slotsUsedByUser.containsKey(user)) {
-            slotsUsedByUser.put(user, slots);
-            users.add(user);
-        }
-        else {
-            slotsUsedByUser.put(user, slotsUsedByUser.get(user) + slots);
         }
     }
 
@@ -160,8 +198,7 @@ public class GridState {
         switch (event.getType()) {
         case SUB:
             try {
-                SnapshotJob ssJob = event.getSnapshotJob();
-                GridJob gridJob = new GridJob(ssJob);
+                GridJob gridJob = new GridJob(event.getJob());
                 log.trace(name + " - {} - queuing job {}", event.getOffset(), gridJob);
                 addQueuedJob(gridJob);
                 log.debug(name + " - {} - queued job {}", event.getOffset(), stateJob);
@@ -177,28 +214,28 @@ public class GridState {
                     log.error(name + " - {} - cannot start job which doesn't exist: {}", event.getOffset(), fullJobId);
                     return false;
                 }
-                SnapshotJob snapshotJob = event.getSnapshotJob();
-                if (snapshotJob == null) {
+                JobRecord record = event.getJob();
+                if (record == null) {
                     log.error(name + " - cannot start a null job: {}", event);
                 }
                 else {
-                    SnapshotNode snapshotNode = snapshotJob.getNode();
-                    if (snapshotNode == null) {
+                    String nodeName = record.getNodeName();
+                    if (nodeName == null) {
                         log.error(name + " - {} - cannot start a job with a null node: {}", event.getOffset(), fullJobId);
                     }
                     else {
-                        String nodeName = snapshotNode.getShortName();
                         GridNode stateNode = getNodeByShortName(nodeName);
                         if (stateNode == null) {
                             log.error(name + " - cannot start a job on non-existent node {}", nodeName);
                             return false;
                         }
                         log.trace(name + " - starting job {} on node {}", stateJob, nodeName);
+                        usage.count(stateJob, -1);
                         removeQueuedJob(stateJob);
                         stateJob.setNode(stateNode);
-                        stateJob.update(snapshotJob);
-                        List<Integer> slots = stateNode.assignJobToSlots(stateJob);
-                        incrementSlots(stateJob.getOwner(), stateJob.getSlots());
+                        stateJob.update(record);
+                        stateNode.assignJobToSlots(stateJob);
+                        usage.count(stateJob, 1);
                         log.debug(name + " - {} - started job {}", event.getOffset(), stateJob);
                     }
                 }
@@ -208,6 +245,19 @@ public class GridState {
                 return false;
             }
             break;
+        case UPDATE:
+            if (stateJob == null) {
+                log.error(name + " - {} - cannot update job which doesn't exist: {}", event.getOffset(), fullJobId);
+                return false;
+            }
+            if (event.getJob() == null) {
+                log.error(name + " - cannot update a job with a null job: {}", event);
+                return false;
+            }
+            if (updateJob(stateJob, event.getJob())) {
+                log.debug(name + " - {} - updated job {}", event.getOffset(), stateJob);
+            }
+            break;
         case END:
             try {
                 if (stateJob == null) {
@@ -216,7 +266,6 @@ public class GridState {
                 }
                 else {
                     log.debug(name + " - {} - ended job {}", event.getOffset(), stateJob);
-                    incrementSlots(stateJob.getOwner(), -1 * stateJob.getSlots());
                     removeJob(stateJob);
                 }
             }
@@ -232,16 +281,12 @@ public class GridState {
 
     public void eraseJob(String fullJobId) {
         log.debug(name + " - erasing job {} from grid state", fullJobId);
-        for (Iterator<GridJob> iterator = queuedJobs.iterator(); iterator.hasNext();) {
-            GridJob gridJob = iterator.next();
-            if (gridJob.getFullJobId().equals(fullJobId)) {
-                iterator.remove();
-            }
-        }
+        queuedJobs.remove(fullJobId);
         for (Iterator<Map.Entry<String, GridJob>> iterator = jobMap.entrySet().iterator(); iterator.hasNext();) {
             Map.Entry<String, GridJob> entry = iterator.next();
             GridJob gridJob = entry.getValue();
             if (gridJob.getFullJobId().equals(fullJobId)) {
+                usage.count(gridJob, -1);
                 GridNode gridNode = gridJob.getNode();
                 if (gridNode != null) {
                     gridNode.removeJob(gridJob);
@@ -310,65 +355,6 @@ public class GridState {
     // }
     // }
 
-    public void printDifferences(GridState otherState) {
-
-        for (GridNode node : nodes) {
-            GridNode otherNode = otherState.getNodeByShortName(node.getShortName());
-
-            if (otherNode == null) {
-                log.error(name + " - other state (" + otherState.getName() + ") does not have node: {}", node.getShortName());
-            }
-            else {
-                Set<String> jobs = new HashSet<String>();
-                Set<String> otherJobs = new HashSet<String>();
-
-                for (GridJob job : node.getSlots()) {
-                    if (job != null) {
-                        jobs.add(job.getFullJobId());
-                    }
-                }
-                for (GridJob job : otherNode.getSlots()) {
-                    if (job != null) {
-                        otherJobs.add(job.getFullJobId());
-                    }
-                }
-
-                if (!jobs.equals(otherJobs)) {
-                    List<String> jobsStr = new ArrayList<String>(jobs);
-                    List<String> otherJobsStr = new ArrayList<String>(otherJobs);
-                    Collections.sort(jobsStr);
-                    Collections.sort(otherJobsStr);
-                    String diff = jobsStr + " <> " + otherJobsStr;
-                    log.error(name + " - grid node {} differs: {}", node.getShortName(), diff);
-                }
-            }
-        }
-
-        for (GridNode otherNode : otherState.getNodeMap().values()) {
-            GridNode node = otherState.getNodeByShortName(otherNode.getShortName());
-            if (node == null) {
-                log.error(name + " - state does not have node found in other state: {}", otherNode.getShortName());
-            }
-        }
-
-        for (GridJob job : queuedJobs) {
-            GridJob otherJob = otherState.getJobByFullId(job.getFullJobId());
-            if (otherJob == null) {
-                log.error(name + " - other state (" + otherState.getName() + ") does not have job queued: {}", job.getFullJobId());
-            }
-            else if (!job.toString().equals(otherJob.toString())) {
-                log.error(name + " - queued job is not the same: {}", job.toString() + " <> " + otherJob.toString());
-            }
-        }
-
-        for (GridJob otherJob : otherState.getQueuedJobs()) {
-            GridJob job = getJobByFullId(otherJob.getFullJobId());
-            if (job == null) {
-                log.error(name + " - state does not have job queued in other state (" + otherState.getName() + "): {}", otherJob.getFullJobId());
-            }
-        }
-    }
-
     public String getName() {
         return name;
     }
@@ -0,0 +1,274 @@
+package timeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import snapshot.JobInfo;
+import snapshot.JobRecord;
+
+/**
+ * An index of job lifetimes over the window of a timeline, for answering questions like "what was running on this
+ * node at this time" or "which jobs did this user have in this range" without replaying a GridState.
+ *
+ * The index is kept up to date from the same SUB, START and END events which are applied to the loading state. Each
+ * node and each user has a posting list of job intervals: the open intervals of jobs which are still queued or
+ * running are kept in a set, and closed intervals are added to every time bucket they overlap. A query only has to
+ * look at the open set and at the buckets covered by its range. Buckets which fall out of the window are discarded.
+ *
+ * The index is updated by the loading thread and may be queried from any thread.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class JobIndex {
+
+    private final long bucketMs;
+    private final Map<String, JobInterval> jobs = new HashMap<String, JobInterval>();
+    private final Map<String, Postings> nodes = new HashMap<String, Postings>();
+    private final Map<String, Postings> users = new HashMap<String, Postings>();
+    private final ArrayDeque<JobInterval> ended = new ArrayDeque<JobInterval>();
+    private long firstOffset = Long.MIN_VALUE;
+
+    /**
+     * @param bucketMs the width of the time buckets. Narrower buckets make queries over short ranges faster, but
+     * long-running jobs are added to more of them.
+     */
+    public JobIndex(long bucketMs) {
+        this.bucketMs = bucketMs;
+    }
+
+    /**
+     * Add a job which was already queued or running in the basis snapshot.
+     *
+     * @param job the job
+     * @param subOffset offset of the job's submission
+     * @param nodeName the node the job is running on, or null if it's queued
+     * @param startOffset offset of the job's start, if it's running
+     */
+    public synchronized void add(JobInfo job, long subOffset, String nodeName, long startOffset) {
+        JobInterval interval = submit(job, subOffset);
+        if (nodeName != null) {
+            start(interval, nodeName, startOffset);
+        }
+    }
+
+    /**
+     * Update the index with the given event. Events must be applied in the order of their offsets.
+     */
+    public synchronized void apply(GridEvent event) {
+
+        long offset = event.getOffset();
+        JobInterval interval = jobs.get(event.getJobId());
+        if (interval != null && interval.getEndOffset() != JobInterval.OPEN) {
+            interval = null;
+        }
+
+        switch (event.getType()) {
+        case SUB:
+            if (interval != null) end(interval, offset);
+            submit(event.getJob(), offset);
+            break;
+        case START:
+            JobRecord job = event.getJob();
+            if (interval == null) {
+                // Started without being seen in the queue
+                interval = submit(job, offset);
+            }
+            else if (interval.getStartOffset() != JobInterval.OPEN) {
+                // Moved to another node
+                end(interval, offset);
+                interval = submit(job, interval.getSubOffset());
+            }
+            start(interval, job.getNodeName(), offset);
+            break;
+        case END:
+            if (interval != null) end(interval, offset);
+            break;
+        }
+    }
+
+    private JobInterval submit(JobInfo job, long subOffset) {
+        JobInterval interval = new JobInterval(job.getFullJobId(), job.getName(), job.getOwner(), job.getSlots(),
+                subOffset);
+        jobs.put(interval.getFullJobId(), interval);
+        if (interval.getOwner() != null) {
+            getPostings(users, interval.getOwner(), false).open(interval);
+        }
+        return interval;
+    }
+
+    private void start(JobInterval interval, String nodeName, long offset) {
+        interval.start(nodeName, offset);
+        if (nodeName != null) {
+            getPostings(nodes, nodeName, true).open(interval);
+        }
+    }
+
+    private void end(JobInterval interval, long offset) {
+        interval.end(offset);
+        if (interval.getOwner() != null) {
+            users.get(interval.getOwner()).close(interval);
+        }
+        if (interval.getNodeName() != null) {
+            nodes.get(interval.getNodeName()).close(interval);
+        }
+        ended.add(interval);
+    }
+
+    private Postings getPostings(Map<String, Postings> map, String key, boolean running) {
+        Postings postings = map.get(key);
+        if (postings == null) {
+            postings = new Postings(running);
+            map.put(key, postings);
+        }
+        return postings;
+    }
+
+    /**
+     * Discard everything which ended before the given offset, which is the new start of the window.
+     */
+    public synchronized void trim(long offset) {
+        this.firstOffset = offset;
+        long firstBucket = bucket(offset);
+        for (Postings postings : nodes.values()) {
+            postings.closed.headMap(firstBucket).clear();
+        }
+        for (Postings postings : users.values()) {
+            postings.closed.headMap(firstBucket).clear();
+        }
+        while (!ended.isEmpty() && ended.peek().getEndOffset() <= offset) {
+            JobInterval interval = ended.poll();
+            if (jobs.get(interval.getFullJobId()) == interval) {
+                jobs.remove(interval.getFullJobId());
+            }
+        }
+    }
+
+    /**
+     * Returns the latest interval of the given job, or null if the job is not in the window.
+     */
+    public synchronized JobInterval getJob(String fullJobId) {
+        return jobs.get(fullJobId);
+    }
+
+    /**
+     * Returns the interval of the given job at the given offset, or null if the job was not queued or running then.
+     */
+    public synchronized JobInterval getJob(String fullJobId, long offset) {
+        JobInterval latest = jobs.get(fullJobId);
+        if (latest == null || latest.getOwner() == null) {
+            if (latest != null && latest.getSubOffset() <= offset && latest.getEndOffset() > offset) return latest;
+            return null;
+        }
+        // A job which moved has an interval for every node it ran on, all with the same submission offset, so the
+        // one which ends first is the one which was current at the offset
+        JobInterval current = null;
+        for (JobInterval interval : query(users.get(latest.getOwner()), offset, offset)) {
+            if (interval.getFullJobId().equals(fullJobId)
+                    && (current == null || interval.getEndOffset() < current.getEndOffset())) {
+                current = interval;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the jobs which were running on the given node at the given offset.
+     */
+    public List<JobInterval> getRunningJobs(String nodeName, long offset) {
+        return getNodeJobs(nodeName, offset, offset);
+    }
+
+    /**
+     * Returns the jobs which ran on the given node at any time in the range [startOffset, endOffset].
+     */
+    public synchronized List<JobInterval> getNodeJobs(String nodeName, long startOffset, long endOffset) {
+        return query(nodes.get(nodeName), startOffset, endOffset);
+    }
+
+    /**
+     * Returns the jobs of the given user which were queued or running at any time in the range [startOffset,
+     * endOffset].
+     */
+    public synchronized List<JobInterval> getUserJobs(String owner, long startOffset, long endOffset) {
+        return query(users.get(owner), startOffset, endOffset);
+    }
+
+    private List<JobInterval> query(Postings postings, long startOffset, long endOffset) {
+        if (postings == null) return new ArrayList<JobInterval>();
+        Set<JobInterval> results = new LinkedHashSet<JobInterval>();
+        for (List<JobInterval> bucket : postings.closed.subMap(bucket(startOffset), true, bucket(endOffset), true)
+                .values()) {
+            for (JobInterval interval : bucket) {
+                if (postings.overlaps(interval, startOffset, endOffset)) {
+                    results.add(interval);
+                }
+            }
+        }
+        for (JobInterval interval : postings.open) {
+            if (postings.overlaps(interval, startOffset, endOffset)) {
+                results.add(interval);
+            }
+        }
+        return new ArrayList<JobInterval>(results);
+    }
+
+    /**
+     * Returns the number of jobs in the index.
+     */
+    public synchronized int size() {
+        return jobs.size();
+    }
+
+    private long bucket(long offset) {
+        long b = offset / bucketMs;
+        return (offset < 0 && b * bucketMs != offset) ? b - 1 : b;
+    }
+
+    /**
+     * The intervals of one node or user. For nodes, an interval covers the time the job was running, and for users,
+     * the whole lifetime of the job.
+     */
+    private class Postings {
+
+        private final boolean running;
+        private final Set<JobInterval> open = new LinkedHashSet<JobInterval>();
+        private final TreeMap<Long, List<JobInterval>> closed = new TreeMap<Long, List<JobInterval>>();
+
+        Postings(boolean running) {
+            this.running = running;
+        }
+
+        long getStart(JobInterval interval) {
+            return running ? interval.getStartOffset() : interval.getSubOffset();
+        }
+
+        boolean overlaps(JobInterval interval, long startOffset, long endOffset) {
+            return getStart(interval) <= endOffset && interval.getEndOffset() > startOffset;
+        }
+
+        void open(JobInterval interval) {
+            open.add(interval);
+        }
+
+        void close(JobInterval interval) {
+            open.remove(interval);
+            long start = Math.max(getStart(interval), firstOffset);
+            long end = interval.getEndOffset();
+            if (end <= start) return;
+            for (long b = bucket(start); b <= bucket(end - 1); b++) {
+                List<JobInterval> bucket = closed.get(b);
+                if (bucket == null) {
+                    bucket = new ArrayList<JobInterval>();
+                    closed.put(b, bucket);
+                }
+                bucket.add(interval);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package timeline;
+
+/**
+ * The lifetime of a job within a timeline: queued from its submission offset, running on a node from its start
+ * offset, and gone at its end offset. A job which is still queued or running has an open end. A job which moves to
+ * another node gets a new interval.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class JobInterval {
+
+    /** Offset of a start or end which has not happened yet */
+    public static final long OPEN = Long.MAX_VALUE;
+
+    private final String fullJobId;
+    private final String name;
+    private final String owner;
+    private final int slots;
+    private final long subOffset;
+    private long startOffset = OPEN;
+    private long endOffset = OPEN;
+    private String nodeName;
+
+    JobInterval(String fullJobId, String name, String owner, int slots, long subOffset) {
+        this.fullJobId = fullJobId;
+        this.name = name;
+        this.owner = owner;
+        this.slots = slots;
+        this.subOffset = subOffset;
+    }
+
+    void start(String nodeName, long offset) {
+        this.nodeName = nodeName;
+        this.startOffset = offset;
+    }
+
+    void end(long offset) {
+        this.endOffset = offset;
+    }
+
+    public String getFullJobId() {
+        return fullJobId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public long getSubOffset() {
+        return subOffset;
+    }
+
+    /**
+     * Returns the offset at which the job started running, or OPEN if it has not started.
+     */
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * Returns the offset at which the job ended, or OPEN if it has not ended.
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Returns the short name of the node the job ran on, or null if it has not started.
+     */
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    public boolean isRunningAt(long offset) {
+        return startOffset <= offset && offset < endOffset;
+    }
+
+    public boolean isQueuedAt(long offset) {
+        return subOffset <= offset && offset < startOffset && offset < endOffset;
+    }
+
+    @Override
+    public String toString() {
+        return "JobInterval[" + fullJobId + ", " + owner + ", " + (nodeName == null ? "" : nodeName) + ", sub="
+                + subOffset + ", start=" + (startOffset == OPEN ? "" : startOffset) + ", end="
+                + (endOffset == OPEN ? "" : endOffset) + "]";
+    }
+}
@@ -0,0 +1,274 @@
+package timeline;
+
+import java.util.ArrayDeque;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * The queue of pending jobs, kept in the order they would be shown: by submission time (jobs without one last), then
+ * by job id and task. It's an order statistic treap indexed by full job id, so adding, removing and finding the
+ * rank of a job are all O(log n), looking up a job is O(1), and iteration is in queue order.
+ *
+ * The sort key of a job is captured when it is added. If a queued job's submission time changes, it must be
+ * re-added (or passed to reorder) to move it to its new place.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class JobQueue implements Iterable<GridJob> {
+
+    private final Map<String, Node> index = new HashMap<String, Node>();
+    private final Random random = new Random(0);
+    private Node root;
+    private int modCount = 0;
+
+    /**
+     * Add a job to the queue, or move it into place if it's already queued.
+     */
+    public void add(GridJob job) {
+        String fullJobId = job.getFullJobId();
+        Node old = index.get(fullJobId);
+        if (old != null) {
+            root = remove(root, old);
+        }
+        Node node = new Node(job, random.nextInt());
+        index.put(fullJobId, node);
+        Node[] parts = split(root, node);
+        root = merge(merge(parts[0], node), parts[1]);
+        modCount++;
+    }
+
+    /**
+     * Remove a job from the queue. Returns false if it wasn't queued.
+     */
+    public boolean remove(GridJob job) {
+        return remove(job.getFullJobId());
+    }
+
+    public boolean remove(String fullJobId) {
+        Node node = index.remove(fullJobId);
+        if (node == null) return false;
+        root = remove(root, node);
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Move a job to the right place after its submission time was changed.
+     */
+    public void reorder(GridJob job) {
+        if (index.containsKey(job.getFullJobId())) {
+            add(job);
+        }
+    }
+
+    public boolean contains(String fullJobId) {
+        return index.containsKey(fullJobId);
+    }
+
+    public GridJob get(String fullJobId) {
+        Node node = index.get(fullJobId);
+        return node == null ? null : node.job;
+    }
+
+    /**
+     * Returns the job at the given position in the queue.
+     */
+    public GridJob get(int rank) {
+        if (rank < 0 || rank >= size()) throw new IndexOutOfBoundsException("" + rank);
+        Node t = root;
+        while (true) {
+            int leftSize = size(t.left);
+            if (rank < leftSize) {
+                t = t.left;
+            }
+            else if (rank == leftSize) {
+                return t.job;
+            }
+            else {
+                rank -= leftSize + 1;
+                t = t.right;
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the given job in the queue, or -1 if it isn't queued.
+     */
+    public int rank(String fullJobId) {
+        Node node = index.get(fullJobId);
+        if (node == null) return -1;
+        int rank = 0;
+        Node t = root;
+        while (t != null) {
+            int cmp = compare(node, t);
+            if (cmp < 0) {
+                t = t.left;
+            }
+            else if (cmp > 0) {
+                rank += size(t.left) + 1;
+                t = t.right;
+            }
+            else {
+                return rank + size(t.left);
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public void clear() {
+        root = null;
+        index.clear();
+        modCount++;
+    }
+
+    /**
+     * Returns a counter which changes whenever the contents or order of the queue change.
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    @Override
+    public Iterator<GridJob> iterator() {
+        return new InOrderIterator();
+    }
+
+    private static int size(Node t) {
+        return t == null ? 0 : t.size;
+    }
+
+    private static void update(Node t) {
+        t.size = 1 + size(t.left) + size(t.right);
+    }
+
+    /**
+     * Split a tree into the nodes which sort before the given node, and the rest.
+     */
+    private static Node[] split(Node t, Node key) {
+        if (t == null) return new Node[2];
+        if (compare(t, key) < 0) {
+            Node[] parts = split(t.right, key);
+            t.right = parts[0];
+            update(t);
+            parts[0] = t;
+            return parts;
+        }
+        else {
+            Node[] parts = split(t.left, key);
+            t.left = parts[1];
+            update(t);
+            parts[1] = t;
+            return parts;
+        }
+    }
+
+    /**
+     * Merge two trees, where every node in the first sorts before every node in the second.
+     */
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static Node remove(Node t, Node node) {
+        if (t == null) return null;
+        if (t == node) return merge(t.left, t.right);
+        if (compare(node, t) < 0) {
+            t.left = remove(t.left, node);
+        }
+        else {
+            t.right = remove(t.right, node);
+        }
+        update(t);
+        return t;
+    }
+
+    private static int compare(Node a, Node b) {
+        if (a.subTime != b.subTime) return a.subTime < b.subTime ? -1 : 1;
+        if (a.jobId != b.jobId) return a.jobId < b.jobId ? -1 : 1;
+        if (a.tasks == b.tasks) return 0;
+        if (a.tasks == null) return -1;
+        if (b.tasks == null) return 1;
+        return a.tasks.compareTo(b.tasks);
+    }
+
+    private static class Node {
+
+        final GridJob job;
+        final long subTime;
+        final int jobId;
+        final String tasks;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(GridJob job, int priority) {
+            this.job = job;
+            Date date = job.getSubTime();
+            this.subTime = date == null ? Long.MAX_VALUE : date.getTime();
+            this.jobId = job.getJobId();
+            this.tasks = job.getTasks();
+            this.priority = priority;
+        }
+    }
+
+    private class InOrderIterator implements Iterator<GridJob> {
+
+        private final ArrayDeque<Node> stack = new ArrayDeque<Node>();
+        private final int expectedModCount = modCount;
+
+        InOrderIterator() {
+            pushLeft(root);
+        }
+
+        private void pushLeft(Node t) {
+            while (t != null) {
+                stack.push(t);
+                t = t.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public GridJob next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (stack.isEmpty()) throw new NoSuchElementException();
+            Node t = stack.pop();
+            pushLeft(t.right);
+            return t.job;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package timeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The events of a timeline as seen by a playback. Everything up to the point where the playback started following
+ * the timeline is read from the timeline itself, and everything after that is consumed from the event feed, so that
+ * the playback knows when the next event is due without asking the timeline, and can park until then.
+ *
+ * If the playback falls too far behind the feed, it stops following it, reads the events it missed from the timeline,
+ * and starts following the feed again from its end.
+ *
+ * Only used by the playback thread, except for wakeup(), which may be called from anywhere.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class PlaybackFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(PlaybackFeed.class);
+
+    private final Timeline timeline;
+    private final EventFeed.Cursor cursor;
+    private final int maxPending;
+    private final List<Event> batch = new ArrayList<Event>();
+
+    // Events after followedFrom come from the feed, and are kept here until they are played
+    private final TreeMap<Long, List<Event>> pending = new TreeMap<Long, List<Event>>();
+    private int numPending = 0;
+    private long followedFrom;
+    private long missed = 0;
+
+    public PlaybackFeed(Timeline timeline) {
+        this.timeline = timeline;
+        this.cursor = timeline.getEventFeed().subscribe();
+        this.maxPending = timeline.getEventFeed().getCapacity();
+        reset();
+    }
+
+    /**
+     * Forget the pending events, e.g. before moving the playback to another position, and follow the feed from its
+     * end. Anything published before this is read from the timeline.
+     */
+    public void reset() {
+        cursor.skipToEnd();
+        this.followedFrom = timeline.getEpoch().getEventHorizon();
+        this.missed = cursor.getMissed();
+        pending.clear();
+        this.numPending = 0;
+    }
+
+    /**
+     * Take in everything that was published since the last call.
+     */
+    private void drain() {
+        while (cursor.poll(batch, maxPending) > 0) {
+            if (cursor.getMissed() != missed) {
+                log.info("Playback fell behind the event feed, reading the missed events from the timeline");
+                batch.clear();
+                reset();
+                continue;
+            }
+            for (Event event : batch) {
+                // Anything up to the followed point was already published by the timeline
+                if (event.getOffset() <= followedFrom) continue;
+                List<Event> events = pending.get(event.getOffset());
+                if (events == null) {
+                    events = new ArrayList<Event>();
+                    pending.put(event.getOffset(), events);
+                }
+                events.add(event);
+                numPending++;
+            }
+            batch.clear();
+            if (numPending > maxPending) {
+                log.info("Playback has {} events waiting, reading them from the timeline instead", numPending);
+                reset();
+            }
+        }
+    }
+
+    /**
+     * Returns the events in the range [startOffset, endOffset). The playback will not ask for anything before
+     * startOffset again.
+     */
+    public SortedMap<Long, List<Event>> getEvents(long startOffset, long endOffset) {
+
+        drain();
+        SortedMap<Long, List<Event>> played = pending.headMap(startOffset);
+        for (List<Event> bucket : played.values()) {
+            numPending -= bucket.size();
+        }
+        played.clear();
+
+        SortedMap<Long, List<Event>> events = new TreeMap<Long, List<Event>>();
+        if (startOffset <= followedFrom) {
+            events.putAll(timeline.getEvents(startOffset, Math.min(endOffset, followedFrom + 1)));
+        }
+        if (endOffset > startOffset) {
+            events.putAll(pending.subMap(startOffset, endOffset));
+        }
+        return events;
+    }
+
+    /**
+     * Returns the offset of the first event at or after the given offset, or -1 if there are none yet.
+     */
+    public long getNextOffset(long offset) {
+        drain();
+        if (offset <= followedFrom) {
+            SortedMap<Long, List<Event>> events = timeline.getEvents(offset, followedFrom + 1);
+            if (!events.isEmpty()) return events.firstKey();
+        }
+        Long next = pending.ceilingKey(offset);
+        return next == null ? -1 : next;
+    }
+
+    /**
+     * Park until new events are published, wakeup() is called, or the timeout expires.
+     *
+     * @param timeoutMs the longest time to wait, or 0 to wait indefinitely
+     */
+    public void await(long timeoutMs) {
+        cursor.await(timeoutMs);
+    }
+
+    /**
+     * Wake the playback if it is parked.
+     */
+    public void wakeup() {
+        cursor.wakeup();
+    }
+
+    /**
+     * Stop following the feed.
+     */
+    public void close() {
+        cursor.close();
+    }
+}
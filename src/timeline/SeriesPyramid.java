@@ -0,0 +1,262 @@
+package timeline;
+
+/**
+ * A downsampling pyramid over a step-function time series. Level k divides the offset space into buckets of
+ * baseWidth*2^k milliseconds, and each bucket keeps the minimum, maximum and time-weighted sum of the values which
+ * were in effect during it. Segments are added as the series commits them, so the pyramid is always up to date, and
+ * a graph of any width can be drawn by reading a couple of buckets per pixel from the closest level.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class SeriesPyramid {
+
+    private final long baseWidth;
+    private final Level[] levels;
+
+    public SeriesPyramid(long baseWidth, int numLevels) {
+        this.baseWidth = baseWidth;
+        this.levels = new Level[numLevels];
+        long width = baseWidth;
+        for (int i = 0; i < numLevels; i++) {
+            levels[i] = new Level(width);
+            width *= 2;
+        }
+    }
+
+    /**
+     * Record that the series had the given value in the range [start, end).
+     */
+    public void add(long start, long end, int value) {
+        if (end <= start) return;
+        for (Level level : levels) {
+            level.add(start, end, value);
+        }
+    }
+
+    /**
+     * Discard buckets entirely before the given offset.
+     */
+    public void trim(long firstOffset) {
+        for (Level level : levels) {
+            level.trim(firstOffset);
+        }
+    }
+
+    public void clear() {
+        for (Level level : levels) {
+            level.clear();
+        }
+    }
+
+    /**
+     * Summarize the range [start, end) into the given number of equal columns. The open segment is the last value of
+     * the series, which has not been committed yet, and extends from openStart to the end of the range.
+     */
+    public void resample(long start, long end, int columns, long openStart, Integer openValue, Resample out) {
+
+        out.ensureCapacity(columns);
+        if (columns <= 0 || end <= start) return;
+
+        // Pick the coarsest level which still has at least one bucket per column
+        double columnWidth = (double) (end - start) / columns;
+        Level level = levels[0];
+        for (Level l : levels) {
+            if (l.width > columnWidth) break;
+            level = l;
+        }
+
+        for (int c = 0; c < columns; c++) {
+
+            long t0 = start + (long) (columnWidth * c);
+            long t1 = (c == columns - 1) ? end : start + (long) (columnWidth * (c + 1));
+            if (t1 <= t0) t1 = t0 + 1;
+
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            double sum = 0;
+            long covered = 0;
+
+            long b0 = Math.max(floorDiv(t0, level.width), level.startBucket);
+            long b1 = Math.min(floorDiv(t1 - 1, level.width), level.startBucket + level.count - 1);
+            for (long b = b0; b <= b1; b++) {
+                int i = level.index(b);
+                if (level.covered[i] == 0) continue;
+                if (level.min[i] < min) min = level.min[i];
+                if (level.max[i] > max) max = level.max[i];
+                sum += level.sum[i];
+                covered += level.covered[i];
+            }
+
+            if (openValue != null && openStart < t1) {
+                long overlap = t1 - Math.max(t0, openStart);
+                if (openValue < min) min = openValue;
+                if (openValue > max) max = openValue;
+                sum += (double) openValue * overlap;
+                covered += overlap;
+            }
+
+            if (covered > 0) {
+                out.defined[c] = true;
+                out.min[c] = min;
+                out.max[c] = max;
+                out.avg[c] = (float) (sum / covered);
+            }
+            else {
+                out.defined[c] = false;
+            }
+        }
+    }
+
+    public long getBaseWidth() {
+        return baseWidth;
+    }
+
+    public int getNumLevels() {
+        return levels.length;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) q--;
+        return q;
+    }
+
+    /**
+     * Reusable output columns for resampling.
+     */
+    public static class Resample {
+
+        public int[] min = new int[0];
+        public int[] max = new int[0];
+        public float[] avg = new float[0];
+        public boolean[] defined = new boolean[0];
+
+        void ensureCapacity(int columns) {
+            if (min.length < columns) {
+                min = new int[columns];
+                max = new int[columns];
+                avg = new float[columns];
+                defined = new boolean[columns];
+            }
+        }
+    }
+
+    /**
+     * One level of the pyramid. Buckets are held in parallel arrays, starting at the bucket number startBucket,
+     * which is stored at array position head.
+     */
+    private static class Level {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        final long width;
+        long startBucket = 0;
+        int head = 0;
+        int count = 0;
+        int[] min = new int[INITIAL_CAPACITY];
+        int[] max = new int[INITIAL_CAPACITY];
+        double[] sum = new double[INITIAL_CAPACITY];
+        long[] covered = new long[INITIAL_CAPACITY];
+
+        Level(long width) {
+            this.width = width;
+        }
+
+        int index(long bucket) {
+            return head + (int) (bucket - startBucket);
+        }
+
+        void add(long start, long end, int value) {
+
+            long b0 = floorDiv(start, width);
+            long b1 = floorDiv(end - 1, width);
+
+            if (count == 0) {
+                startBucket = b0;
+                head = 0;
+            }
+            if (b0 < startBucket) b0 = startBucket;
+            extendTo(b1);
+
+            for (long b = b0; b <= b1; b++) {
+                long bucketStart = b * width;
+                long overlap = Math.min(end, bucketStart + width) - Math.max(start, bucketStart);
+                if (overlap <= 0) continue;
+                int i = index(b);
+                if (covered[i] == 0) {
+                    min[i] = value;
+                    max[i] = value;
+                }
+                else {
+                    if (value < min[i]) min[i] = value;
+                    if (value > max[i]) max[i] = value;
+                }
+                sum[i] += (double) value * overlap;
+                covered[i] += overlap;
+            }
+        }
+
+        void extendTo(long lastBucket) {
+            int newCount = (int) (lastBucket - startBucket + 1);
+            if (newCount <= count) return;
+            if (head + newCount > min.length) {
+                int capacity = min.length;
+                while (newCount > capacity / 2) capacity *= 2;
+                if (capacity == min.length && head > 0) {
+                    // Enough trimmed space at the front to slide everything down
+                    System.arraycopy(min, head, min, 0, count);
+                    System.arraycopy(max, head, max, 0, count);
+                    System.arraycopy(sum, head, sum, 0, count);
+                    System.arraycopy(covered, head, covered, 0, count);
+                }
+                else {
+                    min = copy(min, head, count, capacity);
+                    max = copy(max, head, count, capacity);
+                    sum = copy(sum, head, count, capacity);
+                    covered = copy(covered, head, count, capacity);
+                }
+                head = 0;
+            }
+            for (int i = head + count; i < head + newCount; i++) {
+                sum[i] = 0;
+                covered[i] = 0;
+            }
+            count = newCount;
+        }
+
+        void trim(long firstOffset) {
+            long firstBucket = floorDiv(firstOffset, width);
+            if (firstBucket <= startBucket) return;
+            int drop = (int) Math.min(firstBucket - startBucket, count);
+            head += drop;
+            count -= drop;
+            startBucket += drop;
+            if (count == 0) {
+                head = 0;
+            }
+        }
+
+        void clear() {
+            head = 0;
+            count = 0;
+        }
+
+        private static int[] copy(int[] src, int from, int length, int capacity) {
+            int[] dst = new int[capacity];
+            System.arraycopy(src, from, dst, 0, length);
+            return dst;
+        }
+
+        private static long[] copy(long[] src, int from, int length, int capacity) {
+            long[] dst = new long[capacity];
+            System.arraycopy(src, from, dst, 0, length);
+            return dst;
+        }
+
+        private static double[] copy(double[] src, int from, int length, int capacity) {
+            double[] dst = new double[capacity];
+            System.arraycopy(src, from, dst, 0, length);
+            return dst;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package timeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Busy time of every slot on the grid, accumulated in fixed time buckets, so that the utilization of any slot or
+ * node over any window of the timeline can be looked up without replaying anything.
+ *
+ * Every slot has a dense id. For every bucket boundary, the matrix holds the cumulative busy time of each slot up to
+ * that boundary, so the busy time within a window is the difference of two prefix sums, interpolated linearly within
+ * the buckets at the ends of the window.
+ *
+ * Slots are assigned to jobs by the loading state, so the busy time of individual slots may differ from the slots
+ * where a sketch happens to draw the same jobs. The busy time of a node is exact, up to the bucket interpolation.
+ *
+ * Updated by the loading thread, and may be queried from any thread.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class SlotUtilization {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final long bucketMs;
+    private final Map<String, Integer> nodeBase = new HashMap<String, Integer>();
+    private final Map<String, Integer> nodeSlots = new HashMap<String, Integer>();
+    private final int numSlots;
+
+    // Ring of cumulative busy time at the start of each bucket, from firstBucket to currBucket
+    private long[][] cumulative = new long[INITIAL_CAPACITY][];
+    private int head = 0;
+    private int count = 0;
+    private long firstBucket;
+    private long currBucket;
+
+    // Busy time of closed intervals in the current bucket, and the start of the open interval of each busy slot
+    private final long[] current;
+    private final long[] busySince;
+    private long lastOffset;
+
+    /**
+     * Start accumulating from the given state, at the given offset.
+     */
+    public SlotUtilization(GridState state, long bucketMs, long offset) {
+
+        this.bucketMs = bucketMs;
+
+        List<String> names = new ArrayList<String>(state.getNodeMap().keySet());
+        Collections.sort(names);
+        int id = 0;
+        for (String name : names) {
+            nodeBase.put(name, id);
+            int n = state.getNodeByShortName(name).getSlots().length;
+            nodeSlots.put(name, n);
+            id += n;
+        }
+        this.numSlots = id;
+        this.current = new long[numSlots];
+        this.busySince = new long[numSlots];
+
+        this.firstBucket = bucket(offset);
+        this.currBucket = firstBucket;
+        this.lastOffset = offset;
+        append(new long[numSlots]);
+
+        for (int s = 0; s < numSlots; s++) {
+            busySince[s] = -1;
+        }
+        sync(state, offset);
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the id of the given slot on the given node, or -1 if the node is unknown.
+     */
+    public int getSlotId(String nodeName, int slot) {
+        Integer base = nodeBase.get(nodeName);
+        if (base == null || slot >= nodeSlots.get(nodeName)) return -1;
+        return base + slot;
+    }
+
+    /**
+     * Mark the given slots of a node as busy from the given offset.
+     */
+    public synchronized void start(String nodeName, int[] slots, long offset) {
+        advance(offset);
+        for (int slot : slots) {
+            int id = getSlotId(nodeName, slot);
+            if (id >= 0 && busySince[id] < 0) busySince[id] = lastOffset;
+        }
+    }
+
+    /**
+     * Mark the given slots of a node as free from the given offset.
+     */
+    public synchronized void end(String nodeName, int[] slots, long offset) {
+        advance(offset);
+        for (int slot : slots) {
+            int id = getSlotId(nodeName, slot);
+            if (id >= 0) close(id);
+        }
+    }
+
+    /**
+     * Bring the busy slots in line with the given state, e.g. after it was reconciled.
+     */
+    public synchronized void sync(GridState state, long offset) {
+        advance(offset);
+        for (GridNode node : state.getNodeMap().values()) {
+            Integer base = nodeBase.get(node.getShortName());
+            if (base == null) continue;
+            GridJob[] slots = node.getSlots();
+            for (int slot = 0; slot < slots.length; slot++) {
+                int id = base + slot;
+                if (slots[slot] != null && busySince[id] < 0) {
+                    busySince[id] = lastOffset;
+                }
+                else if (slots[slot] == null && busySince[id] >= 0) {
+                    close(id);
+                }
+            }
+        }
+    }
+
+    private void close(int id) {
+        if (busySince[id] < 0) return;
+        current[id] += lastOffset - Math.max(busySince[id], currBucket * bucketMs);
+        busySince[id] = -1;
+    }
+
+    /**
+     * Move the current time forward to the given offset, closing any buckets in between.
+     */
+    private void advance(long offset) {
+        if (offset <= lastOffset) return;
+        while (bucket(offset) > currBucket) {
+            long bucketStart = currBucket * bucketMs;
+            long bucketEnd = bucketStart + bucketMs;
+            long[] prev = get(currBucket);
+            long[] next = new long[numSlots];
+            for (int s = 0; s < numSlots; s++) {
+                long busy = current[s];
+                if (busySince[s] >= 0) busy += bucketEnd - Math.max(busySince[s], bucketStart);
+                next[s] = prev[s] + busy;
+                current[s] = 0;
+            }
+            append(next);
+            currBucket++;
+        }
+        this.lastOffset = offset;
+    }
+
+    /**
+     * Discard the buckets which end before the given offset.
+     */
+    public synchronized void trim(long offset) {
+        long keep = Math.min(bucket(offset), currBucket);
+        while (firstBucket < keep) {
+            cumulative[head] = null;
+            head = (head + 1) % cumulative.length;
+            count--;
+            firstBucket++;
+        }
+    }
+
+    /**
+     * Returns the fraction of the time in the window [startOffset, endOffset] during which the given slot was busy.
+     */
+    public synchronized float getSlotUtilization(int id, long startOffset, long endOffset) {
+        long start = clamp(startOffset);
+        long end = clamp(endOffset);
+        if (end <= start) return 0;
+        return (float) (busyUntil(id, end) - busyUntil(id, start)) / (end - start);
+    }
+
+    /**
+     * Fill the given array (or a new one, if it's null or too small) with the utilization of every slot over the
+     * window [startOffset, endOffset], indexed by slot id.
+     */
+    public synchronized float[] getSlotUtilization(long startOffset, long endOffset, float[] result) {
+        if (result == null || result.length < numSlots) result = new float[numSlots];
+        long start = clamp(startOffset);
+        long end = clamp(endOffset);
+        for (int id = 0; id < numSlots; id++) {
+            result[id] = end <= start ? 0 : (float) (busyUntil(id, end) - busyUntil(id, start)) / (end - start);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the fraction of the slot time of the given node which was busy in the window [startOffset, endOffset].
+     */
+    public synchronized float getNodeUtilization(String nodeName, long startOffset, long endOffset) {
+        Integer base = nodeBase.get(nodeName);
+        long start = clamp(startOffset);
+        long end = clamp(endOffset);
+        if (base == null || end <= start) return 0;
+        int n = nodeSlots.get(nodeName);
+        long busy = 0;
+        for (int id = base; id < base + n; id++) {
+            busy += busyUntil(id, end) - busyUntil(id, start);
+        }
+        return (float) busy / ((end - start) * n);
+    }
+
+    private long clamp(long offset) {
+        return Math.max(firstBucket * bucketMs, Math.min(lastOffset, offset));
+    }
+
+    /**
+     * Returns the cumulative busy time of the given slot up to the given offset, which must be within the buckets.
+     */
+    private long busyUntil(int id, long offset) {
+        long b = bucket(offset);
+        long bucketStart = b * bucketMs;
+        long base = get(b)[id];
+        if (b < currBucket) {
+            long inBucket = get(b + 1)[id] - base;
+            return base + inBucket * (offset - bucketStart) / bucketMs;
+        }
+        long inBucket = current[id];
+        if (busySince[id] >= 0) inBucket += lastOffset - Math.max(busySince[id], bucketStart);
+        long elapsed = lastOffset - bucketStart;
+        return elapsed == 0 ? base : base + inBucket * (offset - bucketStart) / elapsed;
+    }
+
+    private long[] get(long bucket) {
+        return cumulative[(head + (int) (bucket - firstBucket)) % cumulative.length];
+    }
+
+    private void append(long[] sums) {
+        if (count == cumulative.length) {
+            long[][] grown = new long[cumulative.length * 2][];
+            for (int i = 0; i < count; i++) {
+                grown[i] = cumulative[(head + i) % cumulative.length];
+            }
+            this.cumulative = grown;
+            this.head = 0;
+        }
+        cumulative[(head + count) % cumulative.length] = sums;
+        count++;
+    }
+
+    private long bucket(long offset) {
+        long b = offset / bucketMs;
+        return (offset < 0 && b * bucketMs != offset) ? b - 1 : b;
+    }
+}
@@ -0,0 +1,510 @@
+package timeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import snapshot.AccountingFileReader;
+import snapshot.Snapshot;
+import snapshot.SnapshotJob;
+import snapshot.SnapshotNode;
+import util.ConfigProperties;
+
+/**
+ * Compares two consecutive snapshots and proposes the changes which take the grid from one to the other.
+ *
+ * Both snapshots are held as arrays of jobs sorted by job key (job id, then task), so the comparison is a single
+ * linear merge. Large snapshots are split into job id ranges which are sorted and merged in parallel on a fork/join
+ * pool. The changes from each range are concatenated in range order, so the result does not depend on scheduling.
+ *
+ * The diff only reads the snapshots, so it can run without holding the Timeline lock. Applying the changes to the
+ * grid state is left to the caller.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class SnapshotDiff {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotDiff.class);
+
+    public static final int PARALLEL_THRESHOLD = ConfigProperties.getInteger("derecho.data.diff.parallel.threshold", 20000);
+
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    public static final Comparator<SnapshotJob> JOB_KEY_ORDER = new Comparator<SnapshotJob>() {
+        @Override
+        public int compare(SnapshotJob o1, SnapshotJob o2) {
+            return compareKeys(o1, o2);
+        }
+    };
+
+    public enum ChangeType {
+        SUB, START, END, UPDATE
+    }
+
+    /**
+     * A proposed change. For END changes the job is the one from the previous snapshot, otherwise it's the one from
+     * the new snapshot.
+     */
+    public static class Change {
+
+        private final ChangeType type;
+        private final long offset;
+        private final SnapshotJob job;
+        private final boolean known;
+
+        public Change(ChangeType type, long offset, SnapshotJob job, boolean known) {
+            this.type = type;
+            this.offset = offset;
+            this.job = job;
+            this.known = known;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public SnapshotJob getJob() {
+            return job;
+        }
+
+        /**
+         * Returns true if the job was already in the previous snapshot.
+         */
+        public boolean isKnown() {
+            return known;
+        }
+    }
+
+    /**
+     * The jobs of a snapshot sorted by key, with duplicate keys removed.
+     */
+    public static class SortedJobs {
+
+        private final SnapshotJob[] jobs;
+        private final int size;
+
+        public SortedJobs(SnapshotJob[] jobs, int size) {
+            this.jobs = jobs;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public SnapshotJob get(int i) {
+            return jobs[i];
+        }
+    }
+
+    /**
+     * The outcome of a diff: the changes in application order, and the new snapshot in sorted form, ready to be used
+     * as the previous side of the next diff.
+     */
+    public static class Result {
+
+        private final List<Change> changes;
+        private final SortedJobs jobs;
+
+        public Result(List<Change> changes, SortedJobs jobs) {
+            this.changes = changes;
+            this.jobs = jobs;
+        }
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+        public SortedJobs getJobs() {
+            return jobs;
+        }
+    }
+
+    private final long baselineTime;
+    private final long penultimateOffset;
+    private final long ultimateOffset;
+    private final Map<Integer, Date> parallelJobStarts;
+    private AccountingFileReader accounting;
+
+    /**
+     * @param baselineTime time of the first snapshot, from which offsets are calculated
+     * @param penultimateOffset offset of the previous snapshot
+     * @param ultimateOffset offset of the new snapshot
+     * @param parallelJobStarts start dates of parallel jobs in the new snapshot
+     */
+    public SnapshotDiff(long baselineTime, long penultimateOffset, long ultimateOffset,
+            Map<Integer, Date> parallelJobStarts) {
+        this.baselineTime = baselineTime;
+        this.penultimateOffset = penultimateOffset;
+        this.ultimateOffset = ultimateOffset;
+        this.parallelJobStarts = parallelJobStarts;
+    }
+
+    /**
+     * Use the given accounting file to place the ends of running jobs at the times they actually ended. Without it,
+     * they are assumed to have ended right after the previous snapshot.
+     */
+    public void setAccounting(AccountingFileReader accounting) {
+        this.accounting = accounting;
+    }
+
+    /**
+     * Sort the jobs of a snapshot without diffing it against anything.
+     */
+    public static SortedJobs sort(Snapshot snapshot) {
+        SnapshotJob[] jobs = collectJobs(snapshot);
+        Arrays.sort(jobs, JOB_KEY_ORDER);
+        return new SortedJobs(jobs, dedup(jobs, 0, jobs.length));
+    }
+
+    /**
+     * Diff the given snapshot against the previous one.
+     */
+    public Result diff(SortedJobs previous, Snapshot snapshot) {
+
+        SnapshotJob[] jobs = collectJobs(snapshot);
+
+        int numPartitions = 1;
+        if (jobs.length + previous.size() >= PARALLEL_THRESHOLD) {
+            numPartitions = pool.getParallelism() * 4;
+        }
+
+        int[] pivots = choosePivots(jobs, numPartitions);
+        numPartitions = pivots.length + 1;
+
+        // Distribute the new jobs into job id ranges
+        int[] counts = new int[numPartitions];
+        int[] partitionOf = numPartitions > 1 ? new int[jobs.length] : null;
+        for (int i = 0; i < jobs.length; i++) {
+            int p = numPartitions > 1 ? partitionFor(pivots, jobs[i].getJobId()) : 0;
+            if (partitionOf != null) partitionOf[i] = p;
+            counts[p]++;
+        }
+        int[] starts = new int[numPartitions + 1];
+        for (int p = 0; p < numPartitions; p++) {
+            starts[p + 1] = starts[p] + counts[p];
+        }
+        SnapshotJob[] bucketed = jobs;
+        if (numPartitions > 1) {
+            bucketed = new SnapshotJob[jobs.length];
+            int[] fill = Arrays.copyOf(starts, numPartitions);
+            for (int i = 0; i < jobs.length; i++) {
+                bucketed[fill[partitionOf[i]]++] = jobs[i];
+            }
+        }
+
+        Partition[] partitions = new Partition[numPartitions];
+        int prevStart = 0;
+        for (int p = 0; p < numPartitions; p++) {
+            int prevEnd = (p == numPartitions - 1) ? previous.size() : lowerBound(previous, pivots[p]);
+            partitions[p] = new Partition(previous, prevStart, prevEnd, bucketed, starts[p], starts[p + 1]);
+            prevStart = prevEnd;
+        }
+
+        if (numPartitions == 1) {
+            partitions[0].compute();
+        }
+        else {
+            pool.invoke(new PartitionTask(partitions, 0, numPartitions));
+        }
+
+        // Concatenate in range order: all ends, then running jobs, then queued jobs, just as they would be
+        // generated by a sequential scan
+        List<Change> changes = new ArrayList<Change>();
+        for (Partition partition : partitions) {
+            changes.addAll(partition.ends);
+        }
+        for (Partition partition : partitions) {
+            changes.addAll(partition.running);
+        }
+        for (Partition partition : partitions) {
+            changes.addAll(partition.queued);
+        }
+
+        // Compact each sorted range to get the deduplicated sorted array for next time
+        int size = 0;
+        for (Partition partition : partitions) {
+            int n = partition.dedupedEnd - partition.newStart;
+            System.arraycopy(bucketed, partition.newStart, bucketed, size, n);
+            size += n;
+        }
+
+        return new Result(changes, new SortedJobs(bucketed, size));
+    }
+
+    private long getOffset(Date date) {
+        return date.getTime() - baselineTime;
+    }
+
+    private long clamp(long offset) {
+        if (offset < penultimateOffset + 1) offset = penultimateOffset + 1;
+        if (offset > ultimateOffset) offset = ultimateOffset;
+        return offset;
+    }
+
+    /**
+     * A range of job ids which is diffed independently of the others.
+     */
+    private class Partition {
+
+        private final SortedJobs previous;
+        private final int prevStart;
+        private final int prevEnd;
+        private final SnapshotJob[] jobs;
+        private final int newStart;
+        private final int newEnd;
+        private int dedupedEnd;
+
+        private final List<Change> ends = new ArrayList<Change>();
+        private final List<Change> running = new ArrayList<Change>();
+        private final List<Change> queued = new ArrayList<Change>();
+
+        Partition(SortedJobs previous, int prevStart, int prevEnd, SnapshotJob[] jobs, int newStart, int newEnd) {
+            this.previous = previous;
+            this.prevStart = prevStart;
+            this.prevEnd = prevEnd;
+            this.jobs = jobs;
+            this.newStart = newStart;
+            this.newEnd = newEnd;
+        }
+
+        void compute() {
+
+            Arrays.sort(jobs, newStart, newEnd, JOB_KEY_ORDER);
+
+            int i = prevStart;
+            int j = newStart;
+            boolean matched = false;
+
+            while (i < prevEnd || j < newEnd) {
+                int cmp;
+                if (i >= prevEnd) cmp = 1;
+                else if (j >= newEnd) cmp = -1;
+                else cmp = compareKeys(previous.get(i), jobs[j]);
+
+                if (cmp < 0) {
+                    // Only in the previous snapshot
+                    if (!matched) ended(previous.get(i));
+                    matched = false;
+                    i++;
+                }
+                else if (cmp > 0) {
+                    // Only in the new snapshot
+                    appeared(jobs[j]);
+                    j++;
+                }
+                else {
+                    changed(previous.get(i), jobs[j]);
+                    matched = true;
+                    j++;
+                }
+            }
+
+            this.dedupedEnd = newStart + dedup(jobs, newStart, newEnd);
+        }
+
+        private void ended(SnapshotJob prevJob) {
+            // Assume the job ended right after the last snapshot, unless it has been accounted for
+            long endOffset = penultimateOffset + 1;
+            if (accounting != null && prevJob.getNode() != null) {
+                long endTime = accounting.getEndTime(prevJob.getJobId(), prevJob.getTaskRange());
+                if (endTime > 0) {
+                    endOffset = clamp(endTime - baselineTime);
+                }
+            }
+            // Parallel queued jobs end when the parallel jobs start. Note the intentional use of jobId instead of
+            // fullJobId since this is a parallel job.
+            Date parallelStart = parallelJobStarts.get(prevJob.getJobId());
+            if (parallelStart != null) {
+                long startOffset = getOffset(parallelStart);
+                if (startOffset > endOffset) {
+                    // Don't move end events into the past, because they won't be processed
+                    endOffset = startOffset;
+                }
+                else {
+                    log.warn("MPI queued job started in the past and we missed it: {}", prevJob);
+                }
+            }
+            ends.add(new Change(ChangeType.END, endOffset, prevJob, true));
+        }
+
+        private void appeared(SnapshotJob ssJob) {
+            if (ssJob.getNode() != null) {
+                if (ssJob.getStartTime() != null) {
+                    // It's already been started, so that means we missed the queuing
+                    long startOffset = clamp(getOffset(ssJob.getStartTime()));
+                    running.add(new Change(ChangeType.SUB, startOffset, ssJob, false));
+                    running.add(new Change(ChangeType.START, startOffset, ssJob, false));
+                }
+                else {
+                    log.error("Job running on a node does not have a start time: " + ssJob);
+                }
+            }
+            else {
+                Date subTime = ssJob.getSubTime() == null ? ssJob.getStartTime() : ssJob.getSubTime();
+                // Submission was before this snapshot's range, so move it into range.
+                long subOffset = subTime == null ? ultimateOffset : clamp(getOffset(subTime));
+                queued.add(new Change(ChangeType.SUB, subOffset, ssJob, false));
+            }
+        }
+
+        private void changed(SnapshotJob prevJob, SnapshotJob ssJob) {
+            if (ssJob.getNode() != null) {
+                if (prevJob.getStartTime() == null && ssJob.getStartTime() != null) {
+                    // Job just started
+                    long startOffset = clamp(getOffset(ssJob.getStartTime()));
+                    running.add(new Change(ChangeType.START, startOffset, ssJob, true));
+                }
+            }
+            else if (isUpdated(prevJob, ssJob)) {
+                queued.add(new Change(ChangeType.UPDATE, ultimateOffset, ssJob, true));
+            }
+        }
+    }
+
+    /**
+     * Recursively fork the diff of a set of partitions.
+     */
+    private static class PartitionTask extends RecursiveAction {
+
+        private final Partition[] partitions;
+        private final int from;
+        private final int to;
+
+        PartitionTask(Partition[] partitions, int from, int to) {
+            this.partitions = partitions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                partitions[from].compute();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new PartitionTask(partitions, from, mid), new PartitionTask(partitions, mid, to));
+        }
+    }
+
+    private static SnapshotJob[] collectJobs(Snapshot snapshot) {
+        int n = snapshot.getQueuedJobs().size();
+        for (SnapshotNode node : snapshot.getNodes()) {
+            n += node.getJobs().size();
+        }
+        SnapshotJob[] jobs = new SnapshotJob[n];
+        int i = 0;
+        for (SnapshotNode node : snapshot.getNodes()) {
+            for (SnapshotJob ssJob : node.getJobs()) {
+                jobs[i++] = ssJob;
+            }
+        }
+        for (SnapshotJob ssJob : snapshot.getQueuedJobs()) {
+            jobs[i++] = ssJob;
+        }
+        return jobs;
+    }
+
+    /**
+     * Choose job ids which split the jobs into roughly equal ranges, using a regular sample of the (unsorted) jobs.
+     */
+    private static int[] choosePivots(SnapshotJob[] jobs, int numPartitions) {
+        if (numPartitions <= 1 || jobs.length < numPartitions) return new int[0];
+        int numSamples = Math.min(jobs.length, numPartitions * 16);
+        int[] samples = new int[numSamples];
+        for (int s = 0; s < numSamples; s++) {
+            samples[s] = jobs[(int) ((long) s * jobs.length / numSamples)].getJobId();
+        }
+        Arrays.sort(samples);
+        int[] pivots = new int[numPartitions - 1];
+        int n = 0;
+        for (int p = 1; p < numPartitions; p++) {
+            int pivot = samples[p * numSamples / numPartitions];
+            // Pivots must be strictly increasing, so that every job id lands in exactly one range
+            if (n == 0 || pivot > pivots[n - 1]) pivots[n++] = pivot;
+        }
+        return Arrays.copyOf(pivots, n);
+    }
+
+    /**
+     * Returns the index of the range containing the given job id. Range p holds ids below pivots[p].
+     */
+    private static int partitionFor(int[] pivots, int jobId) {
+        int lo = 0;
+        int hi = pivots.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (jobId < pivots[mid]) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index of the first job with an id not less than the given id.
+     */
+    private static int lowerBound(SortedJobs jobs, int jobId) {
+        int lo = 0;
+        int hi = jobs.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (jobs.get(mid).getJobId() < jobId) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Remove adjacent duplicate keys from a sorted range, in place. Returns the new length of the range.
+     */
+    private static int dedup(SnapshotJob[] jobs, int start, int end) {
+        if (end <= start) return 0;
+        int out = start + 1;
+        for (int i = start + 1; i < end; i++) {
+            if (compareKeys(jobs[out - 1], jobs[i]) != 0) {
+                jobs[out++] = jobs[i];
+            }
+        }
+        return out - start;
+    }
+
+    static int compareKeys(SnapshotJob o1, SnapshotJob o2) {
+        if (o1.getJobId() != o2.getJobId()) {
+            return o1.getJobId() < o2.getJobId() ? -1 : 1;
+        }
+        String t1 = o1.getTasks();
+        String t2 = o2.getTasks();
+        if (t1 == t2) return 0;
+        if (t1 == null) return -1;
+        if (t2 == null) return 1;
+        return t1.compareTo(t2);
+    }
+
+    /**
+     * Returns true if applying the new job to the old one with GridJob.update would change something.
+     */
+    private static boolean isUpdated(SnapshotJob prevJob, SnapshotJob ssJob) {
+        if (ssJob.getName() != null && !ssJob.getName().equals(prevJob.getName())) return true;
+        if (ssJob.getState() != null && !ssJob.getState().equals(prevJob.getState())) return true;
+        if (ssJob.getOwner() != null && !ssJob.getOwner().equals(prevJob.getOwner())) return true;
+        if (ssJob.isExclusive() != prevJob.isExclusive()) return true;
+        if (ssJob.getSlots() > 0 && ssJob.getSlots() != prevJob.getSlots()) return true;
+        if (ssJob.getTaskRange() != null && ssJob.getTaskCount() != prevJob.getTaskCount()) return true;
+        if (ssJob.getSubTime() != null && !ssJob.getSubTime().equals(prevJob.getSubTime())) return true;
+        if (ssJob.getStartTime() != null && !ssJob.getStartTime().equals(prevJob.getStartTime())) return true;
+        return false;
+    }
+}
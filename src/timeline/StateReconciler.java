@@ -0,0 +1,157 @@
+package timeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import snapshot.JobRecord;
+import snapshot.Snapshot;
+import snapshot.SnapshotJob;
+import snapshot.SnapshotNode;
+import snapshot.StringDictionary;
+import timeline.GridEvent.EventType;
+
+/**
+ * Verifies a grid state against a snapshot of the grid at the same time, and repairs any drift. Events are never
+ * perfect: jobs can be missed or misplaced between snapshots, and a state built only from events drifts away from the
+ * grid over time.
+ *
+ * Every grid node keeps a hash of the set of jobs running on it, so verifying a node only takes hashing the ids of
+ * the jobs on the node in the snapshot and comparing one number. Only the nodes whose hashes differ are repaired, by
+ * generating and applying corrective events which end the jobs that should not be there and start the ones that
+ * should. The same events are given to the playback side, whose states have drifted in the same way.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class StateReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(StateReconciler.class);
+
+    private final StringDictionary dictionary;
+    private int numMismatchedNodes;
+    private int numUnrepairedNodes;
+
+    /**
+     * @param dictionary the dictionary for the strings of the corrective events
+     */
+    public StateReconciler(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Compare the given state with the snapshot, and repair the nodes which differ. Returns the corrective events,
+     * which have already been applied to the state.
+     *
+     * @param state the state after all the events leading up to the snapshot have been applied to it
+     * @param snapshot the snapshot
+     * @param offset the offset of the snapshot, at which to place the corrective events
+     */
+    public List<GridEvent> reconcile(GridState state, Snapshot snapshot, long offset) {
+
+        this.numMismatchedNodes = 0;
+        this.numUnrepairedNodes = 0;
+
+        List<SnapshotNode> mismatched = new ArrayList<SnapshotNode>();
+        for (SnapshotNode ssNode : snapshot.getNodes()) {
+            GridNode node = state.getNodeByShortName(ssNode.getShortName());
+            if (node == null) continue;
+            if (node.getOccupancyHash() != getOccupancyHash(ssNode)) {
+                mismatched.add(ssNode);
+            }
+        }
+
+        this.numMismatchedNodes = mismatched.size();
+        if (mismatched.isEmpty()) {
+            return new ArrayList<GridEvent>();
+        }
+
+        List<GridEvent> corrections = new ArrayList<GridEvent>();
+
+        // End the extra jobs first, so that the missing ones have room to start
+        List<Map<String, SnapshotJob>> expected = new ArrayList<Map<String, SnapshotJob>>();
+        for (SnapshotNode ssNode : mismatched) {
+            GridNode node = state.getNodeByShortName(ssNode.getShortName());
+            Map<String, SnapshotJob> jobs = new HashMap<String, SnapshotJob>();
+            for (SnapshotJob ssJob : ssNode.getJobs()) {
+                jobs.put(ssJob.getFullJobId(), ssJob);
+            }
+            expected.add(jobs);
+
+            for (String fullJobId : new ArrayList<String>(node.getJobIds())) {
+                if (!jobs.containsKey(fullJobId)) {
+                    log.debug("Node {} should not be running {}", node.getShortName(), fullJobId);
+                    apply(state, new GridEvent(EventType.END, offset, fullJobId, true), corrections);
+                }
+            }
+        }
+
+        for (int i = 0; i < mismatched.size(); i++) {
+            SnapshotNode ssNode = mismatched.get(i);
+            GridNode node = state.getNodeByShortName(ssNode.getShortName());
+            for (SnapshotJob ssJob : expected.get(i).values()) {
+                String fullJobId = ssJob.getFullJobId();
+                if (node.isRunning(fullJobId)) continue;
+                log.debug("Node {} should be running {}", node.getShortName(), fullJobId);
+
+                GridJob stateJob = state.getJobByFullId(fullJobId);
+                if (stateJob != null && stateJob.getNode() != null) {
+                    // Running on the wrong node
+                    apply(state, new GridEvent(EventType.END, offset, fullJobId, true), corrections);
+                    stateJob = null;
+                }
+                JobRecord record = JobRecord.of(ssJob, dictionary);
+                if (stateJob == null) {
+                    apply(state, new GridEvent(EventType.SUB, offset, record, true), corrections);
+                }
+                apply(state, new GridEvent(EventType.START, offset, record, true), corrections);
+            }
+
+            if (node.getOccupancyHash() != getOccupancyHash(ssNode)) {
+                log.warn("Could not repair node {}: {}", node.getShortName(), node);
+                numUnrepairedNodes++;
+            }
+        }
+
+        log.info("Repaired {} nodes which differed from the snapshot with {} corrective events", mismatched.size()
+                - numUnrepairedNodes, corrections.size());
+        return corrections;
+    }
+
+    private void apply(GridState state, GridEvent event, List<GridEvent> corrections) {
+        if (state.applyEvent(event)) {
+            corrections.add(event);
+        }
+        else {
+            log.error("Could not apply corrective event: {}", event);
+        }
+    }
+
+    /**
+     * Returns the hash of the set of jobs on the given snapshot node, as it would be computed by a GridNode.
+     */
+    private static long getOccupancyHash(SnapshotNode ssNode) {
+        long hash = 0;
+        for (SnapshotJob ssJob : ssNode.getJobs()) {
+            hash += GridNode.jobHash(ssJob.getFullJobId());
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the number of nodes which differed from the snapshot in the last reconciliation.
+     */
+    public int getNumMismatchedNodes() {
+        return numMismatchedNodes;
+    }
+
+    /**
+     * Returns the number of nodes which still differed from the snapshot after the last reconciliation.
+     */
+    public int getNumUnrepairedNodes() {
+        return numUnrepairedNodes;
+    }
+}
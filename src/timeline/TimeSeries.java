@@ -0,0 +1,264 @@
+package timeline;
+
+import timeline.SeriesPyramid.Resample;
+import util.ConfigProperties;
+
+/**
+ * A step-function time series stored as parallel primitive columns of offsets and values. Points are appended in
+ * offset order, and old points are trimmed off the front without shifting the arrays (the live region is compacted
+ * lazily when the arrays need to grow). The running minimum and maximum of the retained points are maintained with
+ * monotonic index queues, so reading them is O(1).
+ *
+ * The last point is "open": another value appended at the same offset overwrites it. It is only committed to the
+ * min/max queues, and to the downsampling pyramid used for drawing, once a later offset arrives.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class TimeSeries {
+
+    public static final long GRAPH_RESOLUTION_MS = ConfigProperties.getLong("derecho.viz.graph.resolution.ms", 1000L);
+    public static final int GRAPH_LEVELS = ConfigProperties.getInteger("derecho.viz.graph.levels", 20);
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final String name;
+
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+
+    // The live region is [head, tail)
+    private int head = 0;
+    private int tail = 0;
+
+    // Indexes of committed points (all but the last) in decreasing/increasing value order
+    private final IndexQueue maxQueue = new IndexQueue();
+    private final IndexQueue minQueue = new IndexQueue();
+
+    private final SeriesPyramid pyramid = new SeriesPyramid(GRAPH_RESOLUTION_MS, GRAPH_LEVELS);
+
+    public TimeSeries(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record the value in effect starting at the given offset. Values which do not change the series are ignored.
+     * Offsets before the last point are clamped to the last point, since the series can only grow forward.
+     */
+    public synchronized void put(long offset, int value) {
+
+        if (tail > head) {
+            int last = tail - 1;
+            if (values[last] == value) return;
+            if (offset <= offsets[last]) {
+                values[last] = value;
+                return;
+            }
+            commit(last, offset);
+        }
+
+        if (tail == offsets.length) {
+            ensureCapacity();
+        }
+
+        offsets[tail] = offset;
+        values[tail] = value;
+        tail++;
+    }
+
+    /**
+     * Discard points before the given offset. The value in effect at that offset is kept, and moved up to it, so that
+     * the series still starts with the correct value.
+     */
+    public synchronized void trim(long firstOffset) {
+        while (tail - head > 1 && offsets[head + 1] <= firstOffset) {
+            head++;
+        }
+        if (tail > head && offsets[head] < firstOffset) {
+            offsets[head] = firstOffset;
+        }
+        maxQueue.trim(head);
+        minQueue.trim(head);
+        pyramid.trim(firstOffset);
+    }
+
+    public synchronized void clear() {
+        head = tail = 0;
+        maxQueue.clear();
+        minQueue.clear();
+        pyramid.clear();
+    }
+
+    /**
+     * Summarize the range [start, end) of the series into the given number of columns, with the min, max and
+     * time-weighted average value of each column. The last value is considered to extend to the end of the range.
+     * This reads precomputed buckets, so the cost depends on the number of columns and not on the number of points.
+     */
+    public synchronized void resample(long start, long end, int columns, Resample out) {
+        if (tail == head) {
+            pyramid.resample(start, end, columns, end, null, out);
+        }
+        else {
+            pyramid.resample(start, end, columns, offsets[tail - 1], values[tail - 1], out);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int size() {
+        return tail - head;
+    }
+
+    public synchronized boolean isEmpty() {
+        return tail == head;
+    }
+
+    public synchronized long getOffset(int i) {
+        return offsets[head + i];
+    }
+
+    public synchronized int getValue(int i) {
+        return values[head + i];
+    }
+
+    public synchronized long getFirstOffset() {
+        return offsets[head];
+    }
+
+    public synchronized long getLastOffset() {
+        return offsets[tail - 1];
+    }
+
+    public synchronized int getLastValue() {
+        return values[tail - 1];
+    }
+
+    /**
+     * Returns the largest value in the series, or 0 if it is empty.
+     */
+    public synchronized int getMax() {
+        if (tail == head) return 0;
+        int max = values[tail - 1];
+        if (!maxQueue.isEmpty()) {
+            max = Math.max(max, values[maxQueue.peekFirst()]);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the smallest value in the series, or 0 if it is empty.
+     */
+    public synchronized int getMin() {
+        if (tail == head) return 0;
+        int min = values[tail - 1];
+        if (!minQueue.isEmpty()) {
+            min = Math.min(min, values[minQueue.peekFirst()]);
+        }
+        return min;
+    }
+
+    private void commit(int i, long nextOffset) {
+        int value = values[i];
+        pyramid.add(offsets[i], nextOffset, value);
+        while (!maxQueue.isEmpty() && values[maxQueue.peekLast()] <= value) {
+            maxQueue.pollLast();
+        }
+        maxQueue.addLast(i);
+        while (!minQueue.isEmpty() && values[minQueue.peekLast()] >= value) {
+            minQueue.pollLast();
+        }
+        minQueue.addLast(i);
+    }
+
+    private void ensureCapacity() {
+        int size = tail - head;
+        if (head > 0 && size <= offsets.length / 2) {
+            // Plenty of trimmed space at the front, so just slide the live region down
+            System.arraycopy(offsets, head, offsets, 0, size);
+            System.arraycopy(values, head, values, 0, size);
+        }
+        else {
+            long[] newOffsets = new long[offsets.length * 2];
+            int[] newValues = new int[values.length * 2];
+            System.arraycopy(offsets, head, newOffsets, 0, size);
+            System.arraycopy(values, head, newValues, 0, size);
+            offsets = newOffsets;
+            values = newValues;
+        }
+        maxQueue.shift(head);
+        minQueue.shift(head);
+        tail = size;
+        head = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TimeSeries[" + name + ", size=" + size() + ", min=" + getMin() + ", max=" + getMax() + "]";
+    }
+
+    /**
+     * A double-ended queue of primitive array indexes.
+     */
+    private static class IndexQueue {
+
+        private int[] buf = new int[INITIAL_CAPACITY];
+        private int first = 0;
+        private int end = 0;
+
+        boolean isEmpty() {
+            return first == end;
+        }
+
+        int peekFirst() {
+            return buf[first];
+        }
+
+        int peekLast() {
+            return buf[end - 1];
+        }
+
+        void pollLast() {
+            end--;
+        }
+
+        void addLast(int i) {
+            if (end == buf.length) {
+                int size = end - first;
+                if (first > 0 && size <= buf.length / 2) {
+                    System.arraycopy(buf, first, buf, 0, size);
+                }
+                else {
+                    int[] newBuf = new int[buf.length * 2];
+                    System.arraycopy(buf, first, newBuf, 0, size);
+                    buf = newBuf;
+                }
+                first = 0;
+                end = size;
+            }
+            buf[end++] = i;
+        }
+
+        /**
+         * Drop indexes which are before the start of the live region.
+         */
+        void trim(int head) {
+            while (first < end && buf[first] < head) {
+                first++;
+            }
+        }
+
+        /**
+         * Adjust the indexes after the live region was moved down by the given amount.
+         */
+        void shift(int delta) {
+            for (int i = first; i < end; i++) {
+                buf[i] -= delta;
+            }
+        }
+
+        void clear() {
+            first = end = 0;
+        }
+    }
+}
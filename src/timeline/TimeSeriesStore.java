@@ -0,0 +1,55 @@
+package timeline;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named collection of time series which share the same offset space, so that they can be trimmed together as the
+ * timeline moves forward. Series are created on demand, which makes it cheap to keep one per user, queue type, or
+ * grid subset.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class TimeSeriesStore {
+
+    private final ConcurrentHashMap<String, TimeSeries> seriesMap = new ConcurrentHashMap<String, TimeSeries>();
+
+    /**
+     * Returns the series with the given name, creating an empty one if necessary.
+     */
+    public TimeSeries getSeries(String name) {
+        TimeSeries series = seriesMap.get(name);
+        if (series == null) {
+            TimeSeries newSeries = new TimeSeries(name);
+            series = seriesMap.putIfAbsent(name, newSeries);
+            if (series == null) series = newSeries;
+        }
+        return series;
+    }
+
+    public void put(String name, long offset, int value) {
+        getSeries(name).put(offset, value);
+    }
+
+    public void trim(long firstOffset) {
+        for (TimeSeries series : seriesMap.values()) {
+            series.trim(firstOffset);
+        }
+    }
+
+    public void clear() {
+        for (TimeSeries series : seriesMap.values()) {
+            series.clear();
+        }
+    }
+
+    public Collection<TimeSeries> getAllSeries() {
+        return seriesMap.values();
+    }
+
+    public List<String> getNames() {
+        return new ArrayList<String>(seriesMap.keySet());
+    }
+}
@@ -3,23 +3,30 @@ package timeline;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingDeque;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import snapshot.AccountingFileReader;
+import snapshot.CompactSnapshot;
+import snapshot.JobCompletion;
+import snapshot.JobRecord;
 import snapshot.Snapshot;
 import snapshot.SnapshotJob;
 import snapshot.SnapshotNode;
+import snapshot.StringDictionary;
 import timeline.GridEvent.EventType;
+import util.BufferAllocator;
 import util.ConfigProperties;
 import util.LRUCache;
 
@@ -30,6 +37,14 @@ import com.google.common.collect.ImmutableSortedMap;
  * A moving window timeline of events on a grid. Holds some maximum number of snapshots and discards old events as it 
  * gets new ones, so as to not run out of memory. 
  * 
+ * Snapshots are absorbed by a single loading thread. After each one, the bounds of the timeline are published as an 
+ * immutable TimelineEpoch, so the drawing threads can read them at any time without waiting for the loader.
+ * 
+ * Only the last two snapshots are kept whole, since they are needed for diffing. The snapshots retained for the 
+ * window are kept in compact form, with their strings shared through a single dictionary. With off-heap storage 
+ * (derecho.data.storage), the compact snapshots and the events of each absorbed snapshot are kept in buffers outside 
+ * of the heap, so that the garbage collector does not have to trace the whole history.
+ * 
  * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
  */
 public class Timeline {
@@ -40,37 +55,105 @@ public class Timeline {
     public static final long MIN_SNAPSHOT_RESOLUTION_MS = ConfigProperties.getInteger("derecho.data.min.snapshot.secs", 360) * 1000;
     public static final long SNAPSHOT_DELTA_MS = ConfigProperties.getInteger("derecho.data.snapshot.delta.secs", 60) * 1000;
     public static final long LIVE_LAG_MS = ConfigProperties.getInteger("derecho.data.live.delay.secs", 130) * 1000;
+    public static final boolean RECONCILE = ConfigProperties.getBoolean("derecho.data.reconcile", true);
+    public static final boolean INDEX_JOBS = ConfigProperties.getBoolean("derecho.data.index", true);
+    public static final long INDEX_BUCKET_MS = ConfigProperties.getInteger("derecho.data.index.bucket.secs", 600) * 1000;
+    public static final long UTILIZATION_BUCKET_MS = ConfigProperties.getInteger("derecho.data.utilization.bucket.secs", 300) * 1000;
+    public static final int FEED_CAPACITY = ConfigProperties.getInteger("derecho.data.feed.capacity", 65536);
+    public static final long BURST_LAG_MS = ConfigProperties.getInteger("derecho.data.accounting.burst.lag.secs", 900) * 1000;
+
+    private static final SortedMap<Long, List<Event>> EMPTY_EVENTS = ImmutableSortedMap.of();
 
     // Loaded timeline
     private Snapshot penultimateSnapshot;
     private Snapshot ultimateSnapshot;
     private long penultimateOffset;
     private long ultimateOffset;
-    private LinkedBlockingDeque<Snapshot> snapshots = new LinkedBlockingDeque<Snapshot>();
+    private LinkedBlockingDeque<CompactSnapshot> snapshots = new LinkedBlockingDeque<CompactSnapshot>();
+    private final StringDictionary dictionary = new StringDictionary();
+    private final BufferAllocator allocator = BufferAllocator.getDefault();
     private ConcurrentSkipListMap<Long, List<Event>> eventMap = new ConcurrentSkipListMap<Long, List<Event>>();
-    private Date firstSnapshotDate;
+    private volatile Date firstSnapshotDate;
+
+    // The published state, which is all that readers see
+    private final Object ingestLock = new Object();
+    private volatile TimelineEpoch epoch = TimelineEpoch.EMPTY;
+    private long sequence = 0;
 
-    // Offsets mapped to various time series
-    private Map<Long, Integer> numRunningJobsMap = new ConcurrentSkipListMap<Long, Integer>();
-    private Map<Long, Integer> numQueuedJobsMap = new ConcurrentSkipListMap<Long, Integer>();
+    // Time series derived from the loaded events
+    public static final String SERIES_RUNNING_JOBS = "runningJobs";
+    public static final String SERIES_QUEUED_JOBS = "queuedJobs";
+    private TimeSeriesStore timeSeries = new TimeSeriesStore();
+    private TimeSeries numRunningJobsSeries = timeSeries.getSeries(SERIES_RUNNING_JOBS);
+    private TimeSeries numQueuedJobsSeries = timeSeries.getSeries(SERIES_QUEUED_JOBS);
 
     // State machine for loading
     private GridState loadState;
     private ConcurrentSkipListMap<Long, List<Event>> snapshotEventMap = new ConcurrentSkipListMap<Long, List<Event>>();
     private LRUCache<String, Long> eventCache = new LRUCache<String, Long>(100000);
-    private Integer numRunningJobs = null;
-    private Integer numQueuedJobs = null;
+    private SnapshotDiff.SortedJobs previousJobs;
+    private AccountingFileReader accounting = AccountingFileReader.getInstance();
+    private long completionCursor;
+    private final List<JobCompletion> pendingCompletions = new ArrayList<JobCompletion>();
+    private final TreeSet<Long> samplingTimes = new TreeSet<Long>();
+    private StateReconciler reconciler = new StateReconciler(dictionary);
+    private final JobIndex jobIndex = INDEX_JOBS ? new JobIndex(INDEX_BUCKET_MS) : null;
+    private volatile SlotUtilization utilization;
+    private List<TimelineListener> listeners = new CopyOnWriteArrayList<TimelineListener>();
+    private final EventFeed feed = new EventFeed(FEED_CAPACITY);
+    private final int maxNumSnapshots;
+
+    public Timeline() {
+        this(MAX_NUM_SNAPSHOTS);
+    }
 
-    public synchronized void addSnapshot(Snapshot snapshot) {
+    /**
+     * @param maxNumSnapshots the number of snapshots to keep, along with their events. Callers which only consume 
+     * events through a listener can keep as few as two.
+     */
+    public Timeline(int maxNumSnapshots) {
+        this.maxNumSnapshots = Math.max(2, maxNumSnapshots);
+    }
 
-        if (snapshots.size() >= MAX_NUM_SNAPSHOTS) {
-            log.info("Removing first snapshot to keep total at " + MAX_NUM_SNAPSHOTS);
+    public void addListener(TimelineListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TimelineListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Absorb the next snapshot and publish the new state of the timeline. Only one snapshot is absorbed at a time, 
+     * but readers are never blocked; they continue to see the previous epoch until the new one is published. The 
+     * events generated by the snapshot are then published to the event feed, and given to any listeners.
+     */
+    public void addSnapshot(Snapshot snapshot) {
+        synchronized (ingestLock) {
+            absorbSnapshot(snapshot);
+            publish();
+            feed.publish(snapshotEventMap);
+            if (!listeners.isEmpty()) {
+                SortedMap<Long, List<Event>> events = Collections.unmodifiableSortedMap(snapshotEventMap);
+                long offset = getOffset(snapshot.getSamplingTime());
+                for (TimelineListener listener : listeners) {
+                    listener.snapshotAdded(snapshot, offset, events);
+                }
+            }
+        }
+    }
+
+    private void absorbSnapshot(Snapshot snapshot) {
+
+        if (snapshots.size() >= maxNumSnapshots) {
+            log.info("Removing first snapshot to keep total at " + maxNumSnapshots);
             snapshots.pop();
-            Snapshot newFirst = snapshots.peek();
+            CompactSnapshot newFirst = snapshots.peek();
             long snapshotOffset = getOffset(newFirst.getSamplingTime());
             trimIterator(eventMap.keySet().iterator(), snapshotOffset);
-            trimIterator(numRunningJobsMap.keySet().iterator(), snapshotOffset);
-            trimIterator(numQueuedJobsMap.keySet().iterator(), snapshotOffset);
+            timeSeries.trim(snapshotOffset);
+            if (jobIndex != null) jobIndex.trim(snapshotOffset);
+            utilization.trim(snapshotOffset);
         }
 
         this.snapshotEventMap.clear();
@@ -78,15 +161,22 @@ public class Timeline {
         this.ultimateSnapshot = snapshot;
 
         if (firstSnapshotDate == null) {
-            synchronized (this) {
-                this.firstSnapshotDate = snapshot.getSamplingTime();
-                long snapshotOffset = getOffset(snapshot.getSamplingTime());
-                this.loadState = new GridState(snapshot, "loadState");
-                snapshots.add(snapshot);
-                setNumRunningJobs(0, loadState.getNumRunningJobs());
-                setNumQueuedJobs(0, loadState.getNumQueuedJobs());
-                log.info("using snapshot {} as the basis", snapshotOffset);
+            this.firstSnapshotDate = snapshot.getSamplingTime();
+            long snapshotOffset = getOffset(snapshot.getSamplingTime());
+            this.loadState = new GridState(snapshot, "loadState");
+            this.previousJobs = SnapshotDiff.sort(snapshot);
+            snapshots.add(CompactSnapshot.of(snapshot, dictionary, allocator));
+            setNumRunningJobs(0, loadState.getNumRunningJobs());
+            setNumQueuedJobs(0, loadState.getNumQueuedJobs());
+            if (jobIndex != null) indexBasis(snapshot);
+            this.utilization = new SlotUtilization(loadState, UTILIZATION_BUCKET_MS, snapshotOffset);
+            if (accounting != null) {
+                // Completions from before the basis can't be told apart from the jobs it shows
+                accounting.update();
+                this.completionCursor = accounting.getCompletionCursor();
+                samplingTimes.add(snapshot.getSamplingTime().getTime());
             }
+            log.info("using snapshot {} as the basis", snapshotOffset);
             return;
         }
 
@@ -96,169 +186,225 @@ public class Timeline {
 
         long prevKeptSnapshotOffset = getOffset(snapshots.peekLast().getSamplingTime());
         if (ultimateOffset - prevKeptSnapshotOffset > MIN_SNAPSHOT_RESOLUTION_MS) {
-            snapshots.add(snapshot);
+            snapshots.add(CompactSnapshot.of(snapshot, dictionary, allocator));
         }
 
         log.debug("---------------------------------------------------------------------");
         log.info("Adding snapshot with offset={}", ultimateOffset);
         addEvent(new SnapshotEvent(ultimateOffset));
 
-        Map<Integer, Date> parallelJobStarts = snapshot.getParallelJobStarts();
+        long diffStart = System.nanoTime();
 
-        // Compute a set of relevant job ids in this snapshot
-        Set<String> ssJobIds = new HashSet<String>();
-        for (SnapshotNode node : snapshot.getNodes()) {
-            for (SnapshotJob ssJob : node.getJobs()) {
-                ssJobIds.add(ssJob.getFullJobId());
-            }
+        // Compare with the previous snapshot to find out what changed
+        SnapshotDiff diff = new SnapshotDiff(firstSnapshotDate.getTime(), penultimateOffset, ultimateOffset,
+                snapshot.getParallelJobStarts());
+        if (accounting != null) {
+            accounting.update();
+            diff.setAccounting(accounting);
         }
-        for (SnapshotJob ssJob : snapshot.getQueuedJobs()) {
-            ssJobIds.add(ssJob.getFullJobId());
-        }
-
-        // Check all known jobs, and generate delete events for the ones that are no longer relevant.
-        for (GridJob stateJob : loadState.getJobMap().values()) {
-            if (!ssJobIds.contains(stateJob.getFullJobId())) {
-                // Assume the job ended right after the last snapshot
-                long endOffset = penultimateOffset + 1;
-                // Parallel queued jobs end when the parallel jobs start. Note the intentional use of jobId instead of
-                // fullJobId since this is a parallel job.
-                if (parallelJobStarts.containsKey(stateJob.getJobId())) {
-                    long startOffset = getOffset(parallelJobStarts.get(stateJob.getJobId()));
-                    if (startOffset > endOffset) {
-                        // Don't move end events into the past, because they won't be processed
-                        endOffset = startOffset;
-                    }
-                    else {
-                        log.warn("MPI queued job started in the past and we missed it: {}", stateJob);
-                    }
+        SnapshotDiff.Result result = diff.diff(previousJobs, snapshot);
+        this.previousJobs = result.getJobs();
+
+        long diffElapsed = System.nanoTime() - diffStart;
+
+        log.trace("Generating events for changed jobs...");
+
+        for (SnapshotDiff.Change change : result.getChanges()) {
+            SnapshotJob ssJob = change.getJob();
+            String known = change.isKnown() ? " (known) " : " (new) ";
+            switch (change.getType()) {
+            case END:
+                if (addEvent(new GridEvent(EventType.END, change.getOffset(), ssJob.getFullJobId()))) {
+                    log.debug("    " + ssJob + known + "ended at " + change.getOffset());
                 }
-                boolean e1 = addEvent(new GridEvent(EventType.END, endOffset, stateJob.getFullJobId()));
-                if (e1) {
-                    log.debug("    " + stateJob + " (known) ended at " + endOffset);
+                break;
+            case SUB:
+                if (addEvent(new GridEvent(EventType.SUB, change.getOffset(), JobRecord.of(ssJob, dictionary)))) {
+                    log.debug("    " + ssJob + known + "subbed at " + change.getOffset());
                 }
-            }
-        }
-
-        log.trace("Generating start events for running jobs...");
-
-        for (SnapshotNode node : snapshot.getNodes()) {
-            for (SnapshotJob ssJob : node.getJobs()) {
-
-                GridJob stateJob = loadState.getJobByFullId(ssJob.getFullJobId());
-                if (stateJob == null) {
-                    // We're seeing this job for the first time
-                    if (ssJob.getStartTime() != null) {
-                        long startOffset = getOffset(ssJob.getStartTime());
-                        // It's already been started, so that means we missed the queuing
-                        long queueOffset = startOffset;
-                        if (startOffset < penultimateOffset + 1) startOffset = penultimateOffset + 1;
-                        if (queueOffset < penultimateOffset + 1) queueOffset = penultimateOffset + 1;
-                        if (startOffset > ultimateOffset) startOffset = ultimateOffset;
-                        if (queueOffset > ultimateOffset) queueOffset = ultimateOffset;
-
-                        boolean e1 = addEvent(new GridEvent(EventType.SUB, queueOffset, ssJob));
-                        boolean e2 = addEvent(new GridEvent(EventType.START, startOffset, ssJob));
-                        if (e1) {
-                            log.debug("    " + ssJob + " (new) subbed at " + queueOffset);
-                        }
-                        if (e2) {
-                            log.debug("    " + ssJob + " (new) started at " + startOffset);
-                        }
-                    }
-                    else {
-                        log.error("Job running on a node does not have a start time: " + ssJob);
-                    }
+                break;
+            case START:
+                if (addEvent(new GridEvent(EventType.START, change.getOffset(), JobRecord.of(ssJob, dictionary)))) {
+                    log.debug("    " + ssJob + known + "started at " + change.getOffset());
                 }
-                else {
-                    // We already know about this job
-                    if (stateJob.getStartTime() == null && ssJob.getStartTime() != null) {
-                        // Job just started
-                        long startOffset = getOffset(ssJob.getStartTime());
-                        if (startOffset < penultimateOffset + 1) startOffset = penultimateOffset + 1;
-                        if (startOffset > ultimateOffset) startOffset = ultimateOffset;
-                        boolean e1 = addEvent(new GridEvent(EventType.START, startOffset, ssJob));
-                        if (e1) {
-                            log.debug("    " + ssJob + " (known) started at " + startOffset);
-                        }
-                    }
+                break;
+            case UPDATE:
+                if (addEvent(new GridEvent(EventType.UPDATE, change.getOffset(), JobRecord.of(ssJob, dictionary)))) {
+                    log.debug("    " + ssJob + known + "updated at " + change.getOffset());
                 }
+                break;
             }
         }
 
-        log.trace("Generating sub events for queued jobs...");
+        // Jobs which came and went between the snapshots are only shown as bursts of activity on their nodes
+        if (accounting != null) {
+            addBursts(snapshot);
+        }
 
-        for (SnapshotJob ssJob : snapshot.getQueuedJobs()) {
+        log.trace("Will apply events to state..");
 
-            GridJob stateJob = loadState.getJobByFullId(ssJob.getFullJobId());
-            if (stateJob != null) {
-                // TODO: this should happen as an event
-                if (stateJob.update(ssJob)) {
-                    log.debug("Job's internal state was updated: {}", ssJob.getFullJobId());
+        // Apply the events to the state
+        int errorsDetected = 0;
+        log.debug("Applying {} events", snapshotEventMap.size());
+        for (Long offset : snapshotEventMap.keySet()) {
+            for (Event event : snapshotEventMap.get(offset)) {
+                if (event instanceof GridEvent) {
+                    GridEvent gridEvent = (GridEvent) event;
+                    log.trace("Apply event: {}", gridEvent);
+                    if (!applyEvent(gridEvent)) {
+                        errorsDetected++;
+                        log.error("Error applying event: {}", gridEvent);
+                    }
+                    setNumRunningJobs(event.getOffset(), loadState.getNumRunningJobs());
+                    setNumQueuedJobs(event.getOffset(), loadState.getNumQueuedJobs());
                 }
+
             }
-            else {
-                // New job we've never seen before.
-                stateJob = new GridJob(ssJob);
-                long subOffset = getOffset(stateJob.getSubTime() == null ? stateJob.getStartTime() : stateJob.getSubTime());
-                // Submission was before this snapshot's range, so move it into range.
-                if (subOffset < penultimateOffset + 1) subOffset = penultimateOffset + 1;
-                if (subOffset > ultimateOffset) subOffset = ultimateOffset;
-                boolean e1 = addEvent(new GridEvent(EventType.SUB, subOffset, ssJob));
-                if (e1) {
-                    log.debug("    " + ssJob + " (new) subbed at " + subOffset);
+        }
+
+        if (errorsDetected > 0) {
+            log.error("{} errors occured during event processing", errorsDetected);
+        }
+
+        // Verify the state against the snapshot, and correct any drift on both sides
+        if (RECONCILE) {
+            List<GridEvent> corrections = reconciler.reconcile(loadState, snapshot, ultimateOffset);
+            if (!corrections.isEmpty()) {
+                for (GridEvent correction : corrections) {
+                    addEvent(correction);
+                    if (jobIndex != null) jobIndex.apply(correction);
                 }
+                setNumRunningJobs(ultimateOffset, loadState.getNumRunningJobs());
+                setNumQueuedJobs(ultimateOffset, loadState.getNumQueuedJobs());
+                utilization.sync(loadState, ultimateOffset);
             }
         }
 
-        log.trace("Will apply events to state..");
+        if (allocator.isOffHeap()) {
+            sealEvents();
+        }
 
-        // Apply the events to the state
-        synchronized (this) {
-
-            int errorsDetected = 0;
-            log.debug("Applying {} events", snapshotEventMap.size());
-            for (Long offset : snapshotEventMap.keySet()) {
-                for (Event event : snapshotEventMap.get(offset)) {
-                    if (event instanceof GridEvent) {
-                        GridEvent gridEvent = (GridEvent) event;
-                        log.trace("Apply event: {}", gridEvent);
-                        if (!loadState.applyEvent(gridEvent)) {
-                            errorsDetected++;
-                            log.error("Error applying event: {}", gridEvent);
-                        }
-                        setNumRunningJobs(event.getOffset(), loadState.getNumRunningJobs());
-                        setNumQueuedJobs(event.getOffset(), loadState.getNumQueuedJobs());
-                    }
+        long applyElapsed = System.nanoTime() - diffStart - diffElapsed;
+        log.info("Processed snapshot at {} with {} jobs: {} changes, diff took {} ms, apply took {} ms", new Object[] {
+                ultimateOffset, previousJobs.size(), result.getChanges().size(), diffElapsed / 1000000,
+                applyElapsed / 1000000 });
 
-                }
+        if (log.isTraceEnabled()) printEventMap();
+    }
+
+    /**
+     * Add a burst for each node which ran jobs that were never seen by a snapshot, because they started after one 
+     * snapshot and ended before the next. The accounting file is read through a cursor rather than by time, since 
+     * records are often written a while after the job ended; a job which is accounted for late still counts if no 
+     * snapshot in the last derecho.data.accounting.burst.lag.secs saw it, and its burst is shown with the current 
+     * snapshot. Jobs which ended after the current snapshot wait for the next one.
+     */
+    private void addBursts(Snapshot snapshot) {
+
+        long samplingTime = snapshot.getSamplingTime().getTime();
+        samplingTimes.add(samplingTime);
+        while (samplingTimes.size() > 2 && samplingTimes.higher(samplingTimes.first()) < samplingTime - BURST_LAG_MS) {
+            samplingTimes.pollFirst();
+        }
+
+        List<JobCompletion> completions = new ArrayList<JobCompletion>(pendingCompletions);
+        pendingCompletions.clear();
+        this.completionCursor = accounting.getCompletionsSince(completionCursor, completions);
+
+        List<JobCompletion> transients = new ArrayList<JobCompletion>();
+        int numLate = 0;
+        for (JobCompletion completion : completions) {
+            if (completion.getEndTime() > samplingTime) {
+                pendingCompletions.add(completion);
+                continue;
             }
+            // The snapshots before and after the job started
+            Long before = samplingTimes.lower(completion.getStartTime());
+            Long after = samplingTimes.ceiling(completion.getStartTime());
+            if (before == null || after == null || completion.getEndTime() > after) continue;
+            if (after < samplingTime) numLate++;
+            transients.add(completion);
+        }
 
-            if (errorsDetected > 0) {
-                log.error("{} errors occured during event processing", errorsDetected);
+        if (!transients.isEmpty()) {
+            EventCompactor compactor = new EventCompactor(firstSnapshotDate.getTime(), penultimateOffset,
+                    ultimateOffset);
+            List<BurstEvent> bursts = compactor.compact(transients);
+            for (BurstEvent burst : bursts) {
+                addEvent(burst);
+            }
+            log.debug("Compacted {} short-lived jobs ({} accounted for late) into {} bursts", new Object[] {
+                    transients.size(), numLate, bursts.size() });
+        }
+    }
 
-                // printEventMap();
+    /**
+     * Apply the given event to the loading state, and keep the job index and the slot utilization up to date with it.
+     */
+    private boolean applyEvent(GridEvent event) {
+
+        String fullJobId = event.getJobId();
+        GridNode endNode = null;
+        int[] endSlots = null;
+        if (event.getType() == EventType.END) {
+            GridJob job = loadState.getJobByFullId(fullJobId);
+            if (job != null && job.getNode() != null) {
+                endNode = job.getNode();
+                endSlots = endNode.getSlotIndexes(fullJobId);
+            }
+        }
 
-                GridState snapshotState = new GridState(snapshot, "Snapshot");
+        boolean applied = loadState.applyEvent(event);
+        if (jobIndex != null) jobIndex.apply(event);
 
-                // loadState.printGridState();
-                // snapshotState.printGridState();
+        if (applied) {
+            if (endNode != null) {
+                utilization.end(endNode.getShortName(), endSlots, event.getOffset());
+            }
+            else if (event.getType() == EventType.START) {
+                GridNode node = loadState.getJobByFullId(fullJobId).getNode();
+                utilization.start(node.getShortName(), node.getSlotIndexes(fullJobId), event.getOffset());
+            }
+        }
+        return applied;
+    }
 
-                loadState.printDifferences(snapshotState);
+    /**
+     * Add the jobs of the basis snapshot to the job index, with their actual submission and start times.
+     */
+    private void indexBasis(Snapshot snapshot) {
+        for (SnapshotNode ssNode : snapshot.getNodes()) {
+            for (SnapshotJob ssJob : ssNode.getJobs()) {
+                long subOffset = ssJob.getSubTime() == null ? 0 : getOffset(ssJob.getSubTime());
+                long startOffset = ssJob.getStartTime() == null ? 0 : getOffset(ssJob.getStartTime());
+                jobIndex.add(ssJob, Math.min(subOffset, startOffset), ssNode.getShortName(), startOffset);
             }
         }
+        for (SnapshotJob ssJob : snapshot.getQueuedJobs()) {
+            long subOffset = ssJob.getSubTime() == null ? 0 : getOffset(ssJob.getSubTime());
+            jobIndex.add(ssJob, subOffset, null, 0);
+        }
+    }
 
-        if (log.isTraceEnabled()) printEventMap();
-        //
-        // GridState snapshotState = new GridState(snapshot,"Snapshot");
-        //
-        // loadState.printGridState();
-        // snapshotState.printGridState();
-        //
-        // loadState.printDifferences(snapshotState);
+    /**
+     * Replace the buckets of events generated by the current snapshot with read-only views of a single segment. 
+     */
+    private void sealEvents() {
+        SortedMap<Long, List<Event>> buckets = new TreeMap<Long, List<Event>>();
+        for (Long offset : snapshotEventMap.keySet()) {
+            List<Event> events = eventMap.get(offset);
+            if (events != null) {
+                buckets.put(offset, events);
+            }
+        }
+        EventSegment segment = EventSegment.of(buckets, dictionary, allocator);
+        for (Long offset : buckets.keySet()) {
+            eventMap.put(offset, segment.getBucket(offset));
+        }
+        log.debug("Sealed {} offsets of events into {} bytes", buckets.size(), segment.getSize());
     }
 
-    private synchronized boolean addEvent(Event event) {
+    private boolean addEvent(Event event) {
 
         // Sanity checks
         if (event.getOffset() <= penultimateOffset) {
@@ -268,7 +414,8 @@ public class Timeline {
             log.warn("{} occurs after the current snapshot at {}", event, ultimateOffset);
         }
 
-        if (event instanceof GridEvent) {
+        // Corrective events may repeat events which were already generated, so they bypass the cache
+        if (event instanceof GridEvent && !((GridEvent) event).isCorrective()) {
             GridEvent gridEvent = (GridEvent) event;
             if (eventCache.containsKey(gridEvent.getCacheKey())) {
                 log.warn("Event was already cached: {}", gridEvent);
@@ -283,6 +430,11 @@ public class Timeline {
             eventMap.put(event.getOffset(), events);
             log.info("Adding offset bucket {}", event.getOffset());
         }
+        else if (events instanceof EventSegment.Bucket) {
+            // Sealed buckets are read-only, so bring this one back onto the heap to add to it
+            events = Collections.synchronizedList(new ArrayList<Event>(events));
+            eventMap.put(event.getOffset(), events);
+        }
         synchronized (events) {
             events.add(event);
         }
@@ -299,86 +451,164 @@ public class Timeline {
         return true;
     }
 
-    public synchronized int getNumOffsets() {
+    public int getNumOffsets() {
         return eventMap.size();
     }
 
-    public synchronized SortedSet<Long> getOffsets() {
+    public SortedSet<Long> getOffsets() {
         return eventMap.keySet();
     }
 
     private void setNumRunningJobs(long offset, int numRunningJobs) {
-        if (this.numRunningJobs == null || this.numRunningJobs != numRunningJobs) {
-            numRunningJobsMap.put(offset, numRunningJobs);
-        }
-        this.numRunningJobs = numRunningJobs;
+        numRunningJobsSeries.put(offset, numRunningJobs);
     }
 
     private void setNumQueuedJobs(long offset, int numQueuedJobs) {
-        if (this.numQueuedJobs == null || this.numQueuedJobs != numQueuedJobs) {
-            numQueuedJobsMap.put(offset, numQueuedJobs);
-        }
-        this.numQueuedJobs = numQueuedJobs;
+        numQueuedJobsSeries.put(offset, numQueuedJobs);
     }
 
-    public Map<Long, Integer> getNumRunningJobsMap() {
-        return numRunningJobsMap;
+    public TimeSeries getNumRunningJobsSeries() {
+        return numRunningJobsSeries;
     }
 
-    public Map<Long, Integer> getNumQueuedJobsMap() {
-        return numQueuedJobsMap;
+    public TimeSeries getNumQueuedJobsSeries() {
+        return numQueuedJobsSeries;
     }
 
-    public synchronized boolean isReady() {
-        return firstSnapshotDate != null;
+    public TimeSeriesStore getTimeSeries() {
+        return timeSeries;
     }
 
-    public synchronized long getOffset(Date date) {
+    /**
+     * Compute the bounds of the timeline as it is now, and make them visible to readers with a single write.
+     */
+    private void publish() {
+
+        sequence++;
+
+        long firstOffset = 0;
+        long length = 0;
+        long liveOffset = 0;
+        CompactSnapshot firstSnapshot = snapshots.peek();
+
+        if (firstSnapshot != null) {
+            firstOffset = getOffset(firstSnapshot.getSamplingTime());
+            if (ultimateSnapshot != null) {
+                long lastOffset = eventMap.isEmpty() ? 0 : eventMap.lastKey();
+                long length1 = lastOffset - firstOffset;
+                long length2 = (ultimateSnapshot.getSamplingTime().getTime() - firstSnapshot.getSamplingTime().getTime());
+                length = Math.max(length1, length2);
+            }
+        }
+
+        if (penultimateSnapshot != null && ultimateSnapshot != null) {
+            liveOffset = Math.max(0, ultimateOffset - LIVE_LAG_MS);
+        }
+
+        long eventHorizon = eventMap.isEmpty() ? ultimateOffset : Math.max(ultimateOffset, eventMap.lastKey());
+
+        this.epoch = new TimelineEpoch(sequence, firstSnapshotDate, firstOffset, length, liveOffset, eventHorizon,
+                ultimateSnapshot, ImmutableList.copyOf(snapshots));
+    }
+
+    /**
+     * Returns the latest published state of the timeline. Callers which need several values that are consistent with
+     * each other should read them all from the same epoch.
+     */
+    public TimelineEpoch getEpoch() {
+        return epoch;
+    }
+
+    public boolean isReady() {
+        return epoch.getBaselineDate() != null;
+    }
+
+    public long getOffset(Date date) {
         return (date.getTime() - firstSnapshotDate.getTime());
     }
 
     public Date getBaselineDate() {
-        return firstSnapshotDate;
+        return epoch.getBaselineDate();
     }
 
-    public synchronized long getLength() {
-        if (ultimateSnapshot == null) return 0;
-        Snapshot firstSnapshot = snapshots.peek();
-        if (firstSnapshot == null) return 0;
-        long lastOffset = eventMap.isEmpty() ? 0 : eventMap.lastKey();
-        long length1 = lastOffset - getOffset(firstSnapshot.getSamplingTime());
-        long length2 = (ultimateSnapshot.getSamplingTime().getTime() - firstSnapshot.getSamplingTime().getTime());
-        return Math.max(length1, length2);
+    public long getLength() {
+        return epoch.getLength();
     }
 
-    public synchronized long getFirstOffset() {
-        Snapshot firstSnapshot = snapshots.peek();
-        if (firstSnapshot == null) return 0;
-        return getOffset(firstSnapshot.getSamplingTime());
+    public long getFirstOffset() {
+        return epoch.getFirstOffset();
     }
 
-    public synchronized long getLiveOffset() {
-        if (penultimateSnapshot == null) return 0;
-        if (ultimateSnapshot == null) return 0;
-        long liveOffset = ultimateOffset - LIVE_LAG_MS;
-        if (liveOffset < 0) return 0;
-        return liveOffset;
+    public long getLiveOffset() {
+        return epoch.getLiveOffset();
     }
 
     public long getLastOffset() {
-        return getFirstOffset() + getLength();
+        return epoch.getLastOffset();
+    }
+
+    /**
+     * Returns the events in the range [startOffset, endOffset). Only events from fully absorbed snapshots are 
+     * returned. The returned map and its buckets never change. Buckets from the last absorbed snapshot onwards may
+     * still be added to by the next snapshot, so those are copied, and the rest are returned as they are. 
+     */
+    public SortedMap<Long, List<Event>> getEvents(Long startOffset, Long endOffset) {
+        TimelineEpoch epoch = this.epoch;
+        long horizon = epoch.getEventHorizon();
+        if (endOffset > horizon + 1) endOffset = horizon + 1;
+        if (endOffset <= startOffset) return EMPTY_EVENTS;
+
+        Snapshot lastSnapshot = epoch.getLastLoadedSnapshot();
+        long openFrom = lastSnapshot == null ? Long.MIN_VALUE : getOffset(lastSnapshot.getSamplingTime());
+        if (endOffset <= openFrom) {
+            return Collections.unmodifiableSortedMap(eventMap.subMap(startOffset, endOffset));
+        }
+
+        TreeMap<Long, List<Event>> events = new TreeMap<Long, List<Event>>(eventMap.subMap(startOffset, endOffset));
+        for (Map.Entry<Long, List<Event>> entry : events.tailMap(openFrom).entrySet()) {
+            List<Event> bucket = entry.getValue();
+            if (bucket instanceof EventSegment.Bucket) continue;
+            synchronized (bucket) {
+                entry.setValue(Collections.unmodifiableList(new ArrayList<Event>(bucket)));
+            }
+        }
+        return Collections.unmodifiableSortedMap(events);
+    }
+
+    public List<CompactSnapshot> getSnapshots() {
+        return epoch.getSnapshots();
+    }
+
+    /**
+     * Returns the busy time of every slot over the window of the timeline, or null if no snapshot has been absorbed.
+     */
+    public SlotUtilization getSlotUtilization() {
+        return utilization;
+    }
+
+    /**
+     * Returns the feed of the events appended to the timeline, for consumers which follow it as it grows. 
+     */
+    public EventFeed getEventFeed() {
+        return feed;
     }
 
-    public synchronized SortedMap<Long, List<Event>> getEvents(Long startOffset, Long endOffset) {
-        return ImmutableSortedMap.copyOf(eventMap.subMap(startOffset, endOffset));
+    /**
+     * Returns the index of job lifetimes over the window of the timeline, or null if it is disabled.
+     */
+    public JobIndex getJobIndex() {
+        return jobIndex;
     }
 
-    public synchronized List<Snapshot> getSnapshots() {
-        return ImmutableList.copyOf(snapshots);
+    /**
+     * Returns the dictionary through which the strings of the retained snapshots and events are shared.
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
     }
 
-    public synchronized Snapshot getLastLoadedSnapshot() {
-        return ultimateSnapshot;
+    public Snapshot getLastLoadedSnapshot() {
+        return epoch.getLastLoadedSnapshot();
     }
 
     private void trimIterator(Iterator<Long> iterator, long firstOffset) {
@@ -0,0 +1,85 @@
+package timeline;
+
+import java.util.Date;
+import java.util.List;
+
+import snapshot.CompactSnapshot;
+import snapshot.Snapshot;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * An immutable view of the bounds of a Timeline, published after each snapshot is fully absorbed. Readers get a
+ * consistent set of values from a single volatile read, and never wait for a snapshot which is being loaded.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class TimelineEpoch {
+
+    public static final TimelineEpoch EMPTY = new TimelineEpoch(0, null, 0, 0, 0, -1, null,
+            ImmutableList.<CompactSnapshot> of());
+
+    private final long sequence;
+    private final Date baselineDate;
+    private final long firstOffset;
+    private final long length;
+    private final long liveOffset;
+    private final long eventHorizon;
+    private final Snapshot lastLoadedSnapshot;
+    private final ImmutableList<CompactSnapshot> snapshots;
+
+    public TimelineEpoch(long sequence, Date baselineDate, long firstOffset, long length, long liveOffset,
+            long eventHorizon, Snapshot lastLoadedSnapshot, ImmutableList<CompactSnapshot> snapshots) {
+        this.sequence = sequence;
+        this.baselineDate = baselineDate;
+        this.firstOffset = firstOffset;
+        this.length = length;
+        this.liveOffset = liveOffset;
+        this.eventHorizon = eventHorizon;
+        this.lastLoadedSnapshot = lastLoadedSnapshot;
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Returns the number of snapshots which had been absorbed when this epoch was published.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Date getBaselineDate() {
+        return baselineDate;
+    }
+
+    public long getFirstOffset() {
+        return firstOffset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastOffset() {
+        return firstOffset + length;
+    }
+
+    public long getLiveOffset() {
+        return liveOffset;
+    }
+
+    /**
+     * Returns the last offset for which all events are known. Events after this belong to a snapshot which is still
+     * being loaded.
+     */
+    public long getEventHorizon() {
+        return eventHorizon;
+    }
+
+    public Snapshot getLastLoadedSnapshot() {
+        return lastLoadedSnapshot;
+    }
+
+    public List<CompactSnapshot> getSnapshots() {
+        return snapshots;
+    }
+}
@@ -0,0 +1,27 @@
+package timeline;
+
+import java.util.List;
+import java.util.SortedMap;
+
+import snapshot.Snapshot;
+
+/**
+ * Notified by the Timeline each time it absorbs a snapshot, on the loading thread. Unlike the readers of the 
+ * published epochs, a listener sees every event exactly once, even if the timeline later discards it to stay 
+ * within its window. 
+ * 
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public interface TimelineListener {
+
+    /**
+     * Called after the given snapshot has been absorbed and published. 
+     * 
+     * @param snapshot the snapshot which was absorbed
+     * @param offset offset of the snapshot from the first snapshot in the timeline
+     * @param events the events which the snapshot generated, by offset. Empty for the first snapshot, which is the 
+     * basis of the timeline. Only valid for the duration of the call.
+     */
+    public void snapshotAdded(Snapshot snapshot, long offset, SortedMap<Long, List<Event>> events);
+
+}
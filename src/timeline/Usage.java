@@ -0,0 +1,79 @@
+package timeline;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable view of the slot usage of a grid state at some version. Users are listed in order of the number of
+ * slots they are using, and a user is listed as long as they have any running or queued jobs.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class Usage {
+
+    private final long version;
+    private final List<String> users;
+    private final Map<String, Integer> runningByUser;
+    private final Map<String, Integer> queuedByUser;
+    private final Map<String, Integer> runningByQtype;
+    private final Map<String, Integer> runningBySubset;
+
+    Usage(long version, List<String> users, Map<String, Integer> runningByUser, Map<String, Integer> queuedByUser,
+            Map<String, Integer> runningByQtype, Map<String, Integer> runningBySubset) {
+        this.version = version;
+        this.users = Collections.unmodifiableList(users);
+        this.runningByUser = Collections.unmodifiableMap(runningByUser);
+        this.queuedByUser = Collections.unmodifiableMap(queuedByUser);
+        this.runningByQtype = Collections.unmodifiableMap(runningByQtype);
+        this.runningBySubset = Collections.unmodifiableMap(runningBySubset);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the users with running or queued jobs, those using the most slots first.
+     */
+    public List<String> getUsers() {
+        return users;
+    }
+
+    /**
+     * Returns the k users using the most slots.
+     */
+    public List<String> getTopUsers(int k) {
+        return users.subList(0, Math.min(k, users.size()));
+    }
+
+    public boolean hasUser(String user) {
+        return runningByUser.containsKey(user);
+    }
+
+    public int getRunningSlots(String user) {
+        Integer slots = runningByUser.get(user);
+        return slots == null ? 0 : slots;
+    }
+
+    public int getQueuedSlots(String user) {
+        Integer slots = queuedByUser.get(user);
+        return slots == null ? 0 : slots;
+    }
+
+    public Map<String, Integer> getRunningSlotsByUser() {
+        return runningByUser;
+    }
+
+    public Map<String, Integer> getQueuedSlotsByUser() {
+        return queuedByUser;
+    }
+
+    public Map<String, Integer> getRunningSlotsByQtype() {
+        return runningByQtype;
+    }
+
+    public Map<String, Integer> getRunningSlotsBySubset() {
+        return runningBySubset;
+    }
+}
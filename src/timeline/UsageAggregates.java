@@ -0,0 +1,158 @@
+package timeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Running and queued slot counts per user, per queue type and per node subset, maintained incrementally as jobs are
+ * queued, started and ended. Users are also kept ranked by the number of slots they use: a count only changes by a
+ * job's worth of slots at a time, so a user moves by a few places at most, and the ranking is maintained by swapping
+ * neighbours instead of sorting.
+ *
+ * Every change bumps the version. An immutable Usage for the current version is built on demand and cached until
+ * the next change, so readers can poll it every frame for free.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class UsageAggregates {
+
+    private final Map<String, Counts> byUser = new HashMap<String, Counts>();
+    private final Map<String, Counts> byQtype = new HashMap<String, Counts>();
+    private final Map<String, Counts> bySubset = new HashMap<String, Counts>();
+    private final List<Counts> ranking = new ArrayList<Counts>();
+    private long version = 0;
+    private Usage published;
+
+    /**
+     * Add (or subtract, for a negative sign) the slots of the given job. Running jobs count towards their node's
+     * queue type and subset, queued jobs count every slot they would need to run all their tasks.
+     */
+    synchronized void count(GridJob job, int sign) {
+        GridNode node = job.getNode();
+        if (node != null) {
+            int slots = sign * job.getSlots();
+            add(byUser, job.getOwner(), slots, 0, true);
+            add(byQtype, node.getQtype(), slots, 0, false);
+            add(bySubset, node.getSubset(), slots, 0, false);
+        }
+        else {
+            add(byUser, job.getOwner(), 0, sign * job.getSlotDemand(), true);
+        }
+        version++;
+    }
+
+    private void add(Map<String, Counts> map, String key, int running, int queued, boolean ranked) {
+        if (key == null) return;
+        Counts counts = map.get(key);
+        if (counts == null) {
+            counts = new Counts(key);
+            map.put(key, counts);
+            if (ranked) {
+                counts.rank = ranking.size();
+                ranking.add(counts);
+            }
+        }
+        counts.running += running;
+        counts.queued += queued;
+
+        if (counts.running <= 0 && counts.queued <= 0) {
+            map.remove(key);
+            if (ranked) {
+                ranking.remove(counts.rank);
+                for (int i = counts.rank; i < ranking.size(); i++) {
+                    ranking.get(i).rank = i;
+                }
+            }
+        }
+        else if (ranked) {
+            rerank(counts);
+        }
+    }
+
+    /**
+     * Move the given counts up or down the ranking until they are in order again.
+     */
+    private void rerank(Counts counts) {
+        int i = counts.rank;
+        while (i > 0 && counts.compareTo(ranking.get(i - 1)) < 0) {
+            swap(i, i - 1);
+            i--;
+        }
+        while (i < ranking.size() - 1 && counts.compareTo(ranking.get(i + 1)) > 0) {
+            swap(i, i + 1);
+            i++;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Counts a = ranking.get(i);
+        Counts b = ranking.get(j);
+        ranking.set(i, b);
+        ranking.set(j, a);
+        a.rank = j;
+        b.rank = i;
+    }
+
+    synchronized void clear() {
+        byUser.clear();
+        byQtype.clear();
+        bySubset.clear();
+        ranking.clear();
+        version++;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the usage as of the latest change.
+     */
+    public synchronized Usage getUsage() {
+        if (published == null || published.getVersion() != version) {
+            List<String> users = new ArrayList<String>(ranking.size());
+            Map<String, Integer> runningByUser = new HashMap<String, Integer>();
+            Map<String, Integer> queuedByUser = new HashMap<String, Integer>();
+            for (Counts counts : ranking) {
+                users.add(counts.key);
+                runningByUser.put(counts.key, counts.running);
+                queuedByUser.put(counts.key, counts.queued);
+            }
+            this.published = new Usage(version, users, runningByUser, queuedByUser, runningSlots(byQtype),
+                    runningSlots(bySubset));
+        }
+        return published;
+    }
+
+    private static Map<String, Integer> runningSlots(Map<String, Counts> map) {
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        for (Counts counts : map.values()) {
+            slots.put(counts.key, counts.running);
+        }
+        return slots;
+    }
+
+    private static class Counts implements Comparable<Counts> {
+
+        private final String key;
+        private int running;
+        private int queued;
+        private int rank;
+
+        Counts(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Most running slots first, then most queued slots, then by name.
+         */
+        @Override
+        public int compareTo(Counts o) {
+            if (running != o.running) return running > o.running ? -1 : 1;
+            if (queued != o.queued) return queued > o.queued ? -1 : 1;
+            return key.compareTo(o.key);
+        }
+    }
+}
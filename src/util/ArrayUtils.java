@@ -15,4 +15,14 @@ public class ArrayUtils {
 			list.add(null);
 		}
 	}
+
+	/**
+	 * Returns the index of the given object in the array, comparing by identity, or -1 if it's not there.
+	 */
+	public static int indexOf(Object[] array, Object o) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == o) return i;
+		}
+		return -1;
+	}
 }
@@ -0,0 +1,104 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allocates the buffers which hold long-lived data, like retained snapshots and sealed event segments, either on the
+ * heap or outside of it. Data kept outside of the heap is never traced by the garbage collector, so the length of
+ * the history which is kept no longer affects GC pause times.
+ *
+ * Direct buffers are limited by -XX:MaxDirectMemorySize, which defaults to the maximum heap size. Mapped buffers are
+ * backed by deleted temporary files, and are paged by the operating system. In both cases, the memory is released
+ * once the buffer is garbage collected.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class BufferAllocator {
+
+    private static final Logger log = LoggerFactory.getLogger(BufferAllocator.class);
+
+    public enum Storage {
+        HEAP,
+        DIRECT,
+        MAPPED
+    }
+
+    private static BufferAllocator defaultAllocator;
+
+    private final Storage storage;
+    private final File dir;
+
+    public static synchronized BufferAllocator getDefault() {
+        if (defaultAllocator == null) {
+            String storage = ConfigProperties.getString("derecho.data.storage", "heap");
+            String dir = ConfigProperties.getString("derecho.data.storage.dir", System.getProperty("java.io.tmpdir"));
+            defaultAllocator = new BufferAllocator(Storage.valueOf(storage.trim().toUpperCase()), new File(dir));
+            log.info("Using {} storage for retained data", storage);
+        }
+        return defaultAllocator;
+    }
+
+    /**
+     * @param storage where to allocate buffers
+     * @param dir the directory for the files backing mapped buffers
+     */
+    public BufferAllocator(Storage storage, File dir) {
+        this.storage = storage;
+        this.dir = dir;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public boolean isOffHeap() {
+        return storage != Storage.HEAP;
+    }
+
+    /**
+     * Returns a new buffer with the given capacity, in native byte order.
+     */
+    public ByteBuffer allocate(int capacity) {
+        ByteBuffer buffer;
+        switch (storage) {
+        case DIRECT:
+            buffer = ByteBuffer.allocateDirect(capacity);
+            break;
+        case MAPPED:
+            buffer = map(capacity);
+            break;
+        default:
+            buffer = ByteBuffer.allocate(capacity);
+        }
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    private ByteBuffer map(int capacity) {
+        try {
+            File file = File.createTempFile("derecho", ".buf", dir);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(capacity);
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            finally {
+                raf.close();
+                // The mapping outlives the file on Unix, but not elsewhere
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Could not map a buffer of " + capacity + " bytes in " + dir, e);
+        }
+    }
+}
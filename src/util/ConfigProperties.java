@@ -21,7 +21,7 @@ public class ConfigProperties extends Properties {
 
     private static ConfigProperties singleton;
 
-    public static ConfigProperties getInstance() {
+    public static synchronized ConfigProperties getInstance() {
         if (singleton == null) {
             String propertiesFileName = System.getProperty("APP_CONFIG");
             if (propertiesFileName == null) propertiesFileName = DEFAULT_CONFIG_FILENAME;
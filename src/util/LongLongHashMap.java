@@ -0,0 +1,190 @@
+package util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A hash map from primitive longs to primitive longs, using open addressing with linear probing. It stores no objects
+ * per entry, so millions of entries take only 16 bytes each at full load.
+ *
+ * Not thread safe. It may be read from several threads as long as nothing writes to it at the same time.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class LongLongHashMap {
+
+    private static final long FREE_KEY = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    // The free key can't be stored in the table, so it's kept on the side
+    private boolean hasFreeKey;
+    private long freeKeyValue;
+
+    public LongLongHashMap() {
+        this(1024);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Returns the value for the given key, or the default value if there is no such key.
+     */
+    public long get(long key, long defaultValue) {
+        if (key == FREE_KEY) return hasFreeKey ? freeKeyValue : defaultValue;
+        int i = hash(key) & mask;
+        while (true) {
+            long k = keys[i];
+            if (k == FREE_KEY) return defaultValue;
+            if (k == key) return values[i];
+            i = (i + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) return hasFreeKey;
+        int i = hash(key) & mask;
+        while (true) {
+            long k = keys[i];
+            if (k == FREE_KEY) return false;
+            if (k == key) return true;
+            i = (i + 1) & mask;
+        }
+    }
+
+    public void put(long key, long value) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) size++;
+            this.hasFreeKey = true;
+            this.freeKeyValue = value;
+            return;
+        }
+        int i = hash(key) & mask;
+        while (true) {
+            long k = keys[i];
+            if (k == FREE_KEY) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size > threshold) {
+                    rehash(keys.length << 1);
+                }
+                return;
+            }
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        size = hasFreeKey ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Remove every entry whose value is less than the given minimum. Returns the number of entries removed.
+     */
+    public int removeValuesBelow(long min) {
+        int before = size;
+        if (hasFreeKey && freeKeyValue < min) {
+            this.hasFreeKey = false;
+        }
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        int remaining = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY && oldValues[i] >= min) remaining++;
+        }
+        allocate(capacityFor(remaining));
+        size = hasFreeKey ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY && oldValues[i] >= min) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+        return before - size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        allocate(16);
+        this.size = 0;
+        this.hasFreeKey = false;
+    }
+
+    /**
+     * Write the entries as a count followed by key/value pairs.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        if (hasFreeKey) {
+            out.writeLong(FREE_KEY);
+            out.writeLong(freeKeyValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                out.writeLong(keys[i]);
+                out.writeLong(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Read entries written by writeTo, adding them to this map.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n > threshold) {
+            rehash(capacityFor(size + n));
+        }
+        for (int i = 0; i < n; i++) {
+            long key = in.readLong();
+            long value = in.readLong();
+            put(key, value);
+        }
+    }
+}
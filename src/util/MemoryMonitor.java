@@ -0,0 +1,111 @@
+package util;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically samples heap usage, off-heap buffer usage and garbage collection pauses, and logs them. This is meant
+ * for sizing the heap (-Xmx) and the direct memory (-XX:MaxDirectMemorySize) for a given history window.
+ *
+ * The JVM only reports the total time and count of collections, so pauses are given as the average pause per
+ * collection within each sampling interval, along with the largest such average seen so far.
+ *
+ * @author <a href="mailto:krokicki@gmail.com">Konrad Rokicki</a>
+ */
+public class MemoryMonitor implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(MemoryMonitor.class);
+
+    private static final long MB = 1024 * 1024;
+
+    private static MemoryMonitor instance;
+
+    private final long intervalMs;
+    private long lastCount = 0;
+    private long lastTime = 0;
+    private double maxAvgPause = 0;
+    private volatile String summary = "";
+
+    /**
+     * Returns the monitor, starting it on the first call. Returns null if monitoring is disabled.
+     */
+    public static synchronized MemoryMonitor start() {
+        if (instance == null) {
+            int intervalSecs = ConfigProperties.getInteger("derecho.monitor.memory.secs", 60);
+            if (intervalSecs <= 0) return null;
+            instance = new MemoryMonitor(intervalSecs * 1000L);
+            Thread thread = new Thread(instance, "memory-monitor");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    public MemoryMonitor(long intervalMs) {
+        this.intervalMs = intervalMs;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            log.info(sample());
+            try {
+                Thread.sleep(intervalMs);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take a new sample, and return its summary.
+     */
+    public synchronized String sample() {
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("heap ").append(heap.getUsed() / MB).append("/").append(heap.getCommitted() / MB);
+        sb.append(" MB (max ").append(heap.getMax() / MB).append(" MB)");
+
+        List<BufferPoolMXBean> pools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+        for (BufferPoolMXBean pool : pools) {
+            sb.append(", ").append(pool.getName()).append(" ").append(pool.getMemoryUsed() / MB);
+            sb.append(" MB (").append(pool.getCount()).append(" buffers)");
+        }
+
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        long intervalCount = count - lastCount;
+        long intervalTime = time - lastTime;
+        double avgPause = intervalCount == 0 ? 0 : (double) intervalTime / intervalCount;
+        if (avgPause > maxAvgPause) maxAvgPause = avgPause;
+        this.lastCount = count;
+        this.lastTime = time;
+
+        sb.append(", gc ").append(intervalCount).append(" collections in ").append(intervalTime);
+        sb.append(" ms, ").append(String.format("%.1f", avgPause)).append(" ms/pause (max ");
+        sb.append(String.format("%.1f", maxAvgPause)).append(" ms)");
+
+        this.summary = sb.toString();
+        return summary;
+    }
+
+    /**
+     * Returns the summary of the last sample.
+     */
+    public String getSummary() {
+        return summary;
+    }
+}